@@ -0,0 +1,72 @@
+package org.auscope.portal.core.server;
+
+import org.auscope.portal.core.server.http.RequestDeadline;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * A HandlerInterceptor that gives every request it intercepts a RequestDeadline of timeout milliseconds - bounding the
+ * total time all of the upstream calls made on behalf of that request can take.
+ *
+ * Register it against the (composite) controller paths that need bounding, eg:
+ *
+ * <pre>
+ * registry.addInterceptor(new RequestDeadlineInterceptor(15000)).addPathPatterns("/wmsMarkerPopup.do", "/getFilteredCSWRecords.do");
+ * </pre>
+ *
+ * Controllers can also set (tighter) deadlines directly via RequestDeadline.start.
+ */
+public class RequestDeadlineInterceptor implements HandlerInterceptor {
+
+    private static final String PREVIOUS_DEADLINE_ATTRIBUTE = RequestDeadlineInterceptor.class.getName() + ".previous";
+
+    /** Stored in place of the previous deadline when the request thread had none */
+    private static final Object NO_PREVIOUS_DEADLINE = new Object();
+
+    private long timeout;
+
+    /**
+     * Creates a new interceptor that applies a deadline of timeout milliseconds
+     *
+     * @param timeout
+     */
+    public RequestDeadlineInterceptor(long timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * The deadline (in milliseconds) applied to each request. 0 disables the deadline
+     * @return
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * The deadline (in milliseconds) applied to each request. 0 disables the deadline
+     * @param timeout
+     */
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (timeout > 0) {
+            Long previous = RequestDeadline.start(timeout);
+            request.setAttribute(PREVIOUS_DEADLINE_ATTRIBUTE, previous == null ? NO_PREVIOUS_DEADLINE : previous);
+        }
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        Object previous = request.getAttribute(PREVIOUS_DEADLINE_ATTRIBUTE);
+        if (previous != null) {
+            request.removeAttribute(PREVIOUS_DEADLINE_ATTRIBUTE);
+            RequestDeadline.set(previous == NO_PREVIOUS_DEADLINE ? null : (Long) previous);
+        }
+    }
+}
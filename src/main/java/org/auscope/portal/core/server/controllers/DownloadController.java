@@ -333,8 +333,9 @@ public class DownloadController extends BasePortalController {
         
         HttpClientInputStream result = serviceCaller.getMethodResponseAsStream(method);
         response.addHeader("Cache-Control", "public, max-age=604800, must-revalidate, no-transform");
-        try (OutputStream outputStream = response.getOutputStream();) {
-            IOUtils.copy(result, outputStream);
+        // If the client disconnects part way through, the upstream request is aborted rather than read to completion
+        try (HttpClientInputStream upstream = result; OutputStream outputStream = response.getOutputStream();) {
+            upstream.transferTo(outputStream);
         } catch (IOException e) {
             throw new PortalServiceException("Exception during getViaProxy.do "+e.getMessage(), e);
         }
@@ -0,0 +1,38 @@
+package org.auscope.portal.core.server.controllers;
+
+import org.auscope.portal.core.server.http.HttpMetricsRecorder;
+import org.auscope.portal.core.server.http.HttpServiceCaller;
+import org.auscope.portal.core.server.http.InMemoryHttpMetricsRecorder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.servlet.ModelAndView;
+
+/**
+ * Controller for dumping the per host latency/status metrics recorded by the HttpServiceCaller
+ */
+@Controller
+public class HttpMetricsController extends BasePortalController {
+
+    private HttpServiceCaller serviceCaller;
+
+    @Autowired
+    public HttpMetricsController(HttpServiceCaller serviceCaller) {
+        this.serviceCaller = serviceCaller;
+    }
+
+    /**
+     * Returns a snapshot of the metrics recorded for every upstream host (or host/operation)
+     *
+     * @return
+     */
+    @RequestMapping("/getHttpMetrics.do")
+    public ModelAndView getHttpMetrics() {
+        HttpMetricsRecorder recorder = serviceCaller.getMetricsRecorder();
+        if (!(recorder instanceof InMemoryHttpMetricsRecorder)) {
+            return generateJSONResponseMAV(false, null, "The configured metrics recorder doesn't support snapshots");
+        }
+
+        return generateJSONResponseMAV(true, ((InMemoryHttpMetricsRecorder) recorder).getSnapshot(), "");
+    }
+}
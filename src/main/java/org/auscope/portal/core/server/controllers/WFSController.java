@@ -5,7 +5,6 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 
-import jakarta.servlet.ServletOutputStream;
 import jakarta.servlet.http.HttpServletResponse;
 import jakarta.servlet.http.HttpServletResponseWrapper;
 import jakarta.servlet.http.HttpServletRequest;
@@ -15,7 +14,6 @@ import org.auscope.portal.core.services.WFSService;
 import org.auscope.portal.core.services.methodmakers.filter.FilterBoundingBox;
 import org.auscope.portal.core.services.methodmakers.filter.SimpleBBoxFilter;
 import org.auscope.portal.core.services.responses.wfs.WFSResponse;
-import org.auscope.portal.core.services.responses.wfs.WFSTransformedResponse;
 import org.auscope.portal.core.util.FileIOUtil;
 import org.auscope.portal.core.util.HttpUtil;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -191,9 +189,6 @@ public class WFSController extends BasePortalController {
             @RequestParam(required = false, value = "typeName") String typeName,
             @RequestParam(required = false, value = "featureId") String featureId) throws IOException {
 
-        response.setContentType("text/html; charset=utf-8");
-        ServletOutputStream outputStream = response.getOutputStream();
-
         // Create request base URL
         StringBuffer requestUrl = request.getRequestURL();
         int startPos = requestUrl.indexOf("/wfsFeaturePopup.do");
@@ -207,22 +202,18 @@ public class WFSController extends BasePortalController {
         	portalUrl = System.getProperty("portalUrl");
         }
         
-        //Make our request, transform and then return it.
-        WFSTransformedResponse htmlResponse = null;
+        //Make our request, transforming it straight into the response as it arrives
         try {
             if (typeName == null) {
-                htmlResponse = wfsService.getWfsResponseAsHtml(serviceUrl, portalUrl);
+                wfsService.writeWfsResponseAsHtml(serviceUrl, portalUrl, response);
             } else {
-                htmlResponse = wfsService.getWfsResponseAsHtml(serviceUrl, typeName, featureId, portalUrl);
+                wfsService.writeWfsResponseAsHtml(serviceUrl, typeName, featureId, portalUrl, response);
             }
-
-            outputStream.write(htmlResponse.getTransformed().getBytes());
         } catch (Exception ex) {
             log.warn(String.format("Internal error requesting/writing popup for '%1$s' from '%2$s': %3$s", typeName,
                     serviceUrl, ex));
             log.debug("Exception: ", ex);
-            // Create a wrapper for the servlet response as the output stream has already been consumed
-            new HttpServletResponseWrapper(response).sendError(HttpStatus.SC_INTERNAL_SERVER_ERROR);
+            sendErrorIfUncommitted(response);
         }
     }
 
@@ -233,9 +224,6 @@ public class WFSController extends BasePortalController {
      */
     @RequestMapping(value="transformToHtmlPopup.do", method = {RequestMethod.GET, RequestMethod.POST})
     public void transformToHtml(HttpServletRequest request, HttpServletResponse response, @RequestParam("gml") String gml) throws Exception {
-        response.setContentType("text/html; charset=utf-8");
-        ServletOutputStream outputStream = response.getOutputStream();
-        
         // Create request base URL
         StringBuffer requestURL = request.getRequestURL();
         int startPos = requestURL.lastIndexOf("/transformToHtmlPopup.do");
@@ -248,17 +236,27 @@ public class WFSController extends BasePortalController {
         	portalUrl = System.getProperty("portalUrl");
         }
         
-        //Make our request, transform and then return it.
-        WFSTransformedResponse htmlResponse = null;
-        WFSService service = wfsService;
+        //Transform straight into the response
         try {
-            htmlResponse = service.transformToHtml(gml, null, portalUrl);
-            outputStream.write(htmlResponse.getTransformed().getBytes());
+            wfsService.transformToHtml(gml, portalUrl, response);
         } catch (Exception ex) {
-            log.warn(String.format("Internal error requesting/writing popup for '%1$s': %3$s", gml, ex));
+            log.warn(String.format("Internal error requesting/writing popup for '%1$s': %2$s", gml, ex));
             log.debug("Exception: ", ex);
-            // Create a wrapper for the servlet response as the output stream has already been consumed
-            new HttpServletResponseWrapper(response).sendError(HttpStatus.SC_INTERNAL_SERVER_ERROR);
+            sendErrorIfUncommitted(response);
         }
     }
+
+    /**
+     * Reports an internal error to the client - unless some of the (streamed) response has already been sent, in which
+     * case there is nothing more we can do.
+     */
+    private void sendErrorIfUncommitted(HttpServletResponse response) throws IOException {
+        if (response.isCommitted()) {
+            return;
+        }
+
+        response.reset();
+        // Create a wrapper for the servlet response as the output stream may have already been consumed
+        new HttpServletResponseWrapper(response).sendError(HttpStatus.SC_INTERNAL_SERVER_ERROR);
+    }
 }
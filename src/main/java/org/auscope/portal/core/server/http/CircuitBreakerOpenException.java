@@ -0,0 +1,29 @@
+package org.auscope.portal.core.server.http;
+
+import java.net.ConnectException;
+
+/**
+ * Thrown when a request is refused (without being sent) because the circuit for its host is open.
+ *
+ * Extends ConnectException so that existing callers treat it the same as an unreachable host.
+ */
+public class CircuitBreakerOpenException extends ConnectException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String host;
+
+    public CircuitBreakerOpenException(String host) {
+        super("Circuit open for host '" + host + "' - request not sent");
+        this.host = host;
+    }
+
+    /**
+     * The host whose circuit is open
+     *
+     * @return
+     */
+    public String getHost() {
+        return host;
+    }
+}
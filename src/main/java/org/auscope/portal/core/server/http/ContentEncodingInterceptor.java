@@ -0,0 +1,222 @@
+package org.auscope.portal.core.server.http;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.client.entity.DeflateDecompressingEntity;
+import org.apache.http.client.entity.GzipDecompressingEntity;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Negotiates gzip/deflate content encoding for outbound requests and transparently (streaming) decompresses the responses.
+ *
+ * Hosts that mislabel their content encoding can be excluded - requests to those hosts will not advertise Accept-Encoding
+ * and their responses will be passed through untouched.
+ *
+ * Also counts the bytes received for compressed responses (as sent over the wire and after decompression) so that
+ * the savings can be monitored.
+ */
+public class ContentEncodingInterceptor implements HttpRequestInterceptor, HttpResponseInterceptor {
+
+    /** The Accept-Encoding value advertised to upstream servers */
+    public static final String ACCEPT_ENCODING = "gzip, deflate";
+
+    /** Context attribute flagging that compression was negotiated for the current request */
+    private static final String NEGOTIATED_ATTRIBUTE = ContentEncodingInterceptor.class.getName() + ".negotiated";
+
+    private volatile Set<String> disabledHosts = Collections.emptySet();
+    private final AtomicLong compressedBytes = new AtomicLong();
+    private final AtomicLong decompressedBytes = new AtomicLong();
+
+    /**
+     * Gets the hosts (lower case) whose requests will never be compressed
+     *
+     * @return
+     */
+    public Set<String> getDisabledHosts() {
+        return disabledHosts;
+    }
+
+    /**
+     * Sets the hosts whose requests will never be compressed (for servers that mislabel their content encoding)
+     *
+     * @param disabledHosts
+     */
+    public void setDisabledHosts(Collection<String> disabledHosts) {
+        Set<String> hosts = new HashSet<>();
+        for (String host : disabledHosts) {
+            hosts.add(host.trim().toLowerCase(Locale.ROOT));
+        }
+        this.disabledHosts = Collections.unmodifiableSet(hosts);
+    }
+
+    /**
+     * Gets the total number of bytes received (over the wire) for compressed responses
+     *
+     * @return
+     */
+    public long getCompressedBytes() {
+        return compressedBytes.get();
+    }
+
+    /**
+     * Gets the total number of bytes that compressed responses decompressed into
+     *
+     * @return
+     */
+    public long getDecompressedBytes() {
+        return decompressedBytes.get();
+    }
+
+    /**
+     * Returns true if responses from host may be compressed
+     *
+     * @param host
+     * @return
+     */
+    public boolean isEnabledFor(String host) {
+        return host == null || !disabledHosts.contains(host.toLowerCase(Locale.ROOT));
+    }
+
+    @Override
+    public void process(HttpRequest request, HttpContext context) {
+        HttpHost target = HttpClientContext.adapt(context).getTargetHost();
+        if (!isEnabledFor(target == null ? null : target.getHostName())) {
+            context.setAttribute(NEGOTIATED_ATTRIBUTE, Boolean.FALSE);
+            return;
+        }
+
+        if (!request.containsHeader(HttpHeaders.ACCEPT_ENCODING)) {
+            request.addHeader(HttpHeaders.ACCEPT_ENCODING, ACCEPT_ENCODING);
+        }
+        context.setAttribute(NEGOTIATED_ATTRIBUTE, Boolean.TRUE);
+    }
+
+    @Override
+    public void process(HttpResponse response, HttpContext context) {
+        HttpEntity entity = response.getEntity();
+        if (entity == null || entity.getContentLength() == 0 || !Boolean.TRUE.equals(context.getAttribute(NEGOTIATED_ATTRIBUTE))) {
+            return;
+        }
+
+        Header encodingHeader = entity.getContentEncoding();
+        if (encodingHeader == null) {
+            return;
+        }
+
+        String encoding = encodingHeader.getValue().trim().toLowerCase(Locale.ROOT);
+        HttpEntity counted = new CountingEntity(entity, compressedBytes, false);
+        HttpEntity decompressed;
+        if (encoding.equals("gzip") || encoding.equals("x-gzip")) {
+            decompressed = new GzipDecompressingEntity(counted);
+        } else if (encoding.equals("deflate")) {
+            decompressed = new DeflateDecompressingEntity(counted);
+        } else {
+            //identity (or something we don't understand) - leave it for the caller
+            return;
+        }
+
+        response.setEntity(new CountingEntity(decompressed, decompressedBytes, true));
+        response.removeHeaders(HttpHeaders.CONTENT_LENGTH);
+        response.removeHeaders(HttpHeaders.CONTENT_ENCODING);
+        response.removeHeaders(HttpHeaders.CONTENT_MD5);
+    }
+
+    /**
+     * Adds every byte read from the wrapped entity's content to a counter
+     */
+    private static class CountingEntity extends HttpEntityWrapper {
+        private final AtomicLong counter;
+        private final boolean decoded;
+        private InputStream content;
+
+        /**
+         * @param decoded If true, the wrapped entity's content has already been decoded (so no longer has a content encoding/length)
+         */
+        public CountingEntity(HttpEntity wrappedEntity, AtomicLong counter, boolean decoded) {
+            super(wrappedEntity);
+            this.counter = counter;
+            this.decoded = decoded;
+        }
+
+        @Override
+        public Header getContentEncoding() {
+            return decoded ? null : super.getContentEncoding();
+        }
+
+        @Override
+        public long getContentLength() {
+            return decoded ? -1 : super.getContentLength();
+        }
+
+        @Override
+        public void writeTo(OutputStream outStream) throws IOException {
+            try (InputStream is = getContent()) {
+                IOUtils.copyLarge(is, outStream);
+            }
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            if (content == null || !wrappedEntity.isStreaming()) {
+                content = new CountingInputStream(wrappedEntity.getContent(), counter);
+            }
+            return content;
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private final AtomicLong counter;
+
+        public CountingInputStream(InputStream in, AtomicLong counter) {
+            super(in);
+            this.counter = counter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                counter.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                counter.addAndGet(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            if (skipped > 0) {
+                counter.addAndGet(skipped);
+            }
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package org.auscope.portal.core.server.http;
+
+import java.net.SocketTimeoutException;
+
+/**
+ * Thrown when a request is refused (without being sent) because the current thread's RequestDeadline has passed.
+ *
+ * Extends SocketTimeoutException so that existing callers treat it the same as a request that timed out.
+ */
+public class DeadlineExceededException extends SocketTimeoutException {
+
+    private static final long serialVersionUID = 1L;
+
+    public DeadlineExceededException(String message) {
+        super(message);
+    }
+}
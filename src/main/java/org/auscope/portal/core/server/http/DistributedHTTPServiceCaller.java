@@ -4,7 +4,14 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -13,8 +20,8 @@ import org.apache.http.client.methods.HttpRequestBase;
 /**
  * An iterator class for calling a series of HTTP Methods and returning the results in an iterable instance
  *
- * The results will be made available to the iterator as their responses become available. This means that the responses will be returned with no guarantee of
- * order.
+ * The results will be made available to the iterator as their responses become available. This means that the responses will be returned strictly in
+ * completion order (with no guarantee of matching the order of the methods).
  *
  * Ensure that beginCallingServices is run before any of the iterator methods are called.
  *
@@ -27,7 +34,11 @@ public class DistributedHTTPServiceCaller implements Iterator<InputStream> {
 
     private List<ServiceCallStatus> statusList;
     private List<Object> additionalInformationObjs;
-    private Object lastAdditionalInformation;
+    private volatile Object lastAdditionalInformation;
+    private volatile long lastElapsedTime = -1;
+    private volatile boolean disposed;
+    private CompletionService<ServiceCallStatus> completionService;
+    private final AtomicInteger remaining;
 
     /**
      * Creates a DistributedHTTPServiceCaller for calling the specified list of methods.
@@ -66,9 +77,10 @@ public class DistributedHTTPServiceCaller implements Iterator<InputStream> {
 
         additionalInformationObjs = additionalInformation;
         statusList = new ArrayList<>(methods.size());
-        for (HttpRequestBase method : methods) {
-            statusList.add(new ServiceCallStatus(this, method, serviceCaller));
+        for (int i = 0; i < methods.size(); i++) {
+            statusList.add(new ServiceCallStatus(i, methods.get(i), serviceCaller));
         }
+        remaining = new AtomicInteger(methods.size());
     }
 
     /**
@@ -79,8 +91,9 @@ public class DistributedHTTPServiceCaller implements Iterator<InputStream> {
      * @param executor
      */
     public synchronized void beginCallingServices(Executor executor) {
+        completionService = new ExecutorCompletionService<>(executor);
         for (ServiceCallStatus status : statusList) {
-            executor.execute(status);
+            status.setFuture(completionService.submit(status));
         }
     }
 
@@ -88,13 +101,8 @@ public class DistributedHTTPServiceCaller implements Iterator<InputStream> {
      * Non blocking function - returns true if there are more HTTP streams to extract
      */
     @Override
-    public synchronized boolean hasNext() {
-        for (ServiceCallStatus status : statusList) {
-            if (!status.isIterated()) {
-                return true;
-            }
-        }
-        return false;
+    public boolean hasNext() {
+        return remaining.get() > 0;
     }
 
     /**
@@ -105,10 +113,22 @@ public class DistributedHTTPServiceCaller implements Iterator<InputStream> {
      *
      * @return
      */
-    public synchronized Object getLastAdditionalInformation() {
+    public Object getLastAdditionalInformation() {
         return lastAdditionalInformation;
     }
 
+    /**
+     * Non blocking function - returns the time (in milliseconds) that the service call associated with the last response from 'next' took to complete
+     * (excluding any time spent queued in the executor). Returns -1 if next hasn't been called or the call never started.
+     *
+     * Each subsequent response from next will change the result returned by this function
+     *
+     * @return
+     */
+    public long getLastElapsedTime() {
+        return lastElapsedTime;
+    }
+
     /**
      * Blocking function - will return the next input stream that is available ONLY blocking if there is no input stream that is readily available.
      *
@@ -117,116 +137,95 @@ public class DistributedHTTPServiceCaller implements Iterator<InputStream> {
      *
      */
     @Override
-    public synchronized InputStream next() throws DistributedHTTPServiceCallerException {
-        //Find a service that hasn't been iterated AND has returned data
-        for (int i = 0; i < statusList.size(); i++) {
-            ServiceCallStatus status = statusList.get(i);
-            synchronized (status) {
-                if (!status.isIterated() && !status.isRunning()) {
-                    status.setIterated(true);
-                    InputStream data = status.getResultingData();
-                    if (data == null) {
-                        throw new DistributedHTTPServiceCallerException(status.getResultingError());
-                    } else {
-                        //Store additional info (if provided) about the current iteration
-                        if (additionalInformationObjs != null) {
-                            lastAdditionalInformation = additionalInformationObjs.get(i);
-                        }
-
-                        return data;
-                    }
-                }
-            }
-        }
-
-        //Now we are in a tricky situation - we need to wait for the first of our outstanding service calls to return
-        //Firstly ensure we have a value to return
-        if (!hasNext()) {
+    public InputStream next() throws DistributedHTTPServiceCallerException {
+        //Claim one of our outstanding results (if any)
+        if (remaining.getAndUpdate(n -> n > 0 ? n - 1 : 0) == 0) {
             return null;
         }
 
-        //And then make this thread block until notified - each of the child statuses will call notify on this instance
-        //as they finish - they will also acquire the lock of this instance before calling notify so we can be certain
-        //that threads will NOT 'finish' before we call this.wait().
+        //The completion service queues each call as it finishes so this will only block
+        //if none of our outstanding calls have completed yet
+        ServiceCallStatus status;
         try {
-            this.wait();
+            status = completionService.take().get();
         } catch (InterruptedException e) {
             log.debug(e);
+            Thread.currentThread().interrupt();
+            throw new DistributedHTTPServiceCallerException(e);
+        } catch (CancellationException e) {
+            throw new DistributedHTTPServiceCallerException(e);
+        } catch (ExecutionException e) {
+            throw new DistributedHTTPServiceCallerException(e.getCause());
+        }
+
+        //Store additional info (if provided) about the current iteration
+        if (additionalInformationObjs != null) {
+            lastAdditionalInformation = additionalInformationObjs.get(status.getIndex());
+        }
+        lastElapsedTime = status.getElapsedTime();
+
+        InputStream data = status.getResultingData();
+        if (data == null) {
+            throw new DistributedHTTPServiceCallerException(status.getResultingError());
         }
-        return next();
+        return data;
     }
 
     /**
      * Throws a UnsupportedOperationException
      */
     @Override
-    public synchronized void remove() {
+    public void remove() {
         throw new UnsupportedOperationException();
     }
 
     /**
-     * Call this function if do not intend to use any further iterator functions. It will prevent any threads yet to start from making HTTP connections.
+     * Call this function if do not intend to use any further iterator functions. It will prevent any calls yet to start from making HTTP connections.
      *
-     * Any running threads will be interrupted
-     *
-     * No guarantee is made that 'cancelled' threads WONT attempt to make a connection.
+     * Any running calls will have their underlying HTTP method aborted. Calls that have already completed are unaffected (it is still the responsibility of
+     * the caller to close any streams already returned by next).
      */
     public void dispose() {
+        disposed = true;
         for (ServiceCallStatus status : statusList) {
-            status.interrupt();
+            status.cancel();
         }
     }
 
     /**
      * Utility class for lumping the request status information for a single method into a single object
      */
-    private class ServiceCallStatus extends Thread {
-        private HttpRequestBase method;
-        private HttpServiceCaller serviceCaller;
-        private DistributedHTTPServiceCaller parent;
+    private class ServiceCallStatus implements Callable<ServiceCallStatus> {
+        private final int index;
+        private final HttpRequestBase method;
+        private final HttpServiceCaller serviceCaller;
+        private volatile Future<ServiceCallStatus> future;
+        private volatile boolean started;
         private InputStream resultingData;
         private Throwable resultingError;
-        private volatile boolean running;
-        private volatile boolean iterated;
-        private volatile boolean abortStart;
+        private long elapsedTime = -1;
 
-        public ServiceCallStatus(DistributedHTTPServiceCaller parent, HttpRequestBase method,
-                HttpServiceCaller serviceCaller) {
-            this.parent = parent;
-            this.running = true;
+        public ServiceCallStatus(int index, HttpRequestBase method, HttpServiceCaller serviceCaller) {
+            this.index = index;
             this.method = method;
             this.serviceCaller = serviceCaller;
         }
 
-        public boolean isIterated() {
-            return iterated;
-        }
-
-        @Override
-        public void interrupt() {
-            this.abortStart = true;
-            super.interrupt();
-        }
-
         /**
-         * Returns whether this thread is running
+         * The index of this call in the original list of methods
          *
          * @return
          */
-        public synchronized boolean isRunning() {
-            return running;
-        }
-
-        private synchronized void setRunning(boolean running) {
-            this.running = running;
+        public int getIndex() {
+            return index;
         }
 
-        public void setIterated(boolean iterated) {
-            this.iterated = iterated;
+        public void setFuture(Future<ServiceCallStatus> future) {
+            this.future = future;
         }
 
         /**
-         * Gets the data stream that resulted from a succesful call (null if an error has occured) This function will block if this thread is running
+         * Gets the data stream that resulted from a succesful call (null if an error has occured)
          *
          * @return
          */
@@ -235,7 +234,7 @@ public class DistributedHTTPServiceCaller implements Iterator<InputStream> {
         }
 
         /**
-         * Gets the underlying exception that resulted from a failed call (null if the call was successful) This function will block if this thread is running
+         * Gets the underlying exception that resulted from a failed call (null if the call was successful)
          *
          * @return
          */
@@ -243,36 +242,48 @@ public class DistributedHTTPServiceCaller implements Iterator<InputStream> {
             return resultingError;
         }
 
-        @Override
-        public void run() {
-            //If this thread has been interrupted before it started running - don't start processing.
-            if (this.abortStart) {
+        /**
+         * Gets the time (in milliseconds) this call took to complete
+         *
+         * @return
+         */
+        public long getElapsedTime() {
+            return elapsedTime;
+        }
+
+        /**
+         * Cancels this call if it hasn't yet completed, aborting the underlying method if it is running.
+         */
+        public void cancel() {
+            Future<ServiceCallStatus> f = future;
+            if (f == null || f.isDone()) {
                 return;
             }
 
-            this.setRunning(true);
+            f.cancel(true);
+            if (started) {
+                method.abort();
+            }
+        }
 
-            InputStream data = null;
-            Throwable error = null;
+        @Override
+        public ServiceCallStatus call() {
+            //Flag ourselves as started BEFORE checking for disposal so that dispose will always see one or the other
+            started = true;
+            if (disposed) {
+                resultingError = new CancellationException("Service call disposed before starting");
+                return this;
+            }
 
+            long startTime = System.currentTimeMillis();
             try {
-                data = serviceCaller.getMethodResponseAsStream(method);
+                resultingData = serviceCaller.getMethodResponseAsStream(method);
             } catch (Throwable e) {
-                error = e;
+                resultingError = e;
             } finally {
-                //Acquire the lock on our parent object
-                //We sync to ensure the parent isn't halfway through checking our statuses
-                synchronized (parent) {
-                    //After locking the parent we can update our own status
-                    synchronized (this) {
-                        this.setRunning(false);
-                        this.resultingData = data;
-                        this.resultingError = error;
-
-                        parent.notifyAll(); //if our parent is waiting for a service to return - lets let them know to check again
-                    }
-                }
+                elapsedTime = System.currentTimeMillis() - startTime;
             }
+            return this;
         }
 
     }
@@ -0,0 +1,279 @@
+package org.auscope.portal.core.server.http;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.client.methods.HttpRequestBase;
+
+/**
+ * Decides when (and whether) a latency critical request should be hedged - that is, duplicated when the original request
+ * hasn't produced a response within a delay derived from the recent latency of the same host.
+ *
+ * The hedge delay is the configured percentile of the host's recent time to first byte (clamped to minDelay). Until enough
+ * samples have been recorded for a host, initialDelay is used.
+ *
+ * The extra load is capped by a per host hedge budget. Every request earns budgetRatio hedge credits (up to maxCredits) and
+ * every hedge spends a whole credit - so at most budgetRatio (eg 10%) of requests to a host will be hedged.
+ */
+public class HedgingPolicy {
+
+    private final ConcurrentHashMap<String, HostState> hosts = new ConcurrentHashMap<>();
+    private final LongAdder hedgeCount = new LongAdder();
+    private final LongAdder hedgeWinCount = new LongAdder();
+
+    private double percentile = 95;
+    private long minDelay = 50L;
+    private long initialDelay = 1000L;
+    private int minSamples = 20;
+    private int sampleSize = 100;
+    private double budgetRatio = 0.1;
+    private double maxCredits = 10;
+
+    /**
+     * The percentile (0-100) of a host's recent latency after which a request will be hedged
+     * @return
+     */
+    public double getPercentile() {
+        return percentile;
+    }
+
+    /**
+     * The percentile (0-100) of a host's recent latency after which a request will be hedged
+     * @param percentile
+     */
+    public void setPercentile(double percentile) {
+        this.percentile = percentile;
+    }
+
+    /**
+     * The minimum hedge delay (in milliseconds) regardless of how fast a host normally responds
+     * @return
+     */
+    public long getMinDelay() {
+        return minDelay;
+    }
+
+    /**
+     * The minimum hedge delay (in milliseconds) regardless of how fast a host normally responds
+     * @param minDelay
+     */
+    public void setMinDelay(long minDelay) {
+        this.minDelay = minDelay;
+    }
+
+    /**
+     * The hedge delay (in milliseconds) used for hosts without minSamples latency samples
+     * @return
+     */
+    public long getInitialDelay() {
+        return initialDelay;
+    }
+
+    /**
+     * The hedge delay (in milliseconds) used for hosts without minSamples latency samples
+     * @param initialDelay
+     */
+    public void setInitialDelay(long initialDelay) {
+        this.initialDelay = initialDelay;
+    }
+
+    /**
+     * The number of latency samples required before the percentile is used
+     * @return
+     */
+    public int getMinSamples() {
+        return minSamples;
+    }
+
+    /**
+     * The number of latency samples required before the percentile is used
+     * @param minSamples
+     */
+    public void setMinSamples(int minSamples) {
+        this.minSamples = minSamples;
+    }
+
+    /**
+     * The number of most recent latency samples kept per host
+     * @return
+     */
+    public int getSampleSize() {
+        return sampleSize;
+    }
+
+    /**
+     * The number of most recent latency samples kept per host
+     * @param sampleSize
+     */
+    public void setSampleSize(int sampleSize) {
+        this.sampleSize = sampleSize;
+        hosts.clear();
+    }
+
+    /**
+     * The (maximum) fraction of requests to a host that can be hedged
+     * @return
+     */
+    public double getBudgetRatio() {
+        return budgetRatio;
+    }
+
+    /**
+     * The (maximum) fraction of requests to a host that can be hedged
+     * @param budgetRatio
+     */
+    public void setBudgetRatio(double budgetRatio) {
+        this.budgetRatio = budgetRatio;
+    }
+
+    /**
+     * The maximum number of hedge credits a host can accumulate (ie the largest burst of hedges)
+     * @return
+     */
+    public double getMaxCredits() {
+        return maxCredits;
+    }
+
+    /**
+     * The maximum number of hedge credits a host can accumulate (ie the largest burst of hedges)
+     * @param maxCredits
+     */
+    public void setMaxCredits(double maxCredits) {
+        this.maxCredits = maxCredits;
+    }
+
+    /**
+     * The total number of hedge requests issued
+     * @return
+     */
+    public long getHedgeCount() {
+        return hedgeCount.sum();
+    }
+
+    /**
+     * The total number of hedge requests that responded before their original request
+     * @return
+     */
+    public long getHedgeWinCount() {
+        return hedgeWinCount.sum();
+    }
+
+    /**
+     * Returns true if method can safely be duplicated - ie it has a URI and any body it has is repeatable. It's up to the caller
+     * to only hedge requests that are idempotent.
+     *
+     * @param method
+     * @return
+     */
+    public boolean isEligible(HttpRequestBase method) {
+        if (method.getURI() == null || method.getURI().getHost() == null) {
+            return false;
+        }
+        if (method instanceof HttpEntityEnclosingRequest) {
+            HttpEntity entity = ((HttpEntityEnclosingRequest) method).getEntity();
+            return entity == null || entity.isRepeatable();
+        }
+        return true;
+    }
+
+    private HostState getState(String host) {
+        return hosts.computeIfAbsent(host.toLowerCase(), h -> new HostState(sampleSize));
+    }
+
+    /**
+     * Gets the delay (in milliseconds) after which an unanswered request to host should be hedged
+     *
+     * @param host
+     * @return
+     */
+    public long getHedgeDelay(String host) {
+        return getState(host).getDelay();
+    }
+
+    /**
+     * Records the start of a hedgeable request to host (earning hedge budget for the host)
+     *
+     * @param host
+     */
+    public void recordRequest(String host) {
+        getState(host).earnCredit();
+    }
+
+    /**
+     * Records the time to first byte of a successful request to host
+     *
+     * @param host
+     * @param latencyMillis
+     */
+    public void recordLatency(String host, long latencyMillis) {
+        getState(host).addSample(latencyMillis);
+    }
+
+    /**
+     * Attempts to spend a hedge credit for host
+     *
+     * @param host
+     * @return true if the hedge can be made, false if the host's hedge budget is exhausted
+     */
+    public boolean tryAcquireHedge(String host) {
+        if (getState(host).spendCredit()) {
+            hedgeCount.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records that a hedge request responded before its original request
+     */
+    public void recordHedgeWin() {
+        hedgeWinCount.increment();
+    }
+
+    /**
+     * The latency samples and hedge budget of a single host
+     */
+    private class HostState {
+        private final long[] samples;
+        private int sampleCount;
+        private int nextSample;
+        private double credits;
+
+        public HostState(int sampleSize) {
+            this.samples = new long[Math.max(1, sampleSize)];
+        }
+
+        public synchronized void addSample(long latency) {
+            samples[nextSample] = latency;
+            nextSample = (nextSample + 1) % samples.length;
+            sampleCount = Math.min(sampleCount + 1, samples.length);
+        }
+
+        public synchronized long getDelay() {
+            if (sampleCount < minSamples || sampleCount == 0) {
+                return Math.max(minDelay, initialDelay);
+            }
+
+            long[] sorted = Arrays.copyOf(samples, sampleCount);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil((percentile / 100.0) * sampleCount) - 1;
+            index = Math.max(0, Math.min(sampleCount - 1, index));
+            return Math.max(minDelay, sorted[index]);
+        }
+
+        public synchronized void earnCredit() {
+            credits = Math.min(maxCredits, credits + budgetRatio);
+        }
+
+        public synchronized boolean spendCredit() {
+            if (credits < 1) {
+                return false;
+            }
+            credits -= 1;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package org.auscope.portal.core.server.http;
+
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket rate limiter for outbound requests, keyed by (case insensitive) host name.
+ *
+ * Every host has a bucket that refills at requestsPerSecond tokens per second up to a maximum of burst tokens. A request
+ * consumes a single token, waiting for one to become available if the bucket is empty. A requestsPerSecond of 0 (the
+ * default) means that host is unlimited.
+ *
+ * Requests are made with a Priority (declared per thread via setCurrentPriority). Whilst any INTERACTIVE request is
+ * waiting on a host, BACKGROUND requests to that host will not be granted tokens - so interactive traffic (eg proxying)
+ * will only ever wait on the refill rate, never behind queued background traffic (eg CSW harvesting).
+ */
+public class HostRateLimiter {
+
+    /**
+     * The priority of an outbound request
+     */
+    public enum Priority {
+        /** A user is waiting on the response (eg proxied requests). The default */
+        INTERACTIVE,
+        /** Nobody is directly waiting on the response (eg cache harvesting, bulk downloads) */
+        BACKGROUND
+    }
+
+    private static final ThreadLocal<Priority> CURRENT_PRIORITY = ThreadLocal.withInitial(() -> Priority.INTERACTIVE);
+
+    private final ConcurrentHashMap<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private volatile double requestsPerSecond = 0;
+    private volatile int burst = 1;
+    private volatile Map<String, Double> hostRequestsPerSecond = new ConcurrentHashMap<>();
+
+    /**
+     * Gets the priority that requests made by the current thread will use
+     *
+     * @return
+     */
+    public static Priority getCurrentPriority() {
+        return CURRENT_PRIORITY.get();
+    }
+
+    /**
+     * Sets the priority that requests made by the current thread will use. Callers should restore the returned priority
+     * once they are finished (in a finally block).
+     *
+     * @param priority
+     * @return The previous priority of the current thread
+     */
+    public static Priority setCurrentPriority(Priority priority) {
+        Priority previous = CURRENT_PRIORITY.get();
+        CURRENT_PRIORITY.set(priority == null ? Priority.INTERACTIVE : priority);
+        return previous;
+    }
+
+    /**
+     * The default number of requests per second permitted to any single host. 0 means unlimited
+     *
+     * @return
+     */
+    public double getRequestsPerSecond() {
+        return requestsPerSecond;
+    }
+
+    /**
+     * The default number of requests per second permitted to any single host. 0 means unlimited
+     *
+     * @param requestsPerSecond
+     */
+    public void setRequestsPerSecond(double requestsPerSecond) {
+        this.requestsPerSecond = requestsPerSecond;
+        buckets.clear();
+    }
+
+    /**
+     * The maximum number of requests that can be made to a host in an instantaneous burst (the bucket size)
+     *
+     * @return
+     */
+    public int getBurst() {
+        return burst;
+    }
+
+    /**
+     * The maximum number of requests that can be made to a host in an instantaneous burst (the bucket size)
+     *
+     * @param burst
+     */
+    public void setBurst(int burst) {
+        this.burst = Math.max(1, burst);
+        buckets.clear();
+    }
+
+    /**
+     * Per host overrides of requestsPerSecond keyed by host name
+     *
+     * @param hostRequestsPerSecond
+     */
+    public void setHostRequestsPerSecond(Map<String, Double> hostRequestsPerSecond) {
+        Map<String, Double> normalised = new ConcurrentHashMap<>();
+        for (Map.Entry<String, Double> entry : hostRequestsPerSecond.entrySet()) {
+            normalised.put(entry.getKey().toLowerCase(), entry.getValue());
+        }
+        this.hostRequestsPerSecond = normalised;
+        buckets.clear();
+    }
+
+    /**
+     * Gets the requests per second permitted to host (0 means unlimited)
+     *
+     * @param host
+     * @return
+     */
+    public double getRequestsPerSecond(String host) {
+        Double rate = hostRequestsPerSecond.get(host.toLowerCase());
+        return rate == null ? requestsPerSecond : rate;
+    }
+
+    private TokenBucket getBucket(String host) {
+        String key = host.toLowerCase();
+        TokenBucket bucket = buckets.get(key);
+        if (bucket == null) {
+            double rate = getRequestsPerSecond(key);
+            if (rate <= 0) {
+                return null;
+            }
+            bucket = buckets.computeIfAbsent(key, k -> new TokenBucket(rate, burst));
+        }
+        return bucket;
+    }
+
+    /**
+     * Takes a token for host, blocking until one is available.
+     *
+     * @param host
+     * @param priority
+     * @return The number of milliseconds spent waiting
+     * @throws InterruptedIOException
+     *             If the thread is interrupted whilst waiting
+     */
+    public long acquire(String host, Priority priority) throws InterruptedIOException {
+        return acquire(host, priority, Long.MAX_VALUE);
+    }
+
+    /**
+     * Takes a token for host, blocking until one is available or timeoutMillis has elapsed.
+     *
+     * @param host
+     * @param priority
+     * @param timeoutMillis
+     *            The longest time to wait for a token in milliseconds (Long.MAX_VALUE to wait indefinitely)
+     * @return The number of milliseconds spent waiting or -1 if no token was available within timeoutMillis
+     * @throws InterruptedIOException
+     *             If the thread is interrupted whilst waiting
+     */
+    public long acquire(String host, Priority priority, long timeoutMillis) throws InterruptedIOException {
+        TokenBucket bucket = host == null ? null : getBucket(host);
+        if (bucket == null) {
+            return 0;
+        }
+
+        long start = System.nanoTime();
+        long timeoutNanos = timeoutMillis == Long.MAX_VALUE ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(Math.max(0, timeoutMillis));
+        boolean waiting = false;
+        try {
+            while (true) {
+                long waitNanos = bucket.tryAcquire(priority);
+                if (waitNanos == 0) {
+                    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                }
+                long remainingNanos = timeoutNanos == Long.MAX_VALUE ? Long.MAX_VALUE : timeoutNanos - (System.nanoTime() - start);
+                if (remainingNanos <= 0) {
+                    return -1;
+                }
+                if (!waiting) {
+                    waiting = true;
+                    bucket.startWaiting(priority);
+                }
+                TimeUnit.NANOSECONDS.sleep(Math.min(waitNanos, remainingNanos));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a rate limit token for " + host);
+        } finally {
+            if (waiting) {
+                bucket.stopWaiting(priority);
+            }
+        }
+    }
+
+    /**
+     * A single host's token bucket
+     */
+    private static class TokenBucket {
+        private final double tokensPerNano;
+        private final int capacity;
+        private double tokens;
+        private long lastRefill = System.nanoTime();
+        private int interactiveWaiting;
+
+        public TokenBucket(double requestsPerSecond, int capacity) {
+            this.tokensPerNano = requestsPerSecond / TimeUnit.SECONDS.toNanos(1);
+            this.capacity = capacity;
+            this.tokens = capacity;
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+            lastRefill = now;
+        }
+
+        /**
+         * Takes a token if one is available (and priority isn't blocked by waiting interactive requests)
+         *
+         * @return 0 if a token was taken, otherwise the estimated number of nanoseconds to wait before trying again
+         */
+        public synchronized long tryAcquire(Priority priority) {
+            refill();
+            boolean blockedByPriority = priority == Priority.BACKGROUND && interactiveWaiting > 0;
+            if (tokens >= 1 && !blockedByPriority) {
+                tokens -= 1;
+                return 0;
+            }
+
+            double missing = blockedByPriority ? 1 : 1 - tokens;
+            return Math.max(1, (long) Math.ceil(missing / tokensPerNano));
+        }
+
+        public synchronized void startWaiting(Priority priority) {
+            if (priority == Priority.INTERACTIVE) {
+                interactiveWaiting++;
+            }
+        }
+
+        public synchronized void stopWaiting(Priority priority) {
+            if (priority == Priority.INTERACTIVE) {
+                interactiveWaiting--;
+            }
+        }
+    }
+}
@@ -0,0 +1,377 @@
+package org.auscope.portal.core.server.http;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A per host circuit breaker for outbound HTTP requests.
+ *
+ * Each host is tracked independently over a sliding window of its most recent calls. Once enough calls have been made, if the
+ * proportion of failed (or slow) calls exceeds the configured threshold, the circuit for that host is OPENED and all
+ * requests to it will be refused immediately with a CircuitBreakerOpenException (rather than waiting out a socket timeout).
+ *
+ * After waitDurationInOpenState has elapsed the circuit becomes HALF_OPEN and a limited number of trial requests are let
+ * through. If they all succeed the circuit is CLOSED again, any failure will reopen it.
+ *
+ * Configuration should be set BEFORE any requests are made.
+ */
+public class HttpCircuitBreaker {
+
+    /**
+     * The states that a host's circuit can be in
+     */
+    public enum State {
+        /** Requests flow normally */
+        CLOSED,
+        /** Requests are refused without being sent */
+        OPEN,
+        /** A limited number of trial requests are being allowed through */
+        HALF_OPEN
+    }
+
+    private final Log log = LogFactory.getLog(getClass());
+    private final ConcurrentHashMap<String, HostCircuit> circuits = new ConcurrentHashMap<>();
+
+    private int slidingWindowSize = 20;
+    private int minimumNumberOfCalls = 10;
+    private float failureRateThreshold = 50f;
+    private float slowCallRateThreshold = 100f;
+    private long slowCallDurationThreshold = 10000L;
+    private long waitDurationInOpenState = 30000L;
+    private int permittedCallsInHalfOpenState = 3;
+
+    /**
+     * The number of most recent calls (per host) used to calculate failure/slow call rates
+     * @return
+     */
+    public int getSlidingWindowSize() {
+        return slidingWindowSize;
+    }
+
+    /**
+     * The number of most recent calls (per host) used to calculate failure/slow call rates
+     * @param slidingWindowSize
+     */
+    public void setSlidingWindowSize(int slidingWindowSize) {
+        this.slidingWindowSize = slidingWindowSize;
+    }
+
+    /**
+     * The minimum number of calls (per host) that must be recorded before the failure/slow call rates are evaluated
+     * @return
+     */
+    public int getMinimumNumberOfCalls() {
+        return minimumNumberOfCalls;
+    }
+
+    /**
+     * The minimum number of calls (per host) that must be recorded before the failure/slow call rates are evaluated
+     * @param minimumNumberOfCalls
+     */
+    public void setMinimumNumberOfCalls(int minimumNumberOfCalls) {
+        this.minimumNumberOfCalls = minimumNumberOfCalls;
+    }
+
+    /**
+     * The percentage (0-100) of failed calls at or above which a circuit will open
+     * @return
+     */
+    public float getFailureRateThreshold() {
+        return failureRateThreshold;
+    }
+
+    /**
+     * The percentage (0-100) of failed calls at or above which a circuit will open
+     * @param failureRateThreshold
+     */
+    public void setFailureRateThreshold(float failureRateThreshold) {
+        this.failureRateThreshold = failureRateThreshold;
+    }
+
+    /**
+     * The percentage (0-100) of slow calls at or above which a circuit will open
+     * @return
+     */
+    public float getSlowCallRateThreshold() {
+        return slowCallRateThreshold;
+    }
+
+    /**
+     * The percentage (0-100) of slow calls at or above which a circuit will open
+     * @param slowCallRateThreshold
+     */
+    public void setSlowCallRateThreshold(float slowCallRateThreshold) {
+        this.slowCallRateThreshold = slowCallRateThreshold;
+    }
+
+    /**
+     * The duration (in milliseconds) at or above which a call is considered slow
+     * @return
+     */
+    public long getSlowCallDurationThreshold() {
+        return slowCallDurationThreshold;
+    }
+
+    /**
+     * The duration (in milliseconds) at or above which a call is considered slow
+     * @param slowCallDurationThreshold
+     */
+    public void setSlowCallDurationThreshold(long slowCallDurationThreshold) {
+        this.slowCallDurationThreshold = slowCallDurationThreshold;
+    }
+
+    /**
+     * The time (in milliseconds) an open circuit waits before allowing trial requests through
+     * @return
+     */
+    public long getWaitDurationInOpenState() {
+        return waitDurationInOpenState;
+    }
+
+    /**
+     * The time (in milliseconds) an open circuit waits before allowing trial requests through
+     * @param waitDurationInOpenState
+     */
+    public void setWaitDurationInOpenState(long waitDurationInOpenState) {
+        this.waitDurationInOpenState = waitDurationInOpenState;
+    }
+
+    /**
+     * The number of trial requests allowed through a half open circuit
+     * @return
+     */
+    public int getPermittedCallsInHalfOpenState() {
+        return permittedCallsInHalfOpenState;
+    }
+
+    /**
+     * The number of trial requests allowed through a half open circuit
+     * @param permittedCallsInHalfOpenState
+     */
+    public void setPermittedCallsInHalfOpenState(int permittedCallsInHalfOpenState) {
+        this.permittedCallsInHalfOpenState = permittedCallsInHalfOpenState;
+    }
+
+    private HostCircuit getCircuit(String host) {
+        return circuits.computeIfAbsent(host.toLowerCase(), h -> new HostCircuit(h));
+    }
+
+    /**
+     * Checks whether a request to host may be sent. Every successful call to this method MUST be followed
+     * by a call to onSuccess, onFailure or onIgnored for the same host.
+     *
+     * @param host
+     * @throws CircuitBreakerOpenException if the circuit for host is open (or half open with no trial permits remaining)
+     */
+    public void acquirePermission(String host) throws CircuitBreakerOpenException {
+        if (!getCircuit(host).tryAcquirePermission()) {
+            throw new CircuitBreakerOpenException(host);
+        }
+    }
+
+    /**
+     * Records a completed call to host (ie - the host responded with a non server error status)
+     *
+     * @param host
+     * @param durationMillis How long the call took
+     */
+    public void onSuccess(String host, long durationMillis) {
+        getCircuit(host).record(false, durationMillis);
+    }
+
+    /**
+     * Records a failed call to host (ie - a connection error, timeout or a server error status)
+     *
+     * @param host
+     * @param durationMillis How long the call took before failing
+     */
+    public void onFailure(String host, long durationMillis) {
+        getCircuit(host).record(true, durationMillis);
+    }
+
+    /**
+     * Releases a permission for a call to host that ended without saying anything about the host's health
+     * (eg - it was aborted by the caller or ran out of request deadline). Nothing is recorded.
+     *
+     * @param host
+     */
+    public void onIgnored(String host) {
+        getCircuit(host).release();
+    }
+
+    /**
+     * Gets the current state of host's circuit. Hosts that have never been called are CLOSED.
+     *
+     * @param host
+     * @return
+     */
+    public State getState(String host) {
+        HostCircuit circuit = circuits.get(host.toLowerCase());
+        return circuit == null ? State.CLOSED : circuit.getState();
+    }
+
+    /**
+     * Gets the failure rate (percentage 0-100) over host's sliding window or -1 if not enough calls have been recorded.
+     *
+     * @param host
+     * @return
+     */
+    public float getFailureRate(String host) {
+        HostCircuit circuit = circuits.get(host.toLowerCase());
+        return circuit == null ? -1f : circuit.getFailureRate();
+    }
+
+    /**
+     * Gets the current state of every host that has been called, sorted by host name
+     *
+     * @return
+     */
+    public Map<String, State> getStates() {
+        Map<String, State> states = new TreeMap<>();
+        for (HostCircuit circuit : circuits.values()) {
+            states.put(circuit.host, circuit.getState());
+        }
+        return states;
+    }
+
+    /**
+     * Gets every host whose requests are currently being refused or limited (ie not CLOSED), sorted by host name
+     *
+     * @return
+     */
+    public List<String> getShortCircuitedHosts() {
+        List<String> hosts = new ArrayList<>();
+        for (Map.Entry<String, State> entry : getStates().entrySet()) {
+            if (entry.getValue() != State.CLOSED) {
+                hosts.add(entry.getKey());
+            }
+        }
+        return hosts;
+    }
+
+    /**
+     * Forces every circuit back to CLOSED and forgets all recorded calls
+     */
+    public void reset() {
+        circuits.clear();
+    }
+
+    /**
+     * Sliding window state for a single host
+     */
+    private class HostCircuit {
+        private final String host;
+        private final boolean[] failures;
+        private final boolean[] slowCalls;
+        private int windowIndex;
+        private int windowCount;
+        private State state = State.CLOSED;
+        private long openedAt;
+        private int halfOpenPermits;
+        private int halfOpenSuccesses;
+
+        public HostCircuit(String host) {
+            this.host = host;
+            this.failures = new boolean[Math.max(1, slidingWindowSize)];
+            this.slowCalls = new boolean[failures.length];
+        }
+
+        public synchronized State getState() {
+            if (state == State.OPEN && System.currentTimeMillis() - openedAt >= waitDurationInOpenState) {
+                transitionTo(State.HALF_OPEN);
+            }
+            return state;
+        }
+
+        public synchronized boolean tryAcquirePermission() {
+            switch (getState()) {
+            case CLOSED:
+                return true;
+            case HALF_OPEN:
+                if (halfOpenPermits > 0) {
+                    halfOpenPermits--;
+                    return true;
+                }
+                return false;
+            default:
+                return false;
+            }
+        }
+
+        public synchronized void release() {
+            if (state == State.HALF_OPEN && halfOpenPermits < permittedCallsInHalfOpenState) {
+                halfOpenPermits++;
+            }
+        }
+
+        public synchronized void record(boolean failed, long durationMillis) {
+            boolean slow = slowCallDurationThreshold > 0 && durationMillis >= slowCallDurationThreshold;
+            switch (state) {
+            case HALF_OPEN:
+                if (failed || slow) {
+                    transitionTo(State.OPEN);
+                } else if (++halfOpenSuccesses >= permittedCallsInHalfOpenState) {
+                    transitionTo(State.CLOSED);
+                }
+                break;
+            case CLOSED:
+                failures[windowIndex] = failed;
+                slowCalls[windowIndex] = slow;
+                windowIndex = (windowIndex + 1) % failures.length;
+                windowCount = Math.min(windowCount + 1, failures.length);
+                if (windowCount >= minimumNumberOfCalls &&
+                        (rate(failures) >= failureRateThreshold || rate(slowCalls) >= slowCallRateThreshold)) {
+                    transitionTo(State.OPEN);
+                }
+                break;
+            default:
+                //Calls that were permitted before the circuit opened don't affect an open circuit
+                break;
+            }
+        }
+
+        public synchronized float getFailureRate() {
+            if (windowCount < minimumNumberOfCalls) {
+                return -1f;
+            }
+            return rate(failures);
+        }
+
+        private float rate(boolean[] outcomes) {
+            if (windowCount == 0) {
+                return 0f;
+            }
+            int count = 0;
+            for (int i = 0; i < windowCount; i++) {
+                if (outcomes[i]) {
+                    count++;
+                }
+            }
+            return (count * 100f) / windowCount;
+        }
+
+        private void transitionTo(State newState) {
+            log.info(String.format("Circuit for host '%1$s' changing from %2$s to %3$s", host, state, newState));
+            state = newState;
+            switch (newState) {
+            case OPEN:
+                openedAt = System.currentTimeMillis();
+                break;
+            case HALF_OPEN:
+                halfOpenPermits = permittedCallsInHalfOpenState;
+                halfOpenSuccesses = 0;
+                break;
+            case CLOSED:
+                windowIndex = 0;
+                windowCount = 0;
+                break;
+            }
+        }
+    }
+}
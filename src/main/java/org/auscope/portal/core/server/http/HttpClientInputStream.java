@@ -5,7 +5,9 @@ package org.auscope.portal.core.server.http;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 
+import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.impl.client.CloseableHttpClient;
 
 /**
@@ -76,9 +78,57 @@ public class HttpClientInputStream extends InputStream {
      */
     @Override
     public void close() throws IOException {
-        inputStream.close();
-        if(httpClient!=null)
-            httpClient.close();
+        try {
+            inputStream.close();
+        } finally {
+            if (method != null) {
+                method.releaseConnection();
+            }
+            if(httpClient!=null)
+                httpClient.close();
+        }
+    }
+
+    /**
+     * Aborts the underlying request (if any) and then closes this stream. Unlike close, the remainder of the response
+     * will not be read (so the connection will be discarded rather than returned to the pool). Use this when the
+     * remainder of the response is no longer wanted (eg the client we are proxying to has disconnected).
+     */
+    public void abort() {
+        if (method != null) {
+            method.abort();
+        }
+        try {
+            close();
+        } catch (IOException e) {
+            // The connection was aborted - there's nothing more to clean up
+        }
+    }
+
+    /**
+     * Copies the remainder of this stream to out. If writing to out fails (eg the client we are proxying to has
+     * disconnected) the underlying request is aborted (see abort) before the failure is rethrown.
+     *
+     * @param out
+     * @return The number of bytes copied
+     * @throws IOException
+     * @see java.io.InputStream#transferTo(OutputStream)
+     */
+    @Override
+    public long transferTo(OutputStream out) throws IOException {
+        byte[] buffer = new byte[8 * 1024];
+        long transferred = 0;
+        int read;
+        while ((read = inputStream.read(buffer, 0, buffer.length)) >= 0) {
+            try {
+                out.write(buffer, 0, read);
+            } catch (IOException e) {
+                abort();
+                throw e;
+            }
+            transferred += read;
+        }
+        return transferred;
     }
 
     /**
@@ -109,10 +159,30 @@ public class HttpClientInputStream extends InputStream {
     }
 
     private CloseableHttpClient httpClient;
+    private HttpRequestBase method;
 
+    /**
+     * Creates a stream that will close httpClient when it is closed
+     *
+     * @param inputStream
+     * @param httpClient
+     */
     public HttpClientInputStream(InputStream inputStream, CloseableHttpClient httpClient) {
         this.inputStream=inputStream;
         this.httpClient=httpClient;
     }
 
+    /**
+     * Creates a stream that will release the (pooled) connection used by method when it is closed.
+     *
+     * @param inputStream
+     * @param httpClient If not null, will be closed when this stream is closed
+     * @param method If not null, will have its connection released when this stream is closed
+     */
+    public HttpClientInputStream(InputStream inputStream, CloseableHttpClient httpClient, HttpRequestBase method) {
+        this.inputStream=inputStream;
+        this.httpClient=httpClient;
+        this.method=method;
+    }
+
 }
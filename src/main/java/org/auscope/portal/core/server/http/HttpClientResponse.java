@@ -13,6 +13,7 @@ import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.ProtocolVersion;
 import org.apache.http.StatusLine;
+import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.params.HttpParams;
 
@@ -284,14 +285,39 @@ public class HttpClientResponse implements HttpResponse, Closeable {
     }
 
     private CloseableHttpClient httpClient;
+    private HttpRequestBase method;
 
+    /**
+     * Creates a response that will close httpClient when it is closed
+     *
+     * @param response
+     * @param httpClient
+     */
     public HttpClientResponse(HttpResponse response, CloseableHttpClient httpClient) {
         this.response=response;
         this.httpClient=httpClient;
     }
 
+    /**
+     * Creates a response that will release the (pooled) connection used by method when it is closed.
+     *
+     * If the response content has been fully consumed, the connection will have already been returned
+     * to the pool for reuse. Otherwise the connection will be discarded.
+     *
+     * @param response
+     * @param httpClient If not null, will be closed when this response is closed
+     * @param method If not null, will have its connection released when this response is closed
+     */
+    public HttpClientResponse(HttpResponse response, CloseableHttpClient httpClient, HttpRequestBase method) {
+        this.response=response;
+        this.httpClient=httpClient;
+        this.method=method;
+    }
+
     @Override
     public void close() throws IOException {
+        if (method != null)
+            method.releaseConnection();
         if(httpClient !=null)
             httpClient.close();        
     }
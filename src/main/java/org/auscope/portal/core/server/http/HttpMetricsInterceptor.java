@@ -0,0 +1,195 @@
+package org.auscope.portal.core.server.http;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Meters the response bodies received by a HttpClient, reporting their size and total transfer time to a HttpMetricsRecorder
+ * once they have been read in full (or closed).
+ *
+ * Response headers and failures are recorded by HttpServiceCaller itself (as they need no entity wrapping).
+ */
+public class HttpMetricsInterceptor implements HttpRequestInterceptor, HttpResponseInterceptor {
+
+    private static final String START_ATTRIBUTE = HttpMetricsInterceptor.class.getName() + ".start";
+
+    private volatile HttpMetricsRecorder recorder;
+
+    public HttpMetricsInterceptor(HttpMetricsRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * The recorder that will receive body metrics (can be null)
+     *
+     * @param recorder
+     */
+    public void setRecorder(HttpMetricsRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * Extracts the OGC operation (the value of the case insensitive 'request' query parameter) from uri.
+     *
+     * @param uri
+     * @return The operation or null if uri has no such parameter
+     */
+    public static String getOgcOperation(URI uri) {
+        if (uri == null || uri.getRawQuery() == null) {
+            return null;
+        }
+
+        List<NameValuePair> params = URLEncodedUtils.parse(uri.getRawQuery(), StandardCharsets.UTF_8);
+        for (NameValuePair param : params) {
+            if ("request".equalsIgnoreCase(param.getName()) && param.getValue() != null) {
+                return param.getValue();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void process(HttpRequest request, HttpContext context) {
+        context.setAttribute(START_ATTRIBUTE, System.currentTimeMillis());
+    }
+
+    @Override
+    public void process(HttpResponse response, HttpContext context) {
+        HttpMetricsRecorder r = recorder;
+        HttpEntity entity = response.getEntity();
+        Object start = context.getAttribute(START_ATTRIBUTE);
+        if (r == null || entity == null || !(start instanceof Long)) {
+            return;
+        }
+
+        HttpClientContext clientContext = HttpClientContext.adapt(context);
+        HttpHost target = clientContext.getTargetHost();
+        HttpRequest request = clientContext.getRequest();
+        URI uri = null;
+        if (request instanceof HttpUriRequest) {
+            uri = ((HttpUriRequest) request).getURI();
+        } else if (request != null) {
+            uri = URI.create(request.getRequestLine().getUri());
+        }
+
+        response.setEntity(new MeteringEntity(entity, r, target == null ? null : target.getHostName(),
+                getOgcOperation(uri), (Long) start));
+    }
+
+    /**
+     * Reports the number of bytes read from the wrapped entity once its content is exhausted or closed
+     */
+    private static class MeteringEntity extends HttpEntityWrapper {
+        private final HttpMetricsRecorder recorder;
+        private final String host;
+        private final String operation;
+        private final long start;
+        private InputStream content;
+
+        public MeteringEntity(HttpEntity wrappedEntity, HttpMetricsRecorder recorder, String host, String operation, long start) {
+            super(wrappedEntity);
+            this.recorder = recorder;
+            this.host = host;
+            this.operation = operation;
+            this.start = start;
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            if (content == null || !wrappedEntity.isStreaming()) {
+                content = new MeteringInputStream(wrappedEntity.getContent());
+            }
+            return content;
+        }
+
+        @Override
+        public void writeTo(OutputStream outStream) throws IOException {
+            try (InputStream is = getContent()) {
+                IOUtils.copyLarge(is, outStream);
+            }
+        }
+
+        private class MeteringInputStream extends FilterInputStream {
+            private long bytes;
+            private boolean recorded;
+
+            public MeteringInputStream(InputStream in) {
+                super(in);
+            }
+
+            private void finished() {
+                if (!recorded) {
+                    recorded = true;
+                    recorder.recordBody(host, operation, bytes, System.currentTimeMillis() - start);
+                }
+            }
+
+            private void failed(IOException e) {
+                if (!recorded) {
+                    recorded = true;
+                    recorder.recordBodyFailure(host, operation, bytes, e, System.currentTimeMillis() - start);
+                }
+            }
+
+            @Override
+            public int read() throws IOException {
+                try {
+                    int b = super.read();
+                    if (b == -1) {
+                        finished();
+                    } else {
+                        bytes++;
+                    }
+                    return b;
+                } catch (IOException e) {
+                    failed(e);
+                    throw e;
+                }
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                try {
+                    int read = super.read(b, off, len);
+                    if (read == -1) {
+                        finished();
+                    } else {
+                        bytes += read;
+                    }
+                    return read;
+                } catch (IOException e) {
+                    failed(e);
+                    throw e;
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    finished();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package org.auscope.portal.core.server.http;
+
+/**
+ * Receives timing and status information about every upstream request made by a HttpServiceCaller.
+ *
+ * Implementations will be called concurrently from many request threads and should not block.
+ */
+public interface HttpMetricsRecorder {
+
+    /**
+     * Broad classes of request outcome
+     */
+    public enum StatusClass {
+        /** 2xx responses */
+        SUCCESS,
+        /** 3xx responses */
+        REDIRECTION,
+        /** 4xx responses */
+        CLIENT_ERROR,
+        /** 5xx responses */
+        SERVER_ERROR,
+        /** Connect or socket timeouts */
+        TIMEOUT,
+        /** Any other failure to get a response (eg - connection refused, unknown host) */
+        ERROR;
+
+        /**
+         * Gets the class of an HTTP status code
+         *
+         * @param statusCode
+         * @return
+         */
+        public static StatusClass fromStatusCode(int statusCode) {
+            if (statusCode >= 200 && statusCode < 300) {
+                return SUCCESS;
+            } else if (statusCode >= 300 && statusCode < 400) {
+                return REDIRECTION;
+            } else if (statusCode >= 400 && statusCode < 500) {
+                return CLIENT_ERROR;
+            } else if (statusCode >= 500) {
+                return SERVER_ERROR;
+            }
+            return ERROR;
+        }
+    }
+
+    /**
+     * Called when the response headers for a request have been received
+     *
+     * @param host
+     *            The upstream host
+     * @param operation
+     *            The OGC operation (eg GetCapabilities) of the request or null if it can't be determined
+     * @param statusCode
+     *            The HTTP status code received
+     * @param timeToFirstByteMillis
+     *            Time from the request being sent until the response headers were received
+     */
+    public void recordResponse(String host, String operation, int statusCode, long timeToFirstByteMillis);
+
+    /**
+     * Called when a response body has been read in full (or closed early)
+     *
+     * @param host
+     *            The upstream host
+     * @param operation
+     *            The OGC operation (eg GetCapabilities) of the request or null if it can't be determined
+     * @param bytes
+     *            The number of body bytes received (as transferred over the wire)
+     * @param totalTimeMillis
+     *            Time from the request being sent until the response body was finished with
+     */
+    public void recordBody(String host, String operation, long bytes, long totalTimeMillis);
+
+    /**
+     * Called when a request fails with an exception before the response headers were received
+     *
+     * @param host
+     *            The upstream host
+     * @param operation
+     *            The OGC operation (eg GetCapabilities) of the request or null if it can't be determined
+     * @param error
+     *            The underlying failure
+     * @param elapsedMillis
+     *            Time from the request being sent until the failure
+     */
+    public void recordFailure(String host, String operation, Throwable error, long elapsedMillis);
+
+    /**
+     * Called when reading a response body fails with an exception. The response itself will have already been passed
+     * to recordResponse so this shouldn't be counted as another request.
+     *
+     * The default implementation does nothing.
+     *
+     * @param host
+     *            The upstream host
+     * @param operation
+     *            The OGC operation (eg GetCapabilities) of the request or null if it can't be determined
+     * @param bytes
+     *            The number of body bytes received (as transferred over the wire) before the failure
+     * @param error
+     *            The underlying failure
+     * @param totalTimeMillis
+     *            Time from the request being sent until the failure
+     */
+    public default void recordBodyFailure(String host, String operation, long bytes, Throwable error, long totalTimeMillis) {
+        // ignored
+    }
+}
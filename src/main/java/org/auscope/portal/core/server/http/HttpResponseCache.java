@@ -0,0 +1,556 @@
+package org.auscope.portal.core.server.http;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * An on disk cache of upstream GET responses that honours HTTP validators (RFC 7234).
+ *
+ * Response bodies are stored along with their ETag, Last-Modified, Cache-Control and Expires headers. Fresh entries
+ * (as per max-age/Expires) are served straight from disk, stale entries are revalidated with If-None-Match/If-Modified-Since
+ * and served from disk if the upstream server responds with 304 Not Modified.
+ *
+ * The total size of the stored bodies is limited to maxBytes, the least recently used entries are evicted first.
+ * Entries are keyed by request URI only (Vary is not supported).
+ */
+public class HttpResponseCache {
+
+    private static final String BODY_SUFFIX = ".body";
+    private static final String META_SUFFIX = ".properties";
+
+    /**
+     * Makes the actual upstream request on behalf of a HttpResponseCache
+     */
+    public interface ConditionalLoader {
+        /**
+         * Makes the upstream request returning a successful or 304 Not Modified response
+         *
+         * @param method
+         * @return
+         * @throws IOException
+         */
+        HttpResponse load(HttpRequestBase method) throws IOException;
+    }
+
+    private final Log log = LogFactory.getLog(getClass());
+    private final File cacheDirectory;
+    private final long maxBytes;
+    /** Access ordered - the eldest entry is the least recently used */
+    private final LinkedHashMap<String, CacheEntry> index = new LinkedHashMap<>(16, 0.75f, true);
+    private long currentBytes;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong revalidatedCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * Creates a new cache storing responses in cacheDirectory (which will be created if required). Any entries already
+     * in cacheDirectory will be reused.
+     *
+     * @param cacheDirectory
+     *            Where responses will be stored
+     * @param maxBytes
+     *            The maximum total size of all stored response bodies
+     * @throws IOException
+     */
+    public HttpResponseCache(File cacheDirectory, long maxBytes) throws IOException {
+        this.cacheDirectory = cacheDirectory;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(cacheDirectory.toPath());
+        loadIndex();
+    }
+
+    /**
+     * The directory where responses are stored
+     * @return
+     */
+    public File getCacheDirectory() {
+        return cacheDirectory;
+    }
+
+    /**
+     * The maximum total size of all stored response bodies
+     * @return
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * The current total size of all stored response bodies
+     * @return
+     */
+    public synchronized long getCurrentBytes() {
+        return currentBytes;
+    }
+
+    /**
+     * The number of requests served from disk without contacting the upstream server
+     * @return
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * The number of requests served from disk after the upstream server responded 304 Not Modified
+     * @return
+     */
+    public long getRevalidatedCount() {
+        return revalidatedCount.get();
+    }
+
+    /**
+     * The number of requests that required a full response from the upstream server
+     * @return
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Returns true if method's response can be cached
+     * @param method
+     * @return
+     */
+    public boolean isEligible(HttpRequestBase method) {
+        return HttpGet.METHOD_NAME.equals(method.getMethod()) && method.getURI() != null;
+    }
+
+    /**
+     * Gets the response body for method, either from disk or using loader (storing the response if possible).
+     *
+     * If the response is not cacheable, the upstream content stream is returned as is, callers are responsible for
+     * releasing method's connection after closing it.
+     *
+     * @param method
+     *            Must be eligible as per isEligible. Conditional headers may be added to this method
+     * @param loader
+     *            Used to make the upstream request if there is no fresh entry
+     * @return
+     * @throws IOException
+     */
+    public InputStream execute(HttpRequestBase method, ConditionalLoader loader) throws IOException {
+        String key = generateKey(method);
+        CacheEntry entry;
+        synchronized (this) {
+            entry = index.get(key);
+        }
+
+        if (entry != null) {
+            if (entry.isFresh(System.currentTimeMillis())) {
+                InputStream body = openBody(key);
+                if (body != null) {
+                    hitCount.incrementAndGet();
+                    return body;
+                }
+            }
+
+            if (entry.etag != null) {
+                method.setHeader(HttpHeaders.IF_NONE_MATCH, entry.etag);
+            }
+            if (entry.lastModified != null) {
+                method.setHeader(HttpHeaders.IF_MODIFIED_SINCE, entry.lastModified);
+            }
+        }
+
+        HttpResponse response = loader.load(method);
+        if (response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED) {
+            EntityUtils.consumeQuietly(response.getEntity());
+            method.releaseConnection();
+            InputStream body = entry == null ? null : openBody(key);
+            if (body == null) {
+                if (entry == null) {
+                    throw new IOException(Integer.toString(HttpStatus.SC_NOT_MODIFIED));
+                }
+
+                //Our entry was evicted while we were revalidating it - start again (unconditionally)
+                method.removeHeaders(HttpHeaders.IF_NONE_MATCH);
+                method.removeHeaders(HttpHeaders.IF_MODIFIED_SINCE);
+                return execute(method, loader);
+            }
+
+            CacheEntry updated = entry.revalidate(response, System.currentTimeMillis());
+            synchronized (this) {
+                if (index.get(key) == entry) {
+                    index.put(key, updated);
+                }
+            }
+            writeMetadata(key, updated);
+            revalidatedCount.incrementAndGet();
+            return body;
+        }
+
+        missCount.incrementAndGet();
+        CacheEntry newEntry = CacheEntry.fromResponse(method.getURI().toString(), response, System.currentTimeMillis());
+        HttpEntity entity = response.getEntity();
+        if (newEntry == null || entity == null || entity.getContentLength() > maxBytes) {
+            return entity == null ? IOUtils.toInputStream("", StandardCharsets.UTF_8) : entity.getContent();
+        }
+
+        return store(key, newEntry, method, entity);
+    }
+
+    /**
+     * Removes every entry from this cache
+     */
+    public synchronized void clear() {
+        for (String key : new ArrayList<>(index.keySet())) {
+            remove(key);
+        }
+    }
+
+    /**
+     * Writes entity to disk and returns a stream over the stored body
+     */
+    private InputStream store(String key, CacheEntry newEntry, HttpRequestBase method, HttpEntity entity) throws IOException {
+        File tmp = File.createTempFile(key, ".tmp", cacheDirectory);
+        long size;
+        try (InputStream content = entity.getContent(); OutputStream os = new FileOutputStream(tmp)) {
+            size = IOUtils.copyLarge(content, os);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp.toPath());
+            throw e;
+        } finally {
+            method.releaseConnection();
+        }
+
+        if (size > maxBytes) {
+            //Too large to keep - serve it from the temporary file only
+            return new DeleteOnCloseInputStream(tmp);
+        }
+
+        newEntry.size = size;
+        writeMetadata(key, newEntry);
+        synchronized (this) {
+            InputStream body;
+            try {
+                Files.move(tmp.toPath(), bodyFile(key).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                body = new FileInputStream(bodyFile(key));
+            } catch (IOException e) {
+                Files.deleteIfExists(tmp.toPath());
+                remove(key);
+                throw e;
+            }
+
+            CacheEntry old = index.put(key, newEntry);
+            if (old != null) {
+                currentBytes -= old.size;
+            }
+            currentBytes += size;
+            evict();
+            return body;
+        }
+    }
+
+    /**
+     * Removes least recently used entries until we fit within maxBytes
+     */
+    private synchronized void evict() {
+        Iterator<Map.Entry<String, CacheEntry>> it = index.entrySet().iterator();
+        while (currentBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, CacheEntry> eldest = it.next();
+            it.remove();
+            currentBytes -= eldest.getValue().size;
+            deleteFiles(eldest.getKey());
+            log.trace("Evicted cached response for " + eldest.getValue().uri);
+        }
+    }
+
+    private synchronized void remove(String key) {
+        CacheEntry entry = index.remove(key);
+        if (entry != null) {
+            currentBytes -= entry.size;
+        }
+        deleteFiles(key);
+    }
+
+    private void deleteFiles(String key) {
+        if (!bodyFile(key).delete() && bodyFile(key).exists()) {
+            log.debug("Unable to delete " + bodyFile(key));
+        }
+        if (!metaFile(key).delete() && metaFile(key).exists()) {
+            log.debug("Unable to delete " + metaFile(key));
+        }
+    }
+
+    /**
+     * Opens the stored body for key (or returns null if it's missing)
+     */
+    private InputStream openBody(String key) {
+        File body = bodyFile(key);
+        try {
+            InputStream is = new FileInputStream(body);
+            if (!body.setLastModified(System.currentTimeMillis())) {
+                log.trace("Unable to update access time of " + body);
+            }
+            return is;
+        } catch (IOException e) {
+            log.debug("Cached body missing for " + key + ": " + e.getMessage());
+            remove(key);
+            return null;
+        }
+    }
+
+    private void writeMetadata(String key, CacheEntry entry) throws IOException {
+        File tmp = File.createTempFile(key, ".tmp", cacheDirectory);
+        try (OutputStream os = new FileOutputStream(tmp)) {
+            entry.toProperties().store(os, null);
+        }
+        Files.move(tmp.toPath(), metaFile(key).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads any entries previously written to cacheDirectory (oldest access first)
+     */
+    private synchronized void loadIndex() {
+        File[] metaFiles = cacheDirectory.listFiles((dir, name) -> name.endsWith(META_SUFFIX));
+        if (metaFiles == null) {
+            return;
+        }
+
+        List<File> bodies = new ArrayList<>();
+        Map<String, CacheEntry> entries = new LinkedHashMap<>();
+        for (File metaFile : metaFiles) {
+            String key = metaFile.getName().substring(0, metaFile.getName().length() - META_SUFFIX.length());
+            File body = bodyFile(key);
+            if (!body.exists()) {
+                deleteFiles(key);
+                continue;
+            }
+
+            Properties props = new Properties();
+            try (InputStream is = new FileInputStream(metaFile)) {
+                props.load(is);
+                CacheEntry entry = CacheEntry.fromProperties(props);
+                entry.size = body.length();
+                entries.put(key, entry);
+                bodies.add(body);
+            } catch (IOException | RuntimeException e) {
+                log.debug("Discarding unreadable cache entry " + metaFile + ": " + e.getMessage());
+                deleteFiles(key);
+            }
+        }
+
+        bodies.sort((a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File body : bodies) {
+            String key = body.getName().substring(0, body.getName().length() - BODY_SUFFIX.length());
+            CacheEntry entry = entries.get(key);
+            index.put(key, entry);
+            currentBytes += entry.size;
+        }
+        evict();
+    }
+
+    private File bodyFile(String key) {
+        return new File(cacheDirectory, key + BODY_SUFFIX);
+    }
+
+    private File metaFile(String key) {
+        return new File(cacheDirectory, key + META_SUFFIX);
+    }
+
+    private String generateKey(HttpRequestBase method) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(method.getURI().toString().getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : hash) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The validators and freshness information for a single stored response
+     */
+    private static class CacheEntry {
+        private String uri;
+        private String etag;
+        private String lastModified;
+        private String cacheControl;
+        private String expires;
+        private long storedAt;
+        private long size;
+
+        public static CacheEntry fromResponse(String uri, HttpResponse response, long now) {
+            CacheEntry entry = new CacheEntry();
+            entry.uri = uri;
+            entry.storedAt = now;
+            entry.applyHeaders(response);
+            if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK ||
+                    entry.hasDirective("no-store") || entry.hasDirective("private")) {
+                return null;
+            }
+            if (entry.etag == null && entry.lastModified == null && entry.getMaxAge() <= 0 && entry.expires == null) {
+                //Nothing to revalidate with and never fresh - no point storing it
+                return null;
+            }
+            return entry;
+        }
+
+        public static CacheEntry fromProperties(Properties props) {
+            CacheEntry entry = new CacheEntry();
+            entry.uri = props.getProperty("uri");
+            entry.etag = props.getProperty("etag");
+            entry.lastModified = props.getProperty("lastModified");
+            entry.cacheControl = props.getProperty("cacheControl");
+            entry.expires = props.getProperty("expires");
+            entry.storedAt = Long.parseLong(props.getProperty("storedAt"));
+            return entry;
+        }
+
+        public Properties toProperties() {
+            Properties props = new Properties();
+            props.setProperty("uri", uri);
+            props.setProperty("storedAt", Long.toString(storedAt));
+            if (etag != null) {
+                props.setProperty("etag", etag);
+            }
+            if (lastModified != null) {
+                props.setProperty("lastModified", lastModified);
+            }
+            if (cacheControl != null) {
+                props.setProperty("cacheControl", cacheControl);
+            }
+            if (expires != null) {
+                props.setProperty("expires", expires);
+            }
+            return props;
+        }
+
+        /**
+         * Creates a copy of this entry updated with the headers of a 304 response
+         */
+        public CacheEntry revalidate(HttpResponse notModified, long now) {
+            CacheEntry entry = new CacheEntry();
+            entry.uri = uri;
+            entry.etag = etag;
+            entry.lastModified = lastModified;
+            entry.cacheControl = cacheControl;
+            entry.expires = expires;
+            entry.size = size;
+            entry.storedAt = now;
+            entry.applyHeaders(notModified);
+            return entry;
+        }
+
+        private void applyHeaders(HttpResponse response) {
+            etag = headerValue(response, HttpHeaders.ETAG, etag);
+            lastModified = headerValue(response, HttpHeaders.LAST_MODIFIED, lastModified);
+            cacheControl = headerValue(response, HttpHeaders.CACHE_CONTROL, cacheControl);
+            expires = headerValue(response, HttpHeaders.EXPIRES, expires);
+        }
+
+        private static String headerValue(HttpResponse response, String name, String defaultValue) {
+            Header header = response.getFirstHeader(name);
+            return header == null ? defaultValue : header.getValue();
+        }
+
+        private boolean hasDirective(String directive) {
+            if (cacheControl == null) {
+                return false;
+            }
+            for (String part : cacheControl.split(",")) {
+                if (part.trim().toLowerCase().startsWith(directive)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Gets the max-age directive in seconds (or -1 if there is none)
+         */
+        private long getMaxAge() {
+            if (cacheControl == null) {
+                return -1;
+            }
+            for (String part : cacheControl.split(",")) {
+                String directive = part.trim().toLowerCase();
+                if (directive.startsWith("max-age=")) {
+                    try {
+                        return Long.parseLong(directive.substring("max-age=".length()).replace("\"", ""));
+                    } catch (NumberFormatException e) {
+                        return -1;
+                    }
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Returns true if this entry can be served without revalidation
+         */
+        public boolean isFresh(long now) {
+            if (hasDirective("no-cache")) {
+                return false;
+            }
+
+            long maxAge = getMaxAge();
+            if (maxAge >= 0) {
+                return now - storedAt < maxAge * 1000L;
+            }
+
+            if (expires != null) {
+                Date expiryDate = DateUtils.parseDate(expires);
+                return expiryDate != null && now < expiryDate.getTime();
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Streams a temporary file, deleting it once closed
+     */
+    private static class DeleteOnCloseInputStream extends FilterInputStream {
+        private final File file;
+
+        public DeleteOnCloseInputStream(File file) throws IOException {
+            super(new FileInputStream(file));
+            this.file = file;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+    }
+}
@@ -1,12 +1,31 @@
 package org.auscope.portal.core.server.http;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.ConnectException;
 import java.net.UnknownHostException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 import java.nio.charset.StandardCharsets;
 import java.security.KeyManagementException;
 import java.security.KeyStoreException;
@@ -15,9 +34,15 @@ import java.security.NoSuchAlgorithmException;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.http.HttpClientConnection;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
 import org.apache.http.HttpStatus;
+import org.apache.http.ProtocolException;
 import org.apache.http.StatusLine;
 import org.apache.http.Header;
 import org.apache.http.client.CredentialsProvider;
@@ -26,16 +51,39 @@ import org.apache.http.client.config.CookieSpecs;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
 import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
 import org.apache.http.conn.ssl.NoopHostnameVerifier;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.conn.ssl.TrustAllStrategy;
-import org.apache.http.ssl.SSLContextBuilder;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultRedirectStrategy;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.execchain.RequestAbortedException;
+import org.apache.http.pool.ConnPoolControl;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.ssl.SSLContextBuilder;
+import org.apache.http.util.EntityUtils;
+
+import jakarta.annotation.PreDestroy;
 
 
 /**
  * Utility class used to call web service end points.
+ *
+ * All requests made through this class (that don't supply their own HttpClient) share a single long lived
+ * HttpClient backed by a pooling connection manager. This allows TCP/TLS connections to be reused between requests
+ * to the same host. The pool limits must be configured BEFORE the first request is made.
  */
 public class HttpServiceCaller {
     /**
@@ -43,10 +91,53 @@ public class HttpServiceCaller {
      * if the logging level is set to TRACE
      */
     private static final int MAX_POST_BODY_LOGGING = 1024 * 100;
+    /** Set on an async thread that has already taken the rate limit token for its (single) request */
+    private static final ThreadLocal<Boolean> RATE_LIMIT_TOKEN_HELD = new ThreadLocal<>();
+
+    /** Context attribute holding the request config limited to the current RequestDeadline (see applyDeadline) */
+    private static final String DEADLINE_REQUEST_CONFIG = HttpServiceCaller.class.getName() + ".deadlineRequestConfig";
+
+    /**
+     * Reinstates the deadline limited request config after the client has replaced it with the request's own config.
+     * This runs before a connection is leased so every timeout is limited.
+     */
+    private static final HttpRequestInterceptor DEADLINE_CONFIG_INTERCEPTOR = (request, context) -> {
+        Object limited = context.getAttribute(DEADLINE_REQUEST_CONFIG);
+        if (limited != null) {
+            context.setAttribute(HttpClientContext.REQUEST_CONFIG, limited);
+        }
+    };
+    /** Default maximum number of pooled connections (across all routes) */
+    public static final int DEFAULT_MAX_CONNECTIONS_TOTAL = 200;
+    /** Default maximum number of pooled connections to a single route (host) */
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+    /** Default time (in milliseconds) that a pooled connection can sit idle before being evicted */
+    public static final long DEFAULT_IDLE_CONNECTION_TIMEOUT = 30000L;
+
     private final Log log = LogFactory.getLog(getClass());
     private HttpClientConnectionManager connectionManager;
     private int connectionTimeOut;
     private boolean noSSLCheck = false;
+    private int maxConnectionsTotal = DEFAULT_MAX_CONNECTIONS_TOTAL;
+    private int maxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+    private long idleConnectionTimeout = DEFAULT_IDLE_CONNECTION_TIMEOUT;
+    private long connectionTimeToLive = -1;
+    private volatile CloseableHttpClient sharedClient;
+    private HttpClientConnectionManager sharedConnectionManager;
+    private ExecutorService asyncExecutor;
+    private boolean asyncExecutorOwned;
+    private Semaphore asyncTotalPermits;
+    private final ConcurrentHashMap<String, Semaphore> asyncRoutePermits = new ConcurrentHashMap<>();
+    private HttpCircuitBreaker circuitBreaker;
+    private HostRateLimiter rateLimiter;
+    private HedgingPolicy hedgingPolicy;
+    private SingleFlightGroup singleFlightGroup;
+    private HttpResponseCache responseCache;
+    private PermanentRedirectCache permanentRedirectCache;
+    private boolean contentCompressionEnabled = true;
+    private final ContentEncodingInterceptor contentEncodingInterceptor = new ContentEncodingInterceptor();
+    private volatile HttpMetricsRecorder metricsRecorder = new InMemoryHttpMetricsRecorder();
+    private final HttpMetricsInterceptor metricsInterceptor = new HttpMetricsInterceptor(metricsRecorder);
 
     /**
      * Default constructor
@@ -70,8 +161,9 @@ public class HttpServiceCaller {
     }
 
     /**
-     * Set an (ideally) ThreadSafe HttpClientConnectionManager to be shared by all
-     * HttpClients generated by this service instance
+     * Set an (ideally) ThreadSafe HttpClientConnectionManager to be used by the shared HttpClient
+     * instead of the internally managed connection pool. The lifecycle of this connection manager
+     * remains the responsibility of the caller.
      *
      * @param connectionManager
      */
@@ -80,42 +172,544 @@ public class HttpServiceCaller {
     }
 
     /**
-     * Generate a CloseableHttpClient using this instance's configuration
-     * @param credentialsProvider if null, no credentialprovider will be used
+     * Gets the maximum number of pooled connections (across all routes)
+     *
+     * @return
+     */
+    public int getMaxConnectionsTotal() {
+        return maxConnectionsTotal;
+    }
+
+    /**
+     * Sets the maximum number of pooled connections (across all routes)
+     *
+     * @param maxConnectionsTotal
+     */
+    public void setMaxConnectionsTotal(int maxConnectionsTotal) {
+        this.maxConnectionsTotal = maxConnectionsTotal;
+    }
+
+    /**
+     * Gets the maximum number of pooled connections to a single route (host)
+     *
+     * @return
+     */
+    public int getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute;
+    }
+
+    /**
+     * Sets the maximum number of pooled connections to a single route (host)
+     *
+     * @param maxConnectionsPerRoute
+     */
+    public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+    }
+
+    /**
+     * Gets the time (in milliseconds) that a pooled connection can sit idle before it is evicted
+     *
+     * @return
+     */
+    public long getIdleConnectionTimeout() {
+        return idleConnectionTimeout;
+    }
+
+    /**
+     * Sets the time (in milliseconds) that a pooled connection can sit idle before it is evicted. Set to a value
+     * &lt;= 0 to disable idle eviction.
+     *
+     * @param idleConnectionTimeout
+     */
+    public void setIdleConnectionTimeout(long idleConnectionTimeout) {
+        this.idleConnectionTimeout = idleConnectionTimeout;
+    }
+
+    /**
+     * Gets the maximum lifetime (in milliseconds) of a pooled connection. A value &lt;= 0 means no limit.
+     *
+     * @return
+     */
+    public long getConnectionTimeToLive() {
+        return connectionTimeToLive;
+    }
+
+    /**
+     * Sets the maximum lifetime (in milliseconds) of a pooled connection. A value &lt;= 0 means no limit.
+     *
+     * @param connectionTimeToLive
+     */
+    public void setConnectionTimeToLive(long connectionTimeToLive) {
+        this.connectionTimeToLive = connectionTimeToLive;
+    }
+
+    /**
+     * Gets the circuit breaker guarding outbound requests (or null if requests are never short circuited)
+     *
+     * @return
+     */
+    public HttpCircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Sets a circuit breaker that will refuse requests (with a CircuitBreakerOpenException) to hosts that are
+     * repeatedly failing or timing out. Set to null (the default) to disable.
+     *
+     * @param circuitBreaker
+     */
+    public void setCircuitBreaker(HttpCircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * Gets the per host rate limiter applied to every request (or null if requests aren't rate limited)
+     *
+     * @return
+     */
+    public HostRateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Sets a per host rate limiter applied to every request. Blocking calls will wait for a token, async calls will be
+     * deferred (without holding a connection permit) until a token is available. Set to null (the default) to disable.
+     *
+     * @param rateLimiter
+     */
+    public void setRateLimiter(HostRateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * Gets the policy used by the getHedgedMethodResponse* methods (or null if hedging is disabled)
+     *
+     * @return
+     */
+    public HedgingPolicy getHedgingPolicy() {
+        return hedgingPolicy;
+    }
+
+    /**
+     * Sets the policy used by the getHedgedMethodResponse* methods. Set to null (the default) to disable hedging - in which
+     * case those methods behave exactly like their unhedged equivalents.
+     *
+     * @param hedgingPolicy
+     */
+    public void setHedgingPolicy(HedgingPolicy hedgingPolicy) {
+        this.hedgingPolicy = hedgingPolicy;
+    }
+
+    /**
+     * Gets the memo of permanent redirects used to rewrite outbound requests (or null if redirects are always followed)
+     *
+     * @return
+     */
+    public PermanentRedirectCache getPermanentRedirectCache() {
+        return permanentRedirectCache;
+    }
+
+    /**
+     * Sets a memo of permanent (301/308) redirects. Requests to a URL that has been permanently redirected will be rewritten
+     * to the redirect target before being sent. Set to null (the default) to disable.
+     *
+     * @param permanentRedirectCache
+     */
+    public void setPermanentRedirectCache(PermanentRedirectCache permanentRedirectCache) {
+        this.permanentRedirectCache = permanentRedirectCache;
+    }
+
+    /**
+     * Gets the group used to coalesce identical concurrent GET requests (or null if requests are never coalesced)
+     *
+     * @return
+     */
+    public SingleFlightGroup getSingleFlightGroup() {
+        return singleFlightGroup;
+    }
+
+    /**
+     * Sets a group that will coalesce concurrent identical GET requests (made through the shared HttpClient without credentials)
+     * into a single upstream request. Set to null (the default) to disable.
+     *
+     * @param singleFlightGroup
+     */
+    public void setSingleFlightGroup(SingleFlightGroup singleFlightGroup) {
+        this.singleFlightGroup = singleFlightGroup;
+    }
+
+    /**
+     * Gets the on disk cache used by the getCachedMethodResponse* methods (or null if those methods never cache)
+     *
+     * @return
+     */
+    public HttpResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * Sets the on disk cache used by the getCachedMethodResponse* methods. Set to null (the default) to disable caching.
+     *
+     * @param responseCache
+     */
+    public void setResponseCache(HttpResponseCache responseCache) {
+        this.responseCache = responseCache;
+    }
+
+    /**
+     * Whether the shared HttpClient will negotiate gzip/deflate encoded responses (decompressing them transparently)
+     *
+     * @return
+     */
+    public boolean isContentCompressionEnabled() {
+        return contentCompressionEnabled;
+    }
+
+    /**
+     * Whether the shared HttpClient will negotiate gzip/deflate encoded responses (decompressing them transparently). Defaults to true.
+     *
+     * @param contentCompressionEnabled
+     */
+    public void setContentCompressionEnabled(boolean contentCompressionEnabled) {
+        this.contentCompressionEnabled = contentCompressionEnabled;
+    }
+
+    /**
+     * Sets hosts that will never be asked for compressed responses (for servers that mislabel their content encoding)
+     *
+     * @param hosts
+     */
+    public void setContentCompressionDisabledHosts(Collection<String> hosts) {
+        contentEncodingInterceptor.setDisabledHosts(hosts);
+    }
+
+    /**
+     * Gets the total number of bytes received over the wire for compressed responses
+     *
      * @return
      */
-    private CloseableHttpClient generateClient(CredentialsProvider credentialsProvider) {
-        RequestConfig requestConfig = RequestConfig.custom()
+    public long getCompressedBytesReceived() {
+        return contentEncodingInterceptor.getCompressedBytes();
+    }
+
+    /**
+     * Gets the total number of bytes that compressed responses have decompressed into
+     *
+     * @return
+     */
+    public long getDecompressedBytesReceived() {
+        return contentEncodingInterceptor.getDecompressedBytes();
+    }
+
+    /**
+     * Gets the recorder receiving per host latency/status metrics for every request (or null if metrics aren't recorded).
+     * Defaults to an InMemoryHttpMetricsRecorder.
+     *
+     * @return
+     */
+    public HttpMetricsRecorder getMetricsRecorder() {
+        return metricsRecorder;
+    }
+
+    /**
+     * Sets the recorder receiving per host latency/status metrics for every request. Set to null to disable metrics.
+     *
+     * Response body metrics (bytes and total time) are only available for requests made through the shared HttpClient.
+     *
+     * @param metricsRecorder
+     */
+    public void setMetricsRecorder(HttpMetricsRecorder metricsRecorder) {
+        this.metricsRecorder = metricsRecorder;
+        this.metricsInterceptor.setRecorder(metricsRecorder);
+    }
+
+    /**
+     * Gets the connection timeout (milliseconds) applied to requests made by this instance
+     *
+     * @return
+     */
+    public int getConnectionTimeOut() {
+        return connectionTimeOut;
+    }
+
+    /**
+     * Sets the executor used to run the *Async methods. If not set, a virtual thread per task executor
+     * will be created (and owned) by this instance. The lifecycle of a set executor remains the responsibility of the caller.
+     *
+     * @param asyncExecutor
+     */
+    public synchronized void setAsyncExecutor(ExecutorService asyncExecutor) {
+        this.asyncExecutor = asyncExecutor;
+        this.asyncExecutorOwned = false;
+    }
+
+    /**
+     * Gets the executor used to run the *Async methods (creating a virtual thread per task executor if required)
+     *
+     * @return
+     */
+    protected synchronized ExecutorService getAsyncExecutor() {
+        if (asyncExecutor == null) {
+            asyncExecutor = Executors.newVirtualThreadPerTaskExecutor();
+            asyncExecutorOwned = true;
+        }
+        return asyncExecutor;
+    }
+
+    /**
+     * Gets the permits limiting the number of concurrent async calls overall
+     * @return
+     */
+    private synchronized Semaphore getAsyncTotalPermits() {
+        if (asyncTotalPermits == null) {
+            asyncTotalPermits = new Semaphore(maxConnectionsTotal, true);
+        }
+        return asyncTotalPermits;
+    }
+
+    /**
+     * Gets the permits limiting the number of concurrent async calls to the route (scheme, host and port) of method
+     * @param method
+     * @return
+     */
+    private Semaphore getAsyncRoutePermits(HttpRequestBase method) {
+        URI uri = method.getURI();
+        String route = uri == null ? "" : uri.getScheme() + "://" + uri.getAuthority();
+        return asyncRoutePermits.computeIfAbsent(route, k -> new Semaphore(maxConnectionsPerRoute, true));
+    }
+
+    /**
+     * Builds the pooling connection manager that backs the shared HttpClient
+     * @return
+     */
+    private PoolingHttpClientConnectionManager buildConnectionManager() {
+        SSLConnectionSocketFactory sslSocketFactory = SSLConnectionSocketFactory.getSystemSocketFactory();
+
+        // Disable SSL Cert checking, for locally signed SSL certs
+        if (this.noSSLCheck) {
+            try {
+                sslSocketFactory = new SSLConnectionSocketFactory(
+                        new SSLContextBuilder().loadTrustMaterial(null, TrustAllStrategy.INSTANCE).build(),
+                        NoopHostnameVerifier.INSTANCE);
+            } catch (KeyManagementException | NoSuchAlgorithmException | KeyStoreException e1) {
+                // Log the error
+                log.error("Error setting SSL context: " + e1.getMessage());
+            }
+        }
+
+        Registry<ConnectionSocketFactory> registry = RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                .register("https", sslSocketFactory)
+                .build();
+
+        PoolingHttpClientConnectionManager cm = new PoolingHttpClientConnectionManager(registry, null, null, null,
+                connectionTimeToLive, TimeUnit.MILLISECONDS);
+        cm.setMaxTotal(maxConnectionsTotal);
+        cm.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+        return cm;
+    }
+
+    /**
+     * A DefaultRedirectStrategy that records any permanent redirect it follows in the permanentRedirectCache (if configured)
+     */
+    private class MemoisingRedirectStrategy extends DefaultRedirectStrategy {
+        @Override
+        public URI getLocationURI(HttpRequest request, HttpResponse response, HttpContext context) throws ProtocolException {
+            URI location = super.getLocationURI(request, response, context);
+            PermanentRedirectCache redirectCache = permanentRedirectCache;
+            int statusCode = response.getStatusLine().getStatusCode();
+            if (redirectCache != null && request instanceof HttpUriRequest &&
+                    (statusCode == HttpStatus.SC_MOVED_PERMANENTLY || statusCode == 308)) {
+                redirectCache.record(((HttpUriRequest) request).getURI(), location);
+            }
+            return location;
+        }
+    }
+
+    /**
+     * The request config used by requests that don't specify their own
+     * @return
+     */
+    private RequestConfig buildDefaultRequestConfig() {
+        return RequestConfig.custom()
                 .setConnectTimeout(this.connectionTimeOut)
                 .setSocketTimeout(this.connectionTimeOut)
                 .setCookieSpec(CookieSpecs.STANDARD)
                 .build();
+    }
 
+    /**
+     * Generate a CloseableHttpClient using this instance's configuration
+     * @return
+     */
+    private CloseableHttpClient generateClient() {
         HttpClientBuilder builder = HttpClientBuilder.create()
                 .useSystemProperties()
-                .setDefaultRequestConfig(requestConfig);
+                .setDefaultRequestConfig(buildDefaultRequestConfig())
+                .evictExpiredConnections()
+                .disableContentCompression();
+
+        // We manage content encoding ourselves to support per host opt outs and byte counting
+        if (contentCompressionEnabled) {
+            builder.addInterceptorLast((HttpRequestInterceptor) contentEncodingInterceptor)
+                   .addInterceptorFirst((HttpResponseInterceptor) contentEncodingInterceptor);
+        }
+
+        // Added first so that bodies are metered before any decompression
+        builder.addInterceptorLast((HttpRequestInterceptor) metricsInterceptor)
+               .addInterceptorFirst((HttpResponseInterceptor) metricsInterceptor);
+
+        builder.addInterceptorFirst(DEADLINE_CONFIG_INTERCEPTOR);
+
+        // Redirects followed internally by the client are memoised in the same way as those we follow ourselves
+        builder.setRedirectStrategy(new MemoisingRedirectStrategy());
+
+        if (idleConnectionTimeout > 0) {
+            builder.evictIdleConnections(idleConnectionTimeout, TimeUnit.MILLISECONDS);
+        }
 
         if (connectionManager != null) {
-            builder.setConnectionManager(connectionManager);
+            // Externally owned connection managers must not be shutdown when our client closes
+            builder.setConnectionManager(connectionManager)
+                   .setConnectionManagerShared(true);
+            sharedConnectionManager = connectionManager;
+        } else {
+            sharedConnectionManager = buildConnectionManager();
+            builder.setConnectionManager(sharedConnectionManager);
         }
 
+        return builder.build();
+    }
+
+    /**
+     * Gets the long lived HttpClient shared by all requests made through this instance (creating it if required)
+     * @return
+     */
+    protected CloseableHttpClient getSharedClient() {
+        CloseableHttpClient client = sharedClient;
+        if (client == null) {
+            synchronized (this) {
+                client = sharedClient;
+                if (client == null) {
+                    client = generateClient();
+                    sharedClient = client;
+                }
+            }
+        }
+        return client;
+    }
+
+    /**
+     * Generates a per request context carrying the specified credentials (if any).
+     *
+     * @param credentialsProvider if null, no credentials will be applied
+     * @return
+     */
+    private HttpClientContext generateContext(CredentialsProvider credentialsProvider) {
+        HttpClientContext context = HttpClientContext.create();
         if (credentialsProvider != null) {
-            builder.setDefaultCredentialsProvider(credentialsProvider);
+            context.setCredentialsProvider(credentialsProvider);
         }
+        return context;
+    }
 
-        // Disable SSL Cert checking, for locally signed SSL certs
-        if (this.noSSLCheck) {
-            try {
-                builder
-                    .setSSLContext(new SSLContextBuilder().loadTrustMaterial(null, TrustAllStrategy.INSTANCE).build())
-                    .setSSLHostnameVerifier(NoopHostnameVerifier.INSTANCE);
-            } catch (KeyManagementException | NoSuchAlgorithmException | KeyStoreException e1) {
-                // Log the error
-                log.error("Error setting SSL context: " + e1.getMessage());
+    /**
+     * Gets statistics about the shared connection pool or null if the pool is not yet created (or doesn't support statistics)
+     * @return
+     */
+    public PoolStats getConnectionPoolStats() {
+        if (sharedClient == null || !(sharedConnectionManager instanceof ConnPoolControl<?>)) {
+            return null;
+        }
+        return ((ConnPoolControl<?>) sharedConnectionManager).getTotalStats();
+    }
+
+    /**
+     * Pre-resolves uri's host and opens (up to) connections pooled keep-alive connections to it so that subsequent requests
+     * don't pay for DNS resolution, TCP and TLS setup. Connections already idle in the pool count towards connections.
+     *
+     * Connections are opened directly to the host (any system proxy is not used).
+     *
+     * @param uri
+     *            Identifies the scheme, host and port to connect to
+     * @param connections
+     *            The number of pooled connections to ensure exist
+     * @param timeout
+     *            The maximum time (in milliseconds) to spend opening connections
+     * @return The number of new connections opened
+     * @throws IOException
+     *             If the host can't be resolved or connected to
+     */
+    public int warmUpConnections(URI uri, int connections, long timeout) throws IOException {
+        if (uri == null || uri.getHost() == null) {
+            throw new IllegalArgumentException("uri must specify a host");
+        }
+
+        getSharedClient();
+        HttpClientConnectionManager manager = sharedConnectionManager;
+        boolean secure = "https".equalsIgnoreCase(uri.getScheme());
+        int port = uri.getPort() > 0 ? uri.getPort() : (secure ? 443 : 80);
+        HttpRoute route = new HttpRoute(new HttpHost(uri.getHost(), port, secure ? "https" : "http"), null, secure);
+        HttpClientContext context = HttpClientContext.create();
+
+        long deadline = System.currentTimeMillis() + timeout;
+        List<HttpClientConnection> leased = new ArrayList<>();
+        int opened = 0;
+        try {
+            // Lease all connections at once so that idle connections aren't handed back to us
+            for (int i = 0; i < connections; i++) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                HttpClientConnection connection;
+                try {
+                    connection = manager.requestConnection(route, null).get(remaining, TimeUnit.MILLISECONDS);
+                } catch (ConnectionPoolTimeoutException e) {
+                    break;
+                }
+                leased.add(connection);
+                if (!connection.isOpen()) {
+                    int connectTimeout = (int) Math.max(1, Math.min(remaining, connectionTimeOut > 0 ? connectionTimeOut : remaining));
+                    manager.connect(connection, route, connectTimeout, context);
+                    manager.routeComplete(connection, route, context);
+                    opened++;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted warming up connections to " + uri.getHost());
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            // Unconnected (failed) connections will be discarded by the pool rather than reused
+            for (HttpClientConnection connection : leased) {
+                manager.releaseConnection(connection, null, 0, TimeUnit.MILLISECONDS);
             }
         }
+        return opened;
+    }
 
-        return builder.build();
+    /**
+     * Closes the shared HttpClient (and any internally managed connection pool / async executor). Any subsequent requests
+     * will recreate the shared HttpClient.
+     */
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (asyncExecutor != null && asyncExecutorOwned) {
+            asyncExecutor.shutdownNow();
+            asyncExecutor = null;
+        }
+        if (sharedClient != null) {
+            try {
+                sharedClient.close();
+            } catch (IOException e) {
+                log.debug("Error closing shared HttpClient: " + e.getMessage());
+            }
+            sharedClient = null;
+            sharedConnectionManager = null;
+        }
     }
 
     /**
@@ -146,9 +740,7 @@ public class HttpServiceCaller {
      */
     public String getMethodResponseAsString(HttpRequestBase method, CredentialsProvider credentialsProvider) throws ConnectException, UnknownHostException,
             IOException {
-        try (CloseableHttpClient httpClient = generateClient(credentialsProvider)) {
-            return getMethodResponseAsString(method, httpClient);
-        }
+        return responseToString(method, invokeWithSharedClient(method, credentialsProvider));
     }
 
     /**
@@ -162,9 +754,15 @@ public class HttpServiceCaller {
      * @throws IOException
      */
     public String getMethodResponseAsString(HttpRequestBase method, HttpClient client) throws IOException {
+        return getMethodResponseAsString(method, client, null);
+    }
+
+    private String getMethodResponseAsString(HttpRequestBase method, HttpClient client, HttpContext context) throws IOException {
         //invoke the method
-        HttpResponse httpResponse = this.invokeTheMethod(method, client);
+        return responseToString(method, this.invokeTheMethod(method, client, context));
+    }
 
+    private String responseToString(HttpRequestBase method, HttpResponse httpResponse) throws IOException {
         //get the reponse before we close the connection
         //String response = method.getResponseBodyAsString();
 
@@ -183,12 +781,11 @@ public class HttpServiceCaller {
     }
 
     /**
-     * Invokes a method and returns the binary response as a stream. (Creates a new HttpClient for use with this request)
+     * Invokes a method and returns the binary response as a stream. (Uses the shared HttpClient for this request)
      *
-     * WARNING - ensure you call method.releaseConnection() AFTER you have finished reading the input stream.
+     * WARNING - ensure you close the returned stream AFTER you have finished reading it so the connection is returned to the pool.
      *
      * @param method The method to be executed
-     * @param credentialsProvider Credentials provider for performing authentication (if required)
      * @return
      * @throws IOException
      */
@@ -197,9 +794,9 @@ public class HttpServiceCaller {
     }
 
     /**
-     * Invokes a method and returns the binary response as a stream. (Creates a new HttpClient for use with this request)
+     * Invokes a method and returns the binary response as a stream. (Uses the shared HttpClient for this request)
      *
-     * WARNING - ensure you call method.releaseConnection() AFTER you have finished reading the input stream.
+     * WARNING - ensure you close the returned stream AFTER you have finished reading it so the connection is returned to the pool.
      *
      * @param method The method to be executed
      * @param credentialsProvider Credentials provider for performing authentication (if required)
@@ -207,8 +804,8 @@ public class HttpServiceCaller {
      * @throws IOException
      */
     public HttpClientInputStream getMethodResponseAsStream(HttpRequestBase method, CredentialsProvider credentialsProvider) throws IOException {
-        CloseableHttpClient httpClient = generateClient(credentialsProvider);
-        return new HttpClientInputStream(this.getMethodResponseAsStream(method, httpClient), httpClient);
+        HttpResponse httpResponse = invokeWithSharedClient(method, credentialsProvider);
+        return new HttpClientInputStream(httpResponse.getEntity().getContent(), null, method);
     }
 
     /**
@@ -226,34 +823,30 @@ public class HttpServiceCaller {
      */
     public InputStream getMethodResponseAsStream(HttpRequestBase method, HttpClient client) throws IOException {
         //invoke the method
-        HttpResponse httpResponse = this.invokeTheMethod(method, client);
+        HttpResponse httpResponse = this.invokeTheMethod(method, client, null);
         return httpResponse.getEntity().getContent();
     }
 
     /**
-     * Invokes a method and returns the binary response. (Creates a new HttpClient for use with this request)
+     * Invokes a method and returns the binary response. (Uses the shared HttpClient for this request)
      *
      * @param method The method to be executed
-     * @param credentialsProvider Credentials provider for performing authentication (if required)
      * @return
      * @throws IOException
-     * @throws
      */
     public byte[] getMethodResponseAsBytes(HttpRequestBase method) throws IOException {
         return getMethodResponseAsBytes(method, (CredentialsProvider) null);
     }
 
     /**
-     * Invokes a method and returns the binary response. (Creates a new HttpClient for use with this request)
+     * Invokes a method and returns the binary response. (Uses the shared HttpClient for this request)
      *
      * @param method The method to be executed
      * @param credentialsProvider Credentials provider for performing authentication (if required)
      * @return
      */
     public byte[] getMethodResponseAsBytes(HttpRequestBase method, CredentialsProvider credentialsProvider) throws IOException {
-        try (CloseableHttpClient httpClient = generateClient(credentialsProvider)) {
-            return getMethodResponseAsBytes(method, httpClient);
-        }
+        return responseToBytes(method, invokeWithSharedClient(method, credentialsProvider));
     }
 
     /**
@@ -266,14 +859,23 @@ public class HttpServiceCaller {
      * @throws IllegalStateException
      */
     public byte[] getMethodResponseAsBytes(HttpRequestBase method, HttpClient client) throws IOException {
+        return getMethodResponseAsBytes(method, client, null);
+    }
+
+    private byte[] getMethodResponseAsBytes(HttpRequestBase method, HttpClient client, HttpContext context) throws IOException {
         //invoke the method
-        HttpResponse httpResponse = this.invokeTheMethod(method, client);
+        return responseToBytes(method, this.invokeTheMethod(method, client, context));
+    }
 
+    private byte[] responseToBytes(HttpRequestBase method, HttpResponse httpResponse) throws IOException {
         //get the response before we close the connection
-        byte[] response = IOUtils.toByteArray(httpResponse.getEntity().getContent());
-
-        //release the connection
-        method.releaseConnection();
+        byte[] response;
+        try {
+            response = IOUtils.toByteArray(httpResponse.getEntity().getContent());
+        } finally {
+            //release the connection
+            method.releaseConnection();
+        }
 
         //return it
         return response;
@@ -281,19 +883,23 @@ public class HttpServiceCaller {
 
     /**
      * Invokes a method and returns the raw HttpClientResponse
+     *
+     * WARNING - ensure you close the returned response (or its content stream) so the connection is returned to the pool.
+     *
      * @param method The method to be executed
-     * @param credentialsProvider Credentials provider for performing authentication (if required)
      * @return
      * @throws IllegalStateException
      * @throws IOException
      */
     public HttpClientResponse getMethodResponseAsHttpResponse(HttpRequestBase method) throws IllegalStateException, IOException {
-        CloseableHttpClient httpClient = generateClient(null);
-        return new HttpClientResponse(this.invokeTheMethod(method, httpClient), httpClient);
+        return getMethodResponseAsHttpResponse(method, null);
     }
 
     /**
      * Invokes a method and returns the raw HttpClientResponse
+     *
+     * WARNING - ensure you close the returned response (or its content stream) so the connection is returned to the pool.
+     *
      * @param method The method to be executed
      * @param credentialsProvider Credentials provider for performing authentication (if required)
      * @return
@@ -301,23 +907,512 @@ public class HttpServiceCaller {
      * @throws IOException
      */
     public HttpClientResponse getMethodResponseAsHttpResponse(HttpRequestBase method, CredentialsProvider credentialsProvider) throws IllegalStateException, IOException {
-        CloseableHttpClient httpClient = generateClient(credentialsProvider);
-        return new HttpClientResponse(this.invokeTheMethod(method, httpClient), httpClient);
+        HttpResponse httpResponse = invokeWithSharedClient(method, credentialsProvider);
+        return new HttpClientResponse(httpResponse, null, method);
+    }
+
+    /**
+     * Invokes a GET method (using the shared HttpClient) and returns the binary response as a stream, serving it from the
+     * response cache (if configured) where the upstream server's cache headers allow.
+     *
+     * Intended for rarely changing documents (capabilities, SLDs, legends) - non GET methods are never cached.
+     *
+     * WARNING - ensure you close the returned stream AFTER you have finished reading it so the connection is returned to the pool.
+     *
+     * @param method The method to be executed
+     * @return
+     * @throws IOException
+     */
+    public HttpClientInputStream getCachedMethodResponseAsStream(final HttpRequestBase method) throws IOException {
+        HttpResponseCache cache = responseCache;
+        if (cache == null || !cache.isEligible(method)) {
+            return getMethodResponseAsStream(method);
+        }
+
+        InputStream content = cache.execute(method, m -> invokeTheMethod(m, getSharedClient(), generateContext(null), true));
+        return new HttpClientInputStream(content, null, method);
+    }
+
+    /**
+     * Invokes a GET method (using the shared HttpClient) and returns the response as a string, serving it from the
+     * response cache (if configured) where the upstream server's cache headers allow.
+     *
+     * Intended for rarely changing documents (capabilities, SLDs, legends) - non GET methods are never cached.
+     *
+     * @param method The method to be executed
+     * @return
+     * @throws IOException
+     */
+    public String getCachedMethodResponseAsString(HttpRequestBase method) throws IOException {
+        try (InputStream is = getCachedMethodResponseAsStream(method)) {
+            return IOUtils.toString(is, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Invokes a GET method (using the shared HttpClient) and returns the binary response, serving it from the
+     * response cache (if configured) where the upstream server's cache headers allow.
+     *
+     * Intended for rarely changing documents (capabilities, SLDs, legends) - non GET methods are never cached.
+     *
+     * @param method The method to be executed
+     * @return
+     * @throws IOException
+     */
+    public byte[] getCachedMethodResponseAsBytes(HttpRequestBase method) throws IOException {
+        try (InputStream is = getCachedMethodResponseAsStream(method)) {
+            return IOUtils.toByteArray(is);
+        }
+    }
+
+    /**
+     * Invokes a latency critical method (using the shared HttpClient) and returns the binary response as a stream. If a
+     * hedging policy is configured and the method hasn't responded within the policy's hedge delay, a duplicate request is
+     * made and whichever responds first is used (the other is aborted).
+     *
+     * ONLY use this for idempotent requests (eg GetFeatureInfo, CSW GetRecords) as the request may be made twice.
+     *
+     * WARNING - ensure you close the returned stream AFTER you have finished reading it so the connection is returned to the pool.
+     *
+     * @param method The method to be executed
+     * @return
+     * @throws IOException
+     */
+    public HttpClientInputStream getHedgedMethodResponseAsStream(HttpRequestBase method) throws IOException {
+        HedgedResponse hedged = invokeHedged(method);
+        return new HttpClientInputStream(hedged.response.getEntity().getContent(), null, hedged.method);
+    }
+
+    /**
+     * Invokes a latency critical method (using the shared HttpClient) and returns the response as a string. If a
+     * hedging policy is configured and the method hasn't responded within the policy's hedge delay, a duplicate request is
+     * made and whichever responds first is used (the other is aborted).
+     *
+     * ONLY use this for idempotent requests (eg GetFeatureInfo, CSW GetRecords) as the request may be made twice.
+     *
+     * @param method The method to be executed
+     * @return
+     * @throws IOException
+     */
+    public String getHedgedMethodResponseAsString(HttpRequestBase method) throws IOException {
+        HedgedResponse hedged = invokeHedged(method);
+        return responseToString(hedged.method, hedged.response);
+    }
+
+    /**
+     * Asynchronously makes a call to a http method and returns the response as a string.
+     *
+     * @param method The method to be executed
+     * @return A future that will complete with the response (or exceptionally with the underlying IOException)
+     */
+    public CompletableFuture<String> getMethodResponseAsStringAsync(HttpRequestBase method) {
+        return getMethodResponseAsStringAsync(method, null, 0);
+    }
+
+    /**
+     * Asynchronously makes a call to a http method and returns the response as a string.
+     *
+     * Cancelling the returned future (or exceeding timeoutMillis) will abort method.
+     *
+     * @param method The method to be executed
+     * @param credentialsProvider Credentials provider for performing authentication (if required)
+     * @param timeoutMillis If &gt; 0, the maximum time (in milliseconds) to wait before the call is aborted
+     * @return A future that will complete with the response (or exceptionally with the underlying IOException)
+     */
+    public CompletableFuture<String> getMethodResponseAsStringAsync(final HttpRequestBase method,
+            final CredentialsProvider credentialsProvider, long timeoutMillis) {
+        return invokeAsync(method, timeoutMillis, () -> getMethodResponseAsString(method, credentialsProvider));
+    }
+
+    /**
+     * Asynchronously invokes a method and returns the binary response as a stream.
+     *
+     * WARNING - ensure you close the resulting stream AFTER you have finished reading it so the connection is returned to the pool.
+     *
+     * @param method The method to be executed
+     * @return A future that will complete with the response stream (or exceptionally with the underlying IOException)
+     */
+    public CompletableFuture<HttpClientInputStream> getMethodResponseAsStreamAsync(HttpRequestBase method) {
+        return getMethodResponseAsStreamAsync(method, null, 0);
+    }
+
+    /**
+     * Asynchronously invokes a method and returns the binary response as a stream.
+     *
+     * Cancelling the returned future (or exceeding timeoutMillis) before the response headers are received will abort method. Once
+     * the future has completed, the timeout no longer applies to reading the stream.
+     *
+     * WARNING - ensure you close the resulting stream AFTER you have finished reading it so the connection is returned to the pool.
+     *
+     * @param method The method to be executed
+     * @param credentialsProvider Credentials provider for performing authentication (if required)
+     * @param timeoutMillis If &gt; 0, the maximum time (in milliseconds) to wait before the call is aborted
+     * @return A future that will complete with the response stream (or exceptionally with the underlying IOException)
+     */
+    public CompletableFuture<HttpClientInputStream> getMethodResponseAsStreamAsync(final HttpRequestBase method,
+            final CredentialsProvider credentialsProvider, long timeoutMillis) {
+        return invokeAsync(method, timeoutMillis, () -> getMethodResponseAsStream(method, credentialsProvider));
+    }
+
+    /**
+     * Asynchronously invokes a method and returns the binary response.
+     *
+     * @param method The method to be executed
+     * @return A future that will complete with the response (or exceptionally with the underlying IOException)
+     */
+    public CompletableFuture<byte[]> getMethodResponseAsBytesAsync(HttpRequestBase method) {
+        return getMethodResponseAsBytesAsync(method, null, 0);
+    }
+
+    /**
+     * Asynchronously invokes a method and returns the binary response.
+     *
+     * Cancelling the returned future (or exceeding timeoutMillis) will abort method.
+     *
+     * @param method The method to be executed
+     * @param credentialsProvider Credentials provider for performing authentication (if required)
+     * @param timeoutMillis If &gt; 0, the maximum time (in milliseconds) to wait before the call is aborted
+     * @return A future that will complete with the response (or exceptionally with the underlying IOException)
+     */
+    public CompletableFuture<byte[]> getMethodResponseAsBytesAsync(final HttpRequestBase method,
+            final CredentialsProvider credentialsProvider, long timeoutMillis) {
+        return invokeAsync(method, timeoutMillis, () -> getMethodResponseAsBytes(method, credentialsProvider));
+    }
+
+    /**
+     * Asynchronously invokes a method and returns the raw HttpClientResponse
+     *
+     * WARNING - ensure you close the resulting response (or its content stream) so the connection is returned to the pool.
+     *
+     * @param method The method to be executed
+     * @return A future that will complete with the response (or exceptionally with the underlying IOException)
+     */
+    public CompletableFuture<HttpClientResponse> getMethodResponseAsHttpResponseAsync(HttpRequestBase method) {
+        return getMethodResponseAsHttpResponseAsync(method, null, 0);
+    }
+
+    /**
+     * Asynchronously invokes a method and returns the raw HttpClientResponse
+     *
+     * Cancelling the returned future (or exceeding timeoutMillis) before the response headers are received will abort method.
+     *
+     * WARNING - ensure you close the resulting response (or its content stream) so the connection is returned to the pool.
+     *
+     * @param method The method to be executed
+     * @param credentialsProvider Credentials provider for performing authentication (if required)
+     * @param timeoutMillis If &gt; 0, the maximum time (in milliseconds) to wait before the call is aborted
+     * @return A future that will complete with the response (or exceptionally with the underlying IOException)
+     */
+    public CompletableFuture<HttpClientResponse> getMethodResponseAsHttpResponseAsync(final HttpRequestBase method,
+            final CredentialsProvider credentialsProvider, long timeoutMillis) {
+        return invokeAsync(method, timeoutMillis, () -> getMethodResponseAsHttpResponse(method, credentialsProvider));
+    }
+
+    /**
+     * Runs call on the async executor, wiring cancellation/timeout of the returned future to an abort of method.
+     *
+     * Any Closeable result that arrives after the future has been cancelled (or timed out) will be closed.
+     *
+     * Async calls queue on permits matching the connection pool limits BEFORE leasing a connection. HttpCore's pool
+     * blocks inside a monitor while waiting for a free connection which would pin (and potentially starve) the carriers
+     * of the virtual threads we run on.
+     *
+     * @param method The method that call will execute
+     * @param timeoutMillis If &gt; 0, the maximum time (in milliseconds) to wait before the call is aborted
+     * @param call The blocking call to make
+     * @return
+     */
+    private <T> CompletableFuture<T> invokeAsync(final HttpRequestBase method, long timeoutMillis, final Callable<T> call) {
+        // The method is aborted BEFORE the future completes so callers observing the timeout/cancellation can rely on it.
+        // The resulting failure of the call must not beat the timeout/cancellation to completing the future.
+        final AtomicBoolean abortedByFuture = new AtomicBoolean();
+        final CompletableFuture<T> future = new CompletableFuture<T>() {
+            @Override
+            public boolean completeExceptionally(Throwable ex) {
+                if (ex instanceof TimeoutException && !isDone()) {
+                    log.debug("Aborting async request to " + method.getURI() + ": " + ex);
+                    abortedByFuture.set(true);
+                    method.abort();
+                }
+                return super.completeExceptionally(ex);
+            }
+
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                if (!isDone()) {
+                    log.debug("Aborting cancelled async request to " + method.getURI());
+                    abortedByFuture.set(true);
+                    method.abort();
+                }
+                return super.cancel(mayInterruptIfRunning);
+            }
+        };
+        final Semaphore totalPermits = getAsyncTotalPermits();
+        final Semaphore routePermits = getAsyncRoutePermits(method);
+        final HostRateLimiter limiter = rateLimiter;
+        final HostRateLimiter.Priority priority = HostRateLimiter.getCurrentPriority();
+        final Long deadline = RequestDeadline.get();
+        try {
+            // Refuse up front - the future's (tiny) timeout would otherwise race the call's own deadline check
+            RequestDeadline.check("requesting " + method.getURI());
+        } catch (DeadlineExceededException e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+        final Future<?> task = getAsyncExecutor().submit(() -> {
+            HostRateLimiter.Priority previousPriority = HostRateLimiter.setCurrentPriority(priority);
+            Long previousDeadline = RequestDeadline.set(deadline);
+            try {
+                // Take our rate limit token before queuing for a connection so deferred calls don't hold permits
+                if (limiter != null && method.getURI() != null) {
+                    acquireRateLimitToken(limiter, method.getURI().getHost(), priority);
+                    RATE_LIMIT_TOKEN_HELD.set(Boolean.TRUE);
+                }
+                routePermits.acquire();
+                try {
+                    totalPermits.acquire();
+                    try {
+                        T result = call.call();
+                        if (!future.complete(result) && result instanceof Closeable) {
+                            closeQuietly((Closeable) result);
+                        }
+                    } finally {
+                        totalPermits.release();
+                    }
+                } finally {
+                    routePermits.release();
+                }
+            } catch (Throwable t) {
+                if (!abortedByFuture.get()) {
+                    future.completeExceptionally(t);
+                }
+            } finally {
+                RATE_LIMIT_TOKEN_HELD.remove();
+                HostRateLimiter.setCurrentPriority(previousPriority);
+                RequestDeadline.set(previousDeadline);
+            }
+        });
+
+        timeoutMillis = RequestDeadline.limit(timeoutMillis);
+        if (timeoutMillis > 0) {
+            future.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+
+        future.whenComplete((result, ex) -> {
+            if (ex instanceof CancellationException || ex instanceof TimeoutException) {
+                task.cancel(true);
+            }
+        });
+
+        return future;
+    }
+
+    private void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            log.debug("Error closing abandoned async response: " + e.getMessage());
+        }
+    }
+
+    /**
+     * The request that won a (possibly) hedged invocation along with its response
+     */
+    private static class HedgedResponse {
+        private final HttpRequestBase method;
+        private final HttpResponse response;
+
+        public HedgedResponse(HttpRequestBase method, HttpResponse response) {
+            this.method = method;
+            this.response = response;
+        }
+    }
+
+    /**
+     * Invokes method using the shared HttpClient, issuing a hedge (a clone of method) if it hasn't responded within the
+     * hedging policy's delay. The first successful response wins and the other request is aborted.
+     */
+    private HedgedResponse invokeHedged(final HttpRequestBase method) throws IOException {
+        final HedgingPolicy policy = hedgingPolicy;
+        if (policy == null || !policy.isEligible(method)) {
+            return new HedgedResponse(method, invokeWithSharedClient(method, null));
+        }
+
+        final String host = method.getURI().getHost();
+        final long start = System.currentTimeMillis();
+        policy.recordRequest(host);
+        CompletableFuture<HedgedResponse> primary = submitHedgeAttempt(method, policy, host);
+        try {
+            return primary.get(policy.getHedgeDelay(host), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            log.debug("No response from " + method.getURI() + " after " + (System.currentTimeMillis() - start) + "ms");
+        } catch (ExecutionException e) {
+            throw unwrapHedgeFailure(e);
+        } catch (InterruptedException e) {
+            method.abort();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting on " + method.getURI());
+        }
+
+        if (!policy.tryAcquireHedge(host)) {
+            return awaitHedgeAttempt(primary, method);
+        }
+
+        // NB - HttpRequestBase.clone() shares abort state with the original so we copy via RequestBuilder
+        log.debug("Hedging request to " + method.getURI());
+        final HttpRequestBase hedgeMethod = (HttpRequestBase) RequestBuilder.copy(method).build();
+        final CompletableFuture<HedgedResponse> secondary = submitHedgeAttempt(hedgeMethod, policy, host);
+        final CompletableFuture<HedgedResponse> winner = new CompletableFuture<>();
+        final AtomicInteger failures = new AtomicInteger();
+        BiConsumer<HedgedResponse, Throwable> onAttemptComplete = (response, ex) -> {
+            if (ex == null) {
+                if (!winner.complete(response)) {
+                    response.method.abort();
+                }
+            } else if (failures.incrementAndGet() == 2) {
+                winner.completeExceptionally(ex);
+            }
+        };
+        primary.whenComplete(onAttemptComplete);
+        secondary.whenComplete(onAttemptComplete);
+
+        HedgedResponse result;
+        try {
+            result = awaitHedgeAttempt(winner, method);
+        } catch (IOException | RuntimeException e) {
+            hedgeMethod.abort();
+            method.abort();
+            throw e;
+        }
+
+        // Abort the loser (if it responds later, onAttemptComplete will abort it again which is harmless)
+        if (result.method == hedgeMethod) {
+            method.abort();
+            policy.recordHedgeWin();
+            // The original request was at least this slow - don't let the percentile forget it
+            policy.recordLatency(host, System.currentTimeMillis() - start);
+        } else {
+            hedgeMethod.abort();
+        }
+        return result;
+    }
+
+    private CompletableFuture<HedgedResponse> submitHedgeAttempt(final HttpRequestBase attempt, final HedgingPolicy policy, final String host) {
+        final CompletableFuture<HedgedResponse> future = new CompletableFuture<>();
+        final Semaphore totalPermits = getAsyncTotalPermits();
+        final Semaphore routePermits = getAsyncRoutePermits(attempt);
+        final HostRateLimiter limiter = rateLimiter;
+        final HostRateLimiter.Priority priority = HostRateLimiter.getCurrentPriority();
+        final Long deadline = RequestDeadline.get();
+        getAsyncExecutor().execute(() -> {
+            HostRateLimiter.Priority previousPriority = HostRateLimiter.setCurrentPriority(priority);
+            Long previousDeadline = RequestDeadline.set(deadline);
+            try {
+                // As per invokeAsync - take our rate limit token before queuing for a connection
+                if (limiter != null) {
+                    acquireRateLimitToken(limiter, host, priority);
+                    RATE_LIMIT_TOKEN_HELD.set(Boolean.TRUE);
+                }
+                routePermits.acquire();
+                try {
+                    totalPermits.acquire();
+                    try {
+                        long start = System.currentTimeMillis();
+                        HttpResponse response = invokeTheMethod(attempt, getSharedClient(), generateContext(null));
+                        policy.recordLatency(host, System.currentTimeMillis() - start);
+                        future.complete(new HedgedResponse(attempt, response));
+                    } finally {
+                        totalPermits.release();
+                    }
+                } finally {
+                    routePermits.release();
+                }
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            } finally {
+                RATE_LIMIT_TOKEN_HELD.remove();
+                HostRateLimiter.setCurrentPriority(previousPriority);
+                RequestDeadline.set(previousDeadline);
+            }
+        });
+        return future;
+    }
+
+    private HedgedResponse awaitHedgeAttempt(CompletableFuture<HedgedResponse> future, HttpRequestBase method) throws IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw unwrapHedgeFailure(e);
+        } catch (InterruptedException e) {
+            method.abort();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting on " + method.getURI());
+        }
+    }
+
+    private IOException unwrapHedgeFailure(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new IOException(cause);
+    }
+
+    /**
+     * Invokes method using the shared HttpClient, coalescing it with any identical in flight requests if a
+     * SingleFlightGroup is configured and the request is eligible (an anonymous GET).
+     */
+    private HttpResponse invokeWithSharedClient(final HttpRequestBase method, CredentialsProvider credentialsProvider) throws IOException {
+        SingleFlightGroup group = singleFlightGroup;
+        if (group != null && credentialsProvider == null && group.isEligible(method)) {
+            int timeout = method.getConfig() == null ? connectionTimeOut : method.getConfig().getSocketTimeout();
+            return group.execute(method, timeout, () -> invokeTheMethod(method, getSharedClient(), generateContext(null)));
+        }
+        return invokeTheMethod(method, getSharedClient(), generateContext(credentialsProvider));
     }
 
     /**
      * Invokes a httpmethod and takes care of some error handling.
      *
+     * If a non successful response is received, the underlying connection will be released before an exception is thrown.
+     *
      * @param method
      * @param httpClient
+     * @param context The per request context (can be null)
      * @throws IOException
      * @throws IllegalStateException
      */
-    private HttpResponse invokeTheMethod(HttpRequestBase method, HttpClient client) throws IOException {
+    private HttpResponse invokeTheMethod(HttpRequestBase method, HttpClient client, HttpContext context) throws IOException {
+        return invokeTheMethod(method, client, context, false);
+    }
+
+    /**
+     * Invokes a httpmethod and takes care of some error handling.
+     *
+     * @param allowNotModified If true, a 304 Not Modified response will be returned rather than raising an exception
+     */
+    private HttpResponse invokeTheMethod(HttpRequestBase method, HttpClient client, HttpContext context, boolean allowNotModified) throws IOException {
         if (client==null) {
             throw new IllegalArgumentException("HttpClient must not be null");
         }
 
+        // Skip the round trip to any URL we know has permanently moved
+        URI originalUri = method.getURI();
+        PermanentRedirectCache redirectCache = permanentRedirectCache;
+        boolean rewritten = false;
+        if (redirectCache != null) {
+            URI target = redirectCache.rewrite(originalUri);
+            if (target != null) {
+                log.trace("Rewriting permanently redirected " + originalUri + " to " + target);
+                method.setURI(target);
+                rewritten = true;
+            }
+        }
+
         log.debug("method=" + method.getURI());
 
         if (log.isTraceEnabled()) {
@@ -332,7 +1427,7 @@ public class HttpServiceCaller {
         }
 
         // Make the call
-        HttpResponse response = client.execute(method);
+        HttpResponse response = execute(method, client, context);
         StatusLine statusLine = response.getStatusLine();
         int statusCode = statusLine.getStatusCode();
         String statusCodeText = statusLine.getReasonPhrase();
@@ -346,14 +1441,29 @@ public class HttpServiceCaller {
             statusCode == HttpStatus.SC_TEMPORARY_REDIRECT) { // 307
             Header location = response.getFirstHeader("Location");
             String locationStr = location.getValue();
+
+            // Return the redirect's connection to the pool before we reuse this method. The body has to be
+            // consumed first, otherwise releasing the method closes the connection instead of reusing it.
+            EntityUtils.consumeQuietly(response.getEntity());
+            method.releaseConnection();
+            URI locationUri;
             try {
-                method.setURI(new URI(locationStr));
+                locationUri = new URI(locationStr);
             } catch (URISyntaxException use) {
                 log.error("Bad Location returned in moved/redirect response: " + locationStr);
                 throw new IOException(statusCodeText);
             }
+            if (redirectCache != null) {
+                if (statusCode == HttpStatus.SC_MOVED_PERMANENTLY || statusCode == 308) {
+                    redirectCache.record(originalUri, method.getURI().resolve(locationUri));
+                } else if (rewritten) {
+                    // The memoised target has itself moved (temporarily) - stop trusting it
+                    redirectCache.invalidate(originalUri);
+                }
+            }
+            method.setURI(locationUri);
             log.trace("Retrying with new URL: " + locationStr);
-            response = client.execute(method);
+            response = execute(method, client, context);
             statusLine = response.getStatusLine();
             statusCode = statusLine.getStatusCode();
             statusCodeText = statusLine.getReasonPhrase();
@@ -363,22 +1473,161 @@ public class HttpServiceCaller {
         // If it is not a successful status code
         if (statusCode != HttpStatus.SC_OK &&
                 statusCode != HttpStatus.SC_CREATED &&
-                statusCode != HttpStatus.SC_ACCEPTED) {
-            // if it's unavailable then throw connection exception
-            if (statusCode == HttpStatus.SC_SERVICE_UNAVAILABLE) {
-                throw new ConnectException();
-            }
-            if (log.isTraceEnabled()) {
-            	String responseBody = responseToString(response.getEntity().getContent());
-                log.trace("Returned response body: " + responseBody);
+                statusCode != HttpStatus.SC_ACCEPTED &&
+                !(allowNotModified && statusCode == HttpStatus.SC_NOT_MODIFIED)) {
+            try {
+                // if it's unavailable then throw connection exception
+                if (statusCode == HttpStatus.SC_SERVICE_UNAVAILABLE) {
+                    throw new ConnectException();
+                }
+                if (log.isTraceEnabled()) {
+                    String responseBody = responseToString(response.getEntity().getContent());
+                    log.trace("Returned response body: " + responseBody);
+                }
+                // The IOException contains the error code.
+                throw new IOException(Integer.toString(statusCode));
+            } finally {
+                method.releaseConnection();
             }
-            // The IOException contains the error code.
-            throw new IOException(Integer.toString(statusCode));
         } else {
             return response;
         }
     }
 
+    /**
+     * Executes method against client, using context if it is specified.
+     *
+     * If a circuit breaker is configured, requests to hosts with an open circuit will fail immediately and the outcome
+     * of every other request (connection errors and 5xx responses are failures) will be recorded against its host.
+     *
+     * If a metrics recorder is configured, the status and time to first byte (or failure) of every request will be recorded.
+     */
+    private HttpResponse execute(HttpRequestBase method, HttpClient client, HttpContext context) throws IOException {
+        HttpCircuitBreaker breaker = circuitBreaker;
+        HttpMetricsRecorder recorder = metricsRecorder;
+        HostRateLimiter limiter = rateLimiter;
+        String host = method.getURI() == null ? null : method.getURI().getHost();
+        if (limiter != null && host != null) {
+            if (RATE_LIMIT_TOKEN_HELD.get() == Boolean.TRUE) {
+                RATE_LIMIT_TOKEN_HELD.remove();
+            } else {
+                acquireRateLimitToken(limiter, host, HostRateLimiter.getCurrentPriority());
+            }
+        }
+        context = applyDeadline(method, context);
+        if ((breaker == null && recorder == null) || host == null) {
+            return doExecute(method, client, context);
+        }
+
+        if (breaker != null) {
+            breaker.acquirePermission(host);
+        }
+        long startTime = System.currentTimeMillis();
+        boolean failed = true;
+        boolean ignored = false;
+        try {
+            HttpResponse response = doExecute(method, client, context);
+            StatusLine statusLine = response.getStatusLine();
+            int statusCode = statusLine == null ? 0 : statusLine.getStatusCode();
+            failed = statusCode >= HttpStatus.SC_INTERNAL_SERVER_ERROR;
+            if (recorder != null) {
+                recorder.recordResponse(host, HttpMetricsInterceptor.getOgcOperation(method.getURI()), statusCode,
+                        System.currentTimeMillis() - startTime);
+            }
+            return response;
+        } catch (IOException | RuntimeException e) {
+            ignored = isCallerTermination(method, context, e);
+            if (recorder != null) {
+                recorder.recordFailure(host, HttpMetricsInterceptor.getOgcOperation(method.getURI()), e,
+                        System.currentTimeMillis() - startTime);
+            }
+            throw e;
+        } finally {
+            if (breaker != null) {
+                long duration = System.currentTimeMillis() - startTime;
+                if (ignored) {
+                    breaker.onIgnored(host);
+                } else if (failed) {
+                    breaker.onFailure(host, duration);
+                } else {
+                    breaker.onSuccess(host, duration);
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes a rate limit token for host, waiting no longer than the time remaining until the current thread's
+     * RequestDeadline (if any).
+     *
+     * @throws DeadlineExceededException if the deadline passes before (or whilst) waiting for a token
+     */
+    private void acquireRateLimitToken(HostRateLimiter limiter, String host, HostRateLimiter.Priority priority) throws IOException {
+        RequestDeadline.check("requesting " + host);
+        if (limiter.acquire(host, priority, RequestDeadline.getRemaining()) < 0) {
+            throw new DeadlineExceededException("Request deadline exceeded waiting for a rate limit token for " + host);
+        }
+    }
+
+    /**
+     * Limits method's timeouts to the time remaining until the current thread's RequestDeadline (if any).
+     *
+     * The limited config is passed via the (possibly new) context rather than modifying method. The client replaces the
+     * context's config with method's own config (if any) so the shared client reapplies the limited config with
+     * DEADLINE_CONFIG_INTERCEPTOR before the request is sent.
+     *
+     * @return The context to execute method with
+     * @throws DeadlineExceededException if the deadline has already passed
+     */
+    private HttpContext applyDeadline(HttpRequestBase method, HttpContext context) throws DeadlineExceededException {
+        if (RequestDeadline.get() == null) {
+            return context;
+        }
+        RequestDeadline.check("requesting " + method.getURI());
+
+        RequestConfig base = method.getConfig() != null ? method.getConfig() : buildDefaultRequestConfig();
+        RequestConfig limited = RequestConfig.copy(base)
+                .setConnectTimeout((int) Math.min(Integer.MAX_VALUE, RequestDeadline.limit(base.getConnectTimeout())))
+                .setSocketTimeout((int) Math.min(Integer.MAX_VALUE, RequestDeadline.limit(base.getSocketTimeout())))
+                .setConnectionRequestTimeout((int) Math.min(Integer.MAX_VALUE, RequestDeadline.limit(base.getConnectionRequestTimeout())))
+                .build();
+        HttpContext limitedContext = context == null ? HttpClientContext.create() : context;
+        limitedContext.setAttribute(HttpClientContext.REQUEST_CONFIG, limited);
+        limitedContext.setAttribute(DEADLINE_REQUEST_CONFIG, limited);
+        return limitedContext;
+    }
+
+    /**
+     * Returns true if e was caused by this side ending the request (an aborted hedge/caller or the current thread's
+     * RequestDeadline running out) rather than by the remote host misbehaving.
+     */
+    private boolean isCallerTermination(HttpRequestBase method, HttpContext context, Exception e) {
+        if (method.isAborted() || e instanceof RequestAbortedException || e instanceof DeadlineExceededException) {
+            return true;
+        }
+        if (!(e instanceof InterruptedIOException) || context == null) {
+            return false;
+        }
+
+        //A timeout only blames the host if it wasn't shortened by the deadline
+        Object limited = context.getAttribute(DEADLINE_REQUEST_CONFIG);
+        if (!(limited instanceof RequestConfig)) {
+            return false;
+        }
+        RequestConfig limitedConfig = (RequestConfig) limited;
+        RequestConfig base = method.getConfig() != null ? method.getConfig() : buildDefaultRequestConfig();
+        return limitedConfig.getSocketTimeout() != base.getSocketTimeout() ||
+                limitedConfig.getConnectTimeout() != base.getConnectTimeout() ||
+                limitedConfig.getConnectionRequestTimeout() != base.getConnectionRequestTimeout();
+    }
+
+    private HttpResponse doExecute(HttpRequestBase method, HttpClient client, HttpContext context) throws IOException {
+        if (context == null) {
+            return client.execute(method);
+        }
+        return client.execute(method, context);
+    }
+
     /**
      * Convert a Buffered stream into a String and then closes the underlying stream (whether successful or not)
      *
@@ -0,0 +1,211 @@
+package org.auscope.portal.core.server.http;
+
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.http.conn.ConnectTimeoutException;
+
+/**
+ * The default HttpMetricsRecorder - aggregates counters and latency histograms per host (and optionally per OGC operation)
+ * in memory so they can be dumped via getSnapshot.
+ */
+public class InMemoryHttpMetricsRecorder implements HttpMetricsRecorder {
+
+    /** Upper bounds (inclusive, in milliseconds) of the latency histogram buckets. There is an implicit final overflow bucket */
+    public static final long[] LATENCY_BUCKETS = new long[] {10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000};
+
+    /** The key used for all requests once maxKeys has been reached */
+    public static final String OVERFLOW_KEY = "other";
+
+    private final ConcurrentHashMap<String, HostMetrics> metrics = new ConcurrentHashMap<>();
+    private boolean recordOperations = false;
+    private int maxKeys = 1000;
+
+    /**
+     * If true, metrics are aggregated per host AND OGC operation. Defaults to false (per host only)
+     *
+     * @return
+     */
+    public boolean isRecordOperations() {
+        return recordOperations;
+    }
+
+    /**
+     * If true, metrics are aggregated per host AND OGC operation. Defaults to false (per host only)
+     *
+     * @param recordOperations
+     */
+    public void setRecordOperations(boolean recordOperations) {
+        this.recordOperations = recordOperations;
+    }
+
+    /**
+     * The maximum number of distinct host/operation keys tracked before further keys are lumped into OVERFLOW_KEY
+     *
+     * @return
+     */
+    public int getMaxKeys() {
+        return maxKeys;
+    }
+
+    /**
+     * The maximum number of distinct host/operation keys tracked before further keys are lumped into OVERFLOW_KEY
+     *
+     * @param maxKeys
+     */
+    public void setMaxKeys(int maxKeys) {
+        this.maxKeys = maxKeys;
+    }
+
+    private HostMetrics getMetrics(String host, String operation) {
+        String key = host == null ? "unknown" : host.toLowerCase();
+        if (recordOperations && operation != null) {
+            key = key + " " + operation;
+        }
+
+        HostMetrics hm = metrics.get(key);
+        if (hm == null) {
+            if (metrics.size() >= maxKeys) {
+                key = OVERFLOW_KEY;
+            }
+            hm = metrics.computeIfAbsent(key, k -> new HostMetrics());
+        }
+        return hm;
+    }
+
+    @Override
+    public void recordResponse(String host, String operation, int statusCode, long timeToFirstByteMillis) {
+        HostMetrics hm = getMetrics(host, operation);
+        hm.statusCounts.get(StatusClass.fromStatusCode(statusCode)).increment();
+        hm.timeToFirstByte.record(timeToFirstByteMillis);
+    }
+
+    @Override
+    public void recordBody(String host, String operation, long bytes, long totalTimeMillis) {
+        HostMetrics hm = getMetrics(host, operation);
+        hm.bytes.add(bytes);
+        hm.totalTime.record(totalTimeMillis);
+    }
+
+    @Override
+    public void recordFailure(String host, String operation, Throwable error, long elapsedMillis) {
+        boolean timeout = error instanceof SocketTimeoutException || error instanceof ConnectTimeoutException ||
+                (error instanceof InterruptedIOException && error.getMessage() != null && error.getMessage().toLowerCase().contains("timeout"));
+        HostMetrics hm = getMetrics(host, operation);
+        hm.statusCounts.get(timeout ? StatusClass.TIMEOUT : StatusClass.ERROR).increment();
+        hm.totalTime.record(elapsedMillis);
+    }
+
+    @Override
+    public void recordBodyFailure(String host, String operation, long bytes, Throwable error, long totalTimeMillis) {
+        HostMetrics hm = getMetrics(host, operation);
+        hm.bodyErrors.increment();
+        hm.bytes.add(bytes);
+        hm.totalTime.record(totalTimeMillis);
+    }
+
+    /**
+     * Forgets all recorded metrics
+     */
+    public void reset() {
+        metrics.clear();
+    }
+
+    /**
+     * Gets a point in time copy of every host's (or host/operation's) metrics sorted by key. Each element is a map
+     * of simple values (suitable for JSON serialisation).
+     *
+     * @return
+     */
+    public List<Map<String, Object>> getSnapshot() {
+        List<Map<String, Object>> snapshot = new ArrayList<>();
+        for (Map.Entry<String, HostMetrics> entry : new TreeMap<>(metrics).entrySet()) {
+            Map<String, Object> hostSnapshot = entry.getValue().toSnapshot();
+            hostSnapshot.put("key", entry.getKey());
+            snapshot.add(hostSnapshot);
+        }
+        return snapshot;
+    }
+
+    /**
+     * All metrics for a single host (or host/operation)
+     */
+    private static class HostMetrics {
+        private final EnumMap<StatusClass, LongAdder> statusCounts = new EnumMap<>(StatusClass.class);
+        private final Histogram timeToFirstByte = new Histogram();
+        private final Histogram totalTime = new Histogram();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder bodyErrors = new LongAdder();
+
+        public HostMetrics() {
+            for (StatusClass sc : StatusClass.values()) {
+                statusCounts.put(sc, new LongAdder());
+            }
+        }
+
+        public Map<String, Object> toSnapshot() {
+            Map<String, Object> snapshot = new LinkedHashMap<>();
+            Map<String, Long> counts = new LinkedHashMap<>();
+            long requests = 0;
+            for (Map.Entry<StatusClass, LongAdder> entry : statusCounts.entrySet()) {
+                long count = entry.getValue().sum();
+                counts.put(entry.getKey().name(), count);
+                requests += count;
+            }
+            snapshot.put("requests", requests);
+            snapshot.put("statusCounts", counts);
+            snapshot.put("bodyErrors", bodyErrors.sum());
+            snapshot.put("bytes", bytes.sum());
+            snapshot.put("timeToFirstByte", timeToFirstByte.toSnapshot());
+            snapshot.put("totalTime", totalTime.toSnapshot());
+            return snapshot;
+        }
+    }
+
+    /**
+     * A fixed bucket latency histogram
+     */
+    private static class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(LATENCY_BUCKETS.length + 1);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        public void record(long millis) {
+            int i = 0;
+            while (i < LATENCY_BUCKETS.length && millis > LATENCY_BUCKETS[i]) {
+                i++;
+            }
+            buckets.incrementAndGet(i);
+            count.increment();
+            sum.add(millis);
+            max.accumulateAndGet(millis, Math::max);
+        }
+
+        public Map<String, Object> toSnapshot() {
+            Map<String, Object> snapshot = new LinkedHashMap<>();
+            long n = count.sum();
+            snapshot.put("count", n);
+            snapshot.put("mean", n == 0 ? 0 : sum.sum() / n);
+            snapshot.put("max", max.get());
+
+            Map<String, Long> bucketCounts = new LinkedHashMap<>();
+            for (int i = 0; i < LATENCY_BUCKETS.length; i++) {
+                bucketCounts.put("le" + LATENCY_BUCKETS[i], buckets.get(i));
+            }
+            bucketCounts.put("gt" + LATENCY_BUCKETS[LATENCY_BUCKETS.length - 1], buckets.get(LATENCY_BUCKETS.length));
+            snapshot.put("buckets", bucketCounts);
+            return snapshot;
+        }
+    }
+}
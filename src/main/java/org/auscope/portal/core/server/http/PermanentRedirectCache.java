@@ -0,0 +1,242 @@
+package org.auscope.portal.core.server.http;
+
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A bounded, expiring memo of permanent (301/308) redirects keyed by the original scheme, host, port and path.
+ *
+ * Once a URL has been permanently redirected, subsequent requests to it (with any query string) can be rewritten to the
+ * redirect target before being sent - saving a round trip to the old location. Only redirects that preserve the query
+ * string are memoised, as a redirect that rewrites the query can't be safely applied to other queries.
+ *
+ * The memoised redirects also identify configured URLs (eg CSW registries) that are stale and should be updated at source.
+ */
+public class PermanentRedirectCache {
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private int maxEntries = 1000;
+    private long ttl = 24 * 60 * 60 * 1000L;
+    private final LinkedHashMap<String, Redirect> redirects = new LinkedHashMap<String, Redirect>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Redirect> eldest) {
+            return size() > maxEntries;
+        }
+    };
+
+    /**
+     * The maximum number of redirects memoised. The least recently used redirect is evicted when exceeded
+     * @return
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * The maximum number of redirects memoised. The least recently used redirect is evicted when exceeded
+     * @param maxEntries
+     */
+    public synchronized void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * The time (in milliseconds) a memoised redirect is trusted before the original URL is requested again
+     * @return
+     */
+    public long getTtl() {
+        return ttl;
+    }
+
+    /**
+     * The time (in milliseconds) a memoised redirect is trusted before the original URL is requested again
+     * @param ttl
+     */
+    public void setTtl(long ttl) {
+        this.ttl = ttl;
+    }
+
+    /**
+     * Gets the key that uri is memoised under - the lower cased scheme and host plus the port and path
+     *
+     * @param uri
+     * @return
+     */
+    public static String getKey(URI uri) {
+        if (uri == null || uri.getScheme() == null || uri.getHost() == null) {
+            return null;
+        }
+
+        StringBuilder key = new StringBuilder();
+        key.append(uri.getScheme().toLowerCase()).append("://").append(uri.getHost().toLowerCase());
+        if (uri.getPort() >= 0) {
+            key.append(':').append(uri.getPort());
+        }
+        if (uri.getRawPath() != null) {
+            key.append(uri.getRawPath());
+        }
+        return key.toString();
+    }
+
+    /**
+     * Records that original was permanently redirected to (the absolute) target. Redirects that change the query string
+     * or that point back at the same key are ignored.
+     *
+     * @param original
+     * @param target
+     */
+    public void record(URI original, URI target) {
+        String key = getKey(original);
+        String targetKey = getKey(target);
+        if (key == null || targetKey == null || key.equals(targetKey)) {
+            return;
+        }
+        if (!Objects.equals(original.getRawQuery(), target.getRawQuery())) {
+            log.debug(String.format("Not memoising redirect from %1$s to %2$s as it changes the query string", original, target));
+            return;
+        }
+
+        synchronized (this) {
+            redirects.put(key, new Redirect(targetKey, System.currentTimeMillis()));
+        }
+        log.info(String.format("%1$s has permanently moved to %2$s - subsequent requests will be rewritten", key, targetKey));
+    }
+
+    /**
+     * Forgets any memoised redirect for original
+     *
+     * @param original
+     */
+    public void invalidate(URI original) {
+        String key = getKey(original);
+        if (key == null) {
+            return;
+        }
+        synchronized (this) {
+            redirects.remove(key);
+        }
+    }
+
+    /**
+     * Rewrites uri to its memoised permanent redirect target (keeping uri's query string and fragment)
+     *
+     * @param uri
+     * @return The rewritten URI or null if there is no (unexpired) memoised redirect for uri
+     */
+    public URI rewrite(URI uri) {
+        String key = getKey(uri);
+        if (key == null) {
+            return null;
+        }
+
+        String target;
+        synchronized (this) {
+            Redirect redirect = redirects.get(key);
+            if (redirect == null) {
+                return null;
+            }
+            if (System.currentTimeMillis() - redirect.getCreated() > ttl) {
+                redirects.remove(key);
+                return null;
+            }
+            redirect.hits++;
+            target = redirect.getTarget();
+        }
+
+        StringBuilder rewritten = new StringBuilder(target);
+        if (uri.getRawQuery() != null) {
+            rewritten.append('?').append(uri.getRawQuery());
+        }
+        if (uri.getRawFragment() != null) {
+            rewritten.append('#').append(uri.getRawFragment());
+        }
+        return URI.create(rewritten.toString());
+    }
+
+    /**
+     * Returns true if uri has an (unexpired) memoised permanent redirect - ie uri is stale and should be updated at source
+     *
+     * @param uri
+     * @return
+     */
+    public synchronized boolean isStale(URI uri) {
+        String key = getKey(uri);
+        if (key == null) {
+            return false;
+        }
+        Redirect redirect = redirects.get(key);
+        return redirect != null && System.currentTimeMillis() - redirect.getCreated() <= ttl;
+    }
+
+    /**
+     * Gets a snapshot of every unexpired memoised redirect keyed by the original (stale) URL
+     *
+     * @return
+     */
+    public synchronized Map<String, Redirect> getRedirects() {
+        long now = System.currentTimeMillis();
+        Map<String, Redirect> snapshot = new LinkedHashMap<>();
+        for (Map.Entry<String, Redirect> entry : redirects.entrySet()) {
+            Redirect redirect = entry.getValue();
+            if (now - redirect.getCreated() <= ttl) {
+                Redirect copy = new Redirect(redirect.getTarget(), redirect.getCreated());
+                copy.hits = redirect.hits;
+                snapshot.put(entry.getKey(), copy);
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Forgets every memoised redirect
+     */
+    public synchronized void clear() {
+        redirects.clear();
+    }
+
+    /**
+     * A single memoised permanent redirect
+     */
+    public static class Redirect {
+        private final String target;
+        private final long created;
+        private long hits;
+
+        public Redirect(String target, long created) {
+            this.target = target;
+            this.created = created;
+        }
+
+        /**
+         * The scheme, host, port and path that the original URL now redirects to
+         * @return
+         */
+        public String getTarget() {
+            return target;
+        }
+
+        /**
+         * When (in ms since the epoch) the redirect was recorded
+         * @return
+         */
+        public long getCreated() {
+            return created;
+        }
+
+        /**
+         * The number of requests rewritten using this redirect
+         * @return
+         */
+        public long getHits() {
+            return hits;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package org.auscope.portal.core.server.http;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A request scoped (per thread) deadline that bounds the total time spent on upstream calls made on behalf of a single
+ * user request - no matter how many calls are chained, fanned out or retried.
+ *
+ * HttpServiceCaller gives every call the smaller of its own timeouts and the time remaining, refusing to send requests
+ * (with a DeadlineExceededException) once the deadline has passed. RetryPolicy won't retry past the deadline.
+ *
+ * Typical usage (eg in a controller):
+ *
+ * <pre>
+ * Long previous = RequestDeadline.start(10000);
+ * try {
+ *     ...make upstream calls...
+ * } finally {
+ *     RequestDeadline.set(previous);
+ * }
+ * </pre>
+ *
+ * Work handed to other threads must carry the deadline across explicitly (see get and set).
+ */
+public final class RequestDeadline {
+
+    private static final ThreadLocal<Long> DEADLINE = new ThreadLocal<>();
+
+    private RequestDeadline() {
+        //Static utility
+    }
+
+    /**
+     * Starts a deadline timeoutMillis from now for the current thread. If the current thread already has an earlier
+     * deadline, that deadline is kept.
+     *
+     * @param timeoutMillis
+     * @return The previous deadline - pass this to set once finished (in a finally block)
+     */
+    public static Long start(long timeoutMillis) {
+        Long previous = DEADLINE.get();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        if (previous == null || deadline - previous < 0) {
+            DEADLINE.set(deadline);
+        }
+        return previous;
+    }
+
+    /**
+     * Gets the current thread's deadline (an opaque value suitable for passing to set) or null if there is no deadline
+     *
+     * @return
+     */
+    public static Long get() {
+        return DEADLINE.get();
+    }
+
+    /**
+     * Sets (or clears if null) the current thread's deadline to a value returned by get or start
+     *
+     * @param deadline
+     * @return The previous deadline
+     */
+    public static Long set(Long deadline) {
+        Long previous = DEADLINE.get();
+        if (deadline == null) {
+            DEADLINE.remove();
+        } else {
+            DEADLINE.set(deadline);
+        }
+        return previous;
+    }
+
+    /**
+     * Gets the number of milliseconds until the current thread's deadline (which will be negative if the deadline has
+     * passed) or Long.MAX_VALUE if there is no deadline
+     *
+     * @return
+     */
+    public static long getRemaining() {
+        Long deadline = DEADLINE.get();
+        if (deadline == null) {
+            return Long.MAX_VALUE;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+    }
+
+    /**
+     * Returns true if the current thread has a deadline that has passed
+     *
+     * @return
+     */
+    public static boolean isExpired() {
+        return getRemaining() <= 0;
+    }
+
+    /**
+     * Gets the smaller of timeoutMillis and the time remaining until the current thread's deadline.
+     *
+     * @param timeoutMillis
+     *            A timeout in milliseconds. Values less than or equal to 0 are treated as no timeout
+     * @return The limited timeout in milliseconds (at least 1) or timeoutMillis if there is no deadline
+     */
+    public static long limit(long timeoutMillis) {
+        long remaining = getRemaining();
+        if (remaining == Long.MAX_VALUE) {
+            return timeoutMillis;
+        }
+        remaining = Math.max(1, remaining);
+        return timeoutMillis <= 0 ? remaining : Math.min(timeoutMillis, remaining);
+    }
+
+    /**
+     * Throws a DeadlineExceededException if the current thread has a deadline that has passed
+     *
+     * @param description
+     *            Describes what was about to be done (for the exception message)
+     * @throws DeadlineExceededException
+     */
+    public static void check(String description) throws DeadlineExceededException {
+        if (isExpired()) {
+            throw new DeadlineExceededException("Request deadline exceeded before " + description);
+        }
+    }
+}
@@ -0,0 +1,353 @@
+package org.auscope.portal.core.server.http;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URISyntaxException;
+import java.net.UnknownHostException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.xpath.XPathException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.xml.sax.SAXException;
+
+/**
+ * A reusable policy for retrying failed upstream requests with exponential backoff and full jitter.
+ *
+ * Only failures that are likely to be transient are retried (timeouts, connection failures, 5xx/408/429 responses and
+ * malformed XML responses). Permanent failures (4xx responses, unknown hosts, open circuits,
+ * malformed requests) fail immediately.
+ *
+ * Retries are never made past the current thread's RequestDeadline (if any) - including when the backoff delay alone would
+ * take the request past its deadline.
+ *
+ * To stop a struggling endpoint being hammered by many concurrent callers, every endpoint has a retry budget - a maximum
+ * number of retries that can be made to it in any window of retryBudgetWindow milliseconds. Once the budget is spent, failures
+ * are no longer retried until the window rolls over.
+ *
+ * Typical usage (a simple loop - no recursion):
+ *
+ * <pre>
+ * RetryPolicy.Retry retry = policy.begin(endpointUrl);
+ * while (true) {
+ *     try {
+ *         return makeRequest();
+ *     } catch (IOException e) {
+ *         if (!retry.shouldRetry(e)) {
+ *             throw e;
+ *         }
+ *         retry.backoff();
+ *     }
+ * }
+ * </pre>
+ */
+public class RetryPolicy {
+
+    private final Log log = LogFactory.getLog(getClass());
+    private final ConcurrentHashMap<String, Budget> budgets = new ConcurrentHashMap<>();
+
+    private int maxAttempts = 3;
+    private long baseDelay = 1000L;
+    private long maxDelay = 30000L;
+    private int retryBudget = 20;
+    private long retryBudgetWindow = 60000L;
+
+    /**
+     * Creates a policy with the default settings
+     */
+    public RetryPolicy() {
+        super();
+    }
+
+    /**
+     * Creates a policy with the specified attempts and base delay (all other settings will be the default)
+     *
+     * @param maxAttempts
+     * @param baseDelay
+     */
+    public RetryPolicy(int maxAttempts, long baseDelay) {
+        this.maxAttempts = maxAttempts;
+        this.baseDelay = baseDelay;
+    }
+
+    /**
+     * The maximum number of attempts (including the first) made for a single request
+     * @return
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * The maximum number of attempts (including the first) made for a single request
+     * @param maxAttempts
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * The delay (in milliseconds) cap for the first retry. Each subsequent retry doubles this cap (up to maxDelay)
+     * @return
+     */
+    public long getBaseDelay() {
+        return baseDelay;
+    }
+
+    /**
+     * The delay (in milliseconds) cap for the first retry. Each subsequent retry doubles this cap (up to maxDelay)
+     * @param baseDelay
+     */
+    public void setBaseDelay(long baseDelay) {
+        this.baseDelay = baseDelay;
+    }
+
+    /**
+     * The maximum delay (in milliseconds) between any two attempts
+     * @return
+     */
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+
+    /**
+     * The maximum delay (in milliseconds) between any two attempts
+     * @param maxDelay
+     */
+    public void setMaxDelay(long maxDelay) {
+        this.maxDelay = maxDelay;
+    }
+
+    /**
+     * The maximum number of retries made to a single endpoint per retryBudgetWindow
+     * @return
+     */
+    public int getRetryBudget() {
+        return retryBudget;
+    }
+
+    /**
+     * The maximum number of retries made to a single endpoint per retryBudgetWindow
+     * @param retryBudget
+     */
+    public void setRetryBudget(int retryBudget) {
+        this.retryBudget = retryBudget;
+    }
+
+    /**
+     * The length (in milliseconds) of the window over which retryBudget applies
+     * @return
+     */
+    public long getRetryBudgetWindow() {
+        return retryBudgetWindow;
+    }
+
+    /**
+     * The length (in milliseconds) of the window over which retryBudget applies
+     * @param retryBudgetWindow
+     */
+    public void setRetryBudgetWindow(long retryBudgetWindow) {
+        this.retryBudgetWindow = retryBudgetWindow;
+    }
+
+    /**
+     * Begins a new request to endpoint using this policy's maxAttempts and baseDelay
+     *
+     * @param endpoint
+     *            Identifies the endpoint whose retry budget will be used (typically the service URL)
+     * @return
+     */
+    public Retry begin(String endpoint) {
+        return new Retry(endpoint, maxAttempts, baseDelay);
+    }
+
+    /**
+     * Begins a new request to endpoint overriding this policy's maxAttempts and baseDelay
+     *
+     * @param endpoint
+     *            Identifies the endpoint whose retry budget will be used (typically the service URL)
+     * @param maxAttempts
+     *            The maximum number of attempts (including the first)
+     * @param baseDelay
+     *            The delay (in milliseconds) cap for the first retry
+     * @return
+     */
+    public Retry begin(String endpoint, int maxAttempts, long baseDelay) {
+        return new Retry(endpoint, maxAttempts, baseDelay);
+    }
+
+    /**
+     * Returns true if error (or one of its causes) is likely to be a transient failure worth retrying
+     *
+     * @param error
+     * @return
+     */
+    public boolean isRetryable(Throwable error) {
+        boolean sawIOException = false;
+        for (Throwable t = error; t != null; t = t.getCause() == t ? null : t.getCause()) {
+            if (t instanceof CircuitBreakerOpenException || t instanceof DeadlineExceededException || t instanceof UnknownHostException ||
+                    t instanceof URISyntaxException || t instanceof ParserConfigurationException ||
+                    t instanceof XPathException) {
+                return false;
+            }
+            if (t instanceof SAXException) {
+                //Malformed (probably truncated) XML
+                return true;
+            }
+            if (t instanceof IOException) {
+                Integer statusCode = parseStatusCode(t.getMessage());
+                if (statusCode != null) {
+                    return statusCode >= 500 || statusCode == 408 || statusCode == 429;
+                }
+                sawIOException = true;
+            }
+        }
+        return sawIOException;
+    }
+
+    /**
+     * HttpServiceCaller reports unsuccessful responses as an IOException whose message is the status code
+     */
+    private static Integer parseStatusCode(String message) {
+        if (message == null || message.length() != 3) {
+            return null;
+        }
+        try {
+            int code = Integer.parseInt(message);
+            return code >= 100 && code < 600 ? code : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Calculates the delay before the specified retry (1 based) using full jitter - a uniformly random delay between 0 and
+     * min(maxDelay, baseDelay * 2^(retry - 1))
+     *
+     * @param retry
+     * @param baseDelay
+     * @return
+     */
+    protected long calculateDelay(int retry, long baseDelay) {
+        long cap = baseDelay;
+        for (int i = 1; i < retry && cap < maxDelay; i++) {
+            cap *= 2;
+        }
+        cap = Math.min(cap, maxDelay);
+        return cap <= 0 ? 0 : ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+
+    /**
+     * Sleeps the current thread for millis milliseconds
+     *
+     * @param millis
+     * @throws InterruptedException
+     */
+    protected void sleep(long millis) throws InterruptedException {
+        Thread.sleep(millis);
+    }
+
+    private boolean tryConsumeBudget(String endpoint) {
+        if (endpoint == null) {
+            return true;
+        }
+        return budgets.computeIfAbsent(endpoint, e -> new Budget()).tryConsume();
+    }
+
+    /**
+     * A fixed window count of retries made against a single endpoint
+     */
+    private class Budget {
+        private long windowStart = System.currentTimeMillis();
+        private int used;
+
+        public synchronized boolean tryConsume() {
+            long now = System.currentTimeMillis();
+            if (now - windowStart >= retryBudgetWindow) {
+                windowStart = now;
+                used = 0;
+            }
+            if (used >= retryBudget) {
+                return false;
+            }
+            used++;
+            return true;
+        }
+    }
+
+    /**
+     * The retry state of a single request. Not thread safe.
+     */
+    public class Retry {
+        private final String endpoint;
+        private final int maxAttempts;
+        private final long baseDelay;
+        private int attempt = 1;
+        private long nextDelay;
+
+        private Retry(String endpoint, int maxAttempts, long baseDelay) {
+            this.endpoint = endpoint;
+            this.maxAttempts = maxAttempts;
+            this.baseDelay = baseDelay;
+        }
+
+        /**
+         * The current attempt number (1 based)
+         * @return
+         */
+        public int getAttempt() {
+            return attempt;
+        }
+
+        /**
+         * Decides whether the request should be retried after failing with error. If true is returned, a retry will have
+         * been charged against the endpoint's budget and backoff should be called before the next attempt.
+         *
+         * @param error
+         * @return
+         */
+        public boolean shouldRetry(Throwable error) {
+            if (attempt >= maxAttempts) {
+                log.warn(String.format("%1$s - attempt %2$s of %3$s failed, giving up: %4$s", endpoint, attempt, maxAttempts, error));
+                return false;
+            }
+            if (!isRetryable(error)) {
+                log.debug(String.format("%1$s - attempt %2$s failed with a non retryable error: %3$s", endpoint, attempt, error));
+                return false;
+            }
+            nextDelay = calculateDelay(attempt, baseDelay);
+            if (nextDelay >= RequestDeadline.getRemaining()) {
+                log.warn(String.format("%1$s - request deadline reached, giving up after attempt %2$s: %3$s", endpoint, attempt, error));
+                return false;
+            }
+            if (!tryConsumeBudget(endpoint)) {
+                log.warn(String.format("%1$s - retry budget exhausted, giving up after attempt %2$s: %3$s", endpoint, attempt, error));
+                return false;
+            }
+
+            log.warn(String.format("%1$s - attempt %2$s of %3$s failed, retrying: %4$s", endpoint, attempt, maxAttempts, error));
+            return true;
+        }
+
+        /**
+         * Sleeps for the (jittered) backoff delay (chosen by shouldRetry) before the next attempt
+         *
+         * @throws InterruptedIOException
+         *             if the thread is interrupted whilst waiting (the interrupt flag will be restored)
+         */
+        public void backoff() throws InterruptedIOException {
+            long delay = nextDelay;
+            nextDelay = 0;
+            attempt++;
+            try {
+                sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting to retry " + endpoint);
+            }
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package org.auscope.portal.core.server.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.SequenceInputStream;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.StatusLine;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.impl.execchain.RequestAbortedException;
+import org.apache.http.message.BasicHttpResponse;
+
+/**
+ * Coalesces concurrent identical GET requests so that only a single upstream request is made.
+ *
+ * The first caller for a given URL (and set of request headers) becomes the 'leader' and makes the upstream request. Any
+ * identical requests that arrive while the leader is in flight wait for, and then receive their own copy of, the leader's
+ * buffered response (or the leader's exception).
+ *
+ * Responses larger than maxBufferedBytes are never buffered - the leader streams its response as normal and any waiting
+ * requests fall back to making their own independent upstream request. Waiting requests also fall back to their own
+ * request if the leader fails for reasons specific to the leader (it was interrupted, aborted or ran out of its
+ * RequestDeadline) or if the leader takes longer than the waiting request is prepared to wait.
+ */
+public class SingleFlightGroup {
+
+    /** Default maximum response size (in bytes) that will be shared between coalesced requests */
+    public static final long DEFAULT_MAX_BUFFERED_BYTES = 5L * 1024L * 1024L;
+
+    /**
+     * Makes the actual upstream request on behalf of a SingleFlightGroup
+     */
+    public interface ResponseLoader {
+        /**
+         * Makes the upstream request returning a successful response
+         *
+         * @return
+         * @throws IOException
+         */
+        HttpResponse load() throws IOException;
+    }
+
+    private final Log log = LogFactory.getLog(getClass());
+    private final ConcurrentHashMap<String, CompletableFuture<BufferedResponse>> flights = new ConcurrentHashMap<>();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private long maxBufferedBytes = DEFAULT_MAX_BUFFERED_BYTES;
+
+    /**
+     * The maximum response size (in bytes) that will be shared between coalesced requests
+     *
+     * @return
+     */
+    public long getMaxBufferedBytes() {
+        return maxBufferedBytes;
+    }
+
+    /**
+     * The maximum response size (in bytes) that will be shared between coalesced requests. Larger responses will
+     * cause waiting requests to fall back to independent upstream requests.
+     *
+     * @param maxBufferedBytes
+     */
+    public void setMaxBufferedBytes(long maxBufferedBytes) {
+        this.maxBufferedBytes = maxBufferedBytes;
+    }
+
+    /**
+     * Gets the number of requests that have been served by another request's upstream call (or attempted to be)
+     *
+     * @return
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    /**
+     * Returns true if method is an idempotent request that can be coalesced with identical requests
+     *
+     * @param method
+     * @return
+     */
+    public boolean isEligible(HttpRequestBase method) {
+        return HttpGet.METHOD_NAME.equals(method.getMethod()) && method.getURI() != null;
+    }
+
+    /**
+     * Generates the key identifying requests that are considered identical
+     */
+    private String generateKey(HttpRequestBase method) {
+        StringBuilder sb = new StringBuilder(method.getURI().toString());
+        Header[] headers = method.getAllHeaders();
+        Arrays.sort(headers, Comparator.comparing(Header::getName, String.CASE_INSENSITIVE_ORDER));
+        for (Header header : headers) {
+            sb.append('\n').append(header.getName().toLowerCase()).append(':').append(header.getValue());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Makes (or joins) the upstream request for method. Requests joining an in flight request will wait no longer than
+     * the socket timeout of method's RequestConfig (if any) or the current RequestDeadline.
+     *
+     * @param method
+     *            Must be eligible as per isEligible
+     * @param loader
+     *            Used to make the upstream request if there is no identical request in flight
+     * @return
+     * @throws IOException
+     */
+    public HttpResponse execute(HttpRequestBase method, ResponseLoader loader) throws IOException {
+        long timeoutMillis = method.getConfig() == null ? 0 : method.getConfig().getSocketTimeout();
+        return execute(method, timeoutMillis, loader);
+    }
+
+    /**
+     * Makes (or joins) the upstream request for method.
+     *
+     * @param method
+     *            Must be eligible as per isEligible
+     * @param timeoutMillis
+     *            The longest time (in milliseconds) to wait for an identical in flight request before making an
+     *            independent request. This is further limited by the current RequestDeadline. Values less than or
+     *            equal to 0 mean no limit (other than the RequestDeadline)
+     * @param loader
+     *            Used to make the upstream request if there is no identical request in flight
+     * @return
+     * @throws IOException
+     */
+    public HttpResponse execute(HttpRequestBase method, long timeoutMillis, ResponseLoader loader) throws IOException {
+        String key = generateKey(method);
+        CompletableFuture<BufferedResponse> flight = new CompletableFuture<>();
+        CompletableFuture<BufferedResponse> existing = flights.putIfAbsent(key, flight);
+        if (existing != null) {
+            coalescedCount.incrementAndGet();
+            BufferedResponse shared = await(existing, RequestDeadline.limit(timeoutMillis), method);
+            if (shared != null) {
+                return shared.toHttpResponse();
+            }
+            return loader.load();
+        }
+
+        //We are the leader - waiting requests must be notified however we finish. The flight is removed BEFORE
+        //completion so that later requests can never observe a finished flight.
+        BufferedResponse buffered = null;
+        try {
+            HttpResponse response = loader.load();
+            buffered = buffer(response);
+            return buffered == null ? response : buffered.toHttpResponse();
+        } catch (IOException | RuntimeException | Error e) {
+            flights.remove(key, flight);
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            if (!flight.isDone()) {
+                flights.remove(key, flight);
+                flight.complete(buffered);
+            }
+        }
+    }
+
+    /**
+     * Attempts to buffer response into memory. If response is too large, null will be returned and response will
+     * be left in a readable state
+     */
+    private BufferedResponse buffer(HttpResponse response) throws IOException {
+        HttpEntity entity = response.getEntity();
+        if (entity == null) {
+            return new BufferedResponse(response, new byte[0]);
+        }
+
+        if (entity.getContentLength() > maxBufferedBytes) {
+            return null;
+        }
+
+        InputStream content = entity.getContent();
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int read;
+        try {
+            while (head.size() <= maxBufferedBytes && (read = content.read(buf, 0, (int) Math.min(buf.length, maxBufferedBytes + 1 - head.size()))) != -1) {
+                head.write(buf, 0, read);
+            }
+        } catch (IOException | RuntimeException e) {
+            content.close();
+            throw e;
+        }
+
+        if (head.size() > maxBufferedBytes) {
+            //Hand the leader back everything we've read followed by the remainder of the stream
+            InputStreamEntity replay = new InputStreamEntity(new SequenceInputStream(new ByteArrayInputStream(head.toByteArray()), content), -1);
+            replay.setContentType(entity.getContentType());
+            replay.setContentEncoding(entity.getContentEncoding());
+            response.setEntity(replay);
+            return null;
+        }
+
+        content.close();
+        return new BufferedResponse(response, head.toByteArray());
+    }
+
+    /**
+     * Returns true if the leader's request failed for a reason that says nothing about the upstream service (and so
+     * shouldn't be handed on to the requests waiting on it)
+     */
+    private boolean isLeaderSpecificFailure(Throwable t) {
+        if (t instanceof DeadlineExceededException || t instanceof RequestAbortedException) {
+            return true;
+        }
+        //A genuine socket timeout is the upstream service being slow - that applies to everyone
+        return t instanceof InterruptedIOException && !(t instanceof SocketTimeoutException);
+    }
+
+    /**
+     * Waits up to timeoutMillis (no limit if <= 0) for flight returning the shared response or null if the waiting
+     * request should make its own independent request.
+     */
+    private BufferedResponse await(CompletableFuture<BufferedResponse> flight, long timeoutMillis, HttpRequestBase method) throws IOException {
+        try {
+            BufferedResponse shared = timeoutMillis > 0 ? flight.get(timeoutMillis, TimeUnit.MILLISECONDS) : flight.get();
+            if (shared == null) {
+                log.trace("Shared response too large, making independent request for " + method.getURI());
+            }
+            return shared;
+        } catch (TimeoutException e) {
+            log.debug("Timed out waiting for coalesced request, making independent request for " + method.getURI());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for coalesced request");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (isLeaderSpecificFailure(cause)) {
+                log.debug("Coalesced request failed with '" + cause + "', making independent request for " + method.getURI());
+                return null;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * An immutable, in memory copy of a response that can be handed out to multiple requests
+     */
+    private static class BufferedResponse {
+        private final StatusLine statusLine;
+        private final Header[] headers;
+        private final Header contentType;
+        private final Header contentEncoding;
+        private final byte[] body;
+
+        public BufferedResponse(HttpResponse response, byte[] body) {
+            HttpEntity entity = response.getEntity();
+            this.statusLine = response.getStatusLine();
+            this.headers = response.getAllHeaders();
+            this.contentType = entity == null ? null : entity.getContentType();
+            this.contentEncoding = entity == null ? null : entity.getContentEncoding();
+            this.body = body;
+        }
+
+        public HttpResponse toHttpResponse() {
+            BasicHttpResponse response = new BasicHttpResponse(statusLine);
+            response.setHeaders(headers);
+            ByteArrayEntity entity = new ByteArrayEntity(body);
+            entity.setContentType(contentType);
+            entity.setContentEncoding(contentEncoding);
+            response.setEntity(entity);
+            return response;
+        }
+    }
+}
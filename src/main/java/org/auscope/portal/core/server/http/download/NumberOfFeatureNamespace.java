@@ -2,6 +2,11 @@ package org.auscope.portal.core.server.http.download;
 
 import org.auscope.portal.core.services.namespaces.IterableNamespace;
 
+/**
+ * @deprecated Feature counts are now read with a single StAX pass that doesn't need a namespace context - use
+ *             DOMResponseUtil.countFeatures instead
+ */
+@Deprecated
 public class NumberOfFeatureNamespace extends IterableNamespace {
 
     public NumberOfFeatureNamespace() {
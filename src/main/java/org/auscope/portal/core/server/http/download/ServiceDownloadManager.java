@@ -5,7 +5,6 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.file.Files;
@@ -19,8 +18,6 @@ import java.util.concurrent.TimeUnit;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
-import javax.xml.namespace.NamespaceContext;
-
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -29,8 +26,10 @@ import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.auscope.portal.core.configuration.ServiceConfiguration;
 import org.auscope.portal.core.configuration.ServiceConfigurationItem;
+import org.auscope.portal.core.server.http.HostRateLimiter;
 import org.auscope.portal.core.server.http.HttpClientResponse;
 import org.auscope.portal.core.server.http.HttpServiceCaller;
+import org.auscope.portal.core.server.http.RetryPolicy;
 import org.auscope.portal.core.services.responses.ows.OWSException;
 import org.auscope.portal.core.util.DOMResponseUtil;
 import org.auscope.portal.core.util.FileIOUtil;
@@ -51,6 +50,8 @@ public class ServiceDownloadManager {
     // 120 minutes is a huge time as a final catch all safety net.
     public static final int MAX_WAIT_TIME_MINUTE = 360;
     private static ConcurrentHashMap<String, Semaphore> endpointSemaphores;
+    // Shared between managers (like endpointSemaphores) so the per endpoint retry budget spans every download
+    private static final RetryPolicy defaultRetryPolicy = new RetryPolicy();
     private static int globalId;
     private int callerId;
     private ExecutorService pool;
@@ -66,6 +67,7 @@ public class ServiceDownloadManager {
     private HttpServiceCaller serviceCaller;
     private ServiceConfiguration serviceConfiguration;
     private String fileExtensionOverride;
+    private RetryPolicy retryPolicy = defaultRetryPolicy;
 
     public ServiceDownloadManager(String[] urls,
             HttpServiceCaller serviceCaller, ExecutorService executer)
@@ -98,6 +100,24 @@ public class ServiceDownloadManager {
         }
     }
 
+    /**
+     * The policy used to retry failed page requests in paged downloads. Defaults to a policy shared by all managers.
+     *
+     * @return
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * The policy used to retry failed page requests in paged downloads. Defaults to a policy shared by all managers.
+     *
+     * @param retryPolicy
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
     public synchronized ArrayList<DownloadResponse> downloadAll()
             throws URISyntaxException,
             InCompleteDownloadException {
@@ -212,7 +232,12 @@ public class ServiceDownloadManager {
                     }
                 }
                 logger.info((callerId + "->Calling service: " + id + " " + url));
-                this.download(response, url);
+                HostRateLimiter.Priority previousPriority = HostRateLimiter.setCurrentPriority(HostRateLimiter.Priority.BACKGROUND);
+                try {
+                    this.download(response, url);
+                } finally {
+                    HostRateLimiter.setCurrentPriority(previousPriority);
+                }
                 this.downloadComplete = true;
                 logger.info(callerId + "->Download Complete: " + id + " " + url);
             } catch (InterruptedException e) {
@@ -290,28 +315,10 @@ public class ServiceDownloadManager {
                 int index = 0;
 
                 while (true) {
-                    HttpGet method = new HttpGet(theUrl + "&startIndex=" + index);
-                    @SuppressWarnings("resource")
-                    HttpResponse httpResponse = serviceCaller.getMethodResponseAsHttpResponse(method);
-
-                    Header header = httpResponse.getEntity().getContentType();
-                    String fileExtension = ".xml";//VT: Default to xml as we will mostly be dealing with xml files
-                    if (this.downloadFileExtensionOverride != null) {
-                        fileExtension = this.downloadFileExtensionOverride;
-                    } else if (header != null && header.getValue().length() > 0) {
-                        fileExtension = "."
-                                + MimeUtil.mimeToFileExtension(httpResponse.getEntity().getContentType().getValue());
-
-                    }
-                    File f = new File(tempDir, "ResultIndexed-" + index + fileExtension);
-                    f.deleteOnExit();
-                    FileIOUtil.writeStreamToFile(httpResponse.getEntity().getContent(), f, true);
-                    int numberOfFeatures = this.getNumberOfFeature(f);
+                    int numberOfFeatures = this.downloadPage(tempDir, theUrl, index);
                     if (numberOfFeatures != 0) {
                         index += numberOfFeatures;
                     } else {
-                        //VT: Delete file since it has 0 number of features;break out of this while loop
-                        f.delete();
                         break;
                     }
                 }
@@ -333,13 +340,56 @@ public class ServiceDownloadManager {
 
         }
 
-        private int getNumberOfFeature(File f) throws IOException, OWSException {
-            try (InputStream br = new BufferedInputStream(new FileInputStream(f))) {
-                NamespaceContext ns = new NumberOfFeatureNamespace();
-                return DOMResponseUtil.getNumberOfFeatures(br, ns);
+        /**
+         * Downloads the page of features starting at index into tempDir, retrying transient failures according to retryPolicy.
+         *
+         * @return the number of features in the page (the page file will be deleted if this is 0)
+         */
+        private int downloadPage(File tempDir, String theUrl, int index) throws IOException, OWSException, URISyntaxException {
+            RetryPolicy.Retry retry = retryPolicy.begin(getHost(theUrl));
+            while (true) {
+                HttpGet method = new HttpGet(theUrl + "&startIndex=" + index);
+                File f = null;
+                try {
+                    @SuppressWarnings("resource")
+                    HttpResponse httpResponse = serviceCaller.getMethodResponseAsHttpResponse(method);
+
+                    Header header = httpResponse.getEntity().getContentType();
+                    String fileExtension = ".xml";//VT: Default to xml as we will mostly be dealing with xml files
+                    if (this.downloadFileExtensionOverride != null) {
+                        fileExtension = this.downloadFileExtensionOverride;
+                    } else if (header != null && header.getValue().length() > 0) {
+                        fileExtension = "."
+                                + MimeUtil.mimeToFileExtension(httpResponse.getEntity().getContentType().getValue());
+
+                    }
+                    f = new File(tempDir, "ResultIndexed-" + index + fileExtension);
+                    f.deleteOnExit();
+                    FileIOUtil.writeStreamToFile(httpResponse.getEntity().getContent(), f, true);
+                    int numberOfFeatures = this.getNumberOfFeature(f);
+                    if (numberOfFeatures == 0) {
+                        //VT: Delete file since it has 0 number of features
+                        f.delete();
+                    }
+                    return numberOfFeatures;
+                } catch (IOException e) {
+                    if (f != null) {
+                        f.delete();
+                    }
+                    if (!retry.shouldRetry(e)) {
+                        throw e;
+                    }
+                } finally {
+                    method.releaseConnection();
+                }
+                retry.backoff();
             }
         }
 
+        private int getNumberOfFeature(File f) throws IOException, OWSException {
+            return DOMResponseUtil.countFeatures(new BufferedInputStream(new FileInputStream(f)));
+        }
+
         private File zipDirectory(File zipDir) throws IOException {
 
             File tempZip = File.createTempFile("APT_", ".zip");
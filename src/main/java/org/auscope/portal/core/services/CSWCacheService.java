@@ -17,7 +17,9 @@ import java.util.concurrent.Executor;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.auscope.portal.core.server.http.HostRateLimiter;
 import org.auscope.portal.core.server.http.HttpServiceCaller;
+import org.auscope.portal.core.server.http.RetryPolicy;
 import org.auscope.portal.core.services.csw.CSWServiceItem;
 import org.auscope.portal.core.services.responses.csw.AbstractCSWOnlineResource;
 import org.auscope.portal.core.services.responses.csw.AbstractCSWOnlineResource.OnlineResourceType;
@@ -79,6 +81,12 @@ public class CSWCacheService {
     protected boolean updateRunning; //don't set this variable directly
     /** If true, this class will force the usage of HTTP GetMethods instead of POST methods (where possible). Useful workaround for some CSW services */
     protected boolean forceGetMethods = false;
+    /** Shared by every harvest thread so that the per endpoint retry budget outlives a single cache update */
+    protected RetryPolicy retryPolicy = new RetryPolicy();
+    /** If true, harvested GetRecords responses are streamed one record at a time rather than parsed into a DOM tree */
+    protected boolean streamResponses = false;
+    /** Runs the record transforms for registries with more than 1 transform thread (see CSWServiceItem.transformThreads) */
+    protected Executor transformExecutor;
     protected Date lastCacheUpdate;
     
     // Provides access to CSWRecord index
@@ -179,6 +187,67 @@ public class CSWCacheService {
         this.forceGetMethods = forceGetMethods;
     }
 
+    /**
+     * The policy used to retry failed CSW requests whilst harvesting
+     *
+     * @return
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * The policy used to retry failed CSW requests whilst harvesting
+     *
+     * @param retryPolicy
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Whether harvested GetRecords responses are streamed one record at a time (bounding memory by the largest record)
+     * rather than parsed into a DOM tree
+     *
+     * @return
+     */
+    public boolean isStreamResponses() {
+        return streamResponses;
+    }
+
+    /**
+     * Whether harvested GetRecords responses are streamed one record at a time (bounding memory by the largest record)
+     * rather than parsed into a DOM tree
+     *
+     * @param streamResponses
+     */
+    public void setStreamResponses(boolean streamResponses) {
+        this.streamResponses = streamResponses;
+    }
+
+    /**
+     * The executor that harvested records are transformed on for registries with more than 1 transform thread. If null,
+     * every GetRecords response creates (and shuts down) its own short lived pool.
+     *
+     * @return
+     */
+    public Executor getTransformExecutor() {
+        return transformExecutor;
+    }
+
+    /**
+     * The executor that harvested records are transformed on for registries with more than 1 transform thread. If null,
+     * every GetRecords response creates (and shuts down) its own short lived pool.
+     *
+     * This must NOT be the executor running the harvest threads themselves (they block waiting on their transforms).
+     * The caller remains responsible for shutting it down.
+     *
+     * @param transformExecutor
+     */
+    public void setTransformExecutor(Executor transformExecutor) {
+        this.transformExecutor = transformExecutor;
+    }
+
     /**
      * Gets whether the currently running thread is OK to start a cache update
      *
@@ -509,6 +578,9 @@ public class CSWCacheService {
             this.timeBtwConnectionAttempts = timeBtwConnectionAttempts;
             this.cswService = new CSWService(this.endpoint, serviceCaller, this.parent.forceGetMethods,
                     this.parent.transformerFactory);
+            this.cswService.setRetryPolicy(this.parent.retryPolicy);
+            this.cswService.setStreamResponses(this.parent.streamResponses);
+            this.cswService.setTransformExecutor(this.parent.transformExecutor);
         }
 
         /**
@@ -900,8 +972,14 @@ public class CSWCacheService {
                 	this.addDummyCacheRecord();
                 }
                 else {
-                	// Fetch new records from the endpoint
-                	Map<String, CSWRecord> cswRecordMap = fetchAllRecordsFromEndpoint();
+                	// Fetch new records from the endpoint (harvesting must not starve interactive requests to the same host)
+                	Map<String, CSWRecord> cswRecordMap;
+                	HostRateLimiter.Priority previousPriority = HostRateLimiter.setCurrentPriority(HostRateLimiter.Priority.BACKGROUND);
+                	try {
+                	    cswRecordMap = fetchAllRecordsFromEndpoint();
+                	} finally {
+                	    HostRateLimiter.setCurrentPriority(previousPriority);
+                	}
                 	if (cswRecordMap != null && !cswRecordMap.isEmpty()) {
                 		// Normalize record map to ensure key integrity
                 		Map<String, CSWRecord> normalizedNewMap = new HashMap<>();
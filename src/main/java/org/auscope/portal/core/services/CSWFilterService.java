@@ -109,7 +109,7 @@ public class CSWFilterService {
         HttpRequestBase method = methodMaker.makeMethod(serviceItem.getServiceUrl(), filter, resultType, maxRecords, startIndex,
                     null, serviceItem.getServerType());
 
-        try (InputStream responseStream = serviceCaller.getMethodResponseAsStream(method)) {
+        try (InputStream responseStream = serviceCaller.getHedgedMethodResponseAsStream(method)) {
             Document responseDoc = DOMUtil.buildDomFromStream(responseStream);
             log.debug("got csw response: " + DOMUtil.buildStringFromDom(responseDoc, true));
             CSWGetRecordResponse res= new CSWGetRecordResponse(serviceItem, responseDoc, transformerFactory);
@@ -2,15 +2,19 @@ package org.auscope.portal.core.services;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.URISyntaxException;
+import java.util.concurrent.Executor;
 
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 import javax.xml.xpath.XPathException;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.auscope.portal.core.server.http.HttpServiceCaller;
+import org.auscope.portal.core.server.http.RetryPolicy;
 import org.auscope.portal.core.services.csw.CSWServiceItem;
 import org.auscope.portal.core.services.methodmakers.CSWMethodMakerGetDataRecords;
 import org.auscope.portal.core.services.methodmakers.CSWMethodMakerGetDataRecords.ResultType;
@@ -38,6 +42,9 @@ public class CSWService {
     private HttpServiceCaller serviceCaller;
     private boolean forceGetMethods;
     private CSWRecordTransformerFactory transformerFactory;
+    private RetryPolicy retryPolicy = new RetryPolicy();
+    private boolean streamResponses = false;
+    private Executor transformExecutor;
 
     /**
      * Creates a new instance with a new CSWRecordTransformerFactory instance
@@ -67,35 +74,100 @@ public class CSWService {
         this.transformerFactory = transformerFactory;
     }
     
+    /**
+     * The policy used to retry failed requests in queryCSWEndpoint. Sharing a single policy between CSWService instances
+     * will share the per endpoint retry budget.
+     *
+     * @return
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * The policy used to retry failed requests in queryCSWEndpoint. Sharing a single policy between CSWService instances
+     * will share the per endpoint retry budget.
+     *
+     * @param retryPolicy
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Whether GetRecords responses are streamed (StAX) one record at a time rather than parsed into a DOM tree. Streaming
+     * bounds peak memory by the largest single record rather than the whole page of records.
+     *
+     * @return
+     */
+    public boolean isStreamResponses() {
+        return streamResponses;
+    }
+
+    /**
+     * Whether GetRecords responses are streamed (StAX) one record at a time rather than parsed into a DOM tree. Streaming
+     * bounds peak memory by the largest single record rather than the whole page of records.
+     *
+     * @param streamResponses
+     */
+    public void setStreamResponses(boolean streamResponses) {
+        this.streamResponses = streamResponses;
+    }
+
+    /**
+     * The executor that records are transformed on for endpoints with more than 1 transform thread. If null, every
+     * response creates (and shuts down) its own short lived pool.
+     *
+     * @return
+     */
+    public Executor getTransformExecutor() {
+        return transformExecutor;
+    }
+
+    /**
+     * The executor that records are transformed on for endpoints with more than 1 transform thread. If null, every
+     * response creates (and shuts down) its own short lived pool. The caller remains responsible for shutting it down.
+     *
+     * @param transformExecutor
+     */
+    public void setTransformExecutor(Executor transformExecutor) {
+        this.transformExecutor = transformExecutor;
+    }
+
+    /**
+     * Makes a request to the CSW endpoint, retrying transient failures with a jittered exponential backoff (see RetryPolicy)
+     *
+     * @param startPosition
+     * @param maxQueryLength
+     * @param maxNumberOfAttempts
+     *            The maximum number of attempts (including the first)
+     * @param timeBetweenAttempts
+     *            The base backoff delay (in milliseconds). Subsequent retries wait (on average) exponentially longer
+     * @return The response or null if the thread was interrupted whilst waiting to retry
+     * @throws IOException
+     * @throws OWSException
+     */
     public CSWGetRecordResponse queryCSWEndpoint(int startPosition, int maxQueryLength, int maxNumberOfAttempts,
             long timeBetweenAttempts) throws IOException, OWSException {
-
-        int numberOfAttempts=maxNumberOfAttempts;
-        try {
-            while (numberOfAttempts > 0) {
+        RetryPolicy.Retry retry = retryPolicy.begin(this.endpoint.getServiceUrl(), maxNumberOfAttempts, timeBetweenAttempts);
+        while (true) {
+            try {
                 return this.queryCSWEndpoint(startPosition, maxQueryLength, null);
-            }
-            //
-            // This code should be unreachable as the catch clause should throw an exception before.
-            //
-            throw new IOException("CSWService#queryCSWEndpoint() aborted after " + maxNumberOfAttempts+" failed attempts");
-        } catch (java.io.IOException e) {
-            log.warn("Attempt to query CSW end point failed. Number of attempts left:" + --numberOfAttempts);
-            if (numberOfAttempts > 0) {
-                try {
-                    Thread.sleep(timeBetweenAttempts);
-                } catch (InterruptedException e1) {
-                    log.warn("queryCSWEndpoint interrupted. Aborting query");
-                    return null;
+            } catch (IOException e) {
+                if (!retry.shouldRetry(e)) {
+                    throw e;
                 }
-                return queryCSWEndpoint(startPosition, maxQueryLength, numberOfAttempts, timeBetweenAttempts);
-            } else {
-                throw e;
             }
-        }
 
+            try {
+                retry.backoff();
+            } catch (InterruptedIOException e) {
+                log.warn("queryCSWEndpoint interrupted. Aborting query");
+                return null;
+            }
+        }
     }
-    
+
     public CSWGetRecordResponse queryCSWEndpoint(int startPosition, int maxQueryLength, CSWGetDataRecordsFilter filter) throws IOException, OWSException {
         log.trace(String.format("%1$s - requesting startPosition %2$s", this.endpoint.getServiceUrl(), startPosition));
 
@@ -121,12 +193,16 @@ public class CSWService {
             responseStream = this.serviceCaller.getMethodResponseAsStream(method);
         	log.trace(String.format("%1$s - Response received", this.endpoint.getServiceUrl()));
         	
+            if (streamResponses) {
+                return CSWGetRecordResponse.parseFromStream(this.endpoint, responseStream, transformerFactory, transformExecutor);
+            }
+
             // Parse the response into newCache (remember that maps are NOT thread safe)
             Document responseDocument = DOMUtil.buildDomFromStream(responseStream);
             OWSExceptionParser.checkForExceptionResponse(responseDocument);
             
-        	return new CSWGetRecordResponse(this.endpoint, responseDocument, transformerFactory);
-        } catch (ParserConfigurationException | SAXException | XPathException e) {
+        	return new CSWGetRecordResponse(this.endpoint, responseDocument, transformerFactory, transformExecutor);
+        } catch (ParserConfigurationException | SAXException | XPathException | XMLStreamException e) {
             throw new IOException(e.getMessage(), e);
         } finally {
             if(responseStream!=null) {
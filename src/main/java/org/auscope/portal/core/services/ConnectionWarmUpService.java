@@ -0,0 +1,285 @@
+package org.auscope.portal.core.services;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.auscope.portal.core.server.http.HttpServiceCaller;
+import org.auscope.portal.core.services.csw.CSWServiceItem;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Warms up the HttpServiceCaller's connection pool at startup so that the first users after a deploy don't pay for DNS
+ * resolution, TCP and TLS setup to every configured CSW registry and known layer host.
+ *
+ * Every distinct host is warmed up in parallel (in the background) with the whole warm up limited to timeBudget milliseconds
+ * - startup is never blocked. Hosts that couldn't be connected to are logged (and available via getLastResult).
+ */
+public class ConnectionWarmUpService {
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private HttpServiceCaller serviceCaller;
+    private List<CSWServiceItem> cswServiceList;
+    private KnownLayerService knownLayerService;
+    private boolean enabled = true;
+    private int connectionsPerHost = 2;
+    private long timeBudget = 10000L;
+    private volatile WarmUpResult lastResult;
+
+    /**
+     * Creates a new instance of this class. This constructor is normally autowired by the spring framework.
+     *
+     * @param serviceCaller
+     *            The service caller whose connection pool will be warmed up
+     * @param cswServiceList
+     *            Must be an untyped array of CSWServiceItem objects (for bean autowiring) representing CSW URL endpoints
+     * @param knownLayerService
+     *            Used for looking up known layer service URLs (can be null)
+     */
+    public ConnectionWarmUpService(HttpServiceCaller serviceCaller,
+            @SuppressWarnings("rawtypes") List cswServiceList,
+            KnownLayerService knownLayerService) {
+        this.serviceCaller = serviceCaller;
+        this.knownLayerService = knownLayerService;
+        this.cswServiceList = new ArrayList<>();
+        if (cswServiceList != null) {
+            for (Object obj : cswServiceList) {
+                if (obj instanceof CSWServiceItem) {
+                    this.cswServiceList.add((CSWServiceItem) obj);
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether the warm up will run at startup
+     * @return
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Whether the warm up will run at startup
+     * @param enabled
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * The number of keep-alive connections opened to each host
+     * @return
+     */
+    public int getConnectionsPerHost() {
+        return connectionsPerHost;
+    }
+
+    /**
+     * The number of keep-alive connections opened to each host
+     * @param connectionsPerHost
+     */
+    public void setConnectionsPerHost(int connectionsPerHost) {
+        this.connectionsPerHost = connectionsPerHost;
+    }
+
+    /**
+     * The maximum time (in milliseconds) the whole warm up can take. Hosts that haven't been connected to by then are
+     * reported as failed.
+     * @return
+     */
+    public long getTimeBudget() {
+        return timeBudget;
+    }
+
+    /**
+     * The maximum time (in milliseconds) the whole warm up can take. Hosts that haven't been connected to by then are
+     * reported as failed.
+     * @param timeBudget
+     */
+    public void setTimeBudget(long timeBudget) {
+        this.timeBudget = timeBudget;
+    }
+
+    /**
+     * Gets the result of the most recently completed warm up (or null if no warm up has completed)
+     * @return
+     */
+    public WarmUpResult getLastResult() {
+        return lastResult;
+    }
+
+    /**
+     * Starts the warm up in the background (if enabled). Called automatically at startup.
+     */
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        Thread.ofVirtual().name("connection-warm-up").start(() -> {
+            try {
+                warmUp();
+            } catch (Exception e) {
+                log.warn("Connection warm up failed: " + e.getMessage());
+                log.debug("Exception:", e);
+            }
+        });
+    }
+
+    /**
+     * Gets the URLs of every configured CSW registry and known layer service
+     * @return
+     */
+    protected Collection<String> getServiceUrls() {
+        List<String> urls = new ArrayList<>();
+        for (CSWServiceItem item : cswServiceList) {
+            urls.add(item.getServiceUrl());
+        }
+        if (knownLayerService != null) {
+            urls.addAll(knownLayerService.getKnownLayerServiceUrls());
+        }
+        return urls;
+    }
+
+    /**
+     * Warms up connections to every configured CSW registry and known layer host, blocking until complete (or the time
+     * budget is exhausted).
+     *
+     * @return
+     */
+    public WarmUpResult warmUp() {
+        return warmUp(getServiceUrls());
+    }
+
+    /**
+     * Warms up connections to the hosts of every one of urls, blocking until complete (or the time budget is exhausted).
+     *
+     * @param urls
+     * @return
+     */
+    public WarmUpResult warmUp(Collection<String> urls) {
+        long start = System.currentTimeMillis();
+        WarmUpResult result = new WarmUpResult();
+
+        //We only need to connect once per scheme/host/port
+        Map<String, URI> hosts = new LinkedHashMap<>();
+        for (String url : urls) {
+            try {
+                URI uri = new URI(url.trim());
+                if (uri.getHost() == null) {
+                    result.failedHosts.put(url, "No host");
+                    continue;
+                }
+                hosts.putIfAbsent(generateHostKey(uri), uri);
+            } catch (Exception e) {
+                result.failedHosts.put(url, "Invalid URL: " + e.getMessage());
+            }
+        }
+
+        List<Callable<Integer>> tasks = new ArrayList<>();
+        for (final URI uri : hosts.values()) {
+            tasks.add(() -> serviceCaller.warmUpConnections(uri, connectionsPerHost, timeBudget));
+        }
+
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        try {
+            List<Future<Integer>> futures = executor.invokeAll(tasks, timeBudget, TimeUnit.MILLISECONDS);
+            int i = 0;
+            for (String key : hosts.keySet()) {
+                Future<Integer> future = futures.get(i++);
+                try {
+                    result.connectionsOpened += future.get();
+                    result.warmedHosts.add(key);
+                } catch (CancellationException e) {
+                    result.failedHosts.put(key, "Timed out");
+                } catch (ExecutionException e) {
+                    result.failedHosts.put(key, String.valueOf(e.getCause()));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        result.elapsed = System.currentTimeMillis() - start;
+        lastResult = result;
+
+        log.info(String.format("Warmed up %1$s connections to %2$s hosts in %3$sms", result.connectionsOpened,
+                result.warmedHosts.size(), result.elapsed));
+        for (Map.Entry<String, String> failure : result.failedHosts.entrySet()) {
+            log.warn(String.format("Unable to warm up connections to '%1$s': %2$s", failure.getKey(), failure.getValue()));
+        }
+        return result;
+    }
+
+    /**
+     * Generates the scheme://host:port key identifying the connection pool route for uri (using the scheme's default
+     * port if uri doesn't specify one)
+     */
+    private static String generateHostKey(URI uri) {
+        String scheme = uri.getScheme() == null ? "http" : uri.getScheme().toLowerCase();
+        int port = uri.getPort();
+        if (port < 0) {
+            port = "https".equals(scheme) ? 443 : 80;
+        }
+        return String.format("%1$s://%2$s:%3$s", scheme, uri.getHost().toLowerCase(), port);
+    }
+
+    /**
+     * The outcome of a single warm up
+     */
+    public static class WarmUpResult {
+        private final List<String> warmedHosts = new ArrayList<>();
+        private final Map<String, String> failedHosts = new LinkedHashMap<>();
+        private int connectionsOpened;
+        private long elapsed;
+
+        /**
+         * The hosts (as scheme://host:port) that were successfully connected to
+         * @return
+         */
+        public List<String> getWarmedHosts() {
+            return warmedHosts;
+        }
+
+        /**
+         * The hosts (as scheme://host:port) or invalid URLs that couldn't be connected to, keyed to the reason why
+         * @return
+         */
+        public Map<String, String> getFailedHosts() {
+            return failedHosts;
+        }
+
+        /**
+         * The total number of new connections opened
+         * @return
+         */
+        public int getConnectionsOpened() {
+            return connectionsOpened;
+        }
+
+        /**
+         * How long (in milliseconds) the warm up took
+         * @return
+         */
+        public long getElapsed() {
+            return elapsed;
+        }
+    }
+}
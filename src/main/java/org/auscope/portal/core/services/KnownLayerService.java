@@ -5,6 +5,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -13,6 +14,8 @@ import javax.xml.xpath.XPathException;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.auscope.portal.core.server.http.HttpCircuitBreaker;
+import org.auscope.portal.core.server.http.HttpServiceCaller;
 import org.auscope.portal.core.services.responses.csw.AbstractCSWOnlineResource;
 import org.auscope.portal.core.services.responses.csw.CSWRecord;
 import org.auscope.portal.core.services.responses.stackdriver.ServiceStatusResponse;
@@ -25,6 +28,7 @@ import org.auscope.portal.core.view.knownlayer.KnownLayer;
 import org.auscope.portal.core.view.knownlayer.KnownLayerAndRecords;
 import org.auscope.portal.core.view.knownlayer.KnownLayerGrouping;
 import org.auscope.portal.core.view.knownlayer.KnownLayerSelector;
+import org.auscope.portal.core.view.knownlayer.WFSSelector;
 import org.auscope.portal.core.view.knownlayer.WMSSelector;
 import org.auscope.portal.core.view.knownlayer.WMSSelectors;
 import org.json.JSONArray;
@@ -51,6 +55,7 @@ public class KnownLayerService {
     private ElasticsearchService elasticsearchService;
 
     private GoogleCloudMonitoringCachedService stackDriverService = null;
+    private HttpServiceCaller serviceCaller = null;
 
     /** Used for converting data to something the view can understand */
     private ViewKnownLayerFactory viewKnownLayerFactory;
@@ -62,6 +67,16 @@ public class KnownLayerService {
         this.stackDriverService = service;
     }
 
+    /**
+     * Used for flagging known layers whose hosts are currently short circuited by the HttpServiceCaller's circuit breaker
+     *
+     * @param serviceCaller
+     */
+    @Autowired(required = false)
+    public void setServiceCaller(HttpServiceCaller serviceCaller) {
+        this.serviceCaller = serviceCaller;
+    }
+
     /**
      * Creates a new instance of this class from an untyped list. All objects in knownTypes that can be cast into a KnownLayer will be included in the internal
      * known layer list
@@ -97,6 +112,100 @@ public class KnownLayerService {
     	return this.cswCacheService;
     }
 
+    /**
+     * Gets the service URLs used by the (non hidden) known layers. This includes the endpoints explicitly included by
+     * WMS/WFS selectors as well as the WMS/WFS online resources of every CSW record currently belonging to a known layer.
+     *
+     * @return
+     */
+    public Set<String> getKnownLayerServiceUrls() {
+        Set<String> urls = new HashSet<>();
+        for (KnownLayer knownLayer : knownLayers) {
+            if (knownLayer.isHidden()) {
+                continue;
+            }
+            KnownLayerSelector selector = knownLayer.getKnownLayerSelector();
+            List<WMSSelector> wmsSelectors = new ArrayList<>();
+            if (selector instanceof WMSSelector) {
+                wmsSelectors.add((WMSSelector) selector);
+            } else if (selector instanceof WMSSelectors) {
+                wmsSelectors.addAll(((WMSSelectors) selector).getWmsSelectors());
+            } else if (selector instanceof WFSSelector && ((WFSSelector) selector).includeEndpoints() &&
+                    ((WFSSelector) selector).getServiceEndpoints() != null) {
+                urls.addAll(Arrays.asList(((WFSSelector) selector).getServiceEndpoints()));
+            }
+            for (WMSSelector wmsSelector : wmsSelectors) {
+                if (wmsSelector.includeEndpoints() && wmsSelector.getServiceEndpoints() != null) {
+                    urls.addAll(Arrays.asList(wmsSelector.getServiceEndpoints()));
+                }
+            }
+        }
+
+        // Match the cached records directly rather than via groupKnownLayerRecords (which makes GetCapabilities requests)
+        if (cswCacheService != null) {
+            List<CSWRecord> records = cswCacheService.getRecordCache();
+            for (KnownLayer knownLayer : knownLayers) {
+                if (knownLayer.isHidden()) {
+                    continue;
+                }
+                for (CSWRecord record : records) {
+                    try {
+                        if (record == null || getRelation(knownLayer.getKnownLayerSelector(), record) != KnownLayerSelector.RelationType.Belongs) {
+                            continue;
+                        }
+                    } catch (PortalServiceException e) {
+                        logger.debug("Unable to match record " + record.getFileIdentifier() + ": " + e.getMessage());
+                        continue;
+                    }
+                    for (AbstractCSWOnlineResource onlineResource : record.getOnlineResourcesByType(
+                            AbstractCSWOnlineResource.OnlineResourceType.WMS, AbstractCSWOnlineResource.OnlineResourceType.WFS)) {
+                        if (onlineResource.getLinkage() != null) {
+                            urls.add(onlineResource.getLinkage().toString());
+                        }
+                    }
+                }
+            }
+        }
+        return urls;
+    }
+
+    /**
+     * Gets the relation of record to selector. If the record as a whole isn't related, each of its WMS/WFS online
+     * resources is tested on its own.
+     *
+     * @param selector
+     * @param record
+     * @return
+     * @throws PortalServiceException
+     */
+    private KnownLayerSelector.RelationType getRelation(KnownLayerSelector selector, CSWRecord record) throws PortalServiceException {
+        // Evaluate selector against the whole record first
+        KnownLayerSelector.RelationType relation = selector.isRelatedRecord(record);
+
+        // If NotRelated, evaluate selector on each WMS/WFS online resource separately
+        if (relation == KnownLayerSelector.RelationType.NotRelated) {
+            List<AbstractCSWOnlineResource> onlineResources = record.getOnlineResourcesByType(
+                    AbstractCSWOnlineResource.OnlineResourceType.WMS,
+                    AbstractCSWOnlineResource.OnlineResourceType.WFS);
+
+            // We need to recurse each resource. A nicer (but harder) way to do this would be to create
+            // an isRecordRelated(OnlineResource) method for each selector class
+            for (AbstractCSWOnlineResource onlineRes : onlineResources) {
+                if (onlineRes == null) continue;
+                // Shallow clone and replace its onlineResources with only this resource
+                CSWRecord singleView = record.clone();
+                singleView.setOnlineResources(List.of(onlineRes));
+                relation = selector.isRelatedRecord(singleView);
+                // Found a matching online resource
+                if (relation == KnownLayerSelector.RelationType.Related
+                        || relation == KnownLayerSelector.RelationType.Belongs) {
+                    break;
+                }
+            }
+        }
+        return relation;
+    }
+
     /**
      * Builds a KnownLayerGrouping by iterating the current CSW Cache Service record set and applying each of those records to one or more Known Layer objects.
      *
@@ -140,37 +249,15 @@ public class KnownLayerService {
             List<CSWRecord> relatedRecords = new ArrayList<>();
             List<CSWRecord> belongingRecords = new ArrayList<>();
             List<GetCapabilitiesRecord> capabilitiesRecords = new ArrayList<>();
-            // Used to ensure we only send a 'GetCapabilites' request once to each service
-            List<String> capDoneList = new ArrayList<>();
+            // The layer names required from each service that needs a 'GetCapabilities' request (a null set means every
+            // layer is required). Used to ensure we only send a 'GetCapabilites' request once to each service
+            Map<String, Set<String>> capLayerNames = new LinkedHashMap<>();
 
             // For each record, mark it as being added to a known layer (if appropriate)
             // We also need to mark the record as being mapped using mappedRecordIDs
             for (CSWRecord record : originalRecordList) {
                 try {
-                	// Evaluate selector against the whole record first
-                	KnownLayerSelector.RelationType relation = selector.isRelatedRecord(record);
-
-                	// If NotRelated, evaluate selector on each WMS/WFS online resource separately
-                	if (relation == KnownLayerSelector.RelationType.NotRelated) {
-                	    List<AbstractCSWOnlineResource> onlineResources = record.getOnlineResourcesByType(
-                	            AbstractCSWOnlineResource.OnlineResourceType.WMS,
-                	            AbstractCSWOnlineResource.OnlineResourceType.WFS);
-
-                	    // We need to recurse each resource. A nicer (but harder) way to do this would be to create
-                	    // an isRecordRelated(OnlineResource) method for each selector class
-                	    for (AbstractCSWOnlineResource onlineRes : onlineResources) {
-                	        if (onlineRes == null) continue;
-                	        // Shallow clone and replace its onlineResources with only this resource
-                	        CSWRecord singleView = record.clone();
-                	        singleView.setOnlineResources(List.of(onlineRes));
-                	        relation = selector.isRelatedRecord(singleView);
-                	        // Found a matching online resource
-                	        if (relation == KnownLayerSelector.RelationType.Related
-                	                || relation == KnownLayerSelector.RelationType.Belongs) {
-                	            break;
-                	        }
-                	    }
-                	}
+                	KnownLayerSelector.RelationType relation = getRelation(selector, record);
 
                 	// Act on the determined relation
                 	switch (relation) {
@@ -190,24 +277,13 @@ public class KnownLayerService {
                 	            if (onlineRes.getApplicationProfile().contains("GSKY")) {
                 	                URL linkage = onlineRes.getLinkage();
                 	                String url = linkage.getProtocol() + "://" + linkage.getHost() + linkage.getPath();
-                	                if (!capDoneList.contains(url)) {
-                	                    try {
-                	                    	// Send a 'GetCapabilities' request to the service
-                	                        GetCapabilitiesRecord capabilitiesRec = wmsService.getWmsCapabilities(url, "1.3.0");
-                	                        
-                	                        // Only collect the 'GetCapabilities' record if it contains a valid 'timeExtent' value in its WMS layers
-                	                        for (GetCapabilitiesWMSLayerRecord wmsCapRec : capabilitiesRec.getLayers()) {
-                	                            String[] timeExtArr = wmsCapRec.getTimeExtent();
-                	                            if (timeExtArr != null && timeExtArr.length > 0) {
-                	                                capabilitiesRecords.add(capabilitiesRec);
-                	                                break;
-                	                            }
-                	                        }
-                	                    } catch (XPathException e) {
-                	                        logger.warn(String.format("Unable to retrieve WMS GetCapabilities for '%1$s'", url));
-                	                        logger.warn(e);
-                	                    }
-                	                    capDoneList.add(url);
+                	                String layerName = onlineRes.getName();
+                	                if (layerName == null || layerName.isEmpty()) {
+                	                    capLayerNames.put(url, null);
+                	                } else if (!capLayerNames.containsKey(url)) {
+                	                    capLayerNames.put(url, new HashSet<>(Arrays.asList(layerName)));
+                	                } else if (capLayerNames.get(url) != null) {
+                	                    capLayerNames.get(url).add(layerName);
                 	                }
                 	            }
                 	        }
@@ -226,6 +302,26 @@ public class KnownLayerService {
                 }
             }
 
+            // Send a 'GetCapabilities' request to each service, streaming in only the layers we are interested in
+            for (Entry<String, Set<String>> capEntry : capLayerNames.entrySet()) {
+                String url = capEntry.getKey();
+                try {
+                    GetCapabilitiesRecord capabilitiesRec = wmsService.getWmsCapabilities(url, "1.3.0", capEntry.getValue());
+
+                    // Only collect the 'GetCapabilities' record if it contains a valid 'timeExtent' value in its WMS layers
+                    for (GetCapabilitiesWMSLayerRecord wmsCapRec : capabilitiesRec.getLayers()) {
+                        String[] timeExtArr = wmsCapRec.getTimeExtent();
+                        if (timeExtArr != null && timeExtArr.length > 0) {
+                            capabilitiesRecords.add(capabilitiesRec);
+                            break;
+                        }
+                    }
+                } catch (PortalServiceException | XPathException e) {
+                    logger.warn(String.format("Unable to retrieve WMS GetCapabilities for '%1$s'", url));
+                    logger.warn(e);
+                }
+            }
+
             // The include flag will indicate whether or not this particular layer
             // should be included in the output.
             boolean include = false;
@@ -468,6 +564,20 @@ public class KnownLayerService {
                 }
             }
 
+            HttpCircuitBreaker circuitBreaker = serviceCaller == null ? null : serviceCaller.getCircuitBreaker();
+            if (circuitBreaker != null) {
+                List<String> shortCircuitedHosts = new ArrayList<String>();
+                for (String host : onlineResourceEndpoints) {
+                    if (host != null && circuitBreaker.getState(host) != HttpCircuitBreaker.State.CLOSED) {
+                        shortCircuitedHosts.add(host);
+                    }
+                }
+
+                if (!shortCircuitedHosts.isEmpty()) {
+                    viewKnownLayer.put("shortCircuitedHosts", shortCircuitedHosts);
+                }
+            }
+
             newKnownLayersCache.add(viewKnownLayer);
         }
         
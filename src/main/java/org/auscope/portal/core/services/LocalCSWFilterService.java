@@ -9,6 +9,7 @@ import java.util.concurrent.Executor;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.auscope.portal.core.server.http.RequestDeadline;
 import org.auscope.portal.core.services.csw.CSWServiceItem;
 import org.auscope.portal.core.services.csw.SearchFacet;
 import org.auscope.portal.core.services.methodmakers.filter.FilterBoundingBox;
@@ -175,6 +176,11 @@ public class LocalCSWFilterService {
         int recordsRemaining, currentStartIndex = startIndex;
         int recordsMatched = 0;
         while((recordsRemaining = (maxRecords - result.getRecords().size())) > 0) {
+            // Out of time for this request - return what we have (callers can continue from nextIndex)
+            if (!result.getRecords().isEmpty() && RequestDeadline.isExpired()) {
+                log.debug("Request deadline reached, returning " + result.getRecords().size() + " of " + maxRecords + " records");
+                break;
+            }
 
             // If we are dealing with a purely remote filter we can just request the exact number of records
             int recsToRequest = this.pageSize;
@@ -343,12 +349,14 @@ public class LocalCSWFilterService {
                     }
                 }
 
-                if (!stillWaiting) {
+                // Don't wait past the request deadline - we'll return what the runners have so far
+                if (!stillWaiting || RequestDeadline.isExpired()) {
                     break;
                 }
 
                 try {
-                    lock.wait();
+                    long remaining = RequestDeadline.getRemaining();
+                    lock.wait(remaining == Long.MAX_VALUE ? 0 : Math.max(1, remaining));
                 } catch (InterruptedException e) {
                     log.error("Interrupted:", e);
                     cleanupConcurrentFilteredRecords(allRunners, lock);
@@ -420,6 +428,7 @@ public class LocalCSWFilterService {
         public List<CSWRecord> records;
         public volatile boolean requestTerminate = false;
         public Throwable error;
+        public Long deadline;	// The RequestDeadline of the thread that created this runner
 
         public FilterRunner(LocalCSWFilterService parent, String serviceId, CSWServiceItem serviceItem, int currentFulfillment,
                 List<SearchFacet<? extends Object>> facets, int currentStartIndex, Object lock) {
@@ -435,6 +444,7 @@ public class LocalCSWFilterService {
             this.state = FilterRunnerState.Running;
             this.records = new ArrayList<CSWRecord>();
             this.lock = lock;
+            this.deadline = RequestDeadline.get();
         }
 
         public boolean isFulfilled() {
@@ -442,6 +452,7 @@ public class LocalCSWFilterService {
         }
 
         public void run() {
+            Long previousDeadline = RequestDeadline.set(deadline);
             try {
                 while(!requestTerminate) {
                     if (isFulfilled()) {
@@ -469,6 +480,8 @@ public class LocalCSWFilterService {
                 log.error("Unable to access filtered records: " + e.getMessage());
                 log.debug("Exception", e);
                 this.error = e;
+            } finally {
+                RequestDeadline.set(previousDeadline);
             }
 
             synchronized(this.lock) {
@@ -3,6 +3,7 @@ package org.auscope.portal.core.services;
 import org.apache.jena.rdf.model.*;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.auscope.portal.core.server.http.HostRateLimiter;
 import org.auscope.portal.core.services.vocabs.VocabularyServiceItem;
 
 import java.net.URISyntaxException;
@@ -123,6 +124,7 @@ public class VocabularyCacheService {
          */
         @Override
         public void run() {
+            HostRateLimiter.Priority previousPriority = HostRateLimiter.setCurrentPriority(HostRateLimiter.Priority.BACKGROUND);
             try {
                 VocabularyService service = serviceItem.getVocabularyService();
                 Model model  = service.getModel();
@@ -134,6 +136,7 @@ public class VocabularyCacheService {
                 threadLog.error(e.getStackTrace());
 
             } finally {
+                HostRateLimiter.setCurrentPriority(previousPriority);
                 attemptCleanup();
             }
         }
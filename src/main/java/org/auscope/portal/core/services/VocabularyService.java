@@ -3,6 +3,7 @@ package org.auscope.portal.core.services;
 import org.apache.jena.rdf.model.*;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.auscope.portal.core.server.http.HttpServiceCaller;
+import org.auscope.portal.core.server.http.RetryPolicy;
 import org.auscope.portal.core.services.methodmakers.VocabularyMethodMaker;
 
 import org.auscope.portal.core.services.methodmakers.VocabularyMethodMaker.View;
@@ -14,9 +15,12 @@ import org.auscope.portal.core.util.FileIOUtil;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
 
+import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpression;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringReader;
 import java.net.URISyntaxException;
@@ -48,6 +52,11 @@ public class VocabularyService {
      */
     private int pageSize = 1000;
 
+    /**
+     * Used to retry failed page requests
+     */
+    private RetryPolicy retryPolicy = new RetryPolicy();
+
     public VocabularyService(HttpServiceCaller httpServiceCaller,
                              VocabularyMethodMaker vocabularyMethodMaker, String serviceUrl) {
         super();
@@ -85,6 +94,24 @@ public class VocabularyService {
         return serviceUrl;
     }
 
+    /**
+     * The policy used to retry failed page requests
+     *
+     * @return
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * The policy used to retry failed page requests
+     *
+     * @param retryPolicy
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
     /**
      * Gets all descriptions for a given page (as described by a HttpMethod), appends the parsed values to the specified JENA model.
      *
@@ -98,10 +125,9 @@ public class VocabularyService {
     protected boolean requestPageOfConcepts(HttpRequestBase method, Model model) throws PortalServiceException {
         boolean moreData = false;
 
-        try (InputStream inputStream  = httpServiceCaller.getMethodResponseAsStream(method)) {
+        try {
             // Parse the response into an XML document
-            Document document = null;
-            document = DOMUtil.buildDomFromStream(inputStream);
+            Document document = requestDocument(method);
 
             VocabNamespaceContext namespaceContext = new VocabNamespaceContext();
             XPathExpression getDescriptionsExpression = DOMUtil.compileXPathExpr("rdf:RDF/descendant::rdf:Description", namespaceContext);
@@ -127,6 +153,24 @@ public class VocabularyService {
         return moreData;
     }
 
+    /**
+     * Makes the request and parses the response into a DOM, retrying transient failures according to retryPolicy
+     */
+    private Document requestDocument(HttpRequestBase method) throws IOException, SAXException, ParserConfigurationException {
+        RetryPolicy.Retry retry = retryPolicy.begin(serviceUrl);
+        while (true) {
+            try (InputStream inputStream = httpServiceCaller.getMethodResponseAsStream(method)) {
+                return DOMUtil.buildDomFromStream(inputStream);
+            } catch (IOException | SAXException e) {
+                if (!retry.shouldRetry(e)) {
+                    throw e;
+                }
+            }
+            method.releaseConnection();
+            retry.backoff();
+        }
+    }
+
     /**
      * Gets all RDF concepts at the specified repository as a single JENA Model.
      * The results will be requested page by page until the entire repository
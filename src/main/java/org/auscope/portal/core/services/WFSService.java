@@ -1,9 +1,21 @@
 package org.auscope.portal.core.services;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
 import java.net.URISyntaxException;
 
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamSource;
+
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpRequestBase;
+import org.auscope.portal.core.server.http.HttpClientInputStream;
 import org.auscope.portal.core.server.http.HttpServiceCaller;
 import org.auscope.portal.core.services.methodmakers.WFSGetFeatureMethodMaker;
 import org.auscope.portal.core.services.methodmakers.WFSGetFeatureMethodMaker.ResultType;
@@ -11,10 +23,13 @@ import org.auscope.portal.core.services.namespaces.ErmlNamespaceContext;
 import org.auscope.portal.core.services.responses.ows.OWSExceptionParser;
 import org.auscope.portal.core.services.responses.wfs.WFSResponse;
 import org.auscope.portal.core.services.responses.wfs.WFSTransformedResponse;
+import org.auscope.portal.core.util.DOMUtil;
 import org.auscope.portal.core.xslt.GmlToHtml;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import jakarta.servlet.http.HttpServletResponse;
+
 /**
  * A service class encapsulating high level access to a remote Web Feature Service
  *
@@ -24,6 +39,12 @@ import org.springframework.stereotype.Service;
 @Service
 public class WFSService extends BaseWFSService {
 
+    /** The EarthResourceML 1.1 namespace */
+    private static final String ERML_1_1_NAMESPACE = "urn:cgi:xmlns:GGIC:EarthResource:1.1";
+
+    /** The EarthResourceML 2.0 namespace */
+    private static final String ERML_2_0_NAMESPACE = "http://xmlns.earthresourceml.org/EarthResource/2.0";
+
     private GmlToHtml gmlToHtml;
 
     /**
@@ -101,17 +122,117 @@ public class WFSService extends BaseWFSService {
 	 * @return HTML converted response
 	 */
     public WFSTransformedResponse transformToHtml(String wfs, HttpRequestBase method, String baseUrl) {
-    	ErmlNamespaceContext erml;
-        if (wfs.contains("http://xmlns.earthresourceml.org/EarthResource/2.0")) {
-        	// Tell the XSLT which ERML version to use
-        	erml = new ErmlNamespaceContext("2.0");
-        } else {
-        	erml = new ErmlNamespaceContext();
-        }
-    	String html = this.gmlToHtml.convert(wfs, erml, baseUrl);
+    	String html = this.gmlToHtml.convert(wfs, getErmlNamespaceContext(wfs), baseUrl);
     	return new WFSTransformedResponse(wfs, html, method);
     }
 
+    /**
+     * Transform WFS document into HTML that is written directly to response (as it is transformed)
+     *
+     * @param wfs
+     *            GML feature string
+     * @param baseUrl
+     *            The base URL of the request e.g. https://portal.org/api
+     * @param response
+     *            Will have its content type set to text/html and the transformed html written to it
+     * @throws TransformerException
+     * @throws IOException
+     */
+    public void transformToHtml(String wfs, String baseUrl, HttpServletResponse response)
+            throws TransformerException, IOException {
+        this.gmlToHtml.convert(new StreamSource(new StringReader(wfs)), getErmlNamespaceContext(wfs), baseUrl, response);
+    }
+
+    /**
+     * Sends out WFS request and streams its response (transformed to HTML) directly to response. Neither the WFS
+     * response nor the transformed HTML are ever held in memory in their entirety.
+     *
+     * @param method
+     *            HttpRequestBase used to make the WFS request
+     * @param baseUrl
+     *            The base URL of the request e.g. https://portal.org/api
+     * @param response
+     *            Will have its content type set to text/html and the transformed html written to it
+     * @throws PortalServiceException
+     */
+    protected void doRequestAndHtmlTransform(HttpRequestBase method, String baseUrl, HttpServletResponse response)
+            throws PortalServiceException {
+        HttpClientInputStream upstream = null;
+        try {
+            upstream = httpServiceCaller.getMethodResponseAsStream(method);
+            InputStream wfs = new BufferedInputStream(upstream);
+            OWSExceptionParser.checkForExceptionResponse(wfs);
+
+            // Only the start of the response is inspected for the ERML version
+            wfs.mark(OWSExceptionParser.SNIFF_LENGTH);
+            byte[] prefix = wfs.readNBytes(OWSExceptionParser.SNIFF_LENGTH);
+            wfs.reset();
+
+            ErmlNamespaceContext erml = getErmlNamespaceContext(new ByteArrayInputStream(prefix));
+            this.gmlToHtml.convert(new StreamSource(wfs), erml, baseUrl, response);
+            wfs.close();
+        } catch (Exception ex) {
+            // Closing would read (and discard) whatever remains of the response - drop the connection instead
+            if (upstream != null) {
+                upstream.abort();
+            }
+            throw new PortalServiceException(method, ex);
+        }
+    }
+
+    /**
+     * Tells the XSLT which ERML version to use based on the namespaces in wfs
+     */
+    private static ErmlNamespaceContext getErmlNamespaceContext(String wfs) {
+        try {
+            return getErmlNamespaceContext(DOMUtil.newXMLInputFactory().createXMLStreamReader(new StringReader(wfs)));
+        } catch (XMLStreamException e) {
+            return new ErmlNamespaceContext();
+        }
+    }
+
+    /**
+     * Tells the XSLT which ERML version to use based on the namespaces in the (possibly truncated) start of a response
+     */
+    private static ErmlNamespaceContext getErmlNamespaceContext(InputStream prefix) {
+        try {
+            return getErmlNamespaceContext(DOMUtil.newXMLInputFactory().createXMLStreamReader(prefix));
+        } catch (XMLStreamException e) {
+            return new ErmlNamespaceContext();
+        }
+    }
+
+    /**
+     * Tells the XSLT which ERML version to use based on the namespace of the first er element read from reader.
+     *
+     * ERML 1.1 is assumed if reader runs out (or the document is truncated) before an er element is found. As the
+     * features are the first er elements in a response this only happens if no feature member has been read.
+     */
+    private static ErmlNamespaceContext getErmlNamespaceContext(XMLStreamReader reader) {
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                String namespace = reader.getNamespaceURI();
+                if (ERML_2_0_NAMESPACE.equals(namespace)) {
+                    return new ErmlNamespaceContext("2.0");
+                } else if (ERML_1_1_NAMESPACE.equals(namespace) || "er".equals(reader.getPrefix())) {
+                    return new ErmlNamespaceContext();
+                }
+            }
+        } catch (XMLStreamException e) {
+            // A truncated prefix ends in a parse error - there's no er element in what we have
+        } finally {
+            try {
+                reader.close();
+            } catch (XMLStreamException e) {
+                // Nothing more to clean up
+            }
+        }
+        return new ErmlNamespaceContext();
+    }
+
     /**
      * Makes a WFS GetFeature request constrained by the specified parameters
      *
@@ -200,4 +321,45 @@ public class WFSService extends BaseWFSService {
         HttpRequestBase method = new HttpGet(wfsUrl);
         return doRequestAndHtmlTransform(method, baseUrl);
     }
+
+    /**
+     * Makes a WFS GetFeature request constrained by the specified parameters and streams the response (transformed to
+     * HTML) directly to response.
+     *
+     * @param wfsUrl
+     *            the web feature service URL
+     * @param featureType
+     *            the type name
+     * @param featureId
+     *            A unique ID of a single feature type to query
+     * @param baseUrl
+     *            The base URL of the request e.g.  https://portal.org/api
+     * @param response
+     *            Will have its content type set to text/html and the transformed html written to it
+     * @throws PortalServiceException
+     * @throws URISyntaxException
+     */
+    public void writeWfsResponseAsHtml(String wfsUrl, String featureType, String featureId, String baseUrl,
+            HttpServletResponse response) throws PortalServiceException, URISyntaxException {
+        HttpRequestBase method = generateWFSRequest(wfsUrl, featureType, featureId, null, null, null, null);
+        doRequestAndHtmlTransform(method, baseUrl, response);
+    }
+
+    /**
+     * Makes a HTTP Get request to the specified URL and streams the response (transformed to HTML) directly to
+     * response.
+     *
+     * @param wfsUrl
+     *            the web feature service URL
+     * @param baseUrl
+     *            The base URL of the request e.g.  https://portal.org/api
+     * @param response
+     *            Will have its content type set to text/html and the transformed html written to it
+     * @throws PortalServiceException
+     */
+    public void writeWfsResponseAsHtml(String wfsUrl, String baseUrl, HttpServletResponse response)
+            throws PortalServiceException {
+        HttpRequestBase method = new HttpGet(wfsUrl);
+        doRequestAndHtmlTransform(method, baseUrl, response);
+    }
 }
@@ -8,13 +8,13 @@ import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 import java.util.stream.Stream;
 
 import javax.naming.OperationNotSupportedException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.http.NameValuePair;
@@ -25,6 +25,7 @@ import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.message.BasicNameValuePair;
 import org.auscope.portal.core.server.http.HttpClientInputStream;
 import org.auscope.portal.core.server.http.HttpServiceCaller;
+import org.auscope.portal.core.server.http.RequestDeadline;
 import org.auscope.portal.core.services.methodmakers.WMSMethodMakerInterface;
 import org.auscope.portal.core.services.responses.ows.OWSExceptionParser;
 import org.auscope.portal.core.services.responses.wms.GetCapabilitiesRecord;
@@ -97,7 +98,33 @@ public class WMSService {
             }
         }
     }
-    
+
+    /**
+     * Request GetCapabilities document from the given service, streaming the response into a record that only contains
+     * the layers named in layerNames. The response is never parsed into a DOM which makes this considerably cheaper for
+     * large capabilities documents.
+     *
+     * @param serviceUrl Url of WMS service
+     * @param version The WMS version to request
+     * @param layerNames [Optional] The names of the layers to keep. If null, every layer will be kept
+     * @return GetCapabilitiesRecord
+     */
+    public GetCapabilitiesRecord getWmsCapabilities(final String serviceUrl, String version, Set<String> layerNames)
+            throws PortalServiceException {
+        HttpRequestBase method = null;
+        try {
+            WMSMethodMakerInterface methodMaker = getSupportedMethodMaker(serviceUrl, version);
+            method = methodMaker.getCapabilitiesMethod(serviceUrl);
+            return methodMaker.getGetCapabilitiesRecord(method, layerNames);
+        } catch (Exception ex) {
+            throw new PortalServiceException(method, ex.getMessage(), ex);
+        } finally {
+            if (method != null) {
+                method.releaseConnection();
+            }
+        }
+    }
+
     /**
 	 * Gets the GetCapabilities response for a supplied WMS URL via a proxy
 	 * 
@@ -156,10 +183,11 @@ public class WMSService {
         	url = url + "?service=WMS&request=GetCapabilities&version=" + version;
             method = new HttpGet(url);
         }
-        HttpClientInputStream result = serviceCaller.getMethodResponseAsStream(method);
+        HttpClientInputStream result = serviceCaller.getCachedMethodResponseAsStream(method);
         response.addHeader("Cache-Control", "public, max-age=604800, must-revalidate, no-transform");
-        try (OutputStream outputStream = response.getOutputStream();) {
-            IOUtils.copy(result, outputStream);
+        // If the client disconnects part way through, the upstream request is aborted rather than read to completion
+        try (HttpClientInputStream upstream = result; OutputStream outputStream = response.getOutputStream();) {
+            upstream.transferTo(outputStream);
         } catch (IOException e) {
             throw new PortalServiceException("Exception during getCapabilitiesViaProxy.do "+e.getMessage(), e);
         }
@@ -235,7 +263,7 @@ public class WMSService {
                         eastBoundLongitude, northBoundLatitude, width, height, pointLng, pointLat, pointX, pointY,
                         styles, sldBody, feature_count, vendorParams);
             }
-            String response = serviceCaller.getMethodResponseAsString(method);
+            String response = serviceCaller.getHedgedMethodResponseAsString(method);
             //VT: a html response may not be xml valid therefore cannot go through the same validation process.
             //Rely on the service to return meaningful response to the user.
             if (format.toLowerCase().equals("text/html") ||
@@ -256,7 +284,8 @@ public class WMSService {
         } catch (Exception ex) {
 
             //VT:Making this more robust, maybe the wrong version is used;
-            if (attemptOtherVersion) {
+            //Unless we've run out of time for this request
+            if (attemptOtherVersion && !RequestDeadline.isExpired()) {
                 for (WMSMethodMakerInterface maker : listOfSupportedWMSMethodMaker) {
                     if (!maker.getSupportedVersion().equals(version)) {
                         try {
@@ -1,16 +1,20 @@
 package org.auscope.portal.core.services.admin;
 
 import java.io.InputStream;
+import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.http.Header;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.auscope.portal.core.server.OgcServiceProviderType;
+import org.auscope.portal.core.server.http.HttpCircuitBreaker;
 import org.auscope.portal.core.server.http.HttpServiceCaller;
+import org.auscope.portal.core.server.http.PermanentRedirectCache;
 import org.auscope.portal.core.services.csw.CSWServiceItem;
 import org.auscope.portal.core.services.methodmakers.CSWMethodMakerGetDataRecords;
 import org.auscope.portal.core.services.methodmakers.CSWMethodMakerGetDataRecords.ResultType;
@@ -394,4 +398,79 @@ public class AdminService {
             throws URISyntaxException {
         return wmsConnectivity(wmsEndpoints, bbox.toJsonNewsFormat(OgcServiceProviderType.GeoServer));
     }
+
+    /**
+     * Reports the state of every host tracked by the HttpServiceCaller's circuit breaker. Open circuits are
+     * reported as errors, half open circuits as warnings.
+     *
+     * @return
+     */
+    public AdminDiagnosticResponse circuitBreakerStatus() {
+        AdminDiagnosticResponse response = new AdminDiagnosticResponse();
+        HttpCircuitBreaker circuitBreaker = serviceCaller.getCircuitBreaker();
+        if (circuitBreaker == null) {
+            response.addDetail("No circuit breaker is configured - requests to failing hosts will not be short circuited.");
+            return response;
+        }
+
+        for (Map.Entry<String, HttpCircuitBreaker.State> entry : circuitBreaker.getStates().entrySet()) {
+            String host = entry.getKey();
+            float failureRate = circuitBreaker.getFailureRate(host);
+            switch (entry.getValue()) {
+            case OPEN:
+                response.addError(String.format("Circuit for '%1$s' is OPEN - requests are being refused.", host));
+                break;
+            case HALF_OPEN:
+                response.addWarning(String.format("Circuit for '%1$s' is HALF_OPEN - trial requests are being allowed through.", host));
+                break;
+            default:
+                response.addDetail(String.format("Circuit for '%1$s' is CLOSED (failure rate %2$s).", host,
+                        failureRate < 0 ? "not yet calculated" : failureRate + "%"));
+                break;
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Reports every URL the HttpServiceCaller has seen permanently redirected. Any of the specified CSW registries whose
+     * service URL has permanently moved are reported as errors (so they can be fixed at source), all other moved URLs
+     * as warnings.
+     *
+     * @param serviceItems
+     *            The configured CSW registries
+     * @return
+     */
+    public AdminDiagnosticResponse permanentRedirectStatus(List<CSWServiceItem> serviceItems) {
+        AdminDiagnosticResponse response = new AdminDiagnosticResponse();
+        PermanentRedirectCache redirectCache = serviceCaller.getPermanentRedirectCache();
+        if (redirectCache == null) {
+            response.addDetail("No permanent redirect cache is configured - moved URLs are not being tracked.");
+            return response;
+        }
+
+        Map<String, PermanentRedirectCache.Redirect> redirects = redirectCache.getRedirects();
+        if (serviceItems != null) {
+            for (CSWServiceItem item : serviceItems) {
+                String key;
+                try {
+                    key = PermanentRedirectCache.getKey(new URI(item.getServiceUrl()));
+                } catch (URISyntaxException ex) {
+                    response.addError(String.format("Registry '%1$s' has an invalid service URL '%2$s'", item.getId(), item.getServiceUrl()));
+                    continue;
+                }
+                PermanentRedirectCache.Redirect redirect = key == null ? null : redirects.remove(key);
+                if (redirect != null) {
+                    response.addError(String.format("Registry '%1$s' URL '%2$s' has permanently moved to '%3$s' - please update the registry configuration.",
+                            item.getId(), item.getServiceUrl(), redirect.getTarget()));
+                }
+            }
+        }
+
+        for (Map.Entry<String, PermanentRedirectCache.Redirect> entry : redirects.entrySet()) {
+            response.addWarning(String.format("'%1$s' has permanently moved to '%2$s' (%3$s requests rewritten).",
+                    entry.getKey(), entry.getValue().getTarget(), entry.getValue().getHits()));
+        }
+        return response;
+    }
 }
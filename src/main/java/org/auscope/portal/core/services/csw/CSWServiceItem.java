@@ -30,6 +30,7 @@ public class CSWServiceItem {
     private boolean noCache = false;
     private boolean hideFromCatalogue = false;
     private int pageSize = DEF_PAGE_SZ; /* Maximum number of CSW records per request */
+    private int transformThreads = 1; /* Maximum number of records from a single response transformed in parallel */
 
     /**
      * No arg constructor necessary for binding
@@ -486,4 +487,25 @@ public class CSWServiceItem {
     public void setServerType(OgcServiceProviderType serverType) {
         this.serverType = serverType;
     }
+
+    /**
+     * Get the maximum number of records from a single GetRecords response that will be transformed in parallel. 1 (the
+     * default) transforms records sequentially.
+     *
+     * @return
+     */
+    public int getTransformThreads() {
+        return transformThreads;
+    }
+
+    /**
+     * Set the maximum number of records from a single GetRecords response that will be transformed in parallel. 1 (the
+     * default) transforms records sequentially. Records that fail to transform in parallel mode are logged and skipped
+     * rather than failing the whole response.
+     *
+     * @param transformThreads
+     */
+    public void setTransformThreads(int transformThreads) {
+        this.transformThreads = transformThreads;
+    }
 }
@@ -10,6 +10,7 @@ import org.auscope.portal.core.server.OgcServiceProviderType;
 import org.auscope.portal.core.services.PortalServiceException;
 import org.auscope.portal.core.services.responses.csw.CSWRecord;
 import org.auscope.portal.core.services.responses.csw.CSWRecordTransformer;
+import org.auscope.portal.core.util.XPathExpressionBundle;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
@@ -22,6 +23,12 @@ public class GriddedCSWRecordTransformer extends CSWRecordTransformer {
 	
 	protected static final String DATETIMEFORMATSTRING = "yyyy-MM-dd'T'HH:mm:ss";
 	protected static final String NULL_DATETIME_STRING = "1900-01-01T12:00:00";
+    protected static final String POSITIONALACCURACYEXPRESSION = "gmd:dataQualityInfo/gmd:DQ_DataQuality/gmd:report/gmd:DQ_GriddedDataPositionalAccuracy";
+    protected static final String NAMEOFMEASUREEXPRESSION = "gmd:nameOfMeasure/gco:CharacterString";
+    protected static final String UNITOFMEASUREEXPRESSION = "gmd:result/gmd:DQ_QuantitativeResult/gmd:valueUnit/gml:UnitDefinition/gml:identifier";
+    protected static final String VALUEEXPRESSION = "gmd:result/gmd:DQ_QuantitativeResult/gmd:value/gco:Record";
+    protected static final XPathExpressionBundle griddedXPathBundle = new XPathExpressionBundle(nc,
+            POSITIONALACCURACYEXPRESSION, NAMEOFMEASUREEXPRESSION, UNITOFMEASUREEXPRESSION, VALUEEXPRESSION);
 	private DateTimeFormatter dateTimeFormatter = DateTimeFormatter.ofPattern(DATETIMEFORMATSTRING);
 
     public GriddedCSWRecordTransformer() throws PortalServiceException {
@@ -48,7 +55,7 @@ public class GriddedCSWRecordTransformer extends CSWRecordTransformer {
         super.transformToCSWRecord(cswRecord);
         
         //Extract Date as a string
-        String dateStamp = evalXPathString(this.mdMetadataNode, "gmd:dateStamp/gco:DateTime");
+        String dateStamp = evalXPathString(this.mdMetadataNode, DATETIMESTAMPEXPRESSION);
         String dateTimeString = null;
         // Note: ElasticSEarch indexes the String field as a Date for some reason, so it can't be empty
         try {
@@ -59,14 +66,14 @@ public class GriddedCSWRecordTransformer extends CSWRecordTransformer {
         cswRecord.setDateStamp(dateTimeString);
         
         //Extract gridded positional data
-        NodeList posAccuracyEls = evalXPathNodeList(this.mdMetadataNode, "gmd:dataQualityInfo/gmd:DQ_DataQuality/gmd:report/gmd:DQ_GriddedDataPositionalAccuracy");
+        NodeList posAccuracyEls = griddedXPathBundle.evaluateNodeList(this.mdMetadataNode, POSITIONALACCURACYEXPRESSION);
         GriddedDataPositionalAccuracy[] posAccuracyObjs = new GriddedDataPositionalAccuracy[posAccuracyEls.getLength()];
         for (int i = 0; i < posAccuracyEls.getLength(); i++) {
             posAccuracyObjs[i] = new GriddedDataPositionalAccuracy();
             
-            posAccuracyObjs[i].setNameOfMeasure(evalXPathString(posAccuracyEls.item(i), "gmd:nameOfMeasure/gco:CharacterString"));
-            posAccuracyObjs[i].setUnitOfMeasure(evalXPathString(posAccuracyEls.item(i), "gmd:result/gmd:DQ_QuantitativeResult/gmd:valueUnit/gml:UnitDefinition/gml:identifier"));
-            posAccuracyObjs[i].setValue(evalXPathString(posAccuracyEls.item(i), "gmd:result/gmd:DQ_QuantitativeResult/gmd:value/gco:Record"));
+            posAccuracyObjs[i].setNameOfMeasure(griddedXPathBundle.evaluateString(posAccuracyEls.item(i), NAMEOFMEASUREEXPRESSION));
+            posAccuracyObjs[i].setUnitOfMeasure(griddedXPathBundle.evaluateString(posAccuracyEls.item(i), UNITOFMEASUREEXPRESSION));
+            posAccuracyObjs[i].setValue(griddedXPathBundle.evaluateString(posAccuracyEls.item(i), VALUEEXPRESSION));
         }
         cswRecord.setGriddedInfo(posAccuracyObjs);
         
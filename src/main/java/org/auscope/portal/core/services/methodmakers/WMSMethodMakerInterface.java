@@ -2,11 +2,16 @@ package org.auscope.portal.core.services.methodmakers;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+
+import javax.xml.xpath.XPathException;
 
 import org.apache.http.NameValuePair;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.auscope.portal.core.services.responses.wms.GetCapabilitiesRecord;
+import org.auscope.portal.core.services.responses.wms.GetCapabilitiesWMSLayerRecord;
 
 public interface WMSMethodMakerInterface {
 
@@ -28,6 +33,38 @@ public interface WMSMethodMakerInterface {
 
     public GetCapabilitiesRecord getGetCapabilitiesRecord(HttpRequestBase method) throws IOException;
 
+    /**
+     * Makes method and parses the GetCapabilities response into a GetCapabilitiesRecord that only contains the layers
+     * named in layerNames
+     *
+     * The default implementation parses the entire response (via getGetCapabilitiesRecord(method)) before dropping the
+     * unwanted layers. Implementations are encouraged to stream the response instead.
+     *
+     * @param method
+     *            A method generated by getCapabilitiesMethod
+     * @param layerNames
+     *            [Optional] The names of the layers to keep. If null, every layer will be kept
+     * @return
+     * @throws IOException
+     */
+    public default GetCapabilitiesRecord getGetCapabilitiesRecord(HttpRequestBase method, Set<String> layerNames) throws IOException {
+        GetCapabilitiesRecord record = getGetCapabilitiesRecord(method);
+        if (layerNames == null || record == null || record.getLayers() == null) {
+            return record;
+        }
+
+        try {
+            for (Iterator<GetCapabilitiesWMSLayerRecord> i = record.getLayers().iterator(); i.hasNext();) {
+                if (!layerNames.contains(i.next().getName())) {
+                    i.remove();
+                }
+            }
+        } catch (XPathException e) {
+            throw new IOException("Unable to read layer name", e);
+        }
+        return record;
+    }
+
     /**
      * Test whether wms 1.3.0 is accepted. Not sure if there is a better way of testing though.
      * @param wmsUrl
@@ -5,8 +5,10 @@ import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URISyntaxException;
 import java.util.List;
+import java.util.Set;
 
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
@@ -20,6 +22,7 @@ import org.apache.http.message.BasicNameValuePair;
 import org.auscope.portal.core.server.http.HttpServiceCaller;
 import org.auscope.portal.core.services.responses.wms.GetCapabilitiesRecord;
 import org.auscope.portal.core.services.responses.wms.GetCapabilitiesRecord_1_3_0;
+import org.auscope.portal.core.services.responses.wms.StreamedGetCapabilitiesRecord;
 import org.auscope.portal.core.util.HttpUtil;
 import org.xml.sax.SAXException;
 
@@ -425,7 +428,7 @@ public class WMS_1_3_0_MethodMaker extends AbstractMethodMaker implements WMSMet
     public String getStyle(String sldUrl) throws URISyntaxException, IOException {
 
         HttpGet getSld = new HttpGet(sldUrl);
-        String sldBody = serviceCaller.getMethodResponseAsString(getSld);
+        String sldBody = serviceCaller.getCachedMethodResponseAsString(getSld);
 
         return sldBody;
     }
@@ -493,13 +496,22 @@ public class WMS_1_3_0_MethodMaker extends AbstractMethodMaker implements WMSMet
 
     @Override
     public GetCapabilitiesRecord getGetCapabilitiesRecord(HttpRequestBase method) throws IOException {
-        try (InputStream response = serviceCaller.getMethodResponseAsStream(method)) {
+        try (InputStream response = serviceCaller.getCachedMethodResponseAsStream(method)) {
             return new GetCapabilitiesRecord_1_3_0(response);
         } catch (ParserConfigurationException | SAXException e) {
             throw new IOException(e.getMessage(), e);
         }
     }
 
+    @Override
+    public GetCapabilitiesRecord getGetCapabilitiesRecord(HttpRequestBase method, Set<String> layerNames) throws IOException {
+        try (InputStream response = serviceCaller.getCachedMethodResponseAsStream(method)) {
+            return new StreamedGetCapabilitiesRecord(response, getSupportedVersion(), layerNames);
+        } catch (XMLStreamException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
     @Override
     public String getSupportedVersion() {
         return WMS_1_3_0_MethodMaker.VERSION;
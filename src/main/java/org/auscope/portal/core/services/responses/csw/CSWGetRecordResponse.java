@@ -1,9 +1,22 @@
 package org.auscope.portal.core.services.responses.csw;
 
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathException;
 import javax.xml.xpath.XPathExpression;
@@ -13,7 +26,10 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.auscope.portal.core.services.csw.CSWServiceItem;
 import org.auscope.portal.core.services.namespaces.CSWNamespaceContext;
+import org.auscope.portal.core.services.responses.ows.OWSException;
+import org.auscope.portal.core.services.responses.ows.OWSExceptionParser;
 import org.auscope.portal.core.util.DOMUtil;
+import org.auscope.portal.core.util.XPathExpressionBundle;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
@@ -23,6 +39,15 @@ import org.w3c.dom.NodeList;
  */
 public class CSWGetRecordResponse {
 
+    private static final String RECORDSMATCHEDEXPRESSION = "/csw:GetRecordsResponse/csw:SearchResults/@numberOfRecordsMatched";
+    private static final String RECORDSRETURNEDEXPRESSION = "/csw:GetRecordsResponse/csw:SearchResults/@numberOfRecordsReturned";
+    private static final String NEXTRECORDEXPRESSION = "/csw:GetRecordsResponse/csw:SearchResults/@nextRecord";
+    private static final String RECORDMETADATAEXPRESSION = "/csw:GetRecordsResponse/csw:SearchResults/(gmd:MD_Metadata|gmi:MI_Metadata)";
+    private static final String OWS_NAMESPACE = "http://www.opengis.net/ows";
+    private static final CSWNamespaceContext nc = new CSWNamespaceContext();
+    private static final XPathExpressionBundle xPathBundle = new XPathExpressionBundle(nc,
+            RECORDSMATCHEDEXPRESSION, RECORDSRETURNEDEXPRESSION, NEXTRECORDEXPRESSION, RECORDMETADATAEXPRESSION);
+
     /** Log object for this class. */
     private final Log log = LogFactory.getLog(getClass());
 
@@ -64,16 +89,30 @@ public class CSWGetRecordResponse {
      */
     public CSWGetRecordResponse(CSWServiceItem origin, Document getRecordResponse,
             CSWRecordTransformerFactory cswRecordTransformerFactory) throws XPathException {
-        //These cannot be static pre-compiled expressions as they are NOT threadsafe
-        CSWNamespaceContext nc = new CSWNamespaceContext();
-        XPathExpression exprRecordsMatched = DOMUtil.compileXPathExpr(
-                "/csw:GetRecordsResponse/csw:SearchResults/@numberOfRecordsMatched", nc);
-        XPathExpression exprRecordsReturned = DOMUtil.compileXPathExpr(
-                "/csw:GetRecordsResponse/csw:SearchResults/@numberOfRecordsReturned", nc);
-        XPathExpression exprNextRecord = DOMUtil.compileXPathExpr(
-                "/csw:GetRecordsResponse/csw:SearchResults/@nextRecord", nc);
-        XPathExpression exprRecordMetadata = DOMUtil.compileXPathExpr(
-                "/csw:GetRecordsResponse/csw:SearchResults/(gmd:MD_Metadata|gmi:MI_Metadata)", nc);
+        this(origin, getRecordResponse, cswRecordTransformerFactory, null);
+    }
+
+    /**
+     * Creates a new instance from the specified record response by parsing its contents
+     *
+     * The contents will be parsed according to the rules set out by the CSWRecordTransformerFactory
+     *
+     * @param getRecordResponse
+     *            an XML CSW GetRecords response parsed into a DOM tree
+     * @param origin
+     *            Where the getRecordResponse has originated from
+     * @param transformExecutor
+     *            Runs the record transforms if origin.getTransformThreads() is greater than 1. If null, a short lived
+     *            pool is created for (and shut down after) this response
+     * @throws XPathExpressionException
+     */
+    public CSWGetRecordResponse(CSWServiceItem origin, Document getRecordResponse,
+            CSWRecordTransformerFactory cswRecordTransformerFactory, Executor transformExecutor) throws XPathException {
+        //XPathExpressions are NOT threadsafe so each thread uses its own (DOMUtil cached) compiled copies
+        XPathExpression exprRecordsMatched = xPathBundle.get(RECORDSMATCHEDEXPRESSION);
+        XPathExpression exprRecordsReturned = xPathBundle.get(RECORDSRETURNEDEXPRESSION);
+        XPathExpression exprNextRecord = xPathBundle.get(NEXTRECORDEXPRESSION);
+        XPathExpression exprRecordMetadata = xPathBundle.get(RECORDMETADATAEXPRESSION);
 
         Node node = (Node) exprRecordsMatched.evaluate(getRecordResponse, XPathConstants.NODE);
         if (node != null) {
@@ -91,14 +130,276 @@ public class CSWGetRecordResponse {
         NodeList nodes = (NodeList) exprRecordMetadata.evaluate(getRecordResponse, XPathConstants.NODESET);
         records = new ArrayList<>(nodes.getLength());
 
-        for (int i = 0; i < nodes.getLength(); i++) {
-            Node metadataNode = nodes.item(i);
-            CSWRecordTransformer transformer = cswRecordTransformerFactory.newCSWRecordTransformer(metadataNode, origin.getServerType());
-            CSWRecord newRecord = transformer.transformToCSWRecord();
-            newRecord.setRecordInfoUrl(String.format(origin.getRecordInformationUrl(), newRecord.getFileIdentifier()));
-            records.add(newRecord);
-            log.trace("GN layer " + (i + 1) + " : " + newRecord.toString());
-            //System.out.println("CSWGetRecordResponse.newRecord.setRecordInfoUrl "+newRecord.toString());
+        if (origin.getTransformThreads() > 1) {
+            //Each record is transformed from its own copy as the DOM isn't thread safe (even for reads)
+            ParallelTransform parallelTransform = new ParallelTransform(origin, cswRecordTransformerFactory, transformExecutor);
+            try {
+                for (int i = 0; i < nodes.getLength(); i++) {
+                    try {
+                        parallelTransform.submit(DOMUtil.copyToNewDocument(nodes.item(i)).getDocumentElement());
+                    } catch (ParserConfigurationException e) {
+                        throw new XPathException(e);
+                    }
+                }
+                records = parallelTransform.complete();
+            } finally {
+                parallelTransform.close();
+            }
+        } else {
+            for (int i = 0; i < nodes.getLength(); i++) {
+                addRecord(origin, nodes.item(i), cswRecordTransformerFactory);
+            }
+        }
+    }
+
+    private CSWGetRecordResponse() {
+        records = new ArrayList<>();
+    }
+
+    /**
+     * Creates a new instance by streaming (StAX) the specified record response rather than parsing it into a DOM tree.
+     *
+     * Only the search results header and a single gmd:MD_Metadata (or gmi:MI_Metadata) subtree are held in memory at
+     * any one time, so peak memory is bounded by the largest record rather than the whole response.
+     *
+     * @param origin
+     *            Where the getRecordResponse has originated from
+     * @param getRecordResponse
+     *            A stream containing an XML CSW GetRecords response. It will NOT be closed
+     * @param cswRecordTransformerFactory
+     *            Used for transforming each record
+     * @return
+     * @throws XMLStreamException
+     * @throws ParserConfigurationException
+     * @throws XPathException
+     * @throws OWSException
+     *             If the response is an ows:ExceptionReport
+     */
+    public static CSWGetRecordResponse parseFromStream(CSWServiceItem origin, InputStream getRecordResponse,
+            CSWRecordTransformerFactory cswRecordTransformerFactory) throws XMLStreamException,
+            ParserConfigurationException, XPathException, OWSException {
+        return parseFromStream(origin, getRecordResponse, cswRecordTransformerFactory, null);
+    }
+
+    /**
+     * Creates a new instance by streaming (StAX) the specified record response rather than parsing it into a DOM tree.
+     *
+     * @param origin
+     *            Where the getRecordResponse has originated from
+     * @param getRecordResponse
+     *            A stream containing an XML CSW GetRecords response. It will NOT be closed
+     * @param cswRecordTransformerFactory
+     *            Used for transforming each record
+     * @param transformExecutor
+     *            Runs the record transforms if origin.getTransformThreads() is greater than 1. If null, a short lived
+     *            pool is created for (and shut down after) this response
+     * @return
+     * @throws XMLStreamException
+     * @throws ParserConfigurationException
+     * @throws XPathException
+     * @throws OWSException
+     *             If the response is an ows:ExceptionReport
+     */
+    public static CSWGetRecordResponse parseFromStream(CSWServiceItem origin, InputStream getRecordResponse,
+            CSWRecordTransformerFactory cswRecordTransformerFactory, Executor transformExecutor) throws XMLStreamException,
+            ParserConfigurationException, XPathException, OWSException {
+        CSWGetRecordResponse response = new CSWGetRecordResponse();
+        XMLStreamReader reader = DOMUtil.newXMLInputFactory().createXMLStreamReader(getRecordResponse);
+        ParallelTransform parallelTransform = null;
+        try {
+            reader.nextTag();
+            if (isElement(reader, OWS_NAMESPACE, "ExceptionReport")) {
+                OWSExceptionParser.checkForExceptionResponse(DOMUtil.buildDomFromStreamReader(reader));
+                return response;
+            }
+            if (!isElement(reader, nc.getNamespaceURI("csw"), "GetRecordsResponse")) {
+                return response;
+            }
+
+            if (origin.getTransformThreads() > 1) {
+                parallelTransform = new ParallelTransform(origin, cswRecordTransformerFactory, transformExecutor);
+            }
+
+            //Depth 1 is csw:GetRecordsResponse, 2 is csw:SearchResults and 3 are the records
+            int depth = 1;
+            boolean inSearchResults = false;
+            while (depth > 0 && reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                    if (depth == 2 && isElement(reader, nc.getNamespaceURI("csw"), "SearchResults")) {
+                        inSearchResults = true;
+                        response.recordsMatched = parseIntAttribute(reader, "numberOfRecordsMatched");
+                        response.recordsReturned = parseIntAttribute(reader, "numberOfRecordsReturned");
+                        response.nextRecord = parseIntAttribute(reader, "nextRecord");
+                    } else if (depth == 3 && inSearchResults && (isElement(reader, nc.getNamespaceURI("gmd"), "MD_Metadata")
+                            || isElement(reader, nc.getNamespaceURI("gmi"), "MI_Metadata"))) {
+                        Document recordDocument = DOMUtil.buildDomFromStreamReader(reader);
+                        if (parallelTransform != null) {
+                            parallelTransform.submit(recordDocument.getDocumentElement());
+                        } else {
+                            response.addRecord(origin, recordDocument.getDocumentElement(), cswRecordTransformerFactory);
+                        }
+                        depth--; //The reader is now at the record's END_ELEMENT
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    if (depth == 2) {
+                        inSearchResults = false;
+                    }
+                    depth--;
+                }
+            }
+
+            if (parallelTransform != null) {
+                response.records = parallelTransform.complete();
+            }
+        } finally {
+            if (parallelTransform != null) {
+                parallelTransform.close();
+            }
+            reader.close();
+        }
+
+        return response;
+    }
+
+    private static boolean isElement(XMLStreamReader reader, String namespaceUri, String localName) {
+        return localName.equals(reader.getLocalName()) && namespaceUri.equals(reader.getNamespaceURI());
+    }
+
+    private static int parseIntAttribute(XMLStreamReader reader, String name) {
+        String value = reader.getAttributeValue(null, name);
+        return value == null ? 0 : Integer.parseInt(value.trim());
+    }
+
+    private static CSWRecord transformRecord(CSWServiceItem origin, Node metadataNode,
+            CSWRecordTransformerFactory cswRecordTransformerFactory) throws XPathException {
+        CSWRecordTransformer transformer = cswRecordTransformerFactory.newCSWRecordTransformer(metadataNode, origin.getServerType());
+        CSWRecord newRecord = transformer.transformToCSWRecord();
+        newRecord.setRecordInfoUrl(String.format(origin.getRecordInformationUrl(), newRecord.getFileIdentifier()));
+        return newRecord;
+    }
+
+    private void addRecord(CSWServiceItem origin, Node metadataNode, CSWRecordTransformerFactory cswRecordTransformerFactory)
+            throws XPathException {
+        CSWRecord newRecord = transformRecord(origin, metadataNode, cswRecordTransformerFactory);
+        records.add(newRecord);
+        log.trace("GN layer " + records.size() + " : " + newRecord.toString());
+    }
+
+    /**
+     * Transforms the records of a single response across an executor, preserving their original order.
+     *
+     * At most origin.getTransformThreads() records are in flight at once (bounding both CPU and memory use). A record
+     * that fails to transform is logged and skipped rather than failing the whole response.
+     *
+     * If no executor is supplied a pool of origin.getTransformThreads() threads is created, which close() shuts down.
+     */
+    private static class ParallelTransform {
+        private final Log log = LogFactory.getLog(CSWGetRecordResponse.class);
+        private final CSWServiceItem origin;
+        private final CSWRecordTransformerFactory cswRecordTransformerFactory;
+        private final Semaphore inFlight;
+        private final List<Future<CSWRecord>> futures = new ArrayList<>();
+        private final Executor executor;
+        private final ExecutorService ownedExecutor;
+
+        public ParallelTransform(CSWServiceItem origin, CSWRecordTransformerFactory cswRecordTransformerFactory,
+                Executor executor) {
+            this.origin = origin;
+            this.cswRecordTransformerFactory = cswRecordTransformerFactory;
+            this.inFlight = new Semaphore(origin.getTransformThreads());
+            if (executor == null) {
+                AtomicInteger threadCount = new AtomicInteger();
+                this.ownedExecutor = Executors.newFixedThreadPool(origin.getTransformThreads(), r -> {
+                    Thread t = new Thread(r, "csw-record-transform-" + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+                this.executor = ownedExecutor;
+            } else {
+                this.ownedExecutor = null;
+                this.executor = executor;
+            }
+        }
+
+        /**
+         * Submits metadataNode for transforming. Blocks whilst the maximum number of records are already in flight.
+         *
+         * @param metadataNode
+         *            Must not be shared with any other thread
+         * @throws XPathException
+         *             If interrupted whilst waiting
+         */
+        public void submit(final Node metadataNode) throws XPathException {
+            try {
+                inFlight.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancel();
+                throw new XPathException("Interrupted whilst transforming records");
+            }
+
+            FutureTask<CSWRecord> task = new FutureTask<>(() -> {
+                try {
+                    return transformRecord(origin, metadataNode, cswRecordTransformerFactory);
+                } catch (Exception e) {
+                    log.warn(String.format("Unable to transform record from '%1$s': %2$s", origin.getServiceUrl(), e));
+                    log.debug("Exception:", e);
+                    return null;
+                } finally {
+                    inFlight.release();
+                }
+            });
+            try {
+                executor.execute(task);
+            } catch (RuntimeException e) {
+                inFlight.release();
+                throw e;
+            }
+            futures.add(task);
+        }
+
+        /**
+         * Waits for every submitted record to be transformed
+         *
+         * @return The successfully transformed records in their submitted order
+         * @throws XPathException
+         *             If interrupted whilst waiting
+         */
+        public List<CSWRecord> complete() throws XPathException {
+            List<CSWRecord> records = new ArrayList<>(futures.size());
+            for (Future<CSWRecord> future : futures) {
+                try {
+                    CSWRecord record = future.get();
+                    if (record != null) {
+                        records.add(record);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    cancel();
+                    throw new XPathException("Interrupted whilst transforming records");
+                } catch (ExecutionException e) {
+                    log.warn(String.format("Unable to transform record from '%1$s': %2$s", origin.getServiceUrl(), e.getCause()));
+                }
+            }
+            return records;
+        }
+
+        private void cancel() {
+            for (Future<CSWRecord> future : futures) {
+                future.cancel(true);
+            }
+        }
+
+        /**
+         * Cancels any outstanding transforms and shuts down the executor (if it was created by this instance)
+         */
+        public void close() {
+            cancel();
+            if (ownedExecutor != null) {
+                ownedExecutor.shutdownNow();
+            }
         }
     }
 
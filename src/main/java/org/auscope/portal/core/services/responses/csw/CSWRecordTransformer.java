@@ -10,16 +10,14 @@ import java.util.List;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathException;
-import javax.xml.xpath.XPathExpression;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.auscope.portal.core.server.OgcServiceProviderType;
 import org.auscope.portal.core.services.PortalServiceException;
 import org.auscope.portal.core.services.namespaces.CSWNamespaceContext;
-import org.auscope.portal.core.util.DOMUtil;
+import org.auscope.portal.core.util.XPathExpressionBundle;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -81,6 +79,20 @@ public class CSWRecordTransformer {
     protected static final String SCALEDENOMINATOR = "gmd:identificationInfo/gmd:MD_DataIdentification/gmd:spatialResolution/gmd:MD_Resolution/gmd:equivalentScale/gmd:MD_RepresentativeFraction/gmd:denominator/gco:Integer";
 
     private static final String ONLINEDATASETTRANSFERSEXPRESSION = "gmd:distributionInfo/gmd:MD_Distribution/descendant::gmd:onLine/gmd:CI_OnlineResource";
+
+    /**
+     * The above expressions (evaluated by every transformer). Other expressions can also be evaluated via evalXPath*.
+     */
+    protected static final XPathExpressionBundle xPathBundle = new XPathExpressionBundle(nc,
+            SERVICEIDENTIFICATIONPATH + TITLEEXPRESSION, DATAIDENTIFICATIONPATH + TITLEEXPRESSION,
+            SERVICEIDENTIFICATIONPATH + ABSTRACTEXPRESSION, DATAIDENTIFICATIONPATH + ABSTRACTEXPRESSION,
+            DATESTAMPEXPRESSION, DATETIMESTAMPEXPRESSION, SCOPEEXPRESSION, CONTACTEXPRESSION, FUNDEREXPRESSION,
+            AUTHORSEXPRESSION, RESOURCEPROVIDEREXPRESSION, FILEIDENTIFIEREXPRESSION, PARENTIDENTIFIEREXPRESSION,
+            ONLINETRANSFERSEXPRESSION, BBOXEXPRESSION, TEMPORALEXTENTEXPRESSION, KEYWORDLISTEXPRESSION,
+            DATASETURIEXPRESSION, DATASETURIEXPRESSION2, SUPPLEMENTALINFOEXPRESSION, LANGUAGEEXPRESSION,
+            OTHERCONSTRAINTSEXPRESSION, USELIMITCONSTRAINTSEXPRESSION, USELIMITCONSTRAINTSRESTRICTIONCODEEXPRESSION,
+            ACCESSCONSTRAINTSRESTRICTIONCODEEXPRESSION, DATAQUALITYSTATEMENTEXPRESSION, LAYERNAME, SCALEDENOMINATOR,
+            "gml:beginPosition", "gml:endPosition");
     
     /**
      * Creates a new instance of this class and generates an empty document that will be used for constructing DOM.
@@ -533,8 +545,7 @@ public class CSWRecordTransformer {
      * @throws XPathException
      */
     protected static String evalXPathString(Node node, String xPath) throws XPathException {
-        XPathExpression expression = DOMUtil.compileXPathExpr(xPath, nc);
-        return (String) expression.evaluate(node, XPathConstants.STRING);
+        return xPathBundle.evaluateString(node, xPath);
     }
 
     /**
@@ -547,8 +558,7 @@ public class CSWRecordTransformer {
      * @throws XPathException
      */
     protected NodeList evalXPathNodeList(Node node, String xPath) throws XPathException {
-        XPathExpression expression = DOMUtil.compileXPathExpr(xPath, nc);
-        return (NodeList) expression.evaluate(node, XPathConstants.NODESET);
+        return xPathBundle.evaluateNodeList(node, xPath);
     }
 
     /**
@@ -561,8 +571,7 @@ public class CSWRecordTransformer {
      * @throws XPathException
      */
     protected Node evalXPathNode(Node node, String xPath) throws XPathException {
-        XPathExpression expression = DOMUtil.compileXPathExpr(xPath, nc);
-        return (Node) expression.evaluate(node, XPathConstants.NODE);
+        return xPathBundle.evaluateNode(node, xPath);
     }
 
     /**
@@ -1,17 +1,27 @@
 package org.auscope.portal.core.services.responses.ows;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
 import java.util.Iterator;
 
 import javax.xml.namespace.NamespaceContext;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathException;
 
+import org.apache.commons.io.input.CloseShieldInputStream;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.auscope.portal.core.util.DOMUtil;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
 
 /**
  * A utility class that provides convenience methods for detecting an ows:Exception response in an arbitrary ows response.
@@ -24,6 +34,9 @@ public class OWSExceptionParser {
     /** The Constant log. */
     private static final Log log = LogFactory.getLog(OWSExceptionParser.class);
 
+    /** The maximum number of bytes read from a stream when looking for its root element */
+    public static final int SNIFF_LENGTH = 16 * 1024;
+
     /**
      * Returns an XPath object that is configured to read the ows:Namespace.
      *
@@ -59,24 +72,150 @@ public class OWSExceptionParser {
     /**
      * Will attempt to parse an <ows:Exception> element where ows will be http://www.opengis.net/ows.
      *
-     * Will throw an OWSException if document does contain an <ows:ExceptionReport>, otherwise it will do nothing
+     * Will throw an OWSException if document does contain an <ows:ExceptionReport> (or a WMS <ServiceExceptionReport>),
+     * otherwise it will do nothing. Only the root element is inspected (via StAX) - the response is only fully parsed if
+     * it is an exception report.
      *
      * @param doc
-     *            a string containing valid XML, this will be parsed into a W3C DOM document
+     *            a string containing valid XML
      * @throws OWSException
      *             the oWS exception
      */
     public static void checkForExceptionResponse(String xmlString) throws OWSException {
-        Document doc = null;
+        XMLStreamReader reader = null;
         try {
-            doc = DOMUtil.buildDomFromString(xmlString);
-        } catch (Exception ex) {
+            reader = DOMUtil.newXMLInputFactory().createXMLStreamReader(new StringReader(xmlString));
+            reader.nextTag();
+            if (isExceptionReport(reader)) {
+                checkForExceptionResponseRoot(DOMUtil.buildDomFromStreamReader(reader));
+            }
+        } catch (XMLStreamException | ParserConfigurationException ex) {
             //This should *hopefully* never occur
             log.error("Error whilst attempting to parse xmlString for errors", ex);
             throw new OWSException("Unable to parse xmlString", ex);
+        } finally {
+            closeQuietly(reader);
+        }
+    }
+
+    /**
+     * Will attempt to parse an <ows:Exception> element where ows will be http://www.opengis.net/ows.
+     *
+     * Will throw an OWSException if the stream contains an <ows:ExceptionReport> (or a WMS <ServiceExceptionReport>),
+     * otherwise it will do nothing. Only (at most) the first SNIFF_LENGTH bytes are inspected to find the root element
+     * after which the stream is reset - so callers don't need to buffer entire responses just to check for errors. A
+     * stream whose root element can't be found in that prefix is assumed not to be an exception report. If no
+     * OWSException is thrown the stream is always left reset to where it started.
+     *
+     * @param stream
+     *            Must support mark/reset (eg a BufferedInputStream)
+     * @throws OWSException
+     *             the oWS exception
+     * @throws IOException
+     */
+    public static void checkForExceptionResponse(InputStream stream) throws OWSException, IOException {
+        if (!stream.markSupported()) {
+            throw new IllegalArgumentException("stream must support mark/reset");
+        }
+
+        stream.mark(SNIFF_LENGTH);
+        byte[] prefix;
+        try {
+            prefix = stream.readNBytes(SNIFF_LENGTH);
+        } finally {
+            stream.reset();
+        }
+
+        XMLStreamReader reader = null;
+        try {
+            reader = DOMUtil.newXMLInputFactory().createXMLStreamReader(new ByteArrayInputStream(prefix));
+            reader.nextTag();
+            if (!isExceptionReport(reader)) {
+                return;
+            }
+        } catch (XMLStreamException ex) {
+            if (prefix.length < SNIFF_LENGTH) {
+                //We've seen the whole stream and it isn't valid XML
+                log.error("Error whilst attempting to parse stream for errors", ex);
+                throw new OWSException("Unable to parse stream", ex);
+            }
+            log.debug("Unable to find root element in the first " + SNIFF_LENGTH + " bytes - assuming no exception");
+            return;
+        } finally {
+            closeQuietly(reader);
+        }
+
+        //It's an exception report - these are small so we parse the whole thing (leaving the stream reset in case it
+        //turns out not to contain an exception)
+        try {
+            Document doc;
+            if (prefix.length < SNIFF_LENGTH) {
+                doc = DOMUtil.buildDomFromStream(new ByteArrayInputStream(prefix));
+            } else {
+                stream.mark(Integer.MAX_VALUE);
+                try {
+                    doc = DOMUtil.buildDomFromStream(CloseShieldInputStream.wrap(stream));
+                } finally {
+                    stream.reset();
+                }
+            }
+            checkForExceptionResponseRoot(doc);
+        } catch (ParserConfigurationException | SAXException ex) {
+            log.error("Error whilst attempting to parse stream for errors", ex);
+            throw new OWSException("Unable to parse stream", ex);
         }
+    }
 
+    /**
+     * Returns true if reader is positioned at the root element of an OWS ExceptionReport or WMS ServiceExceptionReport
+     */
+    private static boolean isExceptionReport(XMLStreamReader reader) {
+        String localName = reader.getLocalName();
+        return "ExceptionReport".equals(localName) || "ServiceExceptionReport".equals(localName);
+    }
+
+    /**
+     * Throws an OWSException for doc (whose root element is an exception report). Handles OWS 1.0 (via
+     * checkForExceptionResponse), OWS 1.1 and WMS ServiceExceptionReport responses.
+     */
+    private static void checkForExceptionResponseRoot(Document doc) throws OWSException {
         checkForExceptionResponse(doc);
+
+        //Not an OWS 1.0 exception - look for any (namespace agnostic) Exception/ServiceException child
+        for (Node child = doc.getDocumentElement().getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (!(child instanceof Element)) {
+                continue;
+            }
+            Element exception = (Element) child;
+            String localName = exception.getLocalName() == null ? exception.getTagName() : exception.getLocalName();
+            if (!localName.endsWith("Exception")) {
+                continue;
+            }
+
+            String exceptionCode = exception.hasAttribute("exceptionCode") ? exception.getAttribute("exceptionCode")
+                    : exception.getAttribute("code");
+            String exceptionText = null;
+            NodeList textNodes = exception.getElementsByTagNameNS("*", "ExceptionText");
+            if (textNodes.getLength() > 0) {
+                exceptionText = textNodes.item(0).getTextContent();
+            } else if (!exception.getTextContent().isBlank()) {
+                exceptionText = exception.getTextContent().trim();
+            }
+            if (exceptionText == null) {
+                exceptionText = "[Cannot extract error message]";
+            }
+            throw new OWSException(String.format("Code='%1$s' Message='%2$s'", exceptionCode, exceptionText));
+        }
+    }
+
+    private static void closeQuietly(XMLStreamReader reader) {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (XMLStreamException e) {
+                log.debug("Error closing reader: " + e.getMessage());
+            }
+        }
     }
 
     /**
@@ -0,0 +1,541 @@
+package org.auscope.portal.core.services.responses.wms;
+
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.auscope.portal.core.services.responses.csw.CSWGeographicBoundingBox;
+import org.auscope.portal.core.util.DOMUtil;
+
+/**
+ * This class represents response to GetCapabilites query that has been read in a single StAX pass (rather than being
+ * parsed into a DOM and queried via XPath).
+ *
+ * The resulting model is the same as GetCapabilitiesRecord_1_1_1 / GetCapabilitiesRecord_1_3_0 (depending on the
+ * requested version) except that the layer list can optionally be restricted to a set of layer names - layers that
+ * aren't requested are never materialised. Elements are matched by local name.
+ */
+public class StreamedGetCapabilitiesRecord implements GetCapabilitiesRecord {
+
+    /** The xlink namespace */
+    private static final String XLINK_NAMESPACE = "http://www.w3.org/1999/xlink";
+
+    /** The log. */
+    private final Log log = LogFactory.getLog(getClass());
+
+    /** The WMS version this record was read as */
+    private String version;
+
+    /** The service type. */
+    private String serviceType = "";
+
+    /** The organisation. */
+    private String organisation = "";
+
+    /** The get map url. */
+    private String getMapUrl = "";
+
+    /** The metadata url. */
+    private String metadataUrl = "";
+
+    /** The application profile. */
+    private String applicationProfile = "OSGeo:GeoServer";
+
+    /** The get map formats. */
+    private String[] getMapFormats = new String[] {};
+
+    /** The layers. */
+    private ArrayList<GetCapabilitiesWMSLayerRecord> layers;
+
+    /** The layer srs. */
+    private String[] layerSRS = new String[] {};
+
+    /** The access constraints. */
+    private String[] accessConstraints = new String[] {};
+
+    /**
+     * Reads every layer from a WMS GetCapabilities response
+     *
+     * @param inXml
+     *            the GetCapabilities response
+     * @param version
+     *            the WMS version that was requested (1.1.1 or 1.3.0)
+     * @throws XMLStreamException
+     */
+    public StreamedGetCapabilitiesRecord(InputStream inXml, String version) throws XMLStreamException {
+        this(inXml, version, null);
+    }
+
+    /**
+     * Reads a WMS GetCapabilities response keeping only the layers whose name is in layerNames
+     *
+     * @param inXml
+     *            the GetCapabilities response
+     * @param version
+     *            the WMS version that was requested (1.1.1 or 1.3.0)
+     * @param layerNames
+     *            [Optional] If set, only layers with one of these names will be included in getLayers
+     * @throws XMLStreamException
+     */
+    public StreamedGetCapabilitiesRecord(InputStream inXml, String version, Set<String> layerNames)
+            throws XMLStreamException {
+        this.version = version;
+
+        XMLStreamReader reader = DOMUtil.newXMLInputFactory().createXMLStreamReader(inXml);
+        Parser parser = new Parser(reader, "1.3.0".equals(version), layerNames);
+        try {
+            parser.parse();
+        } finally {
+            reader.close();
+        }
+
+        this.serviceType = parser.serviceType;
+        this.organisation = parser.organisation;
+        this.getMapUrl = parser.getMapUrl;
+        this.metadataUrl = parser.metadataUrl;
+        this.applicationProfile = parser.applicationProfile;
+        this.layers = parser.layers;
+        this.layerSRS = parser.srsList.toArray(new String[parser.srsList.size()]);
+        this.getMapFormats = parser.formatList.toArray(new String[parser.formatList.size()]);
+        this.accessConstraints = parser.constraintList.toArray(new String[parser.constraintList.size()]);
+
+        if ("wms".equals(serviceType)) {
+            log.debug("Number of layers retrieved from GeoCapabilities: " + layers.size());
+        } else {
+            log.debug("Adding non WMS's are not yet implemented");
+        }
+    }
+
+    // ------------------------------------------ Attribute Setters and Getters
+
+    @Override
+    public boolean isWFS() {
+        return this.serviceType.equals("wfs");
+    }
+
+    @Override
+    public boolean isWMS() {
+        return this.serviceType.equals("wms");
+    }
+
+    @Override
+    public String getServiceType() {
+        return this.serviceType;
+    }
+
+    @Override
+    public String getOrganisation() {
+        return this.organisation;
+    }
+
+    @Override
+    public String getMapUrl() {
+        return this.getMapUrl;
+    }
+
+    @Override
+    public String getMetadataUrl() {
+        return this.metadataUrl;
+    }
+
+    @Override
+    public ArrayList<GetCapabilitiesWMSLayerRecord> getLayers() {
+        return this.layers;
+    }
+
+    @Override
+    public String[] getLayerSRS() {
+        return this.layerSRS;
+    }
+
+    @Override
+    public String[] getGetMapFormats() {
+        return getMapFormats;
+    }
+
+    @Override
+    public String getApplicationProfile() {
+        return this.applicationProfile;
+    }
+
+    @Override
+    public String[] getAccessConstraints() {
+        return this.accessConstraints;
+    }
+
+    @Override
+    public String getVersion() {
+        return version;
+    }
+
+    // ------------------------------------------------------ Private Methods
+
+    /**
+     * Gets the value of the (xlink) href attribute on the reader's current element (or "" if there is none)
+     */
+    private static String getHref(XMLStreamReader reader) {
+        String href = reader.getAttributeValue(XLINK_NAMESPACE, "href");
+        if (href != null) {
+            return href;
+        }
+
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            if ("href".equals(reader.getAttributeLocalName(i))) {
+                return reader.getAttributeValue(i);
+            }
+        }
+        return "";
+    }
+
+    /**
+     * Maps a namespace (declared or used as an attribute value on the root element) to an application profile
+     */
+    private static String toApplicationProfile(String value) {
+        if ("http://www.esri.com/wms".equals(value)) {
+            return "Esri:ArcGIS Server";
+        } else if ("http://mapserver.gis.umn.edu/mapserver".equals(value)) {
+            return "OSGeo:MapServer";
+        }
+        return null;
+    }
+
+    /**
+     * Accumulates the text content of a single element (including the text of any descendants)
+     */
+    private static class TextCapture {
+        private final int depth;
+        private final StringBuilder text = new StringBuilder();
+        private final Consumer<String> consumer;
+
+        public TextCapture(int depth, Consumer<String> consumer) {
+            this.depth = depth;
+            this.consumer = consumer;
+        }
+    }
+
+    /**
+     * The values of a Layer element that is still being streamed
+     */
+    private static class OpenLayer {
+        private final int depth;
+        private final int index;
+        private String name;
+        private String title;
+        private String description;
+        private String legendURL;
+        private String metadataHref;
+        private String metadataText;
+        private boolean bboxFound;
+        private String[] bboxValues;
+        private String[] timeExtent;
+        private boolean timeFound;
+        private final List<String> childLayerSRS = new ArrayList<>();
+
+        public OpenLayer(int depth, int index) {
+            this.depth = depth;
+            this.index = index;
+        }
+    }
+
+    /**
+     * Walks the StAX event stream collecting the values of a record
+     */
+    private static class Parser {
+        private final Log log = LogFactory.getLog(StreamedGetCapabilitiesRecord.class);
+        private final XMLStreamReader reader;
+        private final boolean version1_3_0;
+        private final Set<String> layerNames;
+        private final List<String> path = new ArrayList<>();
+        private final Deque<TextCapture> captures = new ArrayDeque<>();
+        private final Deque<OpenLayer> openLayers = new ArrayDeque<>();
+        private final List<String> srsList = new ArrayList<>();
+        private final List<String> formatList = new ArrayList<>();
+        private final List<String> constraintList = new ArrayList<>();
+        private boolean organisationFound = false;
+        private boolean mapUrlFound = false;
+        private boolean metadataUrlFound = false;
+
+        private String serviceType = "";
+        private String organisation = "";
+        private String getMapUrl = "";
+        private String metadataUrl = "";
+        private String applicationProfile = "OSGeo:GeoServer";
+        private ArrayList<GetCapabilitiesWMSLayerRecord> layers;
+
+        public Parser(XMLStreamReader reader, boolean version1_3_0, Set<String> layerNames) {
+            this.reader = reader;
+            this.version1_3_0 = version1_3_0;
+            this.layerNames = layerNames;
+        }
+
+        private boolean isVersion1_3_0() {
+            return version1_3_0;
+        }
+
+        /**
+         * Works out the application profile from the attributes/namespace declarations on the root element
+         */
+        private String readApplicationProfile() {
+            //Namespace declarations are attributes as far as the DOM records are concerned
+            TreeMap<String, String> attributes = new TreeMap<>();
+            for (int i = 0; i < reader.getNamespaceCount(); i++) {
+                String prefix = reader.getNamespacePrefix(i);
+                attributes.put(StringUtils.isEmpty(prefix) ? "xmlns" : "xmlns:" + prefix, reader.getNamespaceURI(i));
+            }
+            for (int i = 0; i < reader.getAttributeCount(); i++) {
+                String prefix = reader.getAttributePrefix(i);
+                String localName = reader.getAttributeLocalName(i);
+                attributes.put(StringUtils.isEmpty(prefix) ? localName : prefix + ":" + localName,
+                        reader.getAttributeValue(i));
+            }
+
+            //GetCapabilitiesRecord_1_1_1 only ever inspects the first attribute (in name order)
+            if (!isVersion1_3_0()) {
+                String profile = attributes.isEmpty() ? null : toApplicationProfile(attributes.firstEntry().getValue());
+                return profile == null ? "OSGeo:GeoServer" : profile;
+            }
+
+            for (String value : attributes.values()) {
+                String profile = toApplicationProfile(value);
+                if (profile != null) {
+                    return profile;
+                }
+            }
+            return "OSGeo:GeoServer";
+        }
+
+
+        /**
+         * Returns true if the current path (excluding the root element) is exactly names
+         */
+        private boolean at(String... names) {
+            if (path.size() != names.length + 1) {
+                return false;
+            }
+            for (int i = 0; i < names.length; i++) {
+                if (!names[i].equals(path.get(i + 1))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void capture(Consumer<String> consumer) {
+            captures.push(new TextCapture(path.size(), consumer));
+        }
+
+        public void parse() throws XMLStreamException {
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    path.add(reader.getLocalName());
+                    if (path.size() == 1) {
+                        applicationProfile = readApplicationProfile();
+                        String rootName = isVersion1_3_0() ? "WMS_Capabilities" : "WMT_MS_Capabilities";
+                        if (!rootName.equals(reader.getLocalName())) {
+                            return;
+                        }
+                        serviceType = "wms";
+                        layers = new ArrayList<>();
+                    } else {
+                        startElement();
+                    }
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    if (!captures.isEmpty()) {
+                        String text = reader.getText();
+                        for (TextCapture capture : captures) {
+                            capture.text.append(text);
+                        }
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    endElement();
+                    path.remove(path.size() - 1);
+                    break;
+                default:
+                    break;
+                }
+            }
+
+            layers.removeIf(Objects::isNull);
+        }
+
+        private void startElement() {
+            final String localName = reader.getLocalName();
+            final String srsName = isVersion1_3_0() ? "CRS" : "SRS";
+
+            if ("Layer".equals(localName) && "Capability".equals(path.get(1))) {
+                openLayers.push(new OpenLayer(path.size(), layers.size()));
+                layers.add(null); //reserve this layer's (document order) position
+                return;
+            }
+
+            if (!openLayers.isEmpty()) {
+                startLayerElement(openLayers.peek(), localName, srsName);
+            }
+
+            if (!organisationFound && at("Service", "ContactInformation", "ContactPersonPrimary", "ContactOrganization")) {
+                organisationFound = true;
+                capture(text -> organisation = text);
+            } else if (at("Capability", "Layer", srsName)) {
+                capture(srsList::add);
+            } else if (!mapUrlFound && at("Capability", "Request", "GetMap", "DCPType", "HTTP", "Get", "OnlineResource")) {
+                mapUrlFound = true;
+                getMapUrl = getHref(reader);
+            } else if (!metadataUrlFound && at("Capability", "Layer", "MetadataURL", "OnlineResource")) {
+                metadataUrlFound = true;
+                metadataUrl = getHref(reader);
+            } else if (at("Capability", "Request", "GetMap", "Format")) {
+                capture(formatList::add);
+            } else if (isVersion1_3_0() && at("Service", "AccessConstraints")) {
+                capture(constraintList::add);
+            }
+        }
+
+        /**
+         * Handles an element somewhere beneath (but not nested in another Layer within) layer
+         */
+        private void startLayerElement(final OpenLayer layer, String localName, String srsName) {
+            final int relativeDepth = path.size() - layer.depth;
+            if (relativeDepth == 1) {
+                switch (localName) {
+                case "Name":
+                    if (layer.name == null) {
+                        layer.name = "";
+                        capture(text -> layer.name = text);
+                    }
+                    break;
+                case "Title":
+                    if (layer.title == null) {
+                        layer.title = "";
+                        capture(text -> layer.title = text);
+                    }
+                    break;
+                case "Abstract":
+                    if (layer.description == null) {
+                        layer.description = "";
+                        capture(text -> layer.description = text);
+                    }
+                    break;
+                case "MetadataURL":
+                    if (layer.metadataText == null) {
+                        layer.metadataText = "";
+                        capture(text -> layer.metadataText = text);
+                    }
+                    break;
+                case "LatLonBoundingBox":
+                    if (!isVersion1_3_0() && !layer.bboxFound) {
+                        layer.bboxFound = true;
+                        layer.bboxValues = new String[] {
+                                StringUtils.defaultString(reader.getAttributeValue(null, "minx")),
+                                StringUtils.defaultString(reader.getAttributeValue(null, "maxx")),
+                                StringUtils.defaultString(reader.getAttributeValue(null, "miny")),
+                                StringUtils.defaultString(reader.getAttributeValue(null, "maxy"))};
+                    }
+                    break;
+                case "EX_GeographicBoundingBox":
+                    if (isVersion1_3_0() && !layer.bboxFound) {
+                        layer.bboxFound = true;
+                        layer.bboxValues = new String[4];
+                    }
+                    break;
+                case "Dimension":
+                case "Extent":
+                    if (!layer.timeFound && localName.equals(isVersion1_3_0() ? "Dimension" : "Extent")
+                            && "time".equals(reader.getAttributeValue(null, "name"))) {
+                        layer.timeFound = true;
+                        capture(text -> layer.timeExtent = text.split(","));
+                    }
+                    break;
+                default:
+                    if (localName.equals(srsName)) {
+                        capture(layer.childLayerSRS::add);
+                    }
+                    break;
+                }
+            } else if (relativeDepth == 2) {
+                String parentName = path.get(path.size() - 2);
+                if ("MetadataURL".equals(parentName) && "OnlineResource".equals(localName)
+                        && layer.metadataHref == null) {
+                    layer.metadataHref = getHref(reader);
+                } else if ("EX_GeographicBoundingBox".equals(parentName) && layer.bboxValues != null
+                        && isVersion1_3_0()) {
+                    int i = switch (localName) {
+                        case "westBoundLongitude" -> 0;
+                        case "eastBoundLongitude" -> 1;
+                        case "southBoundLatitude" -> 2;
+                        case "northBoundLatitude" -> 3;
+                        default -> -1;
+                    };
+                    if (i >= 0 && layer.bboxValues[i] == null) {
+                        layer.bboxValues[i] = "";
+                        final String[] values = layer.bboxValues;
+                        capture(text -> values[i] = text);
+                    }
+                }
+            } else if (relativeDepth == 3 && layer.legendURL == null && "OnlineResource".equals(localName)
+                    && "LegendURL".equals(path.get(path.size() - 2)) && "Style".equals(path.get(path.size() - 3))) {
+                layer.legendURL = getHref(reader);
+            }
+        }
+
+        private void endElement() {
+            while (!captures.isEmpty() && captures.peek().depth == path.size()) {
+                TextCapture capture = captures.pop();
+                capture.consumer.accept(capture.text.toString());
+            }
+
+            if (!openLayers.isEmpty() && openLayers.peek().depth == path.size()) {
+                OpenLayer layer = openLayers.pop();
+                String name = StringUtils.defaultString(layer.name);
+                if (layerNames == null || layerNames.contains(name)) {
+                    layers.set(layer.index, toLayer(layer, name));
+                }
+            }
+        }
+
+        private StreamedGetCapabilitiesWMSLayer toLayer(OpenLayer layer, String name) {
+            CSWGeographicBoundingBox bbox = null;
+            if (layer.bboxValues != null) {
+                try {
+                    bbox = new CSWGeographicBoundingBox(Double.parseDouble(StringUtils.defaultString(layer.bboxValues[0])),
+                            Double.parseDouble(StringUtils.defaultString(layer.bboxValues[1])),
+                            Double.parseDouble(StringUtils.defaultString(layer.bboxValues[2])),
+                            Double.parseDouble(StringUtils.defaultString(layer.bboxValues[3])));
+                } catch (NumberFormatException e) {
+                    log.debug("Unable to parse the bounding box.");
+                }
+            }
+
+            String metadataURL = StringUtils.defaultString(layer.metadataHref);
+            if (StringUtils.isBlank(metadataURL)) {
+                metadataURL = StringUtils.defaultString(layer.metadataText);
+            }
+
+            return new StreamedGetCapabilitiesWMSLayer(name,
+                    StringUtils.defaultString(layer.title),
+                    StringUtils.defaultString(layer.description),
+                    StringUtils.defaultString(layer.legendURL),
+                    metadataURL,
+                    bbox,
+                    layer.timeExtent,
+                    layer.childLayerSRS.toArray(new String[layer.childLayerSRS.size()]));
+        }
+    }
+}
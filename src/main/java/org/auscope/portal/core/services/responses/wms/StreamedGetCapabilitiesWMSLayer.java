@@ -0,0 +1,102 @@
+package org.auscope.portal.core.services.responses.wms;
+
+import org.auscope.portal.core.services.responses.csw.CSWGeographicBoundingBox;
+
+/**
+ * A WMS Layer node within a GetCapabilities WMS response that was read by StreamedGetCapabilitiesRecord.
+ *
+ * Unlike the DOM backed layers every value is extracted up front (as the layer is streamed past) so this class holds no
+ * reference to the underlying document.
+ */
+public class StreamedGetCapabilitiesWMSLayer implements GetCapabilitiesWMSLayerRecord {
+
+    /** The name. */
+    private String name;
+
+    /** The title. */
+    private String title;
+
+    /** The description. */
+    private String description;
+
+    /** The legendURL. */
+    private String legendURL;
+
+    /** The metadataURL. */
+    private String metadataURL;
+
+    /** The bbox. */
+    private CSWGeographicBoundingBox bbox;
+
+    /** The time extent (or null if the layer has no time dimension). */
+    private String[] timeExtent;
+
+    /** The child layer srs. */
+    private String[] childLayerSRS;
+
+    public StreamedGetCapabilitiesWMSLayer(String name, String title, String description, String legendURL,
+            String metadataURL, CSWGeographicBoundingBox bbox, String[] timeExtent, String[] childLayerSRS) {
+        this.name = name;
+        this.title = title;
+        this.description = description;
+        this.legendURL = legendURL;
+        this.metadataURL = metadataURL;
+        this.bbox = bbox;
+        this.timeExtent = timeExtent;
+        this.childLayerSRS = childLayerSRS;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getTitle() {
+        return title;
+    }
+
+    @Override
+    public String getAbstract() {
+        return description;
+    }
+
+    @Override
+    public String getMetadataURL() {
+        return metadataURL;
+    }
+
+    @Override
+    public String getLegendURL() {
+        return legendURL;
+    }
+
+    @Override
+    public CSWGeographicBoundingBox getBoundingBox() {
+        return bbox;
+    }
+
+    @Override
+    public String[] getTimeExtent() {
+        return timeExtent;
+    }
+
+    @Override
+    public String[] getChildLayerSRS() {
+        return childLayerSRS;
+    }
+
+    @Override
+    public String toString() {
+        final String seperator = ",";
+
+        StringBuffer buf = new StringBuffer();
+        buf.append(name);
+        buf.append(seperator);
+        buf.append(title);
+        buf.append(seperator);
+        buf.append(description);
+        buf.append(seperator);
+        return buf.toString();
+    }
+}
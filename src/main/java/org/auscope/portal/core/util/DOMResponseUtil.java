@@ -1,5 +1,6 @@
 package org.auscope.portal.core.util;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -7,6 +8,9 @@ import javax.xml.namespace.NamespaceContext;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpression;
@@ -21,6 +25,86 @@ import org.xml.sax.SAXException;
 
 public class DOMResponseUtil {
 
+    /**
+     * Counts the features in a WFS GetFeature response in a single StAX pass (using constant memory).
+     *
+     * The count is read from the numberOfFeatures (WFS 1.x) or numberReturned (WFS 2.0) attribute of the root element.
+     * If neither is present (or parseable) the featureMember/member elements (and the children of any featureMembers
+     * element) are counted instead.
+     *
+     * @param gmlResponse
+     *            The response to count - will be closed by this method
+     * @return
+     * @throws IOException
+     *             If the response can't be read/parsed
+     * @throws OWSException
+     *             If the response is an OWS exception report
+     */
+    public static int countFeatures(InputStream gmlResponse) throws IOException, OWSException {
+        try (InputStream is = gmlResponse.markSupported() ? gmlResponse : new BufferedInputStream(gmlResponse)) {
+            // Do some rudimentary error testing
+            OWSExceptionParser.checkForExceptionResponse(is);
+
+            XMLStreamReader reader = DOMUtil.newXMLInputFactory().createXMLStreamReader(is);
+            try {
+                reader.nextTag();
+                Integer count = parseCount(reader.getAttributeValue(null, "numberOfFeatures"));
+                if (count == null) {
+                    count = parseCount(reader.getAttributeValue(null, "numberReturned"));
+                }
+                if (count != null) {
+                    return count;
+                }
+
+                int features = 0;
+                int depth = 1;
+                boolean inFeatureMembers = false;
+                while (reader.hasNext()) {
+                    switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        depth++;
+                        if (depth == 2) {
+                            String localName = reader.getLocalName();
+                            if ("featureMember".equals(localName) || "member".equals(localName)) {
+                                features++;
+                            } else if ("featureMembers".equals(localName)) {
+                                inFeatureMembers = true;
+                            }
+                        } else if (depth == 3 && inFeatureMembers) {
+                            features++;
+                        }
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        if (depth == 2) {
+                            inFeatureMembers = false;
+                        }
+                        depth--;
+                        break;
+                    default:
+                        break;
+                    }
+                }
+                return features;
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    private static Integer parseCount(String value) {
+        if (value == null) {
+            return null;
+        }
+
+        try {
+            return Integer.valueOf(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
     public static int getNumberOfFeatures(InputStream gsmlResponse, NamespaceContext namespace) throws IOException, OWSException {
 
         try (gsmlResponse) {
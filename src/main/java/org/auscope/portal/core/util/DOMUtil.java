@@ -4,13 +4,25 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringReader;
 import java.io.StringWriter;
-import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
 
+import javax.xml.XMLConstants;
 import javax.xml.namespace.NamespaceContext;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
@@ -23,9 +35,10 @@ import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
 
-import org.apache.commons.io.IOUtils;
 import org.auscope.portal.core.services.PortalServiceException;
+import org.auscope.portal.core.services.namespaces.IterableNamespace;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
@@ -39,6 +52,34 @@ import org.xml.sax.SAXException;
  */
 public class DOMUtil {
 
+    /** The maximum number of compiled XPath expressions cached by each thread */
+    private static final int XPATH_CACHE_SIZE = 1000;
+
+    private static final ThreadLocal<XPathFactory> SAXON_XPATH_FACTORY = ThreadLocal.withInitial(
+            () -> new net.sf.saxon.xpath.XPathFactoryImpl());
+
+    // XPathExpression objects aren't thread safe so each thread keeps its own (least recently used) cache
+    private static final ThreadLocal<Map<XPathCacheKey, XPathExpression>> XPATH_CACHE = ThreadLocal.withInitial(
+            () -> new LinkedHashMap<XPathCacheKey, XPathExpression>(64, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<XPathCacheKey, XPathExpression> eldest) {
+                    return size() > XPATH_CACHE_SIZE;
+                }
+            });
+
+    /** The maximum number of idle DocumentBuilders (of each type) and Transformers kept for reuse */
+    private static final int POOL_SIZE = 32;
+
+    // DocumentBuilders and Transformers aren't thread safe but can be reset and reused by subsequent parses
+    private static final BlockingQueue<DocumentBuilder> NAMESPACE_AWARE_BUILDERS = new ArrayBlockingQueue<>(POOL_SIZE);
+    private static final BlockingQueue<DocumentBuilder> NAMESPACE_UNAWARE_BUILDERS = new ArrayBlockingQueue<>(POOL_SIZE);
+    private static final BlockingQueue<Transformer> IDENTITY_TRANSFORMERS = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    private static final LongAdder xPathCacheHits = new LongAdder();
+    private static final LongAdder xPathCacheMisses = new LongAdder();
+
     /**
      * Utility for accessing a consistent DocumentBuilderFactory (regardless of what is on the classpath)
      *
@@ -50,6 +91,48 @@ public class DOMUtil {
         return factory;
     }
 
+    /**
+     * Borrows a DocumentBuilder from the pool (creating a new one if the pool is empty). It should be returned via
+     * returnDocumentBuilder once finished with (unless it failed part way through a parse).
+     *
+     * @param isNamespaceAware
+     * @return
+     * @throws ParserConfigurationException
+     */
+    private static DocumentBuilder borrowDocumentBuilder(boolean isNamespaceAware) throws ParserConfigurationException {
+        DocumentBuilder builder = (isNamespaceAware ? NAMESPACE_AWARE_BUILDERS : NAMESPACE_UNAWARE_BUILDERS).poll();
+        if (builder != null) {
+            return builder;
+        }
+
+        DocumentBuilderFactory factory = getDocumentBuilderFactory();
+        factory.setNamespaceAware(isNamespaceAware); // never forget this!
+        return factory.newDocumentBuilder();
+    }
+
+    /**
+     * Resets builder and returns it to the pool (if the pool isn't already full)
+     *
+     * @param builder
+     */
+    private static void returnDocumentBuilder(DocumentBuilder builder) {
+        builder.reset();
+        (builder.isNamespaceAware() ? NAMESPACE_AWARE_BUILDERS : NAMESPACE_UNAWARE_BUILDERS).offer(builder);
+    }
+
+    /**
+     * Creates a new (empty) namespace aware Document
+     *
+     * @return
+     * @throws ParserConfigurationException
+     */
+    private static Document newDocument() throws ParserConfigurationException {
+        DocumentBuilder builder = borrowDocumentBuilder(true);
+        Document doc = builder.newDocument();
+        returnDocumentBuilder(builder);
+        return doc;
+    }
+
     /**
      * Given a String containing XML, parse it and return a DOM object representation (that is namespace aware).
      *
@@ -74,11 +157,10 @@ public class DOMUtil {
     public static Document buildDomFromString(String xmlString, boolean isNamespaceAware)
             throws ParserConfigurationException, IOException, SAXException {
         //build the XML dom
-        DocumentBuilderFactory factory = getDocumentBuilderFactory();
-        factory.setNamespaceAware(isNamespaceAware); // never forget this!
-        DocumentBuilder builder = factory.newDocumentBuilder();
+        DocumentBuilder builder = borrowDocumentBuilder(isNamespaceAware);
         InputSource inputSource = new InputSource(new StringReader(xmlString.toString()));
         Document doc = builder.parse(inputSource);
+        returnDocumentBuilder(builder);
         return doc;
     }
 
@@ -103,17 +185,116 @@ public class DOMUtil {
      */
     public static Document buildDomFromStream(InputStream stream, boolean isNamespaceAware)
             throws ParserConfigurationException, IOException, SAXException {
-        //build the XML dom
-        String theString = IOUtils.toString(stream, Charset.forName("UTF-8")); 
-        stream = IOUtils.toInputStream(theString, Charset.forName("UTF-8"));
-
-        DocumentBuilderFactory factory = getDocumentBuilderFactory();
-        factory.setNamespaceAware(isNamespaceAware); // never forget this!
-        DocumentBuilder builder = factory.newDocumentBuilder();
+        //build the XML dom directly from the stream (the parser will honour any declared encoding)
+        DocumentBuilder builder = borrowDocumentBuilder(isNamespaceAware);
         Document doc = builder.parse(stream);
+        returnDocumentBuilder(builder);
+        return doc;
+    }
+
+    /**
+     * Creates a new namespace aware XMLInputFactory for streaming (StAX) parsing. DTDs and external entities are disabled
+     * and adjacent text is coalesced into a single event.
+     *
+     * @return
+     */
+    public static XMLInputFactory newXMLInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newDefaultFactory();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        return factory;
+    }
+
+    /**
+     * Materialises the element that reader is currently positioned at (and all of its descendants) as the root of a new
+     * namespace aware DOM Document. Only this subtree is held in memory - the rest of the stream is left unread.
+     *
+     * On return reader will be positioned at the matching END_ELEMENT.
+     *
+     * @param reader
+     *            Must be positioned at a START_ELEMENT
+     * @return
+     * @throws XMLStreamException
+     * @throws ParserConfigurationException
+     */
+    public static Document buildDomFromStreamReader(XMLStreamReader reader) throws XMLStreamException,
+            ParserConfigurationException {
+        if (reader.getEventType() != XMLStreamConstants.START_ELEMENT) {
+            throw new IllegalStateException("reader is not positioned at a START_ELEMENT");
+        }
+
+        Document doc = newDocument();
+
+        Node current = doc;
+        int depth = 0;
+        while (true) {
+            switch (reader.getEventType()) {
+            case XMLStreamConstants.START_ELEMENT:
+                Element element = doc.createElementNS(emptyToNull(reader.getNamespaceURI()), qualifiedName(
+                        reader.getPrefix(), reader.getLocalName()));
+                for (int i = 0; i < reader.getNamespaceCount(); i++) {
+                    String prefix = reader.getNamespacePrefix(i);
+                    element.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, prefix == null || prefix.isEmpty()
+                            ? XMLConstants.XMLNS_ATTRIBUTE : XMLConstants.XMLNS_ATTRIBUTE + ":" + prefix,
+                            reader.getNamespaceURI(i));
+                }
+                for (int i = 0; i < reader.getAttributeCount(); i++) {
+                    element.setAttributeNS(emptyToNull(reader.getAttributeNamespace(i)), qualifiedName(
+                            reader.getAttributePrefix(i), reader.getAttributeLocalName(i)), reader.getAttributeValue(i));
+                }
+                current.appendChild(element);
+                current = element;
+                depth++;
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                current = current.getParentNode();
+                depth--;
+                break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+            case XMLStreamConstants.SPACE:
+                current.appendChild(doc.createTextNode(reader.getText()));
+                break;
+            case XMLStreamConstants.COMMENT:
+                current.appendChild(doc.createComment(reader.getText()));
+                break;
+            default:
+                break;
+            }
+
+            if (depth == 0) {
+                break;
+            }
+            reader.next();
+        }
+
         return doc;
     }
 
+    /**
+     * Deep copies node into the root of a new namespace aware Document. The copy can be used independently of (eg by a
+     * different thread to) the original document - DOM implementations are not thread safe even for reading.
+     *
+     * @param node
+     * @return
+     * @throws ParserConfigurationException
+     */
+    public static Document copyToNewDocument(Node node) throws ParserConfigurationException {
+        Document doc = newDocument();
+        doc.appendChild(doc.importNode(node, true));
+        return doc;
+    }
+
+    private static String emptyToNull(String s) {
+        return s == null || s.isEmpty() ? null : s;
+    }
+
+    private static String qualifiedName(String prefix, String localName) {
+        return prefix == null || prefix.isEmpty() ? localName : prefix + ":" + localName;
+    }
+
     /**
      * Given a DOM (sub)tree generate a string representation with no formatting
      *
@@ -135,18 +316,27 @@ public class DOMUtil {
         } else {
             oprops.put(OutputKeys.OMIT_XML_DECLARATION, "no");
         }
-        TransformerFactory tf = TransformerFactory.newInstance();
-
-        Transformer t = tf.newTransformer();
+        Transformer t = IDENTITY_TRANSFORMERS.poll();
+        if (t == null) {
+            t = TransformerFactory.newInstance().newTransformer();
+        }
         t.setOutputProperties(oprops);
         t.transform(new DOMSource(node), sr);
 
+        //Transformers aren't thread safe but can be reused (once reset) after a successful transform
+        t.reset();
+        IDENTITY_TRANSFORMERS.offer(t);
+
         return outText.toString();
     }
 
     /**
      * Compiles the specified XPath (as a string) into an XPathExpression.
      *
+     * Compiled expressions are cached per thread (keyed by xPathStr and nc) so the returned expression must only be
+     * used by the calling thread. Only IterableNamespace contexts (which are compared by their prefix mappings) are
+     * cached - expressions using any other NamespaceContext are compiled on every call.
+     *
      * @param xPathStr
      *            A string representing a valid XPath expression
      * @param nc
@@ -156,17 +346,18 @@ public class DOMUtil {
      */
     public static XPathExpression compileXPathExpr(String xPathStr, NamespaceContext nc)
             throws XPathException {
-        //Use saxon explicitly for namespace aware XPath - it's much more performant
-        // Also Saxon supports XPath 2 which some of our expressions are.
-        XPathFactory factory = new net.sf.saxon.xpath.XPathFactoryImpl();
-        XPath xPath = factory.newXPath();
-        xPath.setNamespaceContext(nc);
-        return xPath.compile(xPathStr);
+        if (nc != null && !(nc instanceof IterableNamespace)) {
+            xPathCacheMisses.increment();
+            return newSaxonXPath(nc).compile(xPathStr);
+        }
+        return getCachedXPathExpr(new XPathCacheKey(xPathStr, nc, true));
     }
 
     /**
      * Compiles the specified XPath (as a string) into an XPathExpression.
      *
+     * Compiled expressions are cached per thread so the returned expression must only be used by the calling thread.
+     *
      * @param xPathStr
      *            A string representing a valid XPath expression
      * @return
@@ -174,10 +365,109 @@ public class DOMUtil {
      * @throws PortalServiceException 
      */
     public static XPathExpression compileXPathExpr(String xPathStr) throws XPathException {
-        //Use JAXP for namespace unaware xpath - saxon doesnt handle this sort of behaviour
-        //http://stackoverflow.com/questions/21118051/namespace-unaware-xpath-expression-fails-if-saxon-is-on-the-classpath
-        XPathFactory factory = XPathFactory.newInstance(XPathFactory.DEFAULT_OBJECT_MODEL_URI, "com.sun.org.apache.xpath.internal.jaxp.XPathFactoryImpl", null);
-        XPath xPath = factory.newXPath();
-        return xPath.compile(xPathStr);
+        return getCachedXPathExpr(new XPathCacheKey(xPathStr, null, false));
+    }
+
+    /**
+     * Gets the number of compileXPathExpr calls that were served from the cache (ie without compiling)
+     *
+     * @return
+     */
+    public static long getXPathCacheHitCount() {
+        return xPathCacheHits.sum();
+    }
+
+    /**
+     * Gets the number of compileXPathExpr calls that required an expression to be compiled
+     *
+     * @return
+     */
+    public static long getXPathCacheMissCount() {
+        return xPathCacheMisses.sum();
+    }
+
+    /**
+     * Gets the fraction (0-1) of compileXPathExpr calls that were served from the cache
+     *
+     * @return
+     */
+    public static double getXPathCacheHitRate() {
+        long hits = xPathCacheHits.sum();
+        long total = hits + xPathCacheMisses.sum();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    private static XPathExpression getCachedXPathExpr(XPathCacheKey key) throws XPathException {
+        Map<XPathCacheKey, XPathExpression> cache = XPATH_CACHE.get();
+        XPathExpression expression = cache.get(key);
+        if (expression != null) {
+            xPathCacheHits.increment();
+            return expression;
+        }
+
+        xPathCacheMisses.increment();
+        if (key.saxon) {
+            //Use saxon explicitly for namespace aware XPath - it's much more performant
+            // Also Saxon supports XPath 2 which some of our expressions are.
+            expression = newSaxonXPath(key.namespace).compile(key.expression);
+        } else {
+            //Use JAXP for namespace unaware xpath - saxon doesnt handle this sort of behaviour
+            //http://stackoverflow.com/questions/21118051/namespace-unaware-xpath-expression-fails-if-saxon-is-on-the-classpath
+            XPathFactory factory = XPathFactory.newInstance(XPathFactory.DEFAULT_OBJECT_MODEL_URI, "com.sun.org.apache.xpath.internal.jaxp.XPathFactoryImpl", null);
+            expression = factory.newXPath().compile(key.expression);
+        }
+        cache.put(key, expression);
+        return expression;
+    }
+
+    private static XPath newSaxonXPath(NamespaceContext nc) {
+        XPath xPath = SAXON_XPATH_FACTORY.get().newXPath();
+        xPath.setNamespaceContext(nc);
+        return xPath;
+    }
+
+    /**
+     * Identifies a compiled XPath expression - the expression string, the XPath implementation and a snapshot of the
+     * namespace context's class and prefix mappings (namespace contexts are usually created per call and can be mutable).
+     */
+    private static class XPathCacheKey {
+        private final String expression;
+        private final NamespaceContext namespace;
+        private final Class<?> namespaceClass;
+        private final Map<String, String> prefixes;
+        private final boolean saxon;
+
+        public XPathCacheKey(String expression, NamespaceContext namespace, boolean saxon) {
+            this.expression = expression;
+            this.namespace = namespace;
+            this.saxon = saxon;
+            if (namespace instanceof IterableNamespace) {
+                IterableNamespace iterable = (IterableNamespace) namespace;
+                this.namespaceClass = namespace.getClass();
+                this.prefixes = new HashMap<>();
+                for (Iterator<String> i = iterable.getPrefixIterator(); i.hasNext();) {
+                    String prefix = i.next();
+                    prefixes.put(prefix, iterable.getNamespaceURI(prefix));
+                }
+            } else {
+                this.namespaceClass = null;
+                this.prefixes = null;
+            }
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(expression, namespaceClass, prefixes, saxon);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof XPathCacheKey)) {
+                return false;
+            }
+            XPathCacheKey other = (XPathCacheKey) obj;
+            return saxon == other.saxon && expression.equals(other.expression)
+                    && namespaceClass == other.namespaceClass && Objects.equals(prefixes, other.prefixes);
+        }
     }
 }
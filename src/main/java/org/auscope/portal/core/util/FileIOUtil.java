@@ -28,6 +28,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.auscope.portal.core.server.http.HttpClientInputStream;
 import org.auscope.portal.core.server.http.download.DownloadResponse;
 
 import org.json.JSONObject;
@@ -429,18 +430,34 @@ public class FileIOUtil {
      * @param closeInput
      *            if true, the input will be closed prior to this method returning
      * @throws IOException
+     *             If output can't be written to. If input is a HttpClientInputStream, its request will have been aborted
      */
     public static void writeInputToOutputStream(InputStream input, OutputStream output, int bufferSize,
             boolean closeInput) throws IOException {
+        boolean outputFailed = false;
         try {
             byte[] buffer = new byte[bufferSize];
             int dataRead;
             do {
                 dataRead = input.read(buffer, 0, buffer.length);
                 if (dataRead > 0) {
-                    output.write(buffer, 0, dataRead);
+                    try {
+                        output.write(buffer, 0, dataRead);
+                    } catch (IOException e) {
+                        // Most likely the client disconnected - stop reading the rest of the upstream response
+                        outputFailed = true;
+                        if (input instanceof HttpClientInputStream) {
+                            ((HttpClientInputStream) input).abort();
+                        }
+                        throw e;
+                    }
                 }
             } while (dataRead != -1);
+        } catch (IOException e) {
+            if (outputFailed) {
+                throw e;
+            }
+            writeExceptionToXMLStream(e, output, false);
         } catch (Exception e) {
             writeExceptionToXMLStream(e, output, false);
         } finally {
@@ -0,0 +1,128 @@
+package org.auscope.portal.core.util;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathException;
+import javax.xml.xpath.XPathExpression;
+
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * A named set of XPath expressions (sharing a single namespace context) that are evaluated many times - eg once per
+ * record in a large response.
+ *
+ * Each thread compiles the bundle's expressions (on first use) into its own map keyed by the expression string so
+ * repeated lookups avoid building a DOMUtil cache key (a copy of the namespace context's prefixes) every time. An
+ * instance of this class can be safely shared (eg as a static field) between threads but the namespace context must
+ * not be modified once the bundle has been created.
+ */
+public class XPathExpressionBundle {
+
+    private final NamespaceContext nc;
+    private final List<String> expressions;
+    private final Set<String> expressionSet;
+    private final ThreadLocal<Map<String, XPathExpression>> compiled = ThreadLocal.withInitial(HashMap::new);
+
+    /**
+     * Creates a new bundle
+     *
+     * @param nc
+     *            The namespace context that every expression will be compiled against
+     * @param expressions
+     *            The expressions that make up this bundle
+     */
+    public XPathExpressionBundle(NamespaceContext nc, String... expressions) {
+        this.nc = nc;
+        this.expressions = Collections.unmodifiableList(Arrays.asList(expressions.clone()));
+        this.expressionSet = new HashSet<>(this.expressions);
+    }
+
+    /**
+     * Gets the namespace context that every expression is compiled against
+     *
+     * @return
+     */
+    public NamespaceContext getNamespaceContext() {
+        return nc;
+    }
+
+    /**
+     * Gets the (unmodifiable) expressions that make up this bundle
+     *
+     * @return
+     */
+    public List<String> getExpressions() {
+        return expressions;
+    }
+
+    /**
+     * Gets the calling thread's compiled version of xPath. The result must NOT be shared with other threads.
+     *
+     * xPath does not need to be one of this bundle's expressions (other expressions are compiled and cached by
+     * DOMUtil.compileXPathExpr instead).
+     *
+     * @param xPath
+     *            A valid XPath expression
+     * @return
+     * @throws XPathException
+     */
+    public XPathExpression get(String xPath) throws XPathException {
+        Map<String, XPathExpression> threadExpressions = compiled.get();
+        XPathExpression expression = threadExpressions.get(xPath);
+        if (expression == null) {
+            expression = DOMUtil.compileXPathExpr(xPath, nc);
+            if (expressionSet.contains(xPath)) {
+                threadExpressions.put(xPath, expression);
+            }
+        }
+        return expression;
+    }
+
+    /**
+     * Evaluates xPath against node returning the result as a string
+     *
+     * @param node
+     * @param xPath
+     *            A valid XPath expression
+     * @return
+     * @throws XPathException
+     */
+    public String evaluateString(Node node, String xPath) throws XPathException {
+        return (String) get(xPath).evaluate(node, XPathConstants.STRING);
+    }
+
+    /**
+     * Evaluates xPath against node returning the result as a (possibly empty) list of matching nodes
+     *
+     * @param node
+     * @param xPath
+     *            A valid XPath expression
+     * @return
+     * @throws XPathException
+     */
+    public NodeList evaluateNodeList(Node node, String xPath) throws XPathException {
+        return (NodeList) get(xPath).evaluate(node, XPathConstants.NODESET);
+    }
+
+    /**
+     * Evaluates xPath against node returning the first matching node (or null)
+     *
+     * @param node
+     * @param xPath
+     *            A valid XPath expression
+     * @return
+     * @throws XPathException
+     */
+    public Node evaluateNode(Node node, String xPath) throws XPathException {
+        return (Node) get(xPath).evaluate(node, XPathConstants.NODE);
+    }
+}
@@ -1,10 +1,17 @@
 package org.auscope.portal.core.xslt;
 
+import java.io.IOException;
 import java.util.Properties;
 
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
+
 import org.auscope.portal.core.services.namespaces.ErmlNamespaceContext;
 import org.springframework.stereotype.Component;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.servlet.http.HttpServletResponse;
+
 /**
  * Utility class for converting Gml to a 'pretty' HTML representation
  *
@@ -18,9 +25,21 @@ public class GmlToHtml extends PortalXSLTTransformer {
 	 * The base URL needed to build service calls from the XSLT
 	 */
 	public GmlToHtml() {
-	    super("/org/auscope/portal/core/xslt/WfsToHtml.xsl");
+	    super("/org/auscope/portal/core/xslt/WfsToHtml.xsl", "er");
 	}
 
+    /**
+     * Compiles the stylesheet for each supported EarthResourceML version at startup (rather than on the first request)
+     */
+    @PostConstruct
+    public void init() {
+        for (ErmlNamespaceContext namespaces : new ErmlNamespaceContext[] {new ErmlNamespaceContext(), new ErmlNamespaceContext("2.0")}) {
+            Properties staticParams = new Properties();
+            staticParams.setProperty("er", namespaces.getNamespaceURI("er"));
+            precompile(staticParams);
+        }
+    }
+
     /**
      * Utility method to transform a WFS response into HTML
      *
@@ -41,4 +60,26 @@ public class GmlToHtml extends PortalXSLTTransformer {
         return convert(wfs, stylesheetParams);
     }
 
+
+    /**
+     * Utility method to transform a WFS response into HTML that is written directly to response
+     *
+     * @param wfs
+     *            WFS response to be transformed
+     * @param namespaces
+     *            EarthResourceML namespace context (v1.1 or v2.0)
+     * @param baseUrl
+     *            The base URL of the request e.g.  https://portal.org/api
+     * @param response
+     *            Will have its content type set to text/html and the transformed html written to it
+     * @throws TransformerException
+     * @throws IOException
+     */
+    public void convert(Source wfs, ErmlNamespaceContext namespaces, String baseURL, HttpServletResponse response)
+            throws TransformerException, IOException {
+        Properties stylesheetParams = new Properties();
+        stylesheetParams.setProperty("portalBaseURL", baseURL);
+        stylesheetParams.setProperty("er", namespaces.getNamespaceURI("er"));
+        convert(wfs, stylesheetParams, response, "text/html", "UTF-8");
+    }
 }
@@ -4,8 +4,19 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
@@ -15,6 +26,8 @@ import javax.xml.transform.stream.StreamSource;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import jakarta.servlet.http.HttpServletResponse;
+
 import net.sf.saxon.jaxp.SaxonTransformerFactory;
 import net.sf.saxon.om.StructuredQName;
 import net.sf.saxon.trans.CompilerInfo;
@@ -23,14 +36,25 @@ import net.sf.saxon.value.StringValue;
 /**
  * Class for performing XSLT Transformations
  *
+ * Compiled stylesheets (Templates) are cached and shared between every instance/thread - keyed by stylesheet resource,
+ * URI resolver context (the class resources are resolved against) and the values of any static stylesheet
+ * parameters. Each transformation uses its own Transformer.
+ *
  * @author Josh Vote
  *
  */
 public class PortalXSLTTransformer {
     private final Log log = LogFactory.getLog(this.getClass());
 
+    /** Compiled stylesheets shared by every instance */
+    private static final ConcurrentHashMap<List<Object>, Templates> TEMPLATES_CACHE = new ConcurrentHashMap<>();
+
     private String xsltResourceName;
 
+    private Set<String> staticParameterNames;
+
+    private boolean hotReload = false;
+
     /**
      * Creates a new instance of this class for transforming using a single XSLT
      *
@@ -38,53 +62,152 @@ public class PortalXSLTTransformer {
      *            The name of the resource (relative to this class)
      */
     public PortalXSLTTransformer(String xsltResourceName) {
+        this(xsltResourceName, new String[0]);
+    }
+
+    /**
+     * Creates a new instance of this class for transforming using a single XSLT that declares static parameters
+     *
+     * @param xsltResourceName
+     *            The name of the resource (relative to this class)
+     * @param staticParameterNames
+     *            The names of the stylesheet parameters declared with static="yes". These must be supplied at compile
+     *            time so a separate compiled stylesheet is cached for every combination of their values.
+     */
+    public PortalXSLTTransformer(String xsltResourceName, String... staticParameterNames) {
         this.xsltResourceName = xsltResourceName;
+        this.staticParameterNames = new HashSet<>(Arrays.asList(staticParameterNames));
+    }
+
+    /**
+     * If true, the stylesheet will be recompiled (and never cached) on every transformation. Useful during development
+     * when editing stylesheets.
+     *
+     * @return
+     */
+    public boolean isHotReload() {
+        return hotReload;
+    }
+
+    /**
+     * If true, the stylesheet will be recompiled (and never cached) on every transformation. Useful during development
+     * when editing stylesheets.
+     *
+     * @param hotReload
+     */
+    public void setHotReload(boolean hotReload) {
+        this.hotReload = hotReload;
+    }
+
+    /**
+     * Compiles (and caches) the stylesheet ahead of its first use. Failures are logged rather than thrown.
+     *
+     * @param staticParams
+     *            [Optional] Values for the static stylesheet parameters
+     */
+    public void precompile(Properties staticParams) {
+        try {
+            getTemplates(staticParams);
+        } catch (TransformerConfigurationException | IOException e) {
+            log.error("Failed to precompile " + xsltResourceName + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Gets the compiled stylesheet for the specified static parameter values - compiling it if it isn't already cached
+     * (or if hot reloading is enabled)
+     *
+     * @param stylesheetParams
+     *            [Optional] The stylesheet params. Only those named as static parameters will be used.
+     * @return
+     * @throws TransformerConfigurationException
+     * @throws IOException
+     */
+    protected Templates getTemplates(Properties stylesheetParams) throws TransformerConfigurationException, IOException {
+        TreeMap<String, String> staticParams = new TreeMap<>();
+        if (stylesheetParams != null) {
+            for (String param : stylesheetParams.stringPropertyNames()) {
+                if (staticParameterNames.contains(param)) {
+                    staticParams.put(param, stylesheetParams.getProperty(param));
+                }
+            }
+        }
+
+        if (hotReload) {
+            return compileTemplates(staticParams);
+        }
+
+        List<Object> key = Arrays.asList(xsltResourceName, getClass(), staticParams);
+        Templates templates = TEMPLATES_CACHE.get(key);
+        if (templates == null) {
+            templates = compileTemplates(staticParams);
+            Templates existing = TEMPLATES_CACHE.putIfAbsent(key, templates);
+            if (existing != null) {
+                templates = existing;
+            }
+        }
+        return templates;
+    }
+
+    /**
+     * Utility for compiling the stylesheet into a Templates object
+     *
+     * @param staticParams
+     *            The values for any static stylesheet params
+     * @return
+     * @throws TransformerConfigurationException
+     * @throws IOException
+     */
+    private Templates compileTemplates(Map<String, String> staticParams)
+            throws TransformerConfigurationException, IOException {
+        try (InputStream xslt = getClass().getResourceAsStream(xsltResourceName)) {
+            if (xslt == null) {
+                throw new IOException("Unable to find xslt resource " + xsltResourceName);
+            }
+
+            // We prefer Saxon over whatever TransformerFactory.newInstance() would give us
+            SaxonTransformerFactory tFactory = new net.sf.saxon.TransformerFactoryImpl();
+            log.debug("XSLT implementation in use: " + tFactory.getClass());
+
+            // Ensure we resolve resources locally
+            ResourceURIResolver uriResolver = new ResourceURIResolver(getClass());
+            tFactory.setURIResolver(uriResolver);
+
+            // Static stylesheet parameters must be set at compile time
+            CompilerInfo info = new CompilerInfo(tFactory.getConfiguration());
+            info.setURIResolver(uriResolver);
+            for (Map.Entry<String, String> param : staticParams.entrySet()) {
+                info.setParameter(new StructuredQName("", null, param.getKey()),
+                        StringValue.makeStringValue(param.getValue()));
+            }
+
+            long start = System.currentTimeMillis();
+            Templates templates = tFactory.newTemplates(new StreamSource(xslt), info);
+            log.debug(String.format("Compiled %1$s in %2$dms", xsltResourceName, System.currentTimeMillis() - start));
+            return templates;
+        }
     }
 
     /**
      * Utility for creating an instance of the Transformer class
      *
-     * @param xslt
-     *            The style sheet contents that will form the basis of the transformer
      * @param stylesheetParams
      *            [Optional] Any additional params to set for the Transformer
      * @return
      * @throws TransformerConfigurationException
+     * @throws IOException
      */
-    private Transformer createTransformer(InputStream xslt, Properties stylesheetParams)
-            throws TransformerConfigurationException {
-        // Use the static TransformerFactory.newInstance() method:
-        // TransformerFactory tFactory = TransformerFactory.newInstance();
-        // to instantiate updateCSWRecords TransformerFactory.
-        // The javax.xml.transform.TransformerFactory system property
-        // setting
-        // determines the actual class to instantiate:
-        // org.apache.xalan.transformer.TransformerImpl.
-        // However, we prefer Saxon...
-        SaxonTransformerFactory tFactory =  new net.sf.saxon.TransformerFactoryImpl();
-        log.debug("XSLT implementation in use: " + tFactory.getClass());
-
-        // Ensure we resolve resources locally
-        ResourceURIResolver uriResolver = new ResourceURIResolver(getClass());
-        tFactory.setURIResolver(uriResolver);
-
-        // Set stylesheet parameters
-        CompilerInfo info = new CompilerInfo(tFactory.getConfiguration());
-        info.setURIResolver(uriResolver);
+    private Transformer createTransformer(Properties stylesheetParams)
+            throws TransformerConfigurationException, IOException {
+        Transformer transformer = getTemplates(stylesheetParams).newTransformer();
         if (stylesheetParams != null) {
-        	for (String param : stylesheetParams.stringPropertyNames()) {
-                info.setParameter(new StructuredQName("", null, param),
-                		StringValue.makeStringValue(stylesheetParams.getProperty(param)));
+            for (String param : stylesheetParams.stringPropertyNames()) {
+                if (!staticParameterNames.contains(param)) {
+                    transformer.setParameter(param, stylesheetParams.getProperty(param));
+                }
             }
         }
 
-        // Use the TransformerFactory to instantiate updateCSWRecords
-        // transformer that will
-        // work with the style sheet we specify. This method call also
-        // processes
-        // the style sheet into updateCSWRecords compiled Templates object.
-        Transformer transformer = tFactory.newTemplates(new StreamSource(xslt), info).newTransformer();
-
         return transformer;
     }
 
@@ -131,19 +254,60 @@ public class PortalXSLTTransformer {
      */
     public String convert(StreamSource xml, Properties stylesheetParams) {
         StringWriter sw = new StringWriter();
-        try (InputStream xslt = getClass().getResourceAsStream(xsltResourceName)) {
-            try {
-                Transformer transformer = createTransformer(xslt, stylesheetParams);
-                transformer.transform(xml, new StreamResult(sw));
-            } catch (TransformerConfigurationException tce) {
-                log.error(tce);
-            } catch (TransformerException e) {
-                log.error("Failed to transform xml: " + e);
-            }
+        try {
+            Transformer transformer = createTransformer(stylesheetParams);
+            transformer.transform(xml, new StreamResult(sw));
+        } catch (TransformerConfigurationException tce) {
+            log.error(tce);
+        } catch (TransformerException e) {
+            log.error("Failed to transform xml: " + e);
         } catch (IOException e1) {
             log.error("Failed to read xslt resource: " + e1.getMessage(), e1);
         }
         String kml = sw.toString();
         return kml;
     }
+
+    /**
+     * Utility method to transform xml directly into result (eg a StreamResult over an OutputStream) without buffering
+     * the transformed output in memory.
+     *
+     * @param xml
+     *            XML Source to be transformed (eg a StreamSource over an upstream response)
+     * @param stylesheetParams
+     *            A map of properties that will be enumerated to set style sheet properties
+     * @param result
+     *            Where the transformed output will be written
+     * @throws TransformerException
+     * @throws IOException
+     */
+    public void convert(Source xml, Properties stylesheetParams, Result result) throws TransformerException, IOException {
+        createTransformer(stylesheetParams).transform(xml, result);
+    }
+
+    /**
+     * Utility method to transform xml directly into the OutputStream of response. The content type (and charset) of
+     * response will be set before any output is written.
+     *
+     * @param xml
+     *            XML Source to be transformed (eg a StreamSource over an upstream response)
+     * @param stylesheetParams
+     *            A map of properties that will be enumerated to set style sheet properties
+     * @param response
+     *            The response to write the transformed output to
+     * @param contentType
+     *            The content type of the transformed output eg text/html
+     * @param charset
+     *            The charset the transformed output will be encoded with eg utf-8
+     * @throws TransformerException
+     * @throws IOException
+     */
+    public void convert(Source xml, Properties stylesheetParams, HttpServletResponse response, String contentType,
+            String charset) throws TransformerException, IOException {
+        Transformer transformer = createTransformer(stylesheetParams);
+        transformer.setOutputProperty(OutputKeys.ENCODING, charset);
+
+        response.setContentType(contentType + "; charset=" + charset);
+        transformer.transform(xml, new StreamResult(response.getOutputStream()));
+    }
 }
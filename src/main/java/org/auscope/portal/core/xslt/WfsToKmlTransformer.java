@@ -1,11 +1,17 @@
 package org.auscope.portal.core.xslt;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringReader;
 import java.util.Properties;
 
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
 import javax.xml.transform.stream.StreamSource;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.servlet.http.HttpServletResponse;
+
 /**
  * A PortalXSLTTransformer for working with the wfsToKml stylesheet
  * 
@@ -29,6 +35,15 @@ public class WfsToKmlTransformer extends PortalXSLTTransformer {
         super(resource);
     }
 
+    /**
+     * Compiles the stylesheet at startup (rather than on the first request). It has no static parameters so a single
+     * compilation serves every request.
+     */
+    @PostConstruct
+    public void init() {
+        precompile(null);
+    }
+
     /**
      * Utility method to transform a WFS response into kml
      *
@@ -69,4 +84,23 @@ public class WfsToKmlTransformer extends PortalXSLTTransformer {
         stylesheetParams.setProperty("serviceUrl", serviceUrl);
         return convert(wfs, stylesheetParams);
     }
+
+    /**
+     * Utility method to transform a WFS response into kml that is written directly to response
+     *
+     * @param wfs
+     *            WFS response to be transformed
+     * @param serviceUrl
+     *            The WFS URL where the response came from
+     * @param response
+     *            Will have its content type set to KML and the transformed kml written to it
+     * @throws TransformerException
+     * @throws IOException
+     */
+    public void convert(Source wfs, String serviceUrl, HttpServletResponse response)
+            throws TransformerException, IOException {
+        Properties stylesheetParams = new Properties();
+        stylesheetParams.setProperty("serviceUrl", serviceUrl);
+        convert(wfs, stylesheetParams, response, "application/vnd.google-earth.kml+xml", "UTF-8");
+    }
 }
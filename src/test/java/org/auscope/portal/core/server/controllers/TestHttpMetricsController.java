@@ -0,0 +1,44 @@
+package org.auscope.portal.core.server.controllers;
+
+import java.util.List;
+
+import org.auscope.portal.core.server.http.HttpMetricsRecorder;
+import org.auscope.portal.core.server.http.HttpServiceCaller;
+import org.auscope.portal.core.server.http.InMemoryHttpMetricsRecorder;
+import org.auscope.portal.core.test.PortalTestClass;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.web.servlet.ModelAndView;
+
+/**
+ * Unit tests for HttpMetricsController
+ */
+public class TestHttpMetricsController extends PortalTestClass {
+
+    /**
+     * Tests that the in memory recorder snapshot is returned
+     */
+    @Test
+    public void testGetHttpMetrics() {
+        HttpServiceCaller serviceCaller = new HttpServiceCaller(9000);
+        InMemoryHttpMetricsRecorder recorder = new InMemoryHttpMetricsRecorder();
+        recorder.recordResponse("example.org", null, 200, 10);
+        serviceCaller.setMetricsRecorder(recorder);
+
+        ModelAndView mav = new HttpMetricsController(serviceCaller).getHttpMetrics();
+        Assert.assertTrue((Boolean) mav.getModel().get("success"));
+        Assert.assertEquals(1, ((List<?>) mav.getModel().get("data")).size());
+    }
+
+    /**
+     * Tests that recorders without snapshots are reported as failures
+     */
+    @Test
+    public void testUnsupportedRecorder() {
+        HttpServiceCaller serviceCaller = new HttpServiceCaller(9000);
+        serviceCaller.setMetricsRecorder(context.mock(HttpMetricsRecorder.class));
+
+        ModelAndView mav = new HttpMetricsController(serviceCaller).getHttpMetrics();
+        Assert.assertFalse((Boolean) mav.getModel().get("success"));
+    }
+}
@@ -8,10 +8,11 @@ import jakarta.servlet.http.HttpServletRequest;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.auscope.portal.core.services.WFSService;
 import org.auscope.portal.core.services.responses.wfs.WFSResponse;
-import org.auscope.portal.core.services.responses.wfs.WFSTransformedResponse;
 import org.auscope.portal.core.test.ByteBufferedServletOutputStream;
 import org.auscope.portal.core.test.PortalTestClass;
 import org.jmock.Expectations;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -39,6 +40,19 @@ public class TestWfsController extends PortalTestClass {
 
     private HttpServletRequest mockRequest = context.mock(HttpServletRequest.class);
 
+    /**
+     * Simulates the WFSService streaming content into outputStream
+     */
+    private static CustomAction writeToOutputStream(final ByteBufferedServletOutputStream outputStream, final String content) {
+        return new CustomAction("write transformed content") {
+            @Override
+            public Object invoke(Invocation invocation) throws Throwable {
+                outputStream.write(content.getBytes());
+                return null;
+            }
+        };
+    }
+
     @Before
     public void setUp() {
         wfsController = new WFSController(mockWfsService);
@@ -136,7 +150,6 @@ public class TestWfsController extends PortalTestClass {
         final String typeName = "wfs:typeName";
         final String featureId = "idString";
         final String convertedData = "gmlToKMLResult";
-        final String wfsResponse = "wfsResponseString";
         final String baseUrl = "http://portal.org/api";
         final ByteBufferedServletOutputStream outputStream = new ByteBufferedServletOutputStream(
                 convertedData.getBytes().length);
@@ -147,11 +160,8 @@ public class TestWfsController extends PortalTestClass {
                 will(returnValue(new StringBuffer("http://portal.org/api/wfsFeaturePopup.do")));
                 allowing(mockResponse).setContentType(with(any(String.class)));
 
-                oneOf(mockWfsService).getWfsResponseAsHtml(serviceUrl, typeName, featureId, baseUrl);
-                will(returnValue(new WFSTransformedResponse(wfsResponse, convertedData, mockMethod)));
-
-                oneOf(mockResponse).getOutputStream();
-                will(returnValue(outputStream));
+                oneOf(mockWfsService).writeWfsResponseAsHtml(serviceUrl, typeName, featureId, baseUrl, mockResponse);
+                will(writeToOutputStream(outputStream, convertedData));
             }
         });
 
@@ -171,7 +181,6 @@ public class TestWfsController extends PortalTestClass {
         final String typeName = null;
         final String featureId = null;
         final String convertedData = "gmlToKMLResult";
-        final String wfsResponse = "wfsResponseString";
         final String baseUrl = "http://portal.org/api";
         final ByteBufferedServletOutputStream outputStream = new ByteBufferedServletOutputStream(
                 convertedData.getBytes().length);
@@ -183,11 +192,8 @@ public class TestWfsController extends PortalTestClass {
                 allowing(mockRequest).getRequestURL();
                 will(returnValue(new StringBuffer("http://portal.org/api/wfsFeaturePopup.do")));
 
-                oneOf(mockWfsService).getWfsResponseAsHtml(serviceUrl, baseUrl);
-                will(returnValue(new WFSTransformedResponse(wfsResponse, convertedData, mockMethod)));
-
-                oneOf(mockResponse).getOutputStream();
-                will(returnValue(outputStream));
+                oneOf(mockWfsService).writeWfsResponseAsHtml(serviceUrl, baseUrl, mockResponse);
+                will(writeToOutputStream(outputStream, convertedData));
             }
         });
 
@@ -173,6 +173,7 @@ public class TestDistributedHTTPServiceCaller extends PortalTestClass {
         Assert.assertTrue(dsc.hasNext());
         Assert.assertEquals(mockInputStream2, dsc.next());
         Assert.assertEquals(mockAdditionalInfo2, dsc.getLastAdditionalInformation());
+        assertRange(dsc.getLastElapsedTime(), delay2ms - 100, delay2ms + 600);
 
         //Then stream 3
         Assert.assertTrue(dsc.hasNext());
@@ -205,6 +206,9 @@ public class TestDistributedHTTPServiceCaller extends PortalTestClass {
             {
                 exactly(5).of(mockServiceCaller).getMethodResponseAsStream(mockMethod1);
                 will(delayReturnValue(300, mockInputStream1));
+
+                //Running calls will be aborted on dispose
+                allowing(mockMethod1).abort();
             }
         });
 
@@ -0,0 +1,84 @@
+package org.auscope.portal.core.server.http;
+
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.entity.StringEntity;
+import org.auscope.portal.core.test.PortalTestClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+
+/**
+ * Unit tests for HedgingPolicy
+ */
+public class TestHedgingPolicy extends PortalTestClass {
+
+    private static final String HOST = "example.org";
+
+    private HedgingPolicy policy;
+
+    @Before
+    public void setUp() {
+        policy = new HedgingPolicy();
+        policy.setPercentile(90);
+        policy.setMinDelay(5);
+        policy.setInitialDelay(500);
+        policy.setMinSamples(10);
+        policy.setSampleSize(10);
+    }
+
+    /**
+     * The initial delay is used until there are enough samples, then the percentile of the most recent samples
+     */
+    @Test
+    public void testHedgeDelay() {
+        Assert.assertEquals(500, policy.getHedgeDelay(HOST));
+        for (int i = 1; i <= 10; i++) {
+            policy.recordLatency(HOST, i * 10);
+        }
+        Assert.assertEquals(90, policy.getHedgeDelay(HOST));
+
+        //Older samples roll out of the window
+        for (int i = 0; i < 10; i++) {
+            policy.recordLatency(HOST, 1);
+        }
+        Assert.assertEquals(5, policy.getHedgeDelay(HOST));
+        Assert.assertEquals(500, policy.getHedgeDelay("other.example.org"));
+    }
+
+    /**
+     * Hedges are limited to budgetRatio of requests
+     */
+    @Test
+    public void testHedgeBudget() {
+        policy.setBudgetRatio(0.25);
+        Assert.assertFalse(policy.tryAcquireHedge(HOST));
+
+        for (int i = 0; i < 8; i++) {
+            policy.recordRequest(HOST);
+        }
+        Assert.assertTrue(policy.tryAcquireHedge(HOST));
+        Assert.assertTrue(policy.tryAcquireHedge(HOST));
+        Assert.assertFalse(policy.tryAcquireHedge(HOST));
+        Assert.assertEquals(2, policy.getHedgeCount());
+    }
+
+    /**
+     * Requests with bodies that can't be replayed can't be hedged
+     */
+    @Test
+    public void testEligibility() throws Exception {
+        Assert.assertTrue(policy.isEligible(new HttpGet("http://example.org/wms?request=GetFeatureInfo")));
+
+        HttpPost repeatable = new HttpPost("http://example.org/csw");
+        repeatable.setEntity(new StringEntity("<GetRecords/>"));
+        Assert.assertTrue(policy.isEligible(repeatable));
+
+        HttpPost streamed = new HttpPost("http://example.org/csw");
+        streamed.setEntity(new InputStreamEntity(new ByteArrayInputStream(new byte[0])));
+        Assert.assertFalse(policy.isEligible(streamed));
+    }
+}
@@ -0,0 +1,128 @@
+package org.auscope.portal.core.server.http;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.auscope.portal.core.server.http.HostRateLimiter.Priority;
+import org.auscope.portal.core.test.PortalTestClass;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for HostRateLimiter
+ */
+public class TestHostRateLimiter extends PortalTestClass {
+
+    /**
+     * A burst is granted immediately, after which requests are spaced by the refill rate
+     */
+    @Test
+    public void testBurstThenRate() throws Exception {
+        HostRateLimiter limiter = new HostRateLimiter();
+        limiter.setRequestsPerSecond(20);
+        limiter.setBurst(3);
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 3; i++) {
+            limiter.acquire("example.org", Priority.INTERACTIVE);
+        }
+        Assert.assertTrue(System.currentTimeMillis() - start < 40);
+
+        limiter.acquire("example.org", Priority.INTERACTIVE);
+        limiter.acquire("example.org", Priority.INTERACTIVE);
+        Assert.assertTrue(System.currentTimeMillis() - start >= 90);
+    }
+
+    /**
+     * Hosts are limited independently and 0 requests per second means unlimited
+     */
+    @Test
+    public void testPerHostLimits() throws Exception {
+        HostRateLimiter limiter = new HostRateLimiter();
+        Map<String, Double> hostLimits = new HashMap<>();
+        hostLimits.put("Slow.example.org", 1.0);
+        limiter.setHostRequestsPerSecond(hostLimits);
+
+        Assert.assertEquals(0.0, limiter.getRequestsPerSecond("fast.example.org"), 0.0);
+        Assert.assertEquals(1.0, limiter.getRequestsPerSecond("slow.example.org"), 0.0);
+
+        long start = System.currentTimeMillis();
+        limiter.acquire("slow.example.org", Priority.INTERACTIVE);
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(0, limiter.acquire("fast.example.org", Priority.BACKGROUND));
+        }
+        Assert.assertTrue(System.currentTimeMillis() - start < 500);
+    }
+
+    /**
+     * A bounded acquire gives up (without taking a token) once its timeout has elapsed
+     */
+    @Test
+    public void testAcquireTimeout() throws Exception {
+        HostRateLimiter limiter = new HostRateLimiter();
+        limiter.setRequestsPerSecond(1);
+        limiter.setBurst(1);
+
+        Assert.assertEquals(0, limiter.acquire("example.org", Priority.INTERACTIVE, 50));
+        long start = System.currentTimeMillis();
+        Assert.assertEquals(-1, limiter.acquire("example.org", Priority.INTERACTIVE, 50));
+        long elapsed = System.currentTimeMillis() - start;
+        Assert.assertTrue(elapsed >= 45 && elapsed < 500);
+    }
+
+    /**
+     * Background requests queued before an interactive request must not be granted tokens ahead of it
+     */
+    @Test
+    public void testInteractivePriority() throws Exception {
+        final HostRateLimiter limiter = new HostRateLimiter();
+        limiter.setRequestsPerSecond(10);
+        limiter.setBurst(1);
+        limiter.acquire("example.org", Priority.BACKGROUND); //empty the bucket
+
+        final List<Priority> order = Collections.synchronizedList(new ArrayList<Priority>());
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            threads.add(startAcquire(limiter, Priority.BACKGROUND, order));
+        }
+        Thread.sleep(20);
+        threads.add(startAcquire(limiter, Priority.INTERACTIVE, order));
+        for (Thread t : threads) {
+            t.join(5000);
+        }
+
+        Assert.assertEquals(4, order.size());
+        Assert.assertEquals(Priority.INTERACTIVE, order.get(0));
+    }
+
+    private static Thread startAcquire(final HostRateLimiter limiter, final Priority priority, final List<Priority> order) {
+        Thread t = new Thread(() -> {
+            try {
+                limiter.acquire("example.org", priority);
+                order.add(priority);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        t.start();
+        return t;
+    }
+
+    /**
+     * The per thread priority defaults to INTERACTIVE and can be restored
+     */
+    @Test
+    public void testCurrentPriority() {
+        Assert.assertEquals(Priority.INTERACTIVE, HostRateLimiter.getCurrentPriority());
+        Priority previous = HostRateLimiter.setCurrentPriority(Priority.BACKGROUND);
+        try {
+            Assert.assertEquals(Priority.BACKGROUND, HostRateLimiter.getCurrentPriority());
+        } finally {
+            HostRateLimiter.setCurrentPriority(previous);
+        }
+        Assert.assertEquals(Priority.INTERACTIVE, HostRateLimiter.getCurrentPriority());
+    }
+}
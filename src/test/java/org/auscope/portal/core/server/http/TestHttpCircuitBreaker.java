@@ -0,0 +1,229 @@
+package org.auscope.portal.core.server.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.client.methods.HttpGet;
+import org.auscope.portal.core.server.http.HttpCircuitBreaker.State;
+import org.auscope.portal.core.test.PortalTestClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Unit tests for HttpCircuitBreaker
+ */
+public class TestHttpCircuitBreaker extends PortalTestClass {
+
+    private static final String HOST = "example.org";
+
+    private HttpCircuitBreaker breaker;
+
+    @Before
+    public void setUp() {
+        breaker = new HttpCircuitBreaker();
+        breaker.setSlidingWindowSize(10);
+        breaker.setMinimumNumberOfCalls(4);
+        breaker.setFailureRateThreshold(50f);
+        breaker.setWaitDurationInOpenState(100L);
+        breaker.setPermittedCallsInHalfOpenState(2);
+    }
+
+    private void failingCall(String host) throws CircuitBreakerOpenException {
+        breaker.acquirePermission(host);
+        breaker.onFailure(host, 1);
+    }
+
+    private void succeedingCall(String host) throws CircuitBreakerOpenException {
+        breaker.acquirePermission(host);
+        breaker.onSuccess(host, 1);
+    }
+
+    /**
+     * Circuits shouldn't open until the minimum number of calls has been made
+     */
+    @Test
+    public void testMinimumNumberOfCalls() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            failingCall(HOST);
+        }
+        Assert.assertEquals(State.CLOSED, breaker.getState(HOST));
+        Assert.assertEquals(-1f, breaker.getFailureRate(HOST), 0.001f);
+
+        failingCall(HOST);
+        Assert.assertEquals(State.OPEN, breaker.getState(HOST));
+        Assert.assertEquals(Arrays.asList(HOST), breaker.getShortCircuitedHosts());
+    }
+
+    /**
+     * Failure rates below the threshold shouldn't open a circuit
+     */
+    @Test
+    public void testBelowThreshold() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            if (i % 3 == 2) {
+                failingCall(HOST);
+            } else {
+                succeedingCall(HOST);
+            }
+        }
+        Assert.assertEquals(State.CLOSED, breaker.getState(HOST));
+        Assert.assertEquals(30f, breaker.getFailureRate(HOST), 0.001f);
+        Assert.assertTrue(breaker.getShortCircuitedHosts().isEmpty());
+    }
+
+    /**
+     * Hosts are tracked independently
+     */
+    @Test
+    public void testHostsIndependent() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            failingCall(HOST);
+            succeedingCall("other.host");
+        }
+        Assert.assertEquals(State.OPEN, breaker.getState(HOST));
+        Assert.assertEquals(State.CLOSED, breaker.getState("other.host"));
+        Assert.assertEquals(State.CLOSED, breaker.getState("never.called"));
+        succeedingCall("other.host");
+    }
+
+    /**
+     * Slow calls should count towards opening the circuit when configured
+     */
+    @Test
+    public void testSlowCalls() throws Exception {
+        breaker.setSlowCallDurationThreshold(1000L);
+        breaker.setSlowCallRateThreshold(75f);
+        for (int i = 0; i < 4; i++) {
+            breaker.acquirePermission(HOST);
+            breaker.onSuccess(HOST, 5000L);
+        }
+        Assert.assertEquals(State.OPEN, breaker.getState(HOST));
+    }
+
+    /**
+     * Tests the OPEN -> HALF_OPEN -> CLOSED transitions
+     */
+    @Test
+    public void testHalfOpenRecovery() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            failingCall(HOST);
+        }
+
+        try {
+            breaker.acquirePermission(HOST);
+            Assert.fail("Expected CircuitBreakerOpenException");
+        } catch (CircuitBreakerOpenException ex) {
+            Assert.assertEquals(HOST, ex.getHost());
+        }
+
+        Thread.sleep(150L);
+        Assert.assertEquals(State.HALF_OPEN, breaker.getState(HOST));
+
+        //Only the permitted number of trial calls should be let through
+        breaker.acquirePermission(HOST);
+        breaker.acquirePermission(HOST);
+        try {
+            breaker.acquirePermission(HOST);
+            Assert.fail("Expected CircuitBreakerOpenException");
+        } catch (CircuitBreakerOpenException ex) {
+            //expected
+        }
+
+        breaker.onSuccess(HOST, 1);
+        breaker.onSuccess(HOST, 1);
+        Assert.assertEquals(State.CLOSED, breaker.getState(HOST));
+        Assert.assertEquals(-1f, breaker.getFailureRate(HOST), 0.001f);
+    }
+
+    /**
+     * A single failure in HALF_OPEN should reopen the circuit
+     */
+    @Test
+    public void testHalfOpenFailure() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            failingCall(HOST);
+        }
+        Thread.sleep(150L);
+
+        failingCall(HOST);
+        Assert.assertEquals(State.OPEN, breaker.getState(HOST));
+    }
+
+    /**
+     * Ignored calls shouldn't be recorded but should hand back their HALF_OPEN permit
+     */
+    @Test
+    public void testIgnoredCalls() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            succeedingCall(HOST);
+        }
+        breaker.acquirePermission(HOST);
+        breaker.onIgnored(HOST);
+        Assert.assertEquals(0f, breaker.getFailureRate(HOST), 0.001f);
+
+        for (int i = 0; i < 4; i++) {
+            failingCall(HOST);
+        }
+        Thread.sleep(150L);
+        Assert.assertEquals(State.HALF_OPEN, breaker.getState(HOST));
+        for (int i = 0; i < 3; i++) {
+            breaker.acquirePermission(HOST);
+            breaker.onIgnored(HOST);
+        }
+        Assert.assertEquals(State.HALF_OPEN, breaker.getState(HOST));
+
+        succeedingCall(HOST);
+        succeedingCall(HOST);
+        Assert.assertEquals(State.CLOSED, breaker.getState(HOST));
+    }
+
+    /**
+     * Tests that an HttpServiceCaller stops sending requests to a host returning server errors
+     */
+    @Test
+    public void testServiceCallerShortCircuits() throws Exception {
+        final AtomicInteger requestCount = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            requestCount.incrementAndGet();
+            exchange.sendResponseHeaders(500, 0);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write("error".getBytes());
+            }
+        });
+        server.start();
+
+        HttpServiceCaller serviceCaller = new HttpServiceCaller(9000);
+        serviceCaller.setCircuitBreaker(breaker);
+        String url = "http://localhost:" + server.getAddress().getPort() + "/wms";
+        try {
+            for (int i = 0; i < 4; i++) {
+                try {
+                    serviceCaller.getMethodResponseAsString(new HttpGet(url));
+                    Assert.fail("Expected IOException");
+                } catch (IOException ex) {
+                    Assert.assertFalse(ex instanceof CircuitBreakerOpenException);
+                }
+            }
+            Assert.assertEquals(4, requestCount.get());
+            Assert.assertEquals(State.OPEN, breaker.getState("localhost"));
+
+            try {
+                serviceCaller.getMethodResponseAsString(new HttpGet(url));
+                Assert.fail("Expected CircuitBreakerOpenException");
+            } catch (CircuitBreakerOpenException ex) {
+                Assert.assertEquals("localhost", ex.getHost());
+            }
+            Assert.assertEquals(4, requestCount.get());
+        } finally {
+            serviceCaller.shutdown();
+            server.stop(0);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package org.auscope.portal.core.server.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.http.client.methods.HttpGet;
+import org.auscope.portal.core.test.PortalTestClass;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Unit tests for HttpResponseCache (run against a local stub server)
+ */
+public class TestHttpResponseCache extends PortalTestClass {
+
+    private static final String ETAG = "\"v1\"";
+
+    private File cacheDir;
+    private HttpServer server;
+    private HttpServiceCaller serviceCaller;
+    /** The If-None-Match header of every request received by the stub server (or "" if it was absent) */
+    private List<String> receivedConditions;
+
+    @Before
+    public void setUp() throws IOException {
+        cacheDir = Files.createTempDirectory("portal-http-cache").toFile();
+        receivedConditions = new CopyOnWriteArrayList<>();
+        serviceCaller = new HttpServiceCaller(9000);
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+            receivedConditions.add(ifNoneMatch == null ? "" : ifNoneMatch);
+
+            if (path.startsWith("/nostore")) {
+                exchange.getResponseHeaders().add("Cache-Control", "no-store");
+            } else if (path.startsWith("/fresh")) {
+                exchange.getResponseHeaders().add("Cache-Control", "max-age=60");
+            } else {
+                exchange.getResponseHeaders().add("Cache-Control", "no-cache");
+            }
+            exchange.getResponseHeaders().add("ETag", ETAG);
+
+            if (ETAG.equals(ifNoneMatch)) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+
+            byte[] bytes = ("body:" + path).getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(bytes);
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        serviceCaller.shutdown();
+        server.stop(0);
+        FileUtils.deleteDirectory(cacheDir);
+    }
+
+    private String url(String path) {
+        return "http://localhost:" + server.getAddress().getPort() + path;
+    }
+
+    /**
+     * Stale entries should be revalidated and served from disk on a 304
+     */
+    @Test
+    public void testRevalidation() throws Exception {
+        HttpResponseCache cache = new HttpResponseCache(cacheDir, 1024);
+        serviceCaller.setResponseCache(cache);
+
+        Assert.assertEquals("body:/caps", serviceCaller.getCachedMethodResponseAsString(new HttpGet(url("/caps"))));
+        Assert.assertEquals("body:/caps", serviceCaller.getCachedMethodResponseAsString(new HttpGet(url("/caps"))));
+        Assert.assertEquals("body:/caps", new String(serviceCaller.getCachedMethodResponseAsBytes(new HttpGet(url("/caps"))), StandardCharsets.UTF_8));
+
+        Assert.assertEquals(Arrays.asList("", ETAG, ETAG), receivedConditions);
+        Assert.assertEquals(1, cache.getMissCount());
+        Assert.assertEquals(2, cache.getRevalidatedCount());
+        Assert.assertEquals(0, cache.getHitCount());
+        Assert.assertEquals("body:/caps".length(), cache.getCurrentBytes());
+    }
+
+    /**
+     * Fresh entries shouldn't contact the upstream server at all
+     */
+    @Test
+    public void testFreshHit() throws Exception {
+        HttpResponseCache cache = new HttpResponseCache(cacheDir, 1024);
+        serviceCaller.setResponseCache(cache);
+
+        Assert.assertEquals("body:/fresh", serviceCaller.getCachedMethodResponseAsString(new HttpGet(url("/fresh"))));
+        Assert.assertEquals("body:/fresh", serviceCaller.getCachedMethodResponseAsString(new HttpGet(url("/fresh"))));
+
+        Assert.assertEquals(1, receivedConditions.size());
+        Assert.assertEquals(1, cache.getHitCount());
+    }
+
+    /**
+     * no-store responses should never be written to disk
+     */
+    @Test
+    public void testNoStore() throws Exception {
+        HttpResponseCache cache = new HttpResponseCache(cacheDir, 1024);
+        serviceCaller.setResponseCache(cache);
+
+        Assert.assertEquals("body:/nostore", serviceCaller.getCachedMethodResponseAsString(new HttpGet(url("/nostore"))));
+        Assert.assertEquals("body:/nostore", serviceCaller.getCachedMethodResponseAsString(new HttpGet(url("/nostore"))));
+
+        Assert.assertEquals(Collections.nCopies(2, ""), receivedConditions);
+        Assert.assertEquals(0, cache.getCurrentBytes());
+    }
+
+    /**
+     * The least recently used entries should be evicted once the byte budget is exceeded
+     */
+    @Test
+    public void testLRUEviction() throws Exception {
+        //Each body is 9 bytes, allow room for 2
+        HttpResponseCache cache = new HttpResponseCache(cacheDir, 20);
+        serviceCaller.setResponseCache(cache);
+
+        serviceCaller.getCachedMethodResponseAsString(new HttpGet(url("/aaa")));
+        serviceCaller.getCachedMethodResponseAsString(new HttpGet(url("/bbb")));
+        serviceCaller.getCachedMethodResponseAsString(new HttpGet(url("/aaa"))); // /bbb is now the LRU entry
+        serviceCaller.getCachedMethodResponseAsString(new HttpGet(url("/ccc")));
+        Assert.assertEquals(18, cache.getCurrentBytes());
+
+        receivedConditions.clear();
+        serviceCaller.getCachedMethodResponseAsString(new HttpGet(url("/aaa")));
+        serviceCaller.getCachedMethodResponseAsString(new HttpGet(url("/bbb")));
+        Assert.assertEquals(Arrays.asList(ETAG, ""), receivedConditions);
+    }
+
+    /**
+     * Entries should survive being reloaded from disk
+     */
+    @Test
+    public void testReloadFromDisk() throws Exception {
+        serviceCaller.setResponseCache(new HttpResponseCache(cacheDir, 1024));
+        serviceCaller.getCachedMethodResponseAsString(new HttpGet(url("/caps")));
+
+        HttpResponseCache reloaded = new HttpResponseCache(cacheDir, 1024);
+        serviceCaller.setResponseCache(reloaded);
+        Assert.assertEquals("body:/caps".length(), reloaded.getCurrentBytes());
+        Assert.assertEquals("body:/caps", serviceCaller.getCachedMethodResponseAsString(new HttpGet(url("/caps"))));
+        Assert.assertEquals(1, reloaded.getRevalidatedCount());
+    }
+}
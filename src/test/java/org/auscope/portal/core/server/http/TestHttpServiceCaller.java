@@ -1,22 +1,50 @@
 package org.auscope.portal.core.server.http;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
 import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.execchain.RequestAbortedException;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.pool.PoolStats;
 import org.auscope.portal.core.services.methodmakers.WFSGetFeatureMethodMaker;
 import org.auscope.portal.core.services.namespaces.ErmlNamespaceContext;
 import org.auscope.portal.core.test.PortalTestClass;
+import org.auscope.portal.core.util.FileIOUtil;
 import org.jmock.Expectations;
+import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.sun.net.httpserver.HttpServer;
+
 /**
  * Created by IntelliJ IDEA. User: Mathew Wyatt Date: Jun 3, 2009 Time: 12:01:57 PM
  */
@@ -39,6 +67,28 @@ public class TestHttpServiceCaller extends PortalTestClass {
         methodMaker.setNamespaces(new ErmlNamespaceContext());
     }
 
+    @After
+    public void tearDown() {
+        httpServiceCaller.shutdown();
+        httpServiceCallerNoSSLChk.shutdown();
+    }
+
+    /**
+     * Starts a local HTTP server that responds to every request with body
+     */
+    private HttpServer startStubServer(final String body) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(bytes);
+            }
+        });
+        server.start();
+        return server;
+    }
+
     /**
      * Test a normal service successful call
      * @throws IOException
@@ -152,4 +202,697 @@ public class TestHttpServiceCaller extends PortalTestClass {
         Assert.assertTrue("missing FILTER", out.contains(FILTER_STRING));
     }
 
-}
\ No newline at end of file
+    /**
+     * Tests that consecutive requests share the pooled connection and that it is returned to the pool once each response is consumed
+     * @throws IOException
+     */
+    @Test
+    public void testPooledConnectionReuse() throws IOException {
+        final String body = "<xml>pooled</xml>";
+        HttpServer server = startStubServer(body);
+        try {
+            String url = "http://localhost:" + server.getAddress().getPort() + "/test";
+
+            Assert.assertNull(httpServiceCaller.getConnectionPoolStats());
+            Assert.assertEquals(body, httpServiceCaller.getMethodResponseAsString(new HttpGet(url)));
+            Assert.assertArrayEquals(body.getBytes(StandardCharsets.UTF_8), httpServiceCaller.getMethodResponseAsBytes(new HttpGet(url)));
+            try (InputStream is = httpServiceCaller.getMethodResponseAsStream(new HttpGet(url))) {
+                Assert.assertEquals(body, IOUtils.toString(is, StandardCharsets.UTF_8));
+            }
+
+            PoolStats stats = httpServiceCaller.getConnectionPoolStats();
+            Assert.assertNotNull(stats);
+            Assert.assertEquals(0, stats.getLeased());
+            Assert.assertEquals(1, stats.getAvailable());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * Tests that many concurrent async requests all complete with the expected response
+     * @throws Exception
+     */
+    @Test
+    public void testAsyncRequests() throws Exception {
+        final String body = "<xml>async</xml>";
+        HttpServer server = startStubServer(body);
+        try {
+            String url = "http://localhost:" + server.getAddress().getPort() + "/test";
+
+            List<CompletableFuture<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                futures.add(httpServiceCaller.getMethodResponseAsStringAsync(new HttpGet(url)));
+            }
+            for (CompletableFuture<String> future : futures) {
+                Assert.assertEquals(body, future.get());
+            }
+
+            try (InputStream is = httpServiceCaller.getMethodResponseAsStreamAsync(new HttpGet(url)).get()) {
+                Assert.assertEquals(body, IOUtils.toString(is, StandardCharsets.UTF_8));
+            }
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * Starts a local HTTP server that counts requests and responds to each with body after a short delay
+     */
+    private HttpServer startSlowStubServer(final String body, final AtomicInteger requestCount) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            requestCount.incrementAndGet();
+            try {
+                Thread.sleep(500);
+            } catch (InterruptedException e) {
+                // ignore
+            }
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "text/xml");
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(bytes);
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    /**
+     * Tests that concurrent identical GET requests share a single upstream request
+     * @throws Exception
+     */
+    @Test
+    public void testSingleFlightCoalescing() throws Exception {
+        final String body = "<xml>coalesced</xml>";
+        final AtomicInteger requestCount = new AtomicInteger();
+        SingleFlightGroup group = new SingleFlightGroup();
+        httpServiceCaller.setSingleFlightGroup(group);
+        HttpServer server = startSlowStubServer(body, requestCount);
+        try {
+            String url = "http://localhost:" + server.getAddress().getPort() + "/wms?request=GetCapabilities";
+
+            List<CompletableFuture<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                futures.add(httpServiceCaller.getMethodResponseAsStringAsync(new HttpGet(url)));
+            }
+            CompletableFuture<HttpClientInputStream> streamFuture = httpServiceCaller.getMethodResponseAsStreamAsync(new HttpGet(url));
+            for (CompletableFuture<String> future : futures) {
+                Assert.assertEquals(body, future.get());
+            }
+            try (InputStream is = streamFuture.get()) {
+                Assert.assertEquals(body, IOUtils.toString(is, StandardCharsets.UTF_8));
+            }
+
+            Assert.assertEquals(1, requestCount.get());
+            Assert.assertEquals(10, group.getCoalescedCount());
+
+            //Requests made after the flight has landed go upstream again
+            try (HttpClientResponse response = httpServiceCaller.getMethodResponseAsHttpResponse(new HttpGet(url))) {
+                Assert.assertEquals("text/xml", response.getEntity().getContentType().getValue());
+                Assert.assertEquals(body, IOUtils.toString(response.getEntity().getContent(), StandardCharsets.UTF_8));
+            }
+            Assert.assertEquals(2, requestCount.get());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * Tests that responses larger than the single flight cap fall back to independent requests
+     * @throws Exception
+     */
+    @Test
+    public void testSingleFlightSizeCap() throws Exception {
+        final String body = "<xml>this response is too large to share</xml>";
+        final AtomicInteger requestCount = new AtomicInteger();
+        SingleFlightGroup group = new SingleFlightGroup();
+        group.setMaxBufferedBytes(8);
+        httpServiceCaller.setSingleFlightGroup(group);
+        HttpServer server = startSlowStubServer(body, requestCount);
+        try {
+            String url = "http://localhost:" + server.getAddress().getPort() + "/legend";
+
+            List<CompletableFuture<byte[]>> futures = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                futures.add(httpServiceCaller.getMethodResponseAsBytesAsync(new HttpGet(url)));
+            }
+            for (CompletableFuture<byte[]> future : futures) {
+                Assert.assertEquals(body, new String(future.get(), StandardCharsets.UTF_8));
+            }
+
+            Assert.assertEquals(3, requestCount.get());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private HttpResponse okResponse(String body) {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        response.setEntity(new StringEntity(body, StandardCharsets.UTF_8));
+        return response;
+    }
+
+    /**
+     * Tests that waiting requests make their own request (rather than inheriting the failure) when the leader is
+     * aborted, and that they don't wait on the leader for longer than their timeout
+     * @throws Exception
+     */
+    @Test
+    public void testSingleFlightLeaderSpecificFailures() throws Exception {
+        final String url = "http://example.org/wms?request=GetCapabilities";
+        final SingleFlightGroup group = new SingleFlightGroup();
+        final CountDownLatch leaderStarted = new CountDownLatch(1);
+        final CountDownLatch releaseLeader = new CountDownLatch(1);
+
+        CompletableFuture<HttpResponse> leader = CompletableFuture.supplyAsync(() -> {
+            try {
+                return group.execute(new HttpGet(url), 0, () -> {
+                    leaderStarted.countDown();
+                    try {
+                        releaseLeader.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    throw new RequestAbortedException("Request aborted");
+                });
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        leaderStarted.await();
+
+        //A follower that gives up waiting makes its own request while the leader is still in flight
+        Assert.assertEquals("timed out", IOUtils.toString(group.execute(new HttpGet(url), 100,
+                () -> okResponse("timed out")).getEntity().getContent(), StandardCharsets.UTF_8));
+        Assert.assertEquals(1, group.getCoalescedCount());
+
+        CompletableFuture<HttpResponse> follower = CompletableFuture.supplyAsync(() -> {
+            try {
+                return group.execute(new HttpGet(url), 0, () -> okResponse("follower"));
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        while (group.getCoalescedCount() < 2) {
+            Thread.sleep(10);
+        }
+        releaseLeader.countDown();
+
+        Assert.assertEquals("follower", IOUtils.toString(follower.get().getEntity().getContent(), StandardCharsets.UTF_8));
+        try {
+            leader.get();
+            Assert.fail("Expected the leader to fail");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause().getCause() instanceof RequestAbortedException);
+        }
+    }
+
+    /**
+     * Starts a local HTTP server that gzips body if the request accepts gzip (recording every Accept-Encoding header received)
+     */
+    private HttpServer startGzipStubServer(final String body, final List<String> acceptEncodings) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            acceptEncodings.add(acceptEncoding == null ? "" : acceptEncoding);
+
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                    gzip.write(bytes);
+                }
+                bytes = compressed.toByteArray();
+                exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+            }
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(bytes);
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    /**
+     * Tests that gzip is negotiated and transparently decompressed
+     * @throws Exception
+     */
+    @Test
+    public void testContentCompression() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append("<gml:featureMember>").append(i).append("</gml:featureMember>");
+        }
+        final String body = sb.toString();
+        List<String> acceptEncodings = new ArrayList<>();
+        HttpServer server = startGzipStubServer(body, acceptEncodings);
+        try {
+            String url = "http://localhost:" + server.getAddress().getPort() + "/wfs";
+            Assert.assertEquals(body, httpServiceCaller.getMethodResponseAsString(new HttpGet(url)));
+            Assert.assertArrayEquals(body.getBytes(StandardCharsets.UTF_8), httpServiceCaller.getMethodResponseAsBytes(new HttpGet(url)));
+            try (InputStream is = httpServiceCaller.getMethodResponseAsStream(new HttpGet(url))) {
+                Assert.assertEquals(body, IOUtils.toString(is, StandardCharsets.UTF_8));
+            }
+
+            Assert.assertEquals(Arrays.asList("gzip, deflate", "gzip, deflate", "gzip, deflate"), acceptEncodings);
+            Assert.assertEquals(body.length() * 3L, httpServiceCaller.getDecompressedBytesReceived());
+            Assert.assertTrue(httpServiceCaller.getCompressedBytesReceived() > 0);
+            Assert.assertTrue(httpServiceCaller.getCompressedBytesReceived() < httpServiceCaller.getDecompressedBytesReceived());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * Tests that hosts can opt out of content compression
+     * @throws Exception
+     */
+    @Test
+    public void testContentCompressionDisabledHost() throws Exception {
+        final String body = "<xml>uncompressed</xml>";
+        List<String> acceptEncodings = new ArrayList<>();
+        HttpServer server = startGzipStubServer(body, acceptEncodings);
+        try {
+            httpServiceCaller.setContentCompressionDisabledHosts(Arrays.asList("LOCALHOST"));
+            String url = "http://localhost:" + server.getAddress().getPort() + "/wfs";
+            Assert.assertEquals(body, httpServiceCaller.getMethodResponseAsString(new HttpGet(url)));
+
+            Assert.assertEquals(Arrays.asList(""), acceptEncodings);
+            Assert.assertEquals(0, httpServiceCaller.getCompressedBytesReceived());
+            Assert.assertEquals(0, httpServiceCaller.getDecompressedBytesReceived());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * Tests that per host metrics are recorded for real requests
+     * @throws Exception
+     */
+    @Test
+    public void testMetricsRecorded() throws Exception {
+        final String body = "<xml>metrics</xml>";
+        InMemoryHttpMetricsRecorder recorder = new InMemoryHttpMetricsRecorder();
+        recorder.setRecordOperations(true);
+        httpServiceCaller.setMetricsRecorder(recorder);
+        HttpServer server = startStubServer(body);
+        try {
+            String url = "http://localhost:" + server.getAddress().getPort() + "/wms?request=GetCapabilities";
+            httpServiceCaller.getMethodResponseAsString(new HttpGet(url));
+            try (InputStream is = httpServiceCaller.getMethodResponseAsStream(new HttpGet(url))) {
+                IOUtils.toString(is, StandardCharsets.UTF_8);
+            }
+
+            List<Map<String, Object>> snapshot = recorder.getSnapshot();
+            Assert.assertEquals(1, snapshot.size());
+            Assert.assertEquals("localhost GetCapabilities", snapshot.get(0).get("key"));
+            Assert.assertEquals(2L, snapshot.get(0).get("requests"));
+            Assert.assertEquals(body.length() * 2L, snapshot.get(0).get("bytes"));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * Tests that an async request exceeding its timeout is aborted
+     * @throws Exception
+     */
+    @Test
+    public void testAsyncRequestTimeout() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            try {
+                Thread.sleep(3000);
+            } catch (InterruptedException e) {
+                // ignore
+            }
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        server.start();
+        try {
+            HttpGet method = new HttpGet("http://localhost:" + server.getAddress().getPort() + "/slow");
+            CompletableFuture<String> future = httpServiceCaller.getMethodResponseAsStringAsync(method, null, 200);
+            try {
+                future.get();
+                Assert.fail("Timeout not raised");
+            } catch (ExecutionException ex) {
+                Assert.assertTrue(ex.getCause() instanceof TimeoutException);
+            }
+            Assert.assertTrue(method.isAborted());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * Tests that requests (blocking and async) to a rate limited host are spaced out according to its token bucket
+     * @throws Exception
+     */
+    @Test
+    public void testRateLimiter() throws Exception {
+        HostRateLimiter limiter = new HostRateLimiter();
+        limiter.setRequestsPerSecond(10);
+        limiter.setBurst(1);
+        httpServiceCaller.setRateLimiter(limiter);
+
+        HttpServer server = startStubServer("limited");
+        try {
+            String url = "http://localhost:" + server.getAddress().getPort() + "/limited";
+            long start = System.currentTimeMillis();
+            Assert.assertEquals("limited", httpServiceCaller.getMethodResponseAsString(new HttpGet(url)));
+            Assert.assertEquals("limited", httpServiceCaller.getMethodResponseAsString(new HttpGet(url)));
+            Assert.assertEquals("limited", httpServiceCaller.getMethodResponseAsStringAsync(new HttpGet(url)).get());
+
+            //The burst covers the first request, the next two must each wait ~100ms for a token
+            Assert.assertTrue(System.currentTimeMillis() - start >= 180);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * Tests that a stalled request is hedged and the (faster) hedge's response is used
+     * @throws Exception
+     */
+    @Test
+    public void testHedgedRequest() throws Exception {
+        HedgingPolicy policy = new HedgingPolicy();
+        policy.setInitialDelay(100);
+        policy.setMinDelay(10);
+        policy.setBudgetRatio(1.0);
+        httpServiceCaller.setHedgingPolicy(policy);
+
+        final AtomicInteger requestCount = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", exchange -> {
+            if (requestCount.incrementAndGet() == 2) {
+                try {
+                    Thread.sleep(3000); //Only the original hedged request stalls
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+            }
+            byte[] bytes = "hedged".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(bytes);
+            } catch (IOException e) {
+                // the client may have aborted
+            }
+        });
+        server.start();
+        try {
+            String url = "http://localhost:" + server.getAddress().getPort() + "/gfi";
+            //Warm up the client so the original request is guaranteed to reach the server first
+            Assert.assertEquals("hedged", httpServiceCaller.getMethodResponseAsString(new HttpGet(url)));
+
+            HttpGet method = new HttpGet(url);
+            long start = System.currentTimeMillis();
+            Assert.assertEquals("hedged", httpServiceCaller.getHedgedMethodResponseAsString(method));
+            Assert.assertTrue(System.currentTimeMillis() - start < 2000);
+            Assert.assertEquals(3, requestCount.get());
+            Assert.assertEquals(1, policy.getHedgeCount());
+            Assert.assertEquals(1, policy.getHedgeWinCount());
+            Assert.assertTrue(method.isAborted());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * Tests that no hedges are made once a host's hedge budget is exhausted
+     * @throws Exception
+     */
+    @Test
+    public void testHedgeBudget() throws Exception {
+        HedgingPolicy policy = new HedgingPolicy();
+        policy.setInitialDelay(10);
+        policy.setMinDelay(10);
+        policy.setBudgetRatio(0.0);
+        httpServiceCaller.setHedgingPolicy(policy);
+
+        final AtomicInteger requestCount = new AtomicInteger();
+        HttpServer server = startSlowStubServer("slow", requestCount);
+        try {
+            HttpGet method = new HttpGet("http://localhost:" + server.getAddress().getPort() + "/gfi");
+            Assert.assertEquals("slow", httpServiceCaller.getHedgedMethodResponseAsString(method));
+            Assert.assertEquals(1, requestCount.get());
+            Assert.assertEquals(0, policy.getHedgeCount());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * Tests that aborting the losing request of a hedged pair isn't counted against the host's circuit
+     * @throws Exception
+     */
+    @Test
+    public void testHedgeLoserNotRecordedAsFailure() throws Exception {
+        HedgingPolicy policy = new HedgingPolicy();
+        policy.setInitialDelay(100);
+        policy.setMinDelay(10);
+        policy.setBudgetRatio(1.0);
+        httpServiceCaller.setHedgingPolicy(policy);
+        HttpCircuitBreaker breaker = new HttpCircuitBreaker();
+        breaker.setMinimumNumberOfCalls(1);
+        httpServiceCaller.setCircuitBreaker(breaker);
+        InMemoryHttpMetricsRecorder recorder = new InMemoryHttpMetricsRecorder();
+        httpServiceCaller.setMetricsRecorder(recorder);
+
+        final AtomicInteger requestCount = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", exchange -> {
+            if (requestCount.incrementAndGet() == 2) {
+                try {
+                    Thread.sleep(3000); //Only the original hedged request stalls
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+            }
+            byte[] bytes = "hedged".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(bytes);
+            } catch (IOException e) {
+                // the client may have aborted
+            }
+        });
+        server.start();
+        try {
+            String url = "http://localhost:" + server.getAddress().getPort() + "/gfi";
+            Assert.assertEquals("hedged", httpServiceCaller.getMethodResponseAsString(new HttpGet(url)));
+            Assert.assertEquals(0f, breaker.getFailureRate("localhost"), 0f);
+
+            HttpGet method = new HttpGet(url);
+            Assert.assertEquals("hedged", httpServiceCaller.getHedgedMethodResponseAsString(method));
+            Assert.assertEquals(1, policy.getHedgeWinCount());
+
+            //Wait for the aborted loser to finish failing
+            long start = System.currentTimeMillis();
+            while (((Long) recorder.getSnapshot().get(0).get("requests")) < 3 && System.currentTimeMillis() - start < 2000) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(3L, recorder.getSnapshot().get(0).get("requests"));
+            Assert.assertEquals(0f, breaker.getFailureRate("localhost"), 0f);
+            Assert.assertEquals(HttpCircuitBreaker.State.CLOSED, breaker.getState("localhost"));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * Tests that once a URL has been permanently redirected, subsequent requests (with a different query) go straight to
+     * the new location
+     * @throws Exception
+     */
+    @Test
+    public void testPermanentRedirectMemo() throws Exception {
+        PermanentRedirectCache redirectCache = new PermanentRedirectCache();
+        httpServiceCaller.setPermanentRedirectCache(redirectCache);
+
+        final List<String> requested = new ArrayList<>();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            String uri = exchange.getRequestURI().toString();
+            requested.add(uri);
+            byte[] bytes;
+            if (uri.startsWith("/old")) {
+                exchange.getResponseHeaders().add("Location", uri.replace("/old", "/new"));
+                bytes = new byte[0];
+                exchange.sendResponseHeaders(301, -1);
+            } else {
+                bytes = exchange.getRequestURI().getQuery().getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, bytes.length);
+            }
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(bytes);
+            }
+        });
+        server.start();
+        try {
+            String base = "http://localhost:" + server.getAddress().getPort();
+            Assert.assertEquals("a=1", httpServiceCaller.getMethodResponseAsString(new HttpGet(base + "/old/csw?a=1")));
+            Assert.assertEquals("a=2", httpServiceCaller.getMethodResponseAsString(new HttpGet(base + "/old/csw?a=2")));
+
+            Assert.assertEquals(Arrays.asList("/old/csw?a=1", "/new/csw?a=1", "/new/csw?a=2"), requested);
+            PermanentRedirectCache.Redirect redirect = redirectCache.getRedirects().get(base + "/old/csw");
+            Assert.assertEquals(base + "/new/csw", redirect.getTarget());
+            Assert.assertEquals(1, redirect.getHits());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * Tests that warmed up connections are left idle in the pool (and reused rather than duplicated)
+     * @throws Exception
+     */
+    @Test
+    public void testWarmUpConnections() throws Exception {
+        HttpServer server = startStubServer("warm");
+        try {
+            URI uri = new URI("http://localhost:" + server.getAddress().getPort() + "/csw");
+            Assert.assertEquals(2, httpServiceCaller.warmUpConnections(uri, 2, 5000));
+            Assert.assertEquals(2, httpServiceCaller.getConnectionPoolStats().getAvailable());
+
+            Assert.assertEquals(1, httpServiceCaller.warmUpConnections(uri, 3, 5000));
+            Assert.assertEquals(3, httpServiceCaller.getConnectionPoolStats().getAvailable());
+
+            Assert.assertEquals("warm", httpServiceCaller.getMethodResponseAsString(new HttpGet(uri)));
+            Assert.assertEquals(3, httpServiceCaller.getConnectionPoolStats().getAvailable());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * Tests that a failure writing a proxied response (ie a client disconnect) aborts the upstream request rather than
+     * reading the rest of the response
+     * @throws Exception
+     */
+    @Test
+    public void testClientDisconnectAbortsUpstream() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream os = exchange.getResponseBody()) {
+                for (int i = 0; i < 100; i++) {
+                    os.write(new byte[16 * 1024]);
+                    os.flush();
+                    Thread.sleep(50);
+                }
+            } catch (IOException | InterruptedException e) {
+                // the client aborted
+            }
+        });
+        server.start();
+        try {
+            HttpGet method = new HttpGet("http://localhost:" + server.getAddress().getPort() + "/proxied");
+            HttpClientInputStream upstream = httpServiceCaller.getMethodResponseAsStream(method);
+            OutputStream disconnectedClient = new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    throw new IOException("Broken pipe");
+                }
+            };
+
+            long start = System.currentTimeMillis();
+            try {
+                FileIOUtil.writeInputToOutputStream(upstream, disconnectedClient, 1024, true);
+                Assert.fail("Expected the write failure to be rethrown");
+            } catch (IOException e) {
+                Assert.assertEquals("Broken pipe", e.getMessage());
+            }
+            // Reading the rest of the response would take ~5s
+            Assert.assertTrue(System.currentTimeMillis() - start < 2000);
+            Assert.assertEquals(0, httpServiceCaller.getConnectionPoolStats().getLeased());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * Tests that calls made under a RequestDeadline are limited to the time remaining (rather than the caller's own
+     * timeout) and that no calls are made once the deadline has passed
+     * @throws Exception
+     */
+    @Test
+    public void testRequestDeadline() throws Exception {
+        final AtomicInteger requestCount = new AtomicInteger();
+        HttpServer server = startSlowStubServer("slow", requestCount);
+        Long previous = RequestDeadline.start(200);
+        try {
+            String url = "http://localhost:" + server.getAddress().getPort() + "/slow";
+            long start = System.currentTimeMillis();
+            try {
+                httpServiceCaller.getMethodResponseAsString(new HttpGet(url));
+                Assert.fail("Expected the request to time out");
+            } catch (SocketTimeoutException e) {
+                Assert.assertTrue(System.currentTimeMillis() - start < 450);
+            }
+
+            Thread.sleep(50);
+            try {
+                httpServiceCaller.getMethodResponseAsStringAsync(new HttpGet(url)).get();
+                Assert.fail("Expected the request to be refused");
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof DeadlineExceededException);
+            }
+            Assert.assertEquals(1, requestCount.get());
+        } finally {
+            RequestDeadline.set(previous);
+            server.stop(0);
+        }
+    }
+
+    /**
+     * Tests that a request with its own RequestConfig is limited by the RequestDeadline without the request itself being
+     * modified, and that no time is spent waiting for rate limit tokens once the deadline has passed
+     * @throws Exception
+     */
+    @Test
+    public void testRequestDeadlineWithRequestConfig() throws Exception {
+        final AtomicInteger requestCount = new AtomicInteger();
+        HttpServer server = startSlowStubServer("slow", requestCount);
+        HostRateLimiter limiter = new HostRateLimiter();
+        limiter.setRequestsPerSecond(0.1);
+        limiter.setBurst(1);
+        httpServiceCaller.setRateLimiter(limiter);
+        Long previous = RequestDeadline.start(200);
+        try {
+            String url = "http://localhost:" + server.getAddress().getPort() + "/slow";
+            RequestConfig config = RequestConfig.custom().setConnectTimeout(5000).setSocketTimeout(5000).build();
+            HttpGet method = new HttpGet(url);
+            method.setConfig(config);
+
+            long start = System.currentTimeMillis();
+            try {
+                httpServiceCaller.getMethodResponseAsString(method);
+                Assert.fail("Expected the request to time out");
+            } catch (SocketTimeoutException e) {
+                Assert.assertTrue(System.currentTimeMillis() - start < 450);
+            }
+            Assert.assertSame(config, method.getConfig());
+
+            //The next token is 10s away but the deadline has already passed
+            start = System.currentTimeMillis();
+            try {
+                httpServiceCaller.getMethodResponseAsString(new HttpGet(url));
+                Assert.fail("Expected the request to be refused");
+            } catch (DeadlineExceededException e) {
+                Assert.assertTrue(System.currentTimeMillis() - start < 100);
+            }
+            Assert.assertEquals(1, requestCount.get());
+        } finally {
+            RequestDeadline.set(previous);
+            server.stop(0);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package org.auscope.portal.core.server.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.HttpCoreContext;
+import org.auscope.portal.core.test.PortalTestClass;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for InMemoryHttpMetricsRecorder
+ */
+public class TestInMemoryHttpMetricsRecorder extends PortalTestClass {
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> child(Map<String, Object> map, String key) {
+        return (Map<String, Object>) map.get(key);
+    }
+
+    /**
+     * Tests aggregation per host
+     */
+    @Test
+    public void testPerHost() {
+        InMemoryHttpMetricsRecorder recorder = new InMemoryHttpMetricsRecorder();
+        recorder.recordResponse("b.example.org", "GetMap", 200, 40);
+        recorder.recordBody("b.example.org", "GetMap", 1000, 60);
+        recorder.recordResponse("B.example.org", "GetCapabilities", 503, 5);
+        recorder.recordFailure("b.example.org", null, new SocketTimeoutException("Read timed out"), 30000);
+        recorder.recordFailure("a.example.org", null, new UnknownHostException("a.example.org"), 1);
+        recorder.recordResponse("a.example.org", null, 404, 20000);
+
+        List<Map<String, Object>> snapshot = recorder.getSnapshot();
+        Assert.assertEquals(2, snapshot.size());
+
+        Map<String, Object> a = snapshot.get(0);
+        Assert.assertEquals("a.example.org", a.get("key"));
+        Assert.assertEquals(2L, a.get("requests"));
+        Assert.assertEquals(1L, child(a, "statusCounts").get("ERROR"));
+        Assert.assertEquals(1L, child(a, "statusCounts").get("CLIENT_ERROR"));
+        Assert.assertEquals(1L, child(child(a, "timeToFirstByte"), "buckets").get("le30000"));
+
+        Map<String, Object> b = snapshot.get(1);
+        Assert.assertEquals("b.example.org", b.get("key"));
+        Assert.assertEquals(3L, b.get("requests"));
+        Assert.assertEquals(1L, child(b, "statusCounts").get("SUCCESS"));
+        Assert.assertEquals(1L, child(b, "statusCounts").get("SERVER_ERROR"));
+        Assert.assertEquals(1L, child(b, "statusCounts").get("TIMEOUT"));
+        Assert.assertEquals(1000L, b.get("bytes"));
+        Assert.assertEquals(2L, child(b, "timeToFirstByte").get("count"));
+        Assert.assertEquals(40L, child(b, "timeToFirstByte").get("max"));
+        Assert.assertEquals(1L, child(child(b, "timeToFirstByte"), "buckets").get("le50"));
+        Assert.assertEquals(1L, child(child(b, "timeToFirstByte"), "buckets").get("le10"));
+        Assert.assertEquals(2L, child(b, "totalTime").get("count"));
+    }
+
+    /**
+     * Tests aggregation per host and operation along with the key limit
+     */
+    @Test
+    public void testPerOperation() {
+        InMemoryHttpMetricsRecorder recorder = new InMemoryHttpMetricsRecorder();
+        recorder.setRecordOperations(true);
+        recorder.setMaxKeys(2);
+        recorder.recordResponse("example.org", "GetMap", 200, 1);
+        recorder.recordResponse("example.org", "GetCapabilities", 200, 1);
+        recorder.recordResponse("example.org", "GetFeatureInfo", 200, 1);
+        recorder.recordResponse("example.org", "GetMap", 200, 1);
+
+        List<Map<String, Object>> snapshot = recorder.getSnapshot();
+        Assert.assertEquals(3, snapshot.size());
+        Assert.assertEquals("example.org GetCapabilities", snapshot.get(0).get("key"));
+        Assert.assertEquals("example.org GetMap", snapshot.get(1).get("key"));
+        Assert.assertEquals(2L, snapshot.get(1).get("requests"));
+        Assert.assertEquals(InMemoryHttpMetricsRecorder.OVERFLOW_KEY, snapshot.get(2).get("key"));
+    }
+
+    /**
+     * Tests that a response body failing part way through is counted separately rather than as another request
+     */
+    @Test
+    public void testBodyFailure() throws Exception {
+        InMemoryHttpMetricsRecorder recorder = new InMemoryHttpMetricsRecorder();
+        HttpMetricsInterceptor interceptor = new HttpMetricsInterceptor(recorder);
+        HttpGet request = new HttpGet("http://example.org/wms?request=GetMap");
+        HttpClientContext context = HttpClientContext.create();
+        context.setAttribute(HttpCoreContext.HTTP_TARGET_HOST, new HttpHost("example.org"));
+        context.setAttribute(HttpCoreContext.HTTP_REQUEST, request);
+        interceptor.process(request, context);
+
+        InputStream brokenBody = new SequenceInputStream(new ByteArrayInputStream(new byte[10]), new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new SocketException("Connection reset");
+            }
+        });
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        response.setEntity(new InputStreamEntity(brokenBody));
+        recorder.recordResponse("example.org", "GetMap", 200, 5);
+        interceptor.process(response, context);
+
+        byte[] buffer = new byte[4];
+        try (InputStream is = response.getEntity().getContent()) {
+            while (is.read(buffer) != -1) {
+                // discard
+            }
+            Assert.fail("Expected the body to fail");
+        } catch (SocketException e) {
+            // expected
+        }
+
+        List<Map<String, Object>> snapshot = recorder.getSnapshot();
+        Assert.assertEquals(1, snapshot.size());
+        Assert.assertEquals(1L, snapshot.get(0).get("requests"));
+        Assert.assertEquals(1L, child(snapshot.get(0), "statusCounts").get("SUCCESS"));
+        Assert.assertEquals(0L, child(snapshot.get(0), "statusCounts").get("ERROR"));
+        Assert.assertEquals(1L, snapshot.get(0).get("bodyErrors"));
+        Assert.assertEquals(10L, snapshot.get(0).get("bytes"));
+        Assert.assertEquals(1L, child(snapshot.get(0), "totalTime").get("count"));
+    }
+
+    /**
+     * Tests OGC operation extraction
+     */
+    @Test
+    public void testGetOgcOperation() throws Exception {
+        Assert.assertEquals("GetCapabilities", HttpMetricsInterceptor.getOgcOperation(new URI("http://example.org/wms?service=WMS&REQUEST=GetCapabilities")));
+        Assert.assertNull(HttpMetricsInterceptor.getOgcOperation(new URI("http://example.org/wms?service=WMS")));
+        Assert.assertNull(HttpMetricsInterceptor.getOgcOperation(new URI("http://example.org/wms")));
+    }
+}
@@ -0,0 +1,66 @@
+package org.auscope.portal.core.server.http;
+
+import java.net.URI;
+
+import org.auscope.portal.core.test.PortalTestClass;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for PermanentRedirectCache
+ */
+public class TestPermanentRedirectCache extends PortalTestClass {
+
+    /**
+     * Rewrites keep the query string of the rewritten request and keys ignore scheme/host case
+     */
+    @Test
+    public void testRewrite() {
+        PermanentRedirectCache cache = new PermanentRedirectCache();
+        cache.record(URI.create("http://Example.org/csw?a=1"), URI.create("https://example.org/geonetwork/csw?a=1"));
+
+        Assert.assertEquals(URI.create("https://example.org/geonetwork/csw?b=2"), cache.rewrite(URI.create("HTTP://example.org/csw?b=2")));
+        Assert.assertEquals(URI.create("https://example.org/geonetwork/csw"), cache.rewrite(URI.create("http://example.org/csw")));
+        Assert.assertNull(cache.rewrite(URI.create("http://example.org/other?a=1")));
+        Assert.assertTrue(cache.isStale(URI.create("http://example.org/csw")));
+        Assert.assertEquals(2, cache.getRedirects().get("http://example.org/csw").getHits());
+
+        cache.invalidate(URI.create("http://example.org/csw"));
+        Assert.assertNull(cache.rewrite(URI.create("http://example.org/csw")));
+    }
+
+    /**
+     * Redirects that rewrite the query (or loop back to the same path) aren't memoised
+     */
+    @Test
+    public void testUnsafeRedirectsIgnored() {
+        PermanentRedirectCache cache = new PermanentRedirectCache();
+        cache.record(URI.create("http://example.org/csw?a=1"), URI.create("http://example.org/login?next=csw"));
+        cache.record(URI.create("http://example.org/csw?a=1"), URI.create("http://example.org/csw?a=2"));
+
+        Assert.assertTrue(cache.getRedirects().isEmpty());
+    }
+
+    /**
+     * Entries expire after the ttl and the least recently used entry is evicted when full
+     * @throws Exception
+     */
+    @Test
+    public void testExpiryAndEviction() throws Exception {
+        PermanentRedirectCache cache = new PermanentRedirectCache();
+        cache.setMaxEntries(2);
+        cache.record(URI.create("http://a.example.org/"), URI.create("https://a.example.org/"));
+        cache.record(URI.create("http://b.example.org/"), URI.create("https://b.example.org/"));
+        Assert.assertNotNull(cache.rewrite(URI.create("http://a.example.org/")));
+        cache.record(URI.create("http://c.example.org/"), URI.create("https://c.example.org/"));
+
+        Assert.assertTrue(cache.isStale(URI.create("http://a.example.org/")));
+        Assert.assertFalse(cache.isStale(URI.create("http://b.example.org/")));
+        Assert.assertTrue(cache.isStale(URI.create("http://c.example.org/")));
+
+        cache.setTtl(50);
+        Thread.sleep(100);
+        Assert.assertNull(cache.rewrite(URI.create("http://a.example.org/")));
+        Assert.assertTrue(cache.getRedirects().isEmpty());
+    }
+}
@@ -0,0 +1,134 @@
+package org.auscope.portal.core.server.http;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.auscope.portal.core.services.PortalServiceException;
+import org.auscope.portal.core.services.responses.ows.OWSException;
+import org.auscope.portal.core.test.PortalTestClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+/**
+ * Unit tests for RetryPolicy
+ */
+public class TestRetryPolicy extends PortalTestClass {
+
+    private static final String ENDPOINT = "http://example.org/csw";
+
+    private List<Long> sleeps;
+    private RetryPolicy policy;
+
+    @Before
+    public void setUp() {
+        sleeps = new ArrayList<>();
+        policy = new RetryPolicy() {
+            @Override
+            protected void sleep(long millis) {
+                sleeps.add(millis);
+            }
+        };
+    }
+
+    /**
+     * Transient failures are retried, permanent failures are not
+     */
+    @Test
+    public void testIsRetryable() {
+        Assert.assertTrue(policy.isRetryable(new IOException("test exception")));
+        Assert.assertTrue(policy.isRetryable(new IOException("503")));
+        Assert.assertTrue(policy.isRetryable(new IOException("429")));
+        Assert.assertTrue(policy.isRetryable(new ConnectException("refused")));
+        Assert.assertTrue(policy.isRetryable(new SocketTimeoutException("timeout")));
+        Assert.assertTrue(policy.isRetryable(new IOException("bad xml", new SAXException("truncated"))));
+        Assert.assertTrue(policy.isRetryable(new PortalServiceException("failed", new IOException("502"))));
+
+        Assert.assertFalse(policy.isRetryable(new IOException("404")));
+        Assert.assertFalse(policy.isRetryable(new UnknownHostException("example.org")));
+        Assert.assertFalse(policy.isRetryable(new CircuitBreakerOpenException("example.org")));
+        Assert.assertFalse(policy.isRetryable(new PortalServiceException("failed", new IOException("400"))));
+        Assert.assertFalse(policy.isRetryable(new OWSException("bad request")));
+        Assert.assertFalse(policy.isRetryable(new IllegalArgumentException()));
+    }
+
+    /**
+     * Attempts stop at maxAttempts and each backoff is jittered within an exponentially growing (but capped) bound
+     */
+    @Test
+    public void testBackoff() throws Exception {
+        policy.setMaxDelay(3000);
+        RetryPolicy.Retry retry = policy.begin(ENDPOINT, 5, 1000);
+
+        int attempts = 1;
+        while (retry.shouldRetry(new IOException("500"))) {
+            retry.backoff();
+            attempts++;
+        }
+
+        Assert.assertEquals(5, attempts);
+        Assert.assertEquals(4, sleeps.size());
+        long[] caps = new long[] {1000, 2000, 3000, 3000};
+        for (int i = 0; i < caps.length; i++) {
+            Assert.assertTrue(sleeps.get(i) >= 0 && sleeps.get(i) <= caps[i]);
+        }
+    }
+
+    /**
+     * Once an endpoint's retry budget is spent, further failures to that endpoint aren't retried (but other endpoints are)
+     */
+    @Test
+    public void testRetryBudget() {
+        policy.setRetryBudget(3);
+        policy.setRetryBudgetWindow(60000);
+
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(policy.begin(ENDPOINT).shouldRetry(new IOException()));
+        }
+        Assert.assertFalse(policy.begin(ENDPOINT).shouldRetry(new IOException()));
+        Assert.assertTrue(policy.begin("http://other.example.org/csw").shouldRetry(new IOException()));
+    }
+
+    /**
+     * The budget refills once the window elapses
+     */
+    @Test
+    public void testRetryBudgetWindow() throws Exception {
+        policy.setRetryBudget(1);
+        policy.setRetryBudgetWindow(50);
+
+        Assert.assertTrue(policy.begin(ENDPOINT).shouldRetry(new IOException()));
+        Assert.assertFalse(policy.begin(ENDPOINT).shouldRetry(new IOException()));
+        Thread.sleep(100);
+        Assert.assertTrue(policy.begin(ENDPOINT).shouldRetry(new IOException()));
+    }
+
+    /**
+     * Nothing is retried once the request deadline has passed (or would pass during the backoff)
+     * @throws Exception
+     */
+    @Test
+    public void testRequestDeadline() throws Exception {
+        Long previous = RequestDeadline.start(10);
+        try {
+            RetryPolicy slowPolicy = new RetryPolicy() {
+                @Override
+                protected long calculateDelay(int retry, long baseDelay) {
+                    return baseDelay;
+                }
+            };
+            Assert.assertFalse(slowPolicy.begin(ENDPOINT, 5, 1000).shouldRetry(new IOException("503")));
+            Thread.sleep(20);
+            Assert.assertFalse(policy.begin(ENDPOINT, 5, 0).shouldRetry(new IOException("503")));
+            Assert.assertFalse(policy.isRetryable(new DeadlineExceededException("expired")));
+        } finally {
+            RequestDeadline.set(previous);
+        }
+        Assert.assertTrue(policy.begin(ENDPOINT, 5, 0).shouldRetry(new IOException("503")));
+    }
+}
@@ -185,7 +185,7 @@ public class TestCSWFilterService extends PortalTestClass {
                     allowing(mockFilter).getSortType();
                     allowing(mockFilter).getFilterStringAllRecords();
 
-                    oneOf(httpServiceCaller).getMethodResponseAsStream(
+                    oneOf(httpServiceCaller).getHedgedMethodResponseAsStream(
                             with(aHttpMethodBase(null, expectedServiceUrl, null)));
                     will(returnValue(is1));
                 }
@@ -222,7 +222,7 @@ public class TestCSWFilterService extends PortalTestClass {
                     allowing(mockFilter).getSortType();
                     allowing(mockFilter).getFilterStringAllRecords();
 
-                    oneOf(httpServiceCaller).getMethodResponseAsStream(
+                    oneOf(httpServiceCaller).getHedgedMethodResponseAsStream(
                             with(aHttpMethodBase(null, expectedServiceUrl, null)));
                     will(returnValue(is1));
                 }
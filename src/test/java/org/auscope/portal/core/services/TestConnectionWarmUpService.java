@@ -0,0 +1,106 @@
+package org.auscope.portal.core.services;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.util.Arrays;
+
+import org.auscope.portal.core.server.http.HttpServiceCaller;
+import org.auscope.portal.core.services.csw.CSWServiceItem;
+import org.auscope.portal.core.test.PortalTestClass;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Unit tests for ConnectionWarmUpService
+ */
+public class TestConnectionWarmUpService extends PortalTestClass {
+
+    private HttpServer server;
+    private HttpServiceCaller serviceCaller;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(new byte[0]);
+            }
+        });
+        server.start();
+        serviceCaller = new HttpServiceCaller(5000);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        serviceCaller.shutdown();
+    }
+
+    /**
+     * Registries sharing a host are only warmed once, unreachable hosts and invalid URLs are reported as failures
+     * @throws Exception
+     */
+    @Test
+    public void testWarmUp() throws Exception {
+        int closedPort;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            closedPort = socket.getLocalPort();
+        }
+
+        String base = "http://localhost:" + server.getAddress().getPort();
+        ConnectionWarmUpService service = new ConnectionWarmUpService(serviceCaller, Arrays.asList(
+                new CSWServiceItem("a", base + "/a/csw"),
+                new CSWServiceItem("b", base + "/b/csw"),
+                new CSWServiceItem("b2", "HTTP://LOCALHOST:" + server.getAddress().getPort() + "/b2/csw"),
+                new CSWServiceItem("c", "http://127.0.0.1:" + closedPort + "/csw"),
+                new CSWServiceItem("d", "not a url")), null);
+        service.setConnectionsPerHost(2);
+
+        ConnectionWarmUpService.WarmUpResult result = service.warmUp();
+        Assert.assertSame(result, service.getLastResult());
+        Assert.assertEquals(Arrays.asList("http://localhost:" + server.getAddress().getPort()), result.getWarmedHosts());
+        Assert.assertEquals(2, result.getConnectionsOpened());
+        Assert.assertEquals(2, result.getFailedHosts().size());
+        Assert.assertTrue(result.getFailedHosts().containsKey("http://127.0.0.1:" + closedPort));
+        Assert.assertTrue(result.getFailedHosts().containsKey("not a url"));
+        Assert.assertEquals(2, serviceCaller.getConnectionPoolStats().getAvailable());
+    }
+
+    /**
+     * A host that never completes connecting is abandoned once the time budget runs out
+     * @throws Exception
+     */
+    @Test
+    public void testTimeBudget() throws Exception {
+        // A host whose connect never completes
+        HttpServiceCaller hangingCaller = new HttpServiceCaller(5000) {
+            @Override
+            public int warmUpConnections(URI uri, int connections, long timeout) throws IOException {
+                try {
+                    Thread.sleep(10000);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+                return connections;
+            }
+        };
+        ConnectionWarmUpService service = new ConnectionWarmUpService(hangingCaller,
+                Arrays.asList(new CSWServiceItem("a", "http://example.org/csw")), null);
+        service.setTimeBudget(200);
+
+        long start = System.currentTimeMillis();
+        ConnectionWarmUpService.WarmUpResult result = service.warmUp();
+        Assert.assertTrue(System.currentTimeMillis() - start < 3000);
+        Assert.assertTrue(result.getWarmedHosts().isEmpty());
+        Assert.assertTrue(result.getFailedHosts().containsKey("http://example.org:80"));
+    }
+}
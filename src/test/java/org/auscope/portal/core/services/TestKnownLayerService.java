@@ -1,10 +1,13 @@
 package org.auscope.portal.core.services;
 
+import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
 
 import org.auscope.portal.core.services.responses.csw.AbstractCSWOnlineResource;
+import org.auscope.portal.core.services.responses.csw.CSWOnlineResourceImpl;
 import org.auscope.portal.core.services.responses.csw.CSWRecord;
 import org.auscope.portal.core.test.PortalTestClass;
 import org.auscope.portal.core.view.knownlayer.KnownLayer;
@@ -211,6 +214,41 @@ public class TestKnownLayerService extends PortalTestClass {
         assertListContentsSame(Arrays.asList(cswRecordList.get(2)), grouping.getUnmappedRecords());
     }
 
+    /**
+     * Tests that the service URLs of known layers are collected without making any requests (eg to GSKY services)
+     * @throws Exception
+     */
+    @Test
+    public void testGetKnownLayerServiceUrls() throws Exception {
+        final CSWRecord gskyRecord = new CSWRecord("gsky-record");
+        gskyRecord.setOnlineResources(Arrays.asList(new CSWOnlineResourceImpl(new URL("http://gsky.example.org/ows"),
+                "OGC:WMS-1.3.0-http-get-map", "gsky-layer", "GSKY layer", "GSKY")));
+        final CSWRecord otherRecord = new CSWRecord("other-record");
+        otherRecord.setOnlineResources(Arrays.asList(new CSWOnlineResourceImpl(new URL("http://other.example.org/wfs"),
+                "OGC:WFS-1.1.0-http-get-feature", "other-layer", "Other layer")));
+        //No expectations - any GetCapabilities request will fail the test
+        WMSService mockWmsService = context.mock(WMSService.class);
+        KnownLayerService service = new KnownLayerService(Arrays.asList(new KnownLayer("gsky", mockSelector1)), null,
+                null, null, mockWmsService, mockElasticsearchService);
+        service.setCSWCacheService(mockCacheService);
+
+        context.checking(new Expectations() {
+            {
+                allowing(mockCacheService).getRecordCache();
+                will(returnValue(Arrays.asList(gskyRecord, otherRecord)));
+
+                allowing(mockSelector1).isRelatedRecord(gskyRecord);
+                will(returnValue(RelationType.Belongs));
+                allowing(mockSelector1).isRelatedRecord(with(any(CSWRecord.class)));
+                will(returnValue(RelationType.NotRelated));
+            }
+        });
+
+        Set<String> urls = service.getKnownLayerServiceUrls();
+        Assert.assertEquals(1, urls.size());
+        Assert.assertTrue(urls.contains("http://gsky.example.org/ows"));
+    }
+
     @Test
     public void groupKnownLayerRecords_FakeKnownLayerChild_ReturnsOneFakeKnownLayer() {
         // Arrange
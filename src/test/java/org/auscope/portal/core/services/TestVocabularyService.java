@@ -13,6 +13,7 @@ import org.apache.jena.rdf.model.Resource;
 import org.apache.jena.rdf.model.Statement;
 import org.auscope.portal.core.server.http.HttpClientInputStream;
 import org.auscope.portal.core.server.http.HttpServiceCaller;
+import org.auscope.portal.core.server.http.RetryPolicy;
 import org.auscope.portal.core.services.methodmakers.VocabularyMethodMaker;
 import org.auscope.portal.core.services.methodmakers.VocabularyMethodMaker.Format;
 import org.auscope.portal.core.services.methodmakers.VocabularyMethodMaker.View;
@@ -41,6 +42,7 @@ public class TestVocabularyService extends PortalTestClass {
     public void setUp() throws Exception {
         vocabularyService = new VocabularyService(mockServiceCaller,mockMethodMaker,serviceUrl);
         vocabularyService.setPageSize(50);
+        vocabularyService.setRetryPolicy(new RetryPolicy(1, 0)); //Most tests expect a single attempt
     }
 
     private static boolean containsResourceUri(List<Resource> list, String uri) {
@@ -270,4 +272,31 @@ public class TestVocabularyService extends PortalTestClass {
 
         vocabularyService.getResourceByUri(uri);
     }
-}
\ No newline at end of file
+
+    /**
+     * Tests that a transient comms error is retried according to the retry policy
+     */
+    @Test
+    public void testGetAllConceptsRetry() throws Exception {
+        vocabularyService.setRetryPolicy(new RetryPolicy(2, 0));
+
+        try (final InputStream rs1 = new HttpClientInputStream(ResourceUtil.loadResourceAsStream(
+                "org/auscope/portal/core/test/responses/vocabulary/commodityConcepts_NoMoreData.xml"), null)) {
+
+            context.checking(new Expectations() {
+                {
+                    oneOf(mockMethodMaker).getAllConcepts(serviceUrl, Format.Rdf, vocabularyService.getPageSize(), 0);
+                    will(returnValue(mockMethod1));
+
+                    exactly(2).of(mockServiceCaller).getMethodResponseAsStream(mockMethod1);
+                    will(onConsecutiveCalls(throwException(new ConnectException("err")), returnValue(rs1)));
+
+                    exactly(2).of(mockMethod1).releaseConnection();
+                }
+            });
+
+            Model model = vocabularyService.getAllConcepts();
+            Assert.assertFalse(model.isEmpty());
+        }
+    }
+}
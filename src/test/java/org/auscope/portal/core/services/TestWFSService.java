@@ -1,9 +1,16 @@
 package org.auscope.portal.core.services;
 
+import java.io.ByteArrayInputStream;
 import java.net.ConnectException;
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.transform.Source;
 
 import org.apache.http.client.methods.HttpGet;
+import org.hamcrest.Description;
+import org.hamcrest.TypeSafeMatcher;
 import org.apache.http.client.methods.HttpRequestBase;
+import org.auscope.portal.core.server.http.HttpClientInputStream;
 import org.auscope.portal.core.server.http.HttpServiceCaller;
 import org.auscope.portal.core.services.methodmakers.WFSGetFeatureMethodMaker;
 import org.auscope.portal.core.services.methodmakers.WFSGetFeatureMethodMaker.ResultType;
@@ -19,6 +26,8 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import jakarta.servlet.http.HttpServletResponse;
+
 /**
  * Unit tests for WFSService
  *
@@ -419,4 +428,89 @@ public class TestWFSService extends PortalTestClass {
             Assert.assertNotNull(ex.getRootMethod());
         }
     }
+
+    /**
+     * Matches an ErmlNamespaceContext whose er prefix is bound to namespace
+     */
+    private TypeSafeMatcher<ErmlNamespaceContext> ermlNamespace(final String namespace) {
+        return new TypeSafeMatcher<ErmlNamespaceContext>() {
+            @Override
+            public void describeTo(Description description) {
+                description.appendText("ERML namespace context for " + namespace);
+            }
+
+            @Override
+            protected boolean matchesSafely(ErmlNamespaceContext item) {
+                return namespace.equals(item.getNamespaceURI("er"));
+            }
+        };
+    }
+
+    private void assertStreamedErmlNamespace(final HttpServletResponse mockResponse, final String responseString,
+            String expectedNamespace) throws Exception {
+        final String serviceUrl = "http://service/wfs";
+        final String featureId = "feature-Id-string";
+        final String typeName = "type:Name";
+        final String baseUrl = "https://portal.org/api";
+
+        context.checking(new Expectations() {
+            {
+                oneOf(mockServiceCaller).getMethodResponseAsStream(mockMethod);
+                will(returnValue(new HttpClientInputStream(new ByteArrayInputStream(responseString.getBytes(StandardCharsets.UTF_8)), null)));
+
+                oneOf(mockMethodMaker).makeGetMethod(serviceUrl, typeName, featureId, BaseWFSService.DEFAULT_SRS, null);
+                will(returnValue(mockMethod));
+
+                oneOf(mockGmlToHtml).convert(with(any(Source.class)), with(ermlNamespace(expectedNamespace)),
+                        with(equal(baseUrl)), with(same(mockResponse)));
+            }
+        });
+
+        service.writeWfsResponseAsHtml(serviceUrl, typeName, featureId, baseUrl, mockResponse);
+    }
+
+    /**
+     * Tests the streamed html transformation picks the ERML version from the namespace of the first er element (not
+     * from whichever namespaces happen to be declared)
+     */
+    @Test
+    public void testWriteWfsResponseAsHtml() throws Exception {
+        final String erml1 = "urn:cgi:xmlns:GGIC:EarthResource:1.1";
+        final String erml2 = "http://xmlns.earthresourceml.org/EarthResource/2.0";
+        final HttpServletResponse mockResponse = context.mock(HttpServletResponse.class);
+
+        assertStreamedErmlNamespace(mockResponse, "<wfs:FeatureCollection xmlns:wfs=\"http://www.opengis.net/wfs\" xmlns:gml=\"http://www.opengis.net/gml\" xmlns:er=\"" + erml2 + "\">"
+                + "<gml:featureMember><er:Commodity gml:id=\"c.1\"/></gml:featureMember></wfs:FeatureCollection>", erml2);
+
+        assertStreamedErmlNamespace(mockResponse, "<wfs:FeatureCollection xmlns:wfs=\"http://www.opengis.net/wfs\" xmlns:gml=\"http://www.opengis.net/gml\" xmlns:er2=\"" + erml2 + "\">"
+                + "<gml:featureMember><er:Commodity xmlns:er=\"" + erml1 + "\" gml:id=\"c.1\"/></gml:featureMember></wfs:FeatureCollection>", erml1);
+
+        //No features - nothing to go on
+        assertStreamedErmlNamespace(mockResponse, "<wfs:FeatureCollection xmlns:wfs=\"http://www.opengis.net/wfs\" xmlns:er=\"" + erml2 + "\"/>", erml1);
+    }
+
+    /**
+     * Tests the streamed html transformation reports OWS errors before anything is written (aborting the upstream
+     * request)
+     */
+    @Test(expected = PortalServiceException.class)
+    public void testWriteWfsResponseAsHtmlOWSError() throws Exception {
+        final String serviceUrl = "http://service/wfs";
+        final String baseUrl = "https://portal.org/api";
+        final HttpServletResponse mockResponse = context.mock(HttpServletResponse.class);
+
+        context.checking(new Expectations() {
+            {
+                oneOf(mockServiceCaller).getMethodResponseAsStream(with(any(HttpRequestBase.class)));
+                will(returnValue(new HttpClientInputStream(ResourceUtil
+                        .loadResourceAsStream("org/auscope/portal/core/test/responses/ows/OWSExceptionSample1.xml"), null, mockMethod)));
+
+                //The rest of the response isn't wanted
+                oneOf(mockMethod).abort();
+                allowing(mockMethod).releaseConnection();
+            }
+        });
+
+        service.writeWfsResponseAsHtml(serviceUrl, baseUrl, mockResponse);
+    }
 }
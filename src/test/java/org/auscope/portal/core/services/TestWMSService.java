@@ -186,7 +186,7 @@ public class TestWMSService extends PortalTestClass {
                         pointX, pointY, styles, null, "0", null);
                 will(returnValue(mockMethod));
 
-                oneOf(mockServiceCaller).getMethodResponseAsString(mockMethod);
+                oneOf(mockServiceCaller).getHedgedMethodResponseAsString(mockMethod);
                 will(returnValue(response));
             }
         });
@@ -227,7 +227,7 @@ public class TestWMSService extends PortalTestClass {
                         pointX, pointY, styles, null, "0", null);
                 will(returnValue(mockMethod));
 
-                oneOf(mockServiceCaller).getMethodResponseAsString(mockMethod);
+                oneOf(mockServiceCaller).getHedgedMethodResponseAsString(mockMethod);
                 will(returnValue(response));
             }
         });
@@ -265,7 +265,7 @@ public class TestWMSService extends PortalTestClass {
                         pointX, pointY, styles, null, "0", null);
                 will(returnValue(mockMethod));
 
-                oneOf(mockServiceCaller).getMethodResponseAsString(mockMethod);
+                oneOf(mockServiceCaller).getHedgedMethodResponseAsString(mockMethod);
                 will(throwException(new IOException()));
             }
         });
@@ -306,7 +306,7 @@ public class TestWMSService extends PortalTestClass {
                         pointX, pointY, styles, null, "0", null);
                 will(returnValue(mockMethod));
 
-                oneOf(mockServiceCaller).getMethodResponseAsString(mockMethod);
+                oneOf(mockServiceCaller).getHedgedMethodResponseAsString(mockMethod);
                 will(returnValue(response));
             }
         });
@@ -1,12 +1,21 @@
 package org.auscope.portal.core.services.responses.csw;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.xpath.XPathException;
 
+import org.auscope.portal.core.server.OgcServiceProviderType;
 import org.auscope.portal.core.services.csw.CSWServiceItem;
+import org.auscope.portal.core.services.responses.ows.OWSException;
 import org.auscope.portal.core.test.PortalTestClass;
 import org.auscope.portal.core.util.DOMUtil;
 import org.auscope.portal.core.util.ResourceUtil;
@@ -14,6 +23,7 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.w3c.dom.Document;
+import org.w3c.dom.Node;
 import org.xml.sax.SAXException;
 
 /**
@@ -74,4 +84,112 @@ public class TestCSWGetRecordResponse extends PortalTestClass {
         }
     }
 
+    /**
+     * Tests that streaming the response yields the same records as parsing it into a DOM
+     * @throws Exception
+     */
+    @Test
+    public void testParseFromStream() throws Exception {
+        CSWGetRecordResponse streamed;
+        try (InputStream is = ResourceUtil.loadResourceAsStream("org/auscope/portal/core/test/responses/csw/cswRecordResponse.xml")) {
+            streamed = CSWGetRecordResponse.parseFromStream(this.origin, is, new CSWRecordTransformerFactory());
+        }
+
+        Assert.assertEquals(recordResponse.getRecordsReturned(), streamed.getRecordsReturned());
+        Assert.assertEquals(recordResponse.getRecordsMatched(), streamed.getRecordsMatched());
+        Assert.assertEquals(recordResponse.getNextRecord(), streamed.getNextRecord());
+
+        List<CSWRecord> expected = recordResponse.getRecords();
+        List<CSWRecord> actual = streamed.getRecords();
+        Assert.assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Assert.assertEquals(expected.get(i).getFileIdentifier(), actual.get(i).getFileIdentifier());
+            Assert.assertEquals(expected.get(i).getServiceName(), actual.get(i).getServiceName());
+            Assert.assertEquals(expected.get(i).getRecordInfoUrl(), actual.get(i).getRecordInfoUrl());
+            Assert.assertEquals(expected.get(i).getOnlineResources().size(), actual.get(i).getOnlineResources().size());
+            Assert.assertArrayEquals(expected.get(i).getDescriptiveKeywords(), actual.get(i).getDescriptiveKeywords());
+            Assert.assertEquals(expected.get(i).getCSWGeographicElements().length, actual.get(i).getCSWGeographicElements().length);
+        }
+    }
+
+    /**
+     * Tests that a streamed ows:ExceptionReport is thrown as an OWSException
+     * @throws Exception
+     */
+    @Test(expected = OWSException.class)
+    public void testParseFromStreamException() throws Exception {
+        String xml = "<ows:ExceptionReport xmlns:ows=\"http://www.opengis.net/ows\" version=\"1.0.0\">"
+                + "<ows:Exception exceptionCode=\"NoApplicableCode\"><ows:ExceptionText>Failure</ows:ExceptionText></ows:Exception>"
+                + "</ows:ExceptionReport>";
+        CSWGetRecordResponse.parseFromStream(this.origin, new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)),
+                new CSWRecordTransformerFactory());
+    }
+
+    /**
+     * Tests that parallel transforms (DOM and streamed) preserve record order and skip (rather than fail on) bad records
+     * @throws Exception
+     */
+    @Test
+    public void testParallelTransform() throws Exception {
+        List<CSWRecord> expected = recordResponse.getRecords();
+        final String badFileId = expected.get(2).getFileIdentifier();
+        CSWRecordTransformerFactory failingFactory = new CSWRecordTransformerFactory() {
+            @Override
+            public CSWRecordTransformer newCSWRecordTransformer(Node mdMetadataNode, OgcServiceProviderType serverType) {
+                return new CSWRecordTransformer(mdMetadataNode, serverType) {
+                    @Override
+                    public CSWRecord transformToCSWRecord() throws XPathException {
+                        CSWRecord record = super.transformToCSWRecord();
+                        if (badFileId.equals(record.getFileIdentifier())) {
+                            throw new XPathException("bad record");
+                        }
+                        return record;
+                    }
+                };
+            }
+        };
+
+        CSWServiceItem parallelOrigin = new CSWServiceItem("id", "http://test.com", "http://test.com?uuid=%1$s", "title");
+        parallelOrigin.setTransformThreads(4);
+
+        Document doc = DOMUtil.buildDomFromStream(ResourceUtil
+                .loadResourceAsStream("org/auscope/portal/core/test/responses/csw/cswRecordResponse.xml"));
+        CSWGetRecordResponse fromDom = new CSWGetRecordResponse(parallelOrigin, doc, failingFactory);
+        CSWGetRecordResponse streamed;
+        try (InputStream is = ResourceUtil.loadResourceAsStream("org/auscope/portal/core/test/responses/csw/cswRecordResponse.xml")) {
+            streamed = CSWGetRecordResponse.parseFromStream(parallelOrigin, is, failingFactory);
+        }
+
+        //Supplied executors are used rather than a per response pool (and are left running)
+        final AtomicInteger executed = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        CSWGetRecordResponse fromDomInjected;
+        CSWGetRecordResponse streamedInjected;
+        try {
+            Executor countingExecutor = r -> {
+                executed.incrementAndGet();
+                executor.execute(r);
+            };
+            fromDomInjected = new CSWGetRecordResponse(parallelOrigin, doc, failingFactory, countingExecutor);
+            try (InputStream is = ResourceUtil.loadResourceAsStream("org/auscope/portal/core/test/responses/csw/cswRecordResponse.xml")) {
+                streamedInjected = CSWGetRecordResponse.parseFromStream(parallelOrigin, is, failingFactory, countingExecutor);
+            }
+            Assert.assertEquals(expected.size() * 2, executed.get());
+            Assert.assertFalse(executor.isShutdown());
+        } finally {
+            executor.shutdown();
+        }
+
+        for (CSWGetRecordResponse response : new CSWGetRecordResponse[] {fromDom, streamed, fromDomInjected, streamedInjected}) {
+            List<CSWRecord> actual = response.getRecords();
+            Assert.assertEquals(expected.size() - 1, actual.size());
+            int j = 0;
+            for (CSWRecord record : expected) {
+                if (!badFileId.equals(record.getFileIdentifier())) {
+                    Assert.assertEquals(record.getFileIdentifier(), actual.get(j++).getFileIdentifier());
+                }
+            }
+        }
+    }
+
 }
\ No newline at end of file
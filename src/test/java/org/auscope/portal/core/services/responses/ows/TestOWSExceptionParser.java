@@ -1,12 +1,17 @@
 package org.auscope.portal.core.services.responses.ows;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 
 import javax.xml.parsers.ParserConfigurationException;
 
 import org.auscope.portal.core.test.PortalTestClass;
 import org.auscope.portal.core.util.DOMUtil;
 import org.auscope.portal.core.util.ResourceUtil;
+import org.junit.Assert;
 import org.junit.Test;
 import org.w3c.dom.Document;
 import org.xml.sax.SAXException;
@@ -18,8 +23,9 @@ public class TestOWSExceptionParser extends PortalTestClass {
 
         Document doc = DOMUtil.buildDomFromString(xmlString);
 
-        //Test both the string and document versions
+        //Test the string, stream and document versions
         OWSExceptionParser.checkForExceptionResponse(xmlString);
+        OWSExceptionParser.checkForExceptionResponse(new BufferedInputStream(ResourceUtil.loadResourceAsStream(path)));
         OWSExceptionParser.checkForExceptionResponse(doc);
     }
 
@@ -32,4 +38,49 @@ public class TestOWSExceptionParser extends PortalTestClass {
     public void testDontThrowException() throws IOException, ParserConfigurationException, SAXException, OWSException  {
         check("org/auscope/portal/core/test/responses/wfs/EmptyWFSResponse.xml");
     }
+
+    @Test(expected = OWSException.class)
+    public void testThrowServiceException() throws OWSException {
+        OWSExceptionParser.checkForExceptionResponse("<?xml version=\"1.0\"?><ServiceExceptionReport version=\"1.1.1\">"
+                + "<ServiceException code=\"LayerNotDefined\">Unknown layer</ServiceException></ServiceExceptionReport>");
+    }
+
+    @Test(expected = OWSException.class)
+    public void testThrowInvalidXml() throws OWSException {
+        OWSExceptionParser.checkForExceptionResponse("this is not xml");
+    }
+
+    /**
+     * Only the root element should be inspected and streams must be reset for the caller
+     */
+    @Test
+    public void testOnlyRootInspected() throws Exception {
+        String notAnException = "<wfs:FeatureCollection xmlns:wfs=\"http://www.opengis.net/wfs\"><unclosed></wfs:FeatureCollection>";
+        OWSExceptionParser.checkForExceptionResponse(notAnException);
+
+        InputStream stream = new BufferedInputStream(new ByteArrayInputStream(notAnException.getBytes(StandardCharsets.UTF_8)));
+        OWSExceptionParser.checkForExceptionResponse(stream);
+        Assert.assertEquals(notAnException, new String(stream.readAllBytes(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Exception reports without any exceptions shouldn't throw and must leave the stream reset for the caller (whether
+     * or not the report fits in the sniffed prefix)
+     */
+    @Test
+    public void testEmptyExceptionReportStreamReset() throws Exception {
+        String emptyReport = "<ows:ExceptionReport xmlns:ows=\"http://www.opengis.net/ows\" version=\"1.0.0\"/>";
+        InputStream stream = new BufferedInputStream(new ByteArrayInputStream(emptyReport.getBytes(StandardCharsets.UTF_8)));
+        OWSExceptionParser.checkForExceptionResponse(stream);
+        Assert.assertEquals(emptyReport, new String(stream.readAllBytes(), StandardCharsets.UTF_8));
+
+        StringBuilder largeReport = new StringBuilder("<ServiceExceptionReport version=\"1.1.1\"><!--");
+        while (largeReport.length() < OWSExceptionParser.SNIFF_LENGTH * 2) {
+            largeReport.append("padding ");
+        }
+        largeReport.append("--></ServiceExceptionReport>");
+        stream = new BufferedInputStream(new ByteArrayInputStream(largeReport.toString().getBytes(StandardCharsets.UTF_8)));
+        OWSExceptionParser.checkForExceptionResponse(stream);
+        Assert.assertEquals(largeReport.toString(), new String(stream.readAllBytes(), StandardCharsets.UTF_8));
+    }
 }
@@ -0,0 +1,117 @@
+package org.auscope.portal.core.services.responses.wms;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.auscope.portal.core.services.responses.csw.CSWGeographicBoundingBox;
+import org.auscope.portal.core.test.PortalTestClass;
+import org.auscope.portal.core.util.ResourceUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for StreamedGetCapabilitiesRecord
+ */
+public class TestStreamedGetCapabilitiesRecord extends PortalTestClass {
+
+    private static final String WMS_1_1_1 = "org/auscope/portal/core/test/responses/wms/wmsGetCapabilities.xml";
+    private static final String CONTROLLER_WMS_1_1_1 = "org/auscope/portal/core/test/responses/wms/GetCapabilitiesControllerWMSResponse_1_1_1.xml";
+    private static final String CONTROLLER_WMS_1_3_0 = "org/auscope/portal/core/test/responses/wms/GetCapabilitiesControllerWMSResponse_1_3_0.xml";
+
+    private GetCapabilitiesRecord parseDom(String resource, String version) throws Exception {
+        try (InputStream is = ResourceUtil.loadResourceAsStream(resource)) {
+            return "1.3.0".equals(version) ? new GetCapabilitiesRecord_1_3_0(is) : new GetCapabilitiesRecord_1_1_1(is);
+        }
+    }
+
+    private GetCapabilitiesRecord parseStream(String resource, String version, String... layerNames) throws Exception {
+        try (InputStream is = ResourceUtil.loadResourceAsStream(resource)) {
+            return new StreamedGetCapabilitiesRecord(is, version,
+                    layerNames.length == 0 ? null : new HashSet<>(Arrays.asList(layerNames)));
+        }
+    }
+
+    private void assertLayersEqual(GetCapabilitiesWMSLayerRecord expected, GetCapabilitiesWMSLayerRecord actual)
+            throws Exception {
+        Assert.assertEquals(expected.getName(), actual.getName());
+        Assert.assertEquals(expected.getTitle(), actual.getTitle());
+        Assert.assertEquals(expected.getAbstract(), actual.getAbstract());
+        Assert.assertEquals(expected.getLegendURL(), actual.getLegendURL());
+        Assert.assertEquals(expected.getMetadataURL(), actual.getMetadataURL());
+        Assert.assertArrayEquals(expected.getTimeExtent(), actual.getTimeExtent());
+        Assert.assertArrayEquals(expected.getChildLayerSRS(), actual.getChildLayerSRS());
+
+        CSWGeographicBoundingBox expectedBbox = expected.getBoundingBox();
+        CSWGeographicBoundingBox actualBbox = actual.getBoundingBox();
+        if (expectedBbox == null) {
+            Assert.assertNull(actualBbox);
+        } else {
+            Assert.assertNotNull(actualBbox);
+            Assert.assertEquals(expectedBbox.getWestBoundLongitude(), actualBbox.getWestBoundLongitude(), 0);
+            Assert.assertEquals(expectedBbox.getEastBoundLongitude(), actualBbox.getEastBoundLongitude(), 0);
+            Assert.assertEquals(expectedBbox.getSouthBoundLatitude(), actualBbox.getSouthBoundLatitude(), 0);
+            Assert.assertEquals(expectedBbox.getNorthBoundLatitude(), actualBbox.getNorthBoundLatitude(), 0);
+        }
+    }
+
+    private void assertSameAsDom(String resource, String version) throws Exception {
+        GetCapabilitiesRecord expected = parseDom(resource, version);
+        GetCapabilitiesRecord actual = parseStream(resource, version);
+
+        Assert.assertEquals(expected.getServiceType(), actual.getServiceType());
+        Assert.assertEquals(expected.getOrganisation(), actual.getOrganisation());
+        Assert.assertEquals(expected.getMapUrl(), actual.getMapUrl());
+        Assert.assertEquals(expected.getMetadataUrl(), actual.getMetadataUrl());
+        Assert.assertEquals(expected.getApplicationProfile(), actual.getApplicationProfile());
+        Assert.assertEquals(expected.getVersion(), actual.getVersion());
+        Assert.assertArrayEquals(expected.getGetMapFormats(), actual.getGetMapFormats());
+        Assert.assertArrayEquals(expected.getLayerSRS(), actual.getLayerSRS());
+        Assert.assertArrayEquals(expected.getAccessConstraints(), actual.getAccessConstraints());
+
+        Assert.assertEquals(expected.getLayers().size(), actual.getLayers().size());
+        for (int i = 0; i < expected.getLayers().size(); i++) {
+            assertLayersEqual(expected.getLayers().get(i), actual.getLayers().get(i));
+        }
+    }
+
+    /**
+     * Tests that the streamed records match their DOM equivalents
+     * @throws Exception
+     */
+    @Test
+    public void testSameAsDom() throws Exception {
+        assertSameAsDom(WMS_1_1_1, "1.1.1");
+        assertSameAsDom(CONTROLLER_WMS_1_1_1, "1.1.1");
+        assertSameAsDom(CONTROLLER_WMS_1_3_0, "1.3.0");
+    }
+
+    /**
+     * Tests that only the requested layers are kept (in document order)
+     * @throws Exception
+     */
+    @Test
+    public void testLayerNameFilter() throws Exception {
+        GetCapabilitiesRecord rec = parseStream(WMS_1_1_1, "1.1.1", "name2", "name1", "missing");
+
+        Assert.assertTrue(rec.isWMS());
+        Assert.assertArrayEquals(new String[] {"CRS:84", "EPSG:4326", "EPSG:4283"}, rec.getLayerSRS());
+        Assert.assertEquals(2, rec.getLayers().size());
+        Assert.assertEquals("name1", rec.getLayers().get(0).getName());
+        Assert.assertEquals("name2", rec.getLayers().get(1).getName());
+        Assert.assertEquals("title2", rec.getLayers().get(1).getTitle());
+    }
+
+    /**
+     * Tests that a response with the wrong root element isn't treated as a WMS
+     * @throws Exception
+     */
+    @Test
+    public void testWrongVersion() throws Exception {
+        GetCapabilitiesRecord rec = parseStream(WMS_1_1_1, "1.3.0");
+
+        Assert.assertFalse(rec.isWMS());
+        Assert.assertNull(rec.getLayers());
+        Assert.assertEquals(0, rec.getLayerSRS().length);
+    }
+}
@@ -0,0 +1,75 @@
+package org.auscope.portal.core.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.auscope.portal.core.services.namespaces.WFSNamespaceContext;
+import org.auscope.portal.core.services.responses.ows.OWSException;
+import org.auscope.portal.core.test.PortalTestClass;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for DOMResponseUtil
+ */
+public class TestDOMResponseUtil extends PortalTestClass {
+
+    private static InputStream toStream(String xml) {
+        return new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Tests that the streaming count agrees with the DOM count when numberOfFeatures is present
+     */
+    @Test
+    public void testCountFeaturesAttribute() throws Exception {
+        final String resource = "org/auscope/portal/core/test/responses/wfs/commodityGetFeatureResponse.xml";
+
+        Assert.assertEquals(2, DOMResponseUtil.countFeatures(ResourceUtil.loadResourceAsStream(resource)));
+        Assert.assertEquals(DOMResponseUtil.getNumberOfFeatures(ResourceUtil.loadResourceAsStream(resource),
+                new WFSNamespaceContext()), DOMResponseUtil.countFeatures(ResourceUtil.loadResourceAsStream(resource)));
+
+        Assert.assertEquals(7, DOMResponseUtil.countFeatures(toStream(
+                "<wfs:FeatureCollection xmlns:wfs=\"http://www.opengis.net/wfs/2.0\" numberMatched=\"99\" numberReturned=\"7\"/>")));
+    }
+
+    /**
+     * Tests that member elements are counted when the root element has no count attributes
+     */
+    @Test
+    public void testCountFeatureMembers() throws Exception {
+        final String xml = "<wfs:FeatureCollection xmlns:wfs=\"http://www.opengis.net/wfs\" xmlns:gml=\"http://www.opengis.net/gml\">"
+                + "<gml:featureMember><a><gml:featureMember/></a></gml:featureMember>"
+                + "<gml:featureMember><b/></gml:featureMember>"
+                + "<gml:featureMembers><c/><d><e/></d></gml:featureMembers>"
+                + "</wfs:FeatureCollection>";
+        Assert.assertEquals(4, DOMResponseUtil.countFeatures(toStream(xml)));
+
+        final String wfs2Xml = "<wfs:FeatureCollection xmlns:wfs=\"http://www.opengis.net/wfs/2.0\" numberReturned=\"unknown\">"
+                + "<wfs:member><a/></wfs:member><wfs:member><b/></wfs:member></wfs:FeatureCollection>";
+        Assert.assertEquals(2, DOMResponseUtil.countFeatures(toStream(wfs2Xml)));
+    }
+
+    /**
+     * Tests that OWS exception reports and malformed responses are reported
+     */
+    @Test
+    public void testCountFeaturesErrors() throws Exception {
+        try {
+            DOMResponseUtil.countFeatures(ResourceUtil
+                    .loadResourceAsStream("org/auscope/portal/core/test/responses/ows/OWSExceptionSample1.xml"));
+            Assert.fail("Expected an OWSException");
+        } catch (OWSException e) {
+            //expected
+        }
+
+        try {
+            DOMResponseUtil.countFeatures(toStream("<wfs:FeatureCollection xmlns:wfs=\"http://www.opengis.net/wfs\"><unclosed></wfs:FeatureCollection>"));
+            Assert.fail("Expected an IOException");
+        } catch (IOException e) {
+            //expected
+        }
+    }
+}
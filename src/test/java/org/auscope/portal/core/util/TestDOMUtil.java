@@ -1,6 +1,8 @@
 package org.auscope.portal.core.util;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -15,6 +17,7 @@ import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
 
+import org.auscope.portal.core.services.namespaces.ServiceNamespaceContext;
 import org.auscope.portal.core.test.PortalTestClass;
 import org.junit.Assert;
 import org.junit.Test;
@@ -130,4 +133,87 @@ public class TestDOMUtil extends PortalTestClass {
         Assert.assertNull(testNode);
     }
 
+    /**
+     * Tests that compiled XPath expressions are reused by the same thread (for equivalent namespaces) but never shared
+     * between threads
+     * @throws Exception
+     */
+    @Test
+    public void testCompileXPathCache() throws Exception {
+        final Document doc = DOMUtil.buildDomFromString(ResourceUtil
+                .loadResourceAsString("org/auscope/portal/core/test/xml/TestXML_NoPrettyPrint.xml"));
+
+        ServiceNamespaceContext nc1 = new ServiceNamespaceContext();
+        nc1.setNamespace("test", "http://test.namespace");
+        nc1.setNamespace("test2", "http://test2.namespace");
+        ServiceNamespaceContext nc2 = new ServiceNamespaceContext();
+        nc2.setNamespace("test", "http://test.namespace");
+        nc2.setNamespace("test2", "http://test2.namespace");
+
+        long hits = DOMUtil.getXPathCacheHitCount();
+        final XPathExpression expr1 = DOMUtil.compileXPathExpr("test:root/test2:child1", nc1);
+        final XPathExpression expr2 = DOMUtil.compileXPathExpr("test:root/test2:child1", nc2);
+        Assert.assertSame(expr1, expr2);
+        Assert.assertTrue(DOMUtil.getXPathCacheHitCount() > hits);
+        Assert.assertEquals("child1Value", ((Node) expr2.evaluate(doc, XPathConstants.NODE)).getTextContent());
+
+        //Changing the namespace mappings must not reuse the old expression
+        nc2.setNamespace("test2", "http://other.namespace");
+        final XPathExpression expr3 = DOMUtil.compileXPathExpr("test:root/test2:child1", nc2);
+        Assert.assertNotSame(expr1, expr3);
+        Assert.assertNull(expr3.evaluate(doc, XPathConstants.NODE));
+
+        //Namespace unaware expressions are cached separately
+        Assert.assertSame(DOMUtil.compileXPathExpr("root/child1"), DOMUtil.compileXPathExpr("root/child1"));
+
+        //Other threads get their own instance
+        final XPathExpression[] otherThread = new XPathExpression[1];
+        Thread t = new Thread(() -> {
+            try {
+                otherThread[0] = DOMUtil.compileXPathExpr("test:root/test2:child1", nc1);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        t.start();
+        t.join();
+        Assert.assertNotNull(otherThread[0]);
+        Assert.assertNotSame(expr1, otherThread[0]);
+        Assert.assertTrue(DOMUtil.getXPathCacheHitRate() > 0);
+    }
+
+    /**
+     * Tests that streams are parsed directly (honouring their declared encoding) by pooled builders of both types and
+     * that pooled transformers don't leak output properties between uses
+     * @throws Exception
+     */
+    @Test
+    public void testPooledParsingAndSerialisation() throws Exception {
+        byte[] latin1 = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><a:root xmlns:a=\"http://a\">caf\u00e9</a:root>"
+                .getBytes(StandardCharsets.ISO_8859_1);
+
+        for (int i = 0; i < 3; i++) {
+            Document doc = DOMUtil.buildDomFromStream(new ByteArrayInputStream(latin1));
+            Assert.assertEquals("caf\u00e9", doc.getDocumentElement().getTextContent());
+            Assert.assertEquals("http://a", doc.getDocumentElement().getNamespaceURI());
+            Assert.assertEquals("root", doc.getDocumentElement().getLocalName());
+
+            Document unaware = DOMUtil.buildDomFromStream(new ByteArrayInputStream(latin1), false);
+            Assert.assertNull(unaware.getDocumentElement().getNamespaceURI());
+            Assert.assertEquals("a:root", unaware.getDocumentElement().getTagName());
+
+            Assert.assertTrue(DOMUtil.buildStringFromDom(doc, false).startsWith("<?xml"));
+            Assert.assertFalse(DOMUtil.buildStringFromDom(doc, true).startsWith("<?xml"));
+        }
+
+        //A failed parse mustn't affect subsequent parses
+        try {
+            DOMUtil.buildDomFromStream(new ByteArrayInputStream("<root><unclosed></root>".getBytes(StandardCharsets.UTF_8)));
+            Assert.fail("Expected a SAXException");
+        } catch (SAXException e) {
+            //expected
+        }
+        Assert.assertEquals("caf\u00e9", DOMUtil.buildDomFromStream(new ByteArrayInputStream(latin1)).getDocumentElement().getTextContent());
+    }
+
 }
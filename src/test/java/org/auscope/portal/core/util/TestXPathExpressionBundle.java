@@ -0,0 +1,95 @@
+package org.auscope.portal.core.util;
+
+import java.util.Iterator;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.xpath.XPathExpression;
+
+import org.auscope.portal.core.services.namespaces.ServiceNamespaceContext;
+import org.auscope.portal.core.test.PortalTestClass;
+import org.junit.Assert;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+/**
+ * Unit tests for XPathExpressionBundle
+ */
+public class TestXPathExpressionBundle extends PortalTestClass {
+
+    private XPathExpressionBundle newBundle() {
+        ServiceNamespaceContext nc = new ServiceNamespaceContext();
+        nc.setNamespace("test", "http://test.namespace");
+        nc.setNamespace("test2", "http://test2.namespace");
+        return new XPathExpressionBundle(nc, "test:root/test2:child1", "test:root/test2:child2");
+    }
+
+    /**
+     * Tests that bundled (and other) expressions evaluate correctly and are compiled once per thread
+     * @throws Exception
+     */
+    @Test
+    public void testEvaluateAndReuse() throws Exception {
+        final Document doc = DOMUtil.buildDomFromString(ResourceUtil
+                .loadResourceAsString("org/auscope/portal/core/test/xml/TestXML_NoPrettyPrint.xml"));
+        final XPathExpressionBundle bundle = newBundle();
+
+        Assert.assertEquals("child1Value", bundle.evaluateString(doc, "test:root/test2:child1"));
+        Assert.assertEquals("child2Value", bundle.evaluateNode(doc, "test:root/test2:child2").getTextContent());
+        Assert.assertEquals(2, bundle.evaluateNodeList(doc, "test:root/*").getLength());
+
+        Assert.assertSame(bundle.get("test:root/test2:child1"), bundle.get("test:root/test2:child1"));
+        Assert.assertSame(bundle.get("test:root/*"), bundle.get("test:root/*"));
+        Assert.assertSame(DOMUtil.compileXPathExpr("test:root/test2:child2", bundle.getNamespaceContext()),
+                bundle.get("test:root/test2:child2"));
+        Assert.assertEquals(2, bundle.getExpressions().size());
+
+        //Other threads must compile their own copies
+        final XPathExpression[] otherThread = new XPathExpression[1];
+        Thread t = new Thread(() -> {
+            try {
+                otherThread[0] = bundle.get("test:root/test2:child1");
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        t.start();
+        t.join();
+        Assert.assertNotNull(otherThread[0]);
+        Assert.assertNotSame(bundle.get("test:root/test2:child1"), otherThread[0]);
+    }
+
+    /**
+     * Tests that the bundle keeps its own expressions even when DOMUtil can't cache them (ie the namespace context
+     * isn't an IterableNamespace)
+     * @throws Exception
+     */
+    @Test
+    public void testBundleCachesOwnExpressions() throws Exception {
+        final Document doc = DOMUtil.buildDomFromString(ResourceUtil
+                .loadResourceAsString("org/auscope/portal/core/test/xml/TestXML_NoPrettyPrint.xml"));
+        final ServiceNamespaceContext delegate = new ServiceNamespaceContext();
+        delegate.setNamespace("test", "http://test.namespace");
+        delegate.setNamespace("test2", "http://test2.namespace");
+        NamespaceContext nc = new NamespaceContext() {
+            @Override
+            public String getNamespaceURI(String prefix) {
+                return delegate.getNamespaceURI(prefix);
+            }
+
+            @Override
+            public String getPrefix(String namespaceURI) {
+                return delegate.getPrefix(namespaceURI);
+            }
+
+            @Override
+            public Iterator<String> getPrefixes(String namespaceURI) {
+                return delegate.getPrefixes(namespaceURI);
+            }
+        };
+        XPathExpressionBundle bundle = new XPathExpressionBundle(nc, "test:root/test2:child1");
+
+        Assert.assertEquals("child1Value", bundle.evaluateString(doc, "test:root/test2:child1"));
+        Assert.assertSame(bundle.get("test:root/test2:child1"), bundle.get("test:root/test2:child1"));
+        Assert.assertNotSame(bundle.get("test:root/test2:child2"), bundle.get("test:root/test2:child2"));
+    }
+}
@@ -1,5 +1,9 @@
 package org.auscope.portal.core.xslt;
 
+import java.io.StringReader;
+
+import javax.xml.transform.stream.StreamSource;
+
 import org.auscope.portal.core.services.namespaces.ErmlNamespaceContext;
 import org.auscope.portal.core.test.PortalTestClass;
 import org.auscope.portal.core.util.ResourceUtil;
@@ -7,6 +11,7 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.context.request.ServletRequestAttributes;
 
@@ -35,6 +40,21 @@ public class TestGmlToHtml extends PortalTestClass {
         Assert.assertFalse(response.isEmpty());
     }
 
+    /**
+     * Ensures the streamed transformation writes the same html (with the right content type) as the String version
+     */
+    @Test
+    public void testConvertToResponse() throws Exception {
+        final String wfs = ResourceUtil.loadResourceAsString("org/auscope/portal/core/erml/mine/mineGetFeatureResponse.xml");
+        final String baseUrl = "https://portal.org/api";
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+
+        gmlToHtml.convert(new StreamSource(new StringReader(wfs)), new ErmlNamespaceContext(), baseUrl, response);
+
+        Assert.assertEquals("text/html; charset=UTF-8", response.getContentType());
+        Assert.assertEquals(gmlToHtml.convert(wfs, new ErmlNamespaceContext(), baseUrl), response.getContentAsString());
+    }
+
     //VT: this code is useful for debugging the XSLT engine that portal uses as results varied when I use xmlspy
     //    @Test
     //    public void test() throws Exception {
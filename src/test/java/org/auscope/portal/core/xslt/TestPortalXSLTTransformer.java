@@ -138,4 +138,46 @@ public class TestPortalXSLTTransformer extends PortalTestClass {
         // XPathConstants.NUMBER);
         // Assert.assertEquals(28.0, counter.doubleValue(), 0);
     }
+
+    /**
+     * Tests that compiled stylesheets are shared (unless hot reloading) and that freshly compiled and cached
+     * stylesheets produce the same output
+     * @throws Exception
+     */
+    @Test
+    public void testTemplatesCache() throws Exception {
+        final String testXml = ResourceUtil
+                .loadResourceAsString("org/auscope/portal/core/test/responses/wfs/GetUndefinedFeatureSet.xml");
+        final Properties properties = new Properties();
+        properties.setProperty("serviceUrl", "fake-service-url");
+
+        PortalXSLTTransformer other = new PortalXSLTTransformer("/org/auscope/portal/core/xslt/wfsToKml.xsl");
+        Assert.assertSame(transformer.getTemplates(properties), other.getTemplates(null));
+
+        PortalXSLTTransformer cold = new PortalXSLTTransformer("/org/auscope/portal/core/xslt/wfsToKml.xsl");
+        cold.setHotReload(true);
+        Assert.assertNotSame(cold.getTemplates(properties), cold.getTemplates(properties));
+
+        //Recompiled and cached stylesheets must produce identical output
+        Assert.assertEquals(cold.convert(testXml, properties), transformer.convert(testXml, properties));
+    }
+
+    /**
+     * Tests that a separate stylesheet is compiled for each value of a static parameter
+     * @throws Exception
+     */
+    @Test
+    public void testStaticParameters() throws Exception {
+        GmlToHtml gmlToHtml = new GmlToHtml();
+        gmlToHtml.init();
+
+        Properties er1 = new Properties();
+        er1.setProperty("er", "urn:cgi:xmlns:GGIC:EarthResource:1.1");
+        er1.setProperty("portalBaseURL", "https://portal.org/api");
+        Properties er2 = new Properties();
+        er2.setProperty("er", "http://xmlns.earthresourceml.org/EarthResource/2.0");
+
+        Assert.assertSame(gmlToHtml.getTemplates(er1), new GmlToHtml().getTemplates(er1));
+        Assert.assertNotSame(gmlToHtml.getTemplates(er1), gmlToHtml.getTemplates(er2));
+    }
 }